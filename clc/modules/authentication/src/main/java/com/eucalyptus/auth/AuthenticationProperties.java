@@ -72,6 +72,7 @@ import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.configurable.ConfigurableProperty;
 import com.eucalyptus.configurable.ConfigurablePropertyException;
 import com.eucalyptus.configurable.PropertyChangeListener;
+import com.eucalyptus.configurable.PropertyChangeListeners;
 import com.eucalyptus.util.Cidr;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
@@ -89,6 +90,12 @@ public class AuthenticationProperties {
   @ConfigurableField( description = "CIDR to match against for host address selection", initial = "", changeListener = CidrChangeListener.class )
   public static volatile String CREDENTIAL_DOWNLOAD_HOST_MATCH = "";
 
+  @ConfigurableField( description = "Use in-memory usage ledgers when evaluating quotas", initial = "true" )
+  public static volatile Boolean QUOTA_USAGE_LEDGER = true;
+
+  @ConfigurableField( description = "Interval in seconds between reconciliation of quota usage ledgers with the database", initial = "300", changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+  public static volatile Integer QUOTA_USAGE_LEDGER_RECONCILE_INTERVAL = 300;
+
   public static class LicChangeListener implements PropertyChangeListener {
     @Override
     public void fireChange( ConfigurableProperty t, Object newValue ) throws ConfigurablePropertyException {
@@ -63,6 +63,8 @@
 package com.eucalyptus.auth.policy;
 
 import java.util.regex.Pattern;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 
 public class PatternUtils {
 
@@ -87,4 +89,153 @@ public class PatternUtils {
     return result;
   }
 
+  /**
+   * Create a matcher for an IAM policy pattern (action pattern or resource
+   * pattern with * and ?).
+   *
+   * The matcher is equivalent to matching against the pattern from
+   * toJavaPattern but patterns without wildcards are matched literally,
+   * patterns with only leading or trailing * are matched by prefix or suffix
+   * and other patterns are matched without regular expressions.
+   */
+  public static Predicate<String> toMatcher( final String pattern ) {
+    if ( pattern == null ) {
+      return Predicates.alwaysFalse( );
+    }
+    final int wildcard = indexOfWildcard( pattern, 0 );
+    if ( wildcard < 0 ) {
+      return Predicates.equalTo( pattern );
+    } else if ( hasLineTerminator( pattern ) ) {
+      final Pattern regex = Pattern.compile( toJavaPattern( pattern ) );
+      return new Predicate<String>( ) {
+        @Override
+        public boolean apply( final String text ) {
+          return text != null && regex.matcher( text ).matches( );
+        }
+      };
+    }
+    final int leading = countLeading( pattern, '*' );
+    final int trailing = countTrailing( pattern, '*' );
+    if ( leading == pattern.length( ) ) {
+      return new WildcardMatcher( ) {
+        @Override
+        boolean matchText( final String text ) {
+          return true;
+        }
+      };
+    } else if ( leading == 0 && indexOfWildcard( pattern, 0 ) == pattern.length( ) - trailing ) {
+      final String prefix = pattern.substring( 0, pattern.length( ) - trailing );
+      return new WildcardMatcher( ) {
+        @Override
+        boolean matchText( final String text ) {
+          return text.startsWith( prefix );
+        }
+      };
+    } else if ( trailing == 0 && indexOfWildcard( pattern, leading ) < 0 ) {
+      final String suffix = pattern.substring( leading );
+      return new WildcardMatcher( ) {
+        @Override
+        boolean matchText( final String text ) {
+          return text.endsWith( suffix );
+        }
+      };
+    } else {
+      final int[] patternCodePoints = codePoints( pattern );
+      return new WildcardMatcher( ) {
+        @Override
+        boolean matchText( final String text ) {
+          return wildcardMatch( patternCodePoints, codePoints( text ) );
+        }
+      };
+    }
+  }
+
+  /**
+   * Matcher for patterns with wildcards and without line terminators.
+   *
+   * Wildcards do not match line terminators, so text with a line terminator
+   * cannot match.
+   */
+  private static abstract class WildcardMatcher implements Predicate<String> {
+    @Override
+    public final boolean apply( final String text ) {
+      return text != null && !hasLineTerminator( text ) && matchText( text );
+    }
+
+    abstract boolean matchText( String text );
+  }
+
+  private static boolean wildcardMatch( final int[] pattern, final int[] text ) {
+    int patternIndex = 0;
+    int textIndex = 0;
+    int starIndex = -1;
+    int starTextIndex = 0;
+    while ( textIndex < text.length ) {
+      if ( patternIndex < pattern.length && pattern[ patternIndex ] == '*' ) {
+        starIndex = patternIndex++;
+        starTextIndex = textIndex;
+      } else if ( patternIndex < pattern.length &&
+          ( pattern[ patternIndex ] == '?' || pattern[ patternIndex ] == text[ textIndex ] ) ) {
+        patternIndex++;
+        textIndex++;
+      } else if ( starIndex >= 0 ) {
+        patternIndex = starIndex + 1;
+        textIndex = ++starTextIndex;
+      } else {
+        return false;
+      }
+    }
+    while ( patternIndex < pattern.length && pattern[ patternIndex ] == '*' ) {
+      patternIndex++;
+    }
+    return patternIndex == pattern.length;
+  }
+
+  private static int indexOfWildcard( final String pattern, final int from ) {
+    for ( int i = from; i < pattern.length( ); i++ ) {
+      final char c = pattern.charAt( i );
+      if ( c == '*' || c == '?' ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int countLeading( final String pattern, final char c ) {
+    int count = 0;
+    while ( count < pattern.length( ) && pattern.charAt( count ) == c ) count++;
+    return count;
+  }
+
+  private static int countTrailing( final String pattern, final char c ) {
+    int count = 0;
+    while ( count < pattern.length( ) && pattern.charAt( pattern.length( ) - 1 - count ) == c ) count++;
+    return count;
+  }
+
+  /**
+   * Line terminators as used for regular expression matching of "."
+   */
+  private static boolean hasLineTerminator( final String text ) {
+    for ( int i = 0; i < text.length( ); i++ ) {
+      switch ( text.charAt( i ) ) {
+        case '\n':
+        case '\r':
+        case '\u0085':
+        case '\u2028':
+        case '\u2029':
+          return true;
+      }
+    }
+    return false;
+  }
+
+  private static int[] codePoints( final String text ) {
+    final int[] codePoints = new int[ text.codePointCount( 0, text.length( ) ) ];
+    for ( int i = 0, offset = 0; offset < text.length( ); i++ ) {
+      codePoints[ i ] = text.codePointAt( offset );
+      offset += Character.charCount( codePoints[ i ] );
+    }
+    return codePoints;
+  }
 }
@@ -103,8 +103,12 @@ import com.eucalyptus.auth.principal.Authorization.EffectType;
 import com.eucalyptus.auth.principal.User.RegistrationStatus;
 import com.eucalyptus.util.Exceptions;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -131,14 +135,35 @@ public class PolicyEngineImpl implements PolicyEngine {
     boolean match( String pattern, String instance );
   }
   
+  /**
+   * Compiled matchers by policy pattern, patterns are immutable so entries
+   * remain valid when policies are updated.
+   */
+  private static final LoadingCache<String,Predicate<String>> PATTERN_MATCHERS = CacheBuilder.newBuilder( )
+      .maximumSize( 10000 )
+      .build( CacheLoader.from( new Function<String,Predicate<String>>( ) {
+        @Override
+        public Predicate<String> apply( final String pattern ) {
+          return PatternUtils.toMatcher( pattern );
+        }
+      } ) );
+
+  private static final LoadingCache<String,Pattern> SERVER_CERTIFICATE_PATTERNS = CacheBuilder.newBuilder( )
+      .maximumSize( 1000 )
+      .build( CacheLoader.from( new Function<String,Pattern>( ) {
+        @Override
+        public Pattern apply( final String pattern ) {
+          return Pattern.compile( pattern );
+        }
+      } ) );
+
   private static final Matcher PATTERN_MATCHER = new Matcher( ) {
     @Override
     public boolean match( String pattern, String instance ) {
-      pattern = PatternUtils.toJavaPattern( pattern );
       if ( pattern == null ) {
         return false;
       }
-      return Pattern.matches( pattern, instance );
+      return PATTERN_MATCHERS.getUnchecked( pattern ).apply( instance );
     }
   };
   
@@ -169,7 +194,7 @@ public class PolicyEngineImpl implements PolicyEngine {
         return false;
 
       final String certPathAndName = instance.substring(idx);
-      return Pattern.matches( pattern, certPathAndName );
+      return SERVER_CERTIFICATE_PATTERNS.getUnchecked( pattern ).matcher( certPathAndName ).matches( );
     }
   };
   
@@ -0,0 +1,267 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy.key;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.log4j.Logger;
+import com.eucalyptus.auth.AuthenticationProperties;
+import com.eucalyptus.entities.ReconciledIndex;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.util.OwnerFullName;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Maps;
+
+/**
+ * In-memory ledger of the usage of a resource type by account and user.
+ *
+ * The ledger is loaded from the database on first use and then maintained
+ * from entity callbacks after commit when resources are created, updated or
+ * deleted, so quota evaluation reads usage without querying. Changes made
+ * without callbacks, such as bulk deletes, are repaired when the ledger is
+ * periodically reconciled against the database.
+ *
+ * Reads do not lock, updates, loading and reconciliation are serialized.
+ */
+public class QuotaUsageLedger extends ReconciledIndex<QuotaUsageLedger.Usage> {
+  private static final Logger LOG = Logger.getLogger( QuotaUsageLedger.class );
+  private static final List<QuotaUsageLedger> ledgers = new CopyOnWriteArrayList<>( );
+
+  private final Supplier<? extends Iterable<Usage>> loader;
+  private final ConcurrentMap<String,Usage> byResourceId = Maps.newConcurrentMap( );
+  private final ConcurrentMap<String,AtomicLong> byAccount = Maps.newConcurrentMap( );
+  private final ConcurrentMap<String,AtomicLong> byUser = Maps.newConcurrentMap( );
+
+  QuotaUsageLedger( final String name,
+                    final Supplier<? extends Iterable<Usage>> loader ) {
+    super( name + " usage ledger" );
+    this.loader = loader;
+  }
+
+  /**
+   * Create a ledger that is periodically reconciled using the given loader.
+   *
+   * @param name The name of the ledger, used for logging
+   * @param loader Supplier for the current usage from the database
+   * @return The new ledger
+   */
+  public static QuotaUsageLedger create( @Nonnull final String name,
+                                         @Nonnull final Supplier<? extends Iterable<Usage>> loader ) {
+    final QuotaUsageLedger ledger = new QuotaUsageLedger( name, loader );
+    ledgers.add( ledger );
+    return ledger;
+  }
+
+  /**
+   * Should usage ledgers be used for quota evaluation.
+   */
+  public static boolean isEnabled( ) {
+    return AuthenticationProperties.QUOTA_USAGE_LEDGER;
+  }
+
+  /**
+   * Get the usage for an owner, for a user if the owner has a user
+   * identifier else for the account.
+   */
+  public long usage( @Nonnull final OwnerFullName owner ) {
+    load( );
+    final AtomicLong total = owner.getUserId( ) != null ?
+        byUser.get( owner.getUserId( ) ) :
+        byAccount.get( owner.getAccountNumber( ) );
+    return total == null ? 0 : total.get( );
+  }
+
+  /**
+   * Update the usage for a resource, a zero amount removes the resource.
+   */
+  public void update( @Nonnull  final String resourceId,
+                      @Nullable final String accountNumber,
+                      @Nullable final String userId,
+                      final long amount ) {
+    update( new Usage( resourceId, accountNumber, userId, amount ) );
+  }
+
+  public int size( ) {
+    return byResourceId.size( );
+  }
+
+  void load( ) {
+    load( loader );
+  }
+
+  /**
+   * Reconcile the ledger against the current usage and repair any
+   * differences.
+   *
+   * @return The number of resources repaired
+   */
+  int reconcile( ) {
+    return reconcile( loader );
+  }
+
+  @Override
+  protected String keyOf( final Usage usage ) {
+    return usage.getResourceId( );
+  }
+
+  @Override
+  protected Usage get( final String resourceId ) {
+    return byResourceId.get( resourceId );
+  }
+
+  @Override
+  protected Iterable<String> keys( ) {
+    return byResourceId.keySet( );
+  }
+
+  @Override
+  protected boolean isIndexed( final Usage usage ) {
+    return usage.getAmount( ) != 0;
+  }
+
+  @Override
+  protected void put( final Usage usage ) {
+    delete( usage.getResourceId( ) );
+    if ( usage.getAmount( ) != 0 ) {
+      byResourceId.put( usage.getResourceId( ), usage );
+      adjust( byAccount, usage.getAccountNumber( ), usage.getAmount( ) );
+      adjust( byUser, usage.getUserId( ), usage.getAmount( ) );
+    }
+  }
+
+  @Override
+  protected void delete( final String resourceId ) {
+    final Usage existing = byResourceId.remove( resourceId );
+    if ( existing != null ) {
+      adjust( byAccount, existing.getAccountNumber( ), -existing.getAmount( ) );
+      adjust( byUser, existing.getUserId( ), -existing.getAmount( ) );
+    }
+  }
+
+  @Override
+  protected void clear( ) {
+    byResourceId.clear( );
+    byAccount.clear( );
+    byUser.clear( );
+  }
+
+  private static void adjust( final ConcurrentMap<String,AtomicLong> totals, final String key, final long amount ) {
+    if ( key == null ) return;
+    AtomicLong total = totals.get( key );
+    if ( total == null ) {
+      total = new AtomicLong( );
+      totals.put( key, total );
+    }
+    if ( total.addAndGet( amount ) == 0 ) {
+      totals.remove( key );
+    }
+  }
+
+  /**
+   * Usage of a resource by its owner.
+   */
+  public static final class Usage {
+    private final String resourceId;
+    private final String accountNumber;
+    private final String userId;
+    private final long amount;
+
+    public Usage( @Nonnull  final String resourceId,
+                  @Nullable final String accountNumber,
+                  @Nullable final String userId,
+                  final long amount ) {
+      this.resourceId = resourceId;
+      this.accountNumber = accountNumber;
+      this.userId = userId;
+      this.amount = amount;
+    }
+
+    public String getResourceId( ) {
+      return resourceId;
+    }
+
+    public String getAccountNumber( ) {
+      return accountNumber;
+    }
+
+    public String getUserId( ) {
+      return userId;
+    }
+
+    public long getAmount( ) {
+      return amount;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final Usage that = (Usage) o;
+      return amount == that.amount &&
+          resourceId.equals( that.resourceId ) &&
+          Objects.equal( accountNumber, that.accountNumber ) &&
+          Objects.equal( userId, that.userId );
+    }
+
+    @Override
+    public int hashCode( ) {
+      return Objects.hashCode( resourceId, accountNumber, userId, amount );
+    }
+
+    @Override
+    public String toString( ) {
+      return Objects.toStringHelper( this )
+          .add( "resourceId", resourceId )
+          .add( "accountNumber", accountNumber )
+          .add( "userId", userId )
+          .add( "amount", amount )
+          .toString( );
+    }
+  }
+
+  public static class QuotaUsageLedgerEventListener extends ReconcileEventListener {
+
+    public static void register( ) {
+      Listeners.register( ClockTick.class, new QuotaUsageLedgerEventListener( ) );
+    }
+
+    @Override
+    protected long getInterval( ) {
+      return AuthenticationProperties.QUOTA_USAGE_LEDGER_RECONCILE_INTERVAL * 1000L;
+    }
+
+    @Override
+    protected void reconcile( ) {
+      for ( final QuotaUsageLedger ledger : ledgers ) {
+        try {
+          reconcileAndLog( ledger, ledger.loader );
+        } catch ( final Exception ex ) {
+          LOG.error( "Error reconciling " + ledger.getName( ), ex );
+        }
+      }
+    }
+  }
+}
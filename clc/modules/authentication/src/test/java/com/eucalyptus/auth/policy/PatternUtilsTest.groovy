@@ -69,6 +69,20 @@ class PatternUtilsTest {
     assertNotMatches "??", "a"
   }
 
+  @Test
+  void testMatcherEquivalence( ) {
+    List<String> patterns = [ "", "a", "abc", "*", "**", "a*", "a**", "*a", "**a", "*a*", "a*b", "a?", "?a", "a?c", "*a?",
+        "ec2:Describe*", "ec2:*Instances", "arn:aws:s3:::bucket/*", "arn:aws:s3:::bucket/?/*.txt", "a.b*", "a\nb*", "\ud83d\ude00?" ]
+    List<String> values = [ "", "a", "aa", "ab", "abc", "ba", "bab", "a\n", "\na", "a\nb", "a\nbc", "ec2:DescribeInstances",
+        "ec2:RunInstances", "arn:aws:s3:::bucket/key", "arn:aws:s3:::bucket/x/y.txt", "a.bc", "axbc", "\ud83d\ude00x", "\ud83d\ude00\ud83d\ude00" ]
+    patterns.each { String pattern ->
+      values.each { String value ->
+        assertEquals( pattern + "~=" + value, matches( pattern, value ), PatternUtils.toMatcher( pattern ).apply( value ) )
+      }
+    }
+    assertFalse( PatternUtils.toMatcher( null ).apply( "a" ) )
+  }
+
   void assertMatches( String pattern, String value ) {
     assertTrue( pattern+"~="+value, matches( pattern, value ) )
   }
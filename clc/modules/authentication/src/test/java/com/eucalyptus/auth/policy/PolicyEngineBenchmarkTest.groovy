@@ -0,0 +1,185 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy
+
+import com.eucalyptus.auth.AuthException
+import com.eucalyptus.auth.api.PolicyEngine
+import com.eucalyptus.auth.entities.AuthorizationEntity
+import com.eucalyptus.auth.entities.PolicyEntity
+import com.eucalyptus.auth.entities.StatementEntity
+import com.eucalyptus.auth.principal.Authorization
+import com.eucalyptus.auth.principal.Condition
+import com.eucalyptus.auth.principal.Group
+import com.eucalyptus.auth.principal.Principal
+import com.eucalyptus.auth.principal.TestAccount
+import com.eucalyptus.auth.principal.TestUser
+import com.eucalyptus.auth.principal.User
+import com.google.common.base.Function
+import com.google.common.base.Predicate
+import groovy.transform.TupleConstructor
+import org.apache.log4j.Logger
+import org.junit.Ignore
+import org.junit.Test
+
+import java.util.regex.Pattern
+
+import static com.eucalyptus.auth.api.PolicyEngine.AuthorizationMatch.All
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+/**
+ * Compares pattern matching cost for compiled matchers and regular
+ * expressions and times authorization evaluation for a multi-statement
+ * policy.
+ */
+@Ignore("Manual performance test")
+class PolicyEngineBenchmarkTest {
+  private static final Logger LOG = Logger.getLogger( PolicyEngineBenchmarkTest.class )
+  private static final int ITERATIONS = 20000
+
+  private static final String POLICY = """\
+    {
+      "Statement":[ {
+        "Effect": "Allow",
+        "Action": [ "ec2:Describe*", "ec2:RunInstances", "ec2:StartInstances", "ec2:StopInstances" ],
+        "Resource": "*"
+      }, {
+        "Effect": "Allow",
+        "Action": [ "ec2:CreateTags", "ec2:DeleteTags" ],
+        "Resource": "arn:aws:ec2:*:111111111111:instance/*"
+      }, {
+        "Effect": "Deny",
+        "Action": [ "ec2:TerminateInstances" ],
+        "Resource": "arn:aws:ec2:*:*:instance/i-????????"
+      }, {
+        "Effect": "Allow",
+        "Action": [ "s3:GetObject", "s3:PutObject", "s3:List*" ],
+        "Resource": [ "arn:aws:s3:::bucket-*/*", "arn:aws:s3:::logs/*/2014-*.gz" ]
+      }, {
+        "Effect": "Allow",
+        "Action": [ "iam:Get*", "iam:List*" ],
+        "Resource": "arn:aws:iam::111111111111:user/dev/*"
+      }, {
+        "Effect": "Allow",
+        "Action": [ "cloudwatch:PutMetricData", "cloudwatch:Get*", "autoscaling:Describe*" ],
+        "Resource": "*"
+      }, {
+        "Effect": "Deny",
+        "Action": [ "iam:*User*" ],
+        "NotResource": "arn:aws:iam::111111111111:user/dev/*"
+      } ]
+    }
+    """.stripIndent( )
+
+  @Test
+  void testPatternMatching( ) {
+    List<String> patterns = [ "ec2:Describe*", "ec2:RunInstances", "arn:aws:ec2:*:111111111111:instance/*",
+        "arn:aws:ec2:*:*:instance/i-????????", "arn:aws:s3:::bucket-*/*", "arn:aws:s3:::logs/*/2014-*.gz", "*" ]
+    List<String> values = [ "ec2:describeinstances", "ec2:DescribeInstances", "ec2:RunInstances",
+        "arn:aws:ec2:eucalyptus:111111111111:instance/i-12345678", "arn:aws:s3:::bucket-1/key",
+        "arn:aws:s3:::logs/cluster/2014-01-01.gz" ]
+    List<Pattern> regexes = patterns.collect{ String pattern -> Pattern.compile( PatternUtils.toJavaPattern( pattern ) ) }
+    List<Predicate<String>> matchers = patterns.collect{ String pattern -> PatternUtils.toMatcher( pattern ) }
+
+    int regexMatches = 0
+    long start = System.nanoTime( )
+    for ( int i = 0; i < ITERATIONS; i++ ) {
+      for ( String pattern : patterns ) for ( String value : values ) {
+        if ( Pattern.matches( PatternUtils.toJavaPattern( pattern ), value ) ) regexMatches++
+      }
+    }
+    long regexNanos = System.nanoTime( ) - start
+
+    int compiledMatches = 0
+    start = System.nanoTime( )
+    for ( int i = 0; i < ITERATIONS; i++ ) {
+      for ( Predicate<String> matcher : matchers ) for ( String value : values ) {
+        if ( matcher.apply( value ) ) compiledMatches++
+      }
+    }
+    long compiledNanos = System.nanoTime( ) - start
+
+    LOG.info( String.format( "Regex matching: %dms, compiled matching: %dms",
+        (long)( regexNanos / 1000000 ), (long)( compiledNanos / 1000000 ) ) )
+    assertEquals( regexMatches, compiledMatches )
+    patterns.eachWithIndex { String pattern, int index ->
+      values.each { String value ->
+        assertEquals( pattern + "~=" + value, regexes[ index ].matcher( value ).matches( ), matchers[ index ].apply( value ) )
+      }
+    }
+  }
+
+  @Test
+  void testEvaluateAuthorization( ) {
+    List<Authorization> authorizations = authorizations( PolicyParser.instance.parse( POLICY ) )
+    PolicyEngine engine = new PolicyEngineImpl( { String account -> "111111111111" } as Function<String, String> )
+    List<List<String>> requests = [
+        [ "ec2:instance", "ec2:describeinstances", "i-12345678" ],
+        [ "ec2:instance", "ec2:createtags", "i-12345678" ],
+        [ "s3:object", "s3:getobject", "bucket-1/key" ],
+        [ "iam:user", "iam:getuser", "/dev/user1" ],
+    ]
+
+    int allowed = 0
+    long start = System.nanoTime( )
+    for ( int i = 0; i < ITERATIONS; i++ ) {
+      for ( List<String> request : requests ) {
+        try {
+          engine.evaluateAuthorization( context( request[0], request[1], authorizations ), All, "111111111111", request[2], [:] )
+          allowed++
+        } catch ( AuthException e ) {
+        }
+      }
+    }
+    long nanos = System.nanoTime( ) - start
+
+    LOG.info( String.format( "Evaluated %d authorizations in %dms (%dns per evaluation)",
+        ITERATIONS * requests.size( ), (long)( nanos / 1000000 ), (long)( nanos / ( ITERATIONS * requests.size( ) ) ) ) )
+    assertTrue( "Expected allowed requests", allowed > 0 )
+  }
+
+  private static PolicyEngineImpl.AuthEvaluationContextImpl context( String requestType,
+                                                                     String requestAction,
+                                                                     List<Authorization> authorizations ) {
+    new PolicyEngineImpl.AuthEvaluationContextImpl( requestType, requestAction, user( ), [:] as Map<String,String> ){
+      @Override boolean isSystemUser() { true }
+      @Override List<Authorization> lookupGlobalAuthorizations() { [] }
+      @Override List<Authorization> lookupLocalAuthorizations() { authorizations }
+    }
+  }
+
+  private static User user( ) {
+    new TestUser( name: "test", accountNumber: "111111111111", account: new TestAccount( accountNumber: "111111111111", name: "test" ) ).activate( )
+  }
+
+  private static List<Authorization> authorizations( PolicyEntity policy ) {
+    policy.statements.collect{ StatementEntity statement ->
+      statement.authorizations.collect { AuthorizationEntity authorization ->
+        new AuthorizationEntityAsAuthorization( authorization )
+    } }.flatten() as List<Authorization>
+  }
+
+  @TupleConstructor private static class AuthorizationEntityAsAuthorization implements Authorization {
+    @Delegate AuthorizationEntity entity
+    @Override List<Condition> getConditions() { [] }
+    @Override Group getGroup() { null }
+    @Override Principal getPrincipal() { null }
+  }
+}
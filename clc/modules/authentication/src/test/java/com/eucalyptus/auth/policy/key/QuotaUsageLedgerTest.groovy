@@ -0,0 +1,91 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.auth.policy.key
+
+import static org.junit.Assert.*
+import com.eucalyptus.auth.policy.key.QuotaUsageLedger.Usage
+import com.eucalyptus.util.OwnerFullName
+import com.google.common.base.Supplier
+import org.junit.Test
+
+class QuotaUsageLedgerTest {
+
+  @Test
+  void testLoadAndUpdate( ) {
+    List<Usage> current = [
+        new Usage( 'r-1', '000000000001', 'u-1', 1 ),
+        new Usage( 'r-2', '000000000001', 'u-2', 2 ),
+        new Usage( 'r-3', '000000000002', 'u-3', 4 ),
+    ]
+    QuotaUsageLedger ledger = new QuotaUsageLedger( 'test', { current } as Supplier<List<Usage>> )
+    assertFalse( 'Loaded', ledger.isLoaded( ) )
+    ledger.update( 'r-4', '000000000001', 'u-1', 8 )
+    assertFalse( 'Loaded after update', ledger.isLoaded( ) )
+
+    assertEquals( 'Account 1 usage', 3, ledger.usage( account( '000000000001' ) ) )
+    assertEquals( 'Account 2 usage', 4, ledger.usage( account( '000000000002' ) ) )
+    assertEquals( 'Account 3 usage', 0, ledger.usage( account( '000000000003' ) ) )
+    assertEquals( 'User 1 usage', 1, ledger.usage( user( '000000000001', 'u-1' ) ) )
+    assertTrue( 'Loaded', ledger.isLoaded( ) )
+
+    ledger.update( 'r-4', '000000000001', 'u-1', 8 )
+    ledger.update( 'r-2', '000000000001', 'u-2', 16 )
+    assertEquals( 'Account 1 usage after update', 25, ledger.usage( account( '000000000001' ) ) )
+    assertEquals( 'User 1 usage after update', 9, ledger.usage( user( '000000000001', 'u-1' ) ) )
+    assertEquals( 'User 2 usage after update', 16, ledger.usage( user( '000000000001', 'u-2' ) ) )
+
+    ledger.update( 'r-4', '000000000001', 'u-1', 0 )
+    ledger.remove( 'r-2' )
+    ledger.remove( 'r-5' )
+    assertEquals( 'Account 1 usage after remove', 1, ledger.usage( account( '000000000001' ) ) )
+    assertEquals( 'User 2 usage after remove', 0, ledger.usage( user( '000000000001', 'u-2' ) ) )
+    assertEquals( 'Size', 2, ledger.size( ) )
+  }
+
+  @Test
+  void testReconcile( ) {
+    List<Usage> current = [
+        new Usage( 'r-1', '000000000001', 'u-1', 1 ),
+        new Usage( 'r-2', '000000000001', 'u-1', 1 ),
+    ]
+    QuotaUsageLedger ledger = new QuotaUsageLedger( 'test', { current } as Supplier<List<Usage>> )
+    assertEquals( 'Initial usage', 2, ledger.usage( account( '000000000001' ) ) )
+    assertEquals( 'Nothing to repair', 0, ledger.reconcile( ) )
+
+    // changes not seen by the ledger
+    current = [
+        new Usage( 'r-1', '000000000001', 'u-1', 1 ),
+        new Usage( 'r-3', '000000000001', 'u-1', 1 ),
+        new Usage( 'r-4', '000000000002', 'u-2', 1 ),
+    ]
+    assertEquals( 'Repaired', 3, ledger.reconcile( ) )
+    assertEquals( 'Account 1 usage', 2, ledger.usage( account( '000000000001' ) ) )
+    assertEquals( 'Account 2 usage', 1, ledger.usage( account( '000000000002' ) ) )
+    assertEquals( 'Nothing to repair', 0, ledger.reconcile( ) )
+  }
+
+  private static OwnerFullName account( String accountNumber ) {
+    [ getAccountNumber: { accountNumber }, getUserId: { null } ] as OwnerFullName
+  }
+
+  private static OwnerFullName user( String accountNumber, String userId ) {
+    [ getAccountNumber: { accountNumber }, getUserId: { userId } ] as OwnerFullName
+  }
+}
@@ -39,6 +39,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -117,6 +118,7 @@ import com.eucalyptus.util.CollectionUtils;
 import com.eucalyptus.util.DispatchingClient;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.Exceptions;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.util.OwnerFullName;
 import com.eucalyptus.util.RestrictedTypes;
 import com.eucalyptus.util.TypeMappers;
@@ -134,6 +136,7 @@ import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -190,9 +193,21 @@ public class ActivityManager {
       MetricCollectionType.GroupTerminatingInstances,
       MetricCollectionType.GroupTotalInstances );
 
+  /**
+   * Maximum metric data accepted by PutMetricData
+   */
+  private static final int MAX_METRIC_DATA = 20;
+
   private static final String INSTANCE_PROFILE_RESOURCE =
       PolicySpec.qualifiedName( PolicySpec.VENDOR_IAM, PolicySpec.IAM_RESOURCE_INSTANCE_PROFILE );
 
+  private static final TickCounters healthCheckCounters = new TickCounters( );
+  private static final TickCounters metricsCounters = new TickCounters( );
+
+  static {
+    Mbeans.register( new ActivityManagerStatistics( ) );
+  }
+
   private final ScalingActivities scalingActivities;
   private final AutoScalingGroups autoScalingGroups;
   private final AutoScalingInstances autoScalingInstances;
@@ -396,18 +411,47 @@ public class ActivityManager {
    * Periodically executed scaling work.
    */
   private void runningInstanceChecks() {
+    final long start = timestamp();
+    final boolean batch = AutoScalingConfiguration.getBatchRequests();
     final Map<String,AutoScalingGroupCoreView> autoScalingAccounts = Maps.newHashMap( );
+    final Multimap<String,MonitoringScalingProcessTask> accountMonitoringTasks = ArrayListMultimap.create( );
+    int groups = 0;
+    int requests = 0;
     try {
       for ( final AutoScalingGroupCoreView group : autoScalingGroups.listRequiringMonitoring( 10000L, TypeMappers.lookup( AutoScalingGroup.class, AutoScalingGroupCoreView.class ) ) ) {
         autoScalingAccounts.put( group.getOwnerAccountNumber(), group );
         final List<String> groupInstancesPending = autoScalingInstances.listByGroup( group, LifecycleState.Pending, instanceId() );
         final List<String> groupInstancesInService = autoScalingInstances.listByGroup( group, LifecycleState.InService, instanceId() );
         if ( !groupInstancesPending.isEmpty() || !groupInstancesInService.isEmpty() ) {
-          runTask( new MonitoringScalingProcessTask( group, groupInstancesPending, groupInstancesInService ) );
+          final MonitoringScalingProcessTask task = new MonitoringScalingProcessTask( group, groupInstancesPending, groupInstancesInService );
+          if ( !batch ) {
+            if ( task.shouldRun() ) {
+              groups++;
+              requests++;
+            }
+            runTask( task );
+          } else if ( task.shouldRun() && !taskInProgress( group.getArn() ) ) {
+            accountMonitoringTasks.put( group.getOwnerAccountNumber(), task );
+          }
         }
       }
+
+      // Check groups in each account together
+      for ( final Collection<MonitoringScalingProcessTask> tasks : accountMonitoringTasks.asMap().values() ) {
+        final BatchMonitoringScalingProcessTask batchTask = new BatchMonitoringScalingProcessTask( Lists.newArrayList( tasks ) );
+        runTask( batchTask );
+        groups += tasks.size();
+        requests += batchTask.getRequestCount();
+      }
     } catch ( Exception e ) {
       logger.error( e, e );
+    } finally {
+      final long elapsed = timestamp() - start;
+      healthCheckCounters.record( groups, requests, elapsed );
+      if ( logger.isDebugEnabled() ) {
+        logger.debug( "EC2 health check for " + groups + " groups " + ( batch ? "(batched) " : "" ) +
+            "dispatched " + requests + " requests in " + elapsed + "ms" );
+      }
     }
 
     // Terminate rogue instances
@@ -436,22 +480,81 @@ public class ActivityManager {
    * Periodically executed scaling work.
    */
   private void submitMetrics() {
+    final long start = timestamp();
+    final boolean batch = AutoScalingConfiguration.getBatchRequests();
+    final Multimap<String,MetricsSubmissionScalingProcessTask> accountMetricsTasks = ArrayListMultimap.create( );
+    int groups = 0;
+    int requests = 0;
     try {
       for ( final AutoScalingGroupMetricsView group : autoScalingGroups.listRequiringMonitoring( 10000L, TypeMappers.lookup( AutoScalingGroup.class, AutoScalingGroupMetricsView.class ) ) ) {
         if ( !group.getEnabledMetrics().isEmpty() ) {
           final List<AutoScalingInstanceCoreView> groupInstances = Sets.intersection( group.getEnabledMetrics(), instanceMetrics ).isEmpty() ?
               Collections.<AutoScalingInstanceCoreView>emptyList() :
               autoScalingInstances.listByGroup( group, Predicates.alwaysTrue(), TypeMappers.lookup( AutoScalingInstance.class, AutoScalingInstanceCoreView.class ) );
-          runTask( new MetricsSubmissionScalingProcessTask(
+          final MetricsSubmissionScalingProcessTask task = new MetricsSubmissionScalingProcessTask(
               group,
-              groupInstances ) );
+              groupInstances );
+          if ( batch ) {
+            accountMetricsTasks.put( group.getOwnerAccountNumber(), task );
+          } else {
+            groups++;
+            requests++;
+            runTask( task );
+          }
         }
       }
+
+      // Put metrics for groups in each account together
+      for ( final Collection<MetricsSubmissionScalingProcessTask> tasks : accountMetricsTasks.asMap().values() ) {
+        final BatchMetricsSubmissionScalingProcessTask batchTask = new BatchMetricsSubmissionScalingProcessTask( Lists.newArrayList( tasks ) );
+        runTask( batchTask );
+        groups += tasks.size();
+        requests += batchTask.getRequestCount();
+      }
     } catch ( Exception e ) {
       logger.error( e, e );
+    } finally {
+      final long elapsed = timestamp() - start;
+      metricsCounters.record( groups, requests, elapsed );
+      if ( logger.isDebugEnabled() ) {
+        logger.debug( "Metrics submission for " + groups + " groups " + ( batch ? "(batched) " : "" ) +
+            "dispatched " + requests + " requests in " + elapsed + "ms" );
+      }
     }
   }
 
+  public static long getHealthCheckTickCount() {
+    return healthCheckCounters.ticks.get();
+  }
+
+  public static long getHealthCheckGroupCount() {
+    return healthCheckCounters.groups.get();
+  }
+
+  public static long getHealthCheckRequestCount() {
+    return healthCheckCounters.requests.get();
+  }
+
+  public static long getHealthCheckMillis() {
+    return healthCheckCounters.millis.get();
+  }
+
+  public static long getMetricsTickCount() {
+    return metricsCounters.ticks.get();
+  }
+
+  public static long getMetricsGroupCount() {
+    return metricsCounters.groups.get();
+  }
+
+  public static long getMetricsRequestCount() {
+    return metricsCounters.requests.get();
+  }
+
+  public static long getMetricsMillis() {
+    return metricsCounters.millis.get();
+  }
+
   /**
    * Periodically executed scaling work.
    */
@@ -2242,6 +2345,7 @@ public class ActivityManager {
     private final AtomicReference<List<String>> knownInstanceIds = new AtomicReference<List<String>>(
         Collections.<String>emptyList()
     );
+    private volatile boolean complete = false;
 
     private MonitoringScalingActivityTask( final AutoScalingGroupCoreView group,
                                            final ScalingActivity activity,
@@ -2277,10 +2381,15 @@ public class ActivityManager {
 
       this.knownInstanceIds.set( ImmutableList.copyOf( knownInstanceIds ) );
       this.healthyInstanceIds.set( ImmutableList.copyOf( healthyInstanceIds ) );
+      this.complete = true;
 
       setActivityFinalStatus( ActivityStatusCode.Successful );
     }
 
+    boolean isComplete() {
+      return complete;
+    }
+
     List<String> getKnownInstanceIds() {
       return knownInstanceIds.get();
     }
@@ -2328,18 +2437,18 @@ public class ActivityManager {
         logger.trace( "Expected pending instances: " + pendingInstanceIds );
         logger.trace( "Expected running instances: " + expectedRunningInstanceIds );
       }
-      final List<String> instanceIds = Lists.newArrayList( Iterables.concat(
+      return Collections.singletonList( new MonitoringScalingActivityTask( getGroup(), newActivity(), getInstanceIds() ) );
+    }
+
+    List<String> getInstanceIds() {
+      return Lists.newArrayList( Iterables.concat(
           pendingInstanceIds,
           expectedRunningInstanceIds
       ) );
-      return Collections.singletonList( new MonitoringScalingActivityTask( getGroup(), newActivity(), instanceIds ) );
     }
 
     @Override
     void partialSuccess( final List<MonitoringScalingActivityTask> tasks ) {
-      final Set<String> transitionToInService = Sets.newHashSet( pendingInstanceIds );
-      final Set<String> transitionToUnhealthy = Sets.newHashSet( pendingInstanceIds );
-      final Set<String> transitionToUnhealthyIfExpired = Sets.newHashSet( pendingInstanceIds );
       final Set<String> healthyInstanceIds = Sets.newHashSet();
       final Set<String> knownInstanceIds = Sets.newHashSet();
 
@@ -2348,6 +2457,18 @@ public class ActivityManager {
         healthyInstanceIds.addAll( task.getHealthyInstanceIds( ) );
       }
 
+      applyResults( knownInstanceIds, healthyInstanceIds );
+    }
+
+    /**
+     * Update instance health and lifecycle states for the group from the instances described.
+     */
+    void applyResults( final Set<String> knownInstanceIds,
+                       final Set<String> healthyInstanceIds ) {
+      final Set<String> transitionToInService = Sets.newHashSet( pendingInstanceIds );
+      final Set<String> transitionToUnhealthy = Sets.newHashSet( pendingInstanceIds );
+      final Set<String> transitionToUnhealthyIfExpired = Sets.newHashSet( pendingInstanceIds );
+
       if ( logger.isTraceEnabled() ) {
         logger.trace( "EC2 health check known instances: " + knownInstanceIds );
         logger.trace( "EC2 health check healthy instances: " + healthyInstanceIds );
@@ -2389,33 +2510,116 @@ public class ActivityManager {
     }
   }
 
+  /**
+   * EC2 health check for the groups in an account using as few requests as
+   * possible. Results are applied to each group as for the group's own
+   * monitoring task.
+   */
+  private class BatchMonitoringScalingProcessTask extends ScalingProcessTask<AutoScalingGroupCoreView,MonitoringScalingActivityTask> {
+    private final List<MonitoringScalingProcessTask> groupTasks;
+    private final long created = timestamp();
+    private volatile Map<MonitoringScalingActivityTask,List<MonitoringScalingProcessTask>> groupTasksByActivity =
+        Collections.emptyMap();
+
+    BatchMonitoringScalingProcessTask( final List<MonitoringScalingProcessTask> groupTasks ) {
+      super( groupTasks.get( 0 ).getGroup().getOwnerAccountNumber() + ":Monitor", groupTasks.get( 0 ).getGroup(), "Monitor" );
+      this.groupTasks = groupTasks;
+    }
+
+    int getRequestCount() {
+      return groupTasksByActivity.size();
+    }
+
+    @Override
+    boolean shouldRun() {
+      return !groupTasks.isEmpty();
+    }
+
+    @Override
+    List<MonitoringScalingActivityTask> buildActivityTasks() throws AutoScalingMetadataException {
+      final int maxInstances = AutoScalingConfiguration.getMaxBatchInstances();
+      final ImmutableMap.Builder<MonitoringScalingActivityTask,List<MonitoringScalingProcessTask>> builder = ImmutableMap.builder();
+      List<String> instanceIds = Lists.newArrayList();
+      List<MonitoringScalingProcessTask> tasks = Lists.newArrayList();
+      for ( final MonitoringScalingProcessTask groupTask : groupTasks ) {
+        final List<String> groupInstanceIds = groupTask.getInstanceIds();
+        if ( !tasks.isEmpty() && instanceIds.size() + groupInstanceIds.size() > maxInstances ) {
+          builder.put( new MonitoringScalingActivityTask( getGroup(), newActivity(), instanceIds ), tasks );
+          instanceIds = Lists.newArrayList();
+          tasks = Lists.newArrayList();
+        }
+        instanceIds.addAll( groupInstanceIds );
+        tasks.add( groupTask );
+      }
+      if ( !tasks.isEmpty() ) {
+        builder.put( new MonitoringScalingActivityTask( getGroup(), newActivity(), instanceIds ), tasks );
+      }
+      groupTasksByActivity = builder.build();
+      if ( logger.isTraceEnabled() ) {
+        logger.trace( "Performing EC2 health check for " + groupTasks.size() + " groups in account " +
+            getGroup().getOwnerAccountNumber() + " using " + groupTasksByActivity.size() + " requests" );
+      }
+      return Lists.newArrayList( groupTasksByActivity.keySet() );
+    }
+
+    @Override
+    void partialSuccess( final List<MonitoringScalingActivityTask> tasks ) {
+      int checkedGroups = 0;
+      for ( final MonitoringScalingActivityTask task : tasks ) {
+        if ( !task.isComplete() ) continue;
+        final Set<String> knownInstanceIds = Sets.newHashSet( task.getKnownInstanceIds() );
+        final Set<String> healthyInstanceIds = Sets.newHashSet( task.getHealthyInstanceIds() );
+        for ( final MonitoringScalingProcessTask groupTask : groupTasksByActivity.get( task ) ) {
+          if ( taskInProgress( groupTask.getGroup().getArn() ) ) {
+            // group activity started since the batch was built, results may be stale
+            if ( logger.isTraceEnabled() ) {
+              logger.trace( "Skipping EC2 health check results for group with task in progress: " + groupTask.getGroup().getArn() );
+            }
+            continue;
+          }
+          final Set<String> groupInstanceIds = Sets.newHashSet( groupTask.getInstanceIds() );
+          groupTask.applyResults(
+              Sets.newHashSet( Sets.intersection( knownInstanceIds, groupInstanceIds ) ),
+              Sets.newHashSet( Sets.intersection( healthyInstanceIds, groupInstanceIds ) ) );
+          final ScalingProcessTask elbMonitoringTask = groupTask.onSuccess();
+          if ( elbMonitoringTask != null ) {
+            runTask( elbMonitoringTask );
+          }
+          checkedGroups++;
+        }
+      }
+      logCompletion( checkedGroups );
+    }
+
+    @Override
+    void failure( final List<MonitoringScalingActivityTask> tasks ) {
+      logCompletion( 0 );
+    }
+
+    private void logCompletion( final int checkedGroups ) {
+      if ( logger.isDebugEnabled() ) {
+        logger.debug( "EC2 health check for account " + getGroup().getOwnerAccountNumber() + " checked " + checkedGroups + "/" +
+            groupTasks.size() + " groups using " + groupTasksByActivity.size() + " requests in " + ( timestamp() - created ) + "ms" );
+      }
+    }
+  }
+
   private class MetricsSubmissionScalingActivityTask extends ScalingActivityTask<AutoScalingGroupMetricsView,PutMetricDataResponseType> {
-    private final List<AutoScalingInstanceCoreView> autoScalingInstances;
+    private final List<MetricDatum> metricDatums;
 
     private MetricsSubmissionScalingActivityTask( final AutoScalingGroupMetricsView group,
                                                   final ScalingActivity activity,
-                                                  final List<AutoScalingInstanceCoreView> autoScalingInstances ) {
+                                                  final List<MetricDatum> metricDatums ) {
       super( group, activity, false );
-      this.autoScalingInstances = autoScalingInstances;
+      this.metricDatums = metricDatums;
     }
 
     @Override
     void dispatchInternal( final ActivityContext context,
                            final Callback.Checked<PutMetricDataResponseType> callback ) {
       final CloudWatchClient client = context.getCloudWatchClient();
-      final Date date = new Date();
       final MetricData metricData = new MetricData();
-      for ( final MetricCollectionType metricCollectionType : getGroup().getEnabledMetrics() ) {
-        final MetricDatum metricDatum = new MetricDatum();
-        metricDatum.setDimensions( new Dimensions(
-            new Dimension( "AutoScalingGroupName", getGroup().getAutoScalingGroupName() )
-        ) );
-        metricDatum.setTimestamp( date );
-        metricDatum.setUnit( "None" );
-        metricDatum.setMetricName( metricCollectionType.getDisplayName() );
-        metricDatum.setValue( metricCollectionType.getValue( getGroup(), autoScalingInstances ) );
-        metricData.getMember().add( metricDatum );
-      }
+      metricData.getMember().addAll( metricDatums );
       final PutMetricDataType putMetricData = new PutMetricDataType();
       putMetricData.setNamespace( "AWS/AutoScaling" );
       putMetricData.setMetricData( metricData );
@@ -2448,7 +2652,83 @@ public class ActivityManager {
       if ( logger.isTraceEnabled() ) {
         logger.trace( "Putting metrics for group: " + getGroup().getArn() );
       }
-      return Collections.singletonList( new MetricsSubmissionScalingActivityTask( getGroup(), newActivity(), autoScalingInstances ) );
+      return Collections.singletonList( new MetricsSubmissionScalingActivityTask( getGroup(), newActivity(), getMetricDatums( new Date() ) ) );
+    }
+
+    List<MetricDatum> getMetricDatums( final Date date ) {
+      final List<MetricDatum> metricDatums = Lists.newArrayList();
+      for ( final MetricCollectionType metricCollectionType : getGroup().getEnabledMetrics() ) {
+        final MetricDatum metricDatum = new MetricDatum();
+        metricDatum.setDimensions( new Dimensions(
+            new Dimension( "AutoScalingGroupName", getGroup().getAutoScalingGroupName() )
+        ) );
+        metricDatum.setTimestamp( date );
+        metricDatum.setUnit( "None" );
+        metricDatum.setMetricName( metricCollectionType.getDisplayName() );
+        metricDatum.setValue( metricCollectionType.getValue( getGroup(), autoScalingInstances ) );
+        metricDatums.add( metricDatum );
+      }
+      return metricDatums;
+    }
+  }
+
+  /**
+   * Metrics submission for the groups in an account, metrics for multiple
+   * groups are put in each request.
+   */
+  private class BatchMetricsSubmissionScalingProcessTask extends ScalingProcessTask<AutoScalingGroupMetricsView,MetricsSubmissionScalingActivityTask> {
+    private final List<MetricsSubmissionScalingProcessTask> groupTasks;
+    private final long created = timestamp();
+    private volatile int requestCount = 0;
+
+    BatchMetricsSubmissionScalingProcessTask( final List<MetricsSubmissionScalingProcessTask> groupTasks ) {
+      super( groupTasks.get( 0 ).getGroup().getOwnerAccountNumber() + ":Metrics", groupTasks.get( 0 ).getGroup(), "MetricsSubmission" );
+      this.groupTasks = groupTasks;
+    }
+
+    int getRequestCount() {
+      return requestCount;
+    }
+
+    @Override
+    boolean shouldRun() {
+      return !groupTasks.isEmpty();
+    }
+
+    @Override
+    List<MetricsSubmissionScalingActivityTask> buildActivityTasks() throws AutoScalingMetadataException {
+      final Date date = new Date();
+      final List<MetricDatum> metricDatums = Lists.newArrayList();
+      for ( final MetricsSubmissionScalingProcessTask groupTask : groupTasks ) {
+        metricDatums.addAll( groupTask.getMetricDatums( date ) );
+      }
+      final List<MetricsSubmissionScalingActivityTask> tasks = Lists.newArrayList();
+      for ( final List<MetricDatum> requestMetricDatums : Lists.partition( metricDatums, MAX_METRIC_DATA ) ) {
+        tasks.add( new MetricsSubmissionScalingActivityTask( getGroup(), newActivity(), requestMetricDatums ) );
+      }
+      requestCount = tasks.size();
+      if ( logger.isTraceEnabled() ) {
+        logger.trace( "Putting " + metricDatums.size() + " metrics for " + groupTasks.size() + " groups in account " +
+            getGroup().getOwnerAccountNumber() + " using " + requestCount + " requests" );
+      }
+      return tasks;
+    }
+
+    @Override
+    void partialSuccess( final List<MetricsSubmissionScalingActivityTask> tasks ) {
+      logCompletion( "completed" );
+    }
+
+    @Override
+    void failure( final List<MetricsSubmissionScalingActivityTask> tasks ) {
+      logCompletion( "failed" );
+    }
+
+    private void logCompletion( final String status ) {
+      if ( logger.isDebugEnabled() ) {
+        logger.debug( "Metrics submission for " + groupTasks.size() + " groups in account " + getGroup().getOwnerAccountNumber() +
+            " " + status + " using " + requestCount + " requests in " + ( timestamp() - created ) + "ms" );
+      }
     }
   }
 
@@ -3073,4 +3353,77 @@ public class ActivityManager {
       }
     }
   }
+
+  /**
+   * Cumulative fan-out and duration of a periodic per-group task.
+   */
+  private static final class TickCounters {
+    private final AtomicLong ticks = new AtomicLong( );
+    private final AtomicLong groups = new AtomicLong( );
+    private final AtomicLong requests = new AtomicLong( );
+    private final AtomicLong millis = new AtomicLong( );
+
+    void record( final int groupCount, final int requestCount, final long elapsed ) {
+      ticks.incrementAndGet( );
+      groups.addAndGet( groupCount );
+      requests.addAndGet( requestCount );
+      millis.addAndGet( elapsed );
+    }
+  }
+
+  /**
+   * JMX view of EC2 health check and metrics submission fan-out.
+   */
+  public interface ActivityManagerStatisticsMXBean {
+    long getHealthCheckTickCount();
+    long getHealthCheckGroupCount();
+    long getHealthCheckRequestCount();
+    long getHealthCheckMillis();
+    long getMetricsTickCount();
+    long getMetricsGroupCount();
+    long getMetricsRequestCount();
+    long getMetricsMillis();
+  }
+
+  private static class ActivityManagerStatistics implements ActivityManagerStatisticsMXBean {
+    @Override
+    public long getHealthCheckTickCount() {
+      return ActivityManager.getHealthCheckTickCount();
+    }
+
+    @Override
+    public long getHealthCheckGroupCount() {
+      return ActivityManager.getHealthCheckGroupCount();
+    }
+
+    @Override
+    public long getHealthCheckRequestCount() {
+      return ActivityManager.getHealthCheckRequestCount();
+    }
+
+    @Override
+    public long getHealthCheckMillis() {
+      return ActivityManager.getHealthCheckMillis();
+    }
+
+    @Override
+    public long getMetricsTickCount() {
+      return ActivityManager.getMetricsTickCount();
+    }
+
+    @Override
+    public long getMetricsGroupCount() {
+      return ActivityManager.getMetricsGroupCount();
+    }
+
+    @Override
+    public long getMetricsRequestCount() {
+      return ActivityManager.getMetricsRequestCount();
+    }
+
+    @Override
+    public long getMetricsMillis() {
+      return ActivityManager.getMetricsMillis();
+    }
+  }
 }
@@ -87,6 +87,12 @@ public class AutoScalingConfiguration {
   @ConfigurableField( initial = "9s", description = "Initial backoff period for failing activities.", changeListener = AutoScalingIntervalPropertyChangeListener.class )
   public static volatile String activityInitialBackoff = "9s";
 
+  @ConfigurableField( initial = "true", description = "Batch EC2 health checks and metric submission for the groups in each account." )
+  public static volatile Boolean batchRequests = Boolean.TRUE;
+
+  @ConfigurableField( initial = "500", description = "Maximum instances to check in each batched EC2 health check." )
+  public static volatile int maxBatchInstances = 500;
+
   private static AtomicLong activityTimeoutMillis = new AtomicLong( Intervals.parse( activityTimeout, TimeUnit.MINUTES.toMillis( 5 ) ) );
   private static AtomicLong activityExpiryMillis =  new AtomicLong( Intervals.parse( activityExpiry, TimeUnit.DAYS.toMillis( 42 ) ) );
   private static AtomicLong zoneFailureThresholdMillis = new AtomicLong( Intervals.parse( zoneFailureThreshold, TimeUnit.MINUTES.toMillis( 5 ) ) );
@@ -110,6 +116,14 @@ public class AutoScalingConfiguration {
     return suspensionLaunchAttemptsThreshold;
   }
 
+  public static boolean getBatchRequests() {
+    return Boolean.TRUE.equals( batchRequests );
+  }
+
+  public static int getMaxBatchInstances() {
+    return Math.max( 1, maxBatchInstances );
+  }
+
   public static long getActivityTimeoutMillis() {
     return activityTimeoutMillis.get();
   }
@@ -30,11 +30,13 @@ import com.eucalyptus.auth.principal.Principals
 import com.eucalyptus.auth.principal.Role
 import com.eucalyptus.auth.principal.User
 import com.eucalyptus.autoscaling.common.AutoScalingMetadata
+import com.eucalyptus.autoscaling.config.AutoScalingConfiguration
 import com.eucalyptus.autoscaling.configurations.LaunchConfiguration
 import com.eucalyptus.autoscaling.configurations.LaunchConfigurations
 import com.eucalyptus.autoscaling.groups.AutoScalingGroup
 import com.eucalyptus.autoscaling.groups.AutoScalingGroups
 import com.eucalyptus.autoscaling.groups.HealthCheckType
+import com.eucalyptus.autoscaling.groups.MetricCollectionType
 import com.eucalyptus.autoscaling.groups.ScalingProcessType
 import com.eucalyptus.autoscaling.groups.TerminationPolicyType
 import com.eucalyptus.autoscaling.instances.AutoScalingInstance
@@ -44,6 +46,8 @@ import com.eucalyptus.autoscaling.instances.HealthStatus
 import com.eucalyptus.autoscaling.instances.LifecycleState
 import com.eucalyptus.autoscaling.metadata.AutoScalingMetadataNotFoundException
 import com.eucalyptus.autoscaling.tags.Tag
+import com.eucalyptus.cloudwatch.common.msgs.PutMetricDataResponseType
+import com.eucalyptus.cloudwatch.common.msgs.PutMetricDataType
 import com.eucalyptus.crypto.util.Timestamps
 import com.eucalyptus.entities.AbstractOwnedPersistent;
 import com.eucalyptus.loadbalancing.common.msgs.DeregisterInstancesFromLoadBalancerResponseType
@@ -406,6 +410,205 @@ class ActivityManagerTest {
     assertEquals( "Scaling activity count", 0, scalingActivities.size() )
   }
 
+  @Test
+  void testHealthCheckSuccessUnbatched() {
+    withoutBatchRequests { testHealthCheckSuccess() }
+  }
+
+  @Test
+  void testEC2HealthCheckFailureUnbatched() {
+    withoutBatchRequests { testEC2HealthCheckFailure() }
+  }
+
+  @Test
+  void testBatchedEC2HealthCheck() {
+    Accounts.setAccountProvider( accountProvider() )
+
+    List<AutoScalingGroup> groups = [ monitoredGroup( "Group1" ), monitoredGroup( "Group2" ) ]
+    List<AutoScalingInstance> instances = [
+        instance( 1, groups.get(0), "Zone1" ),
+        instance( 2, groups.get(0), "Zone1" ),
+        instance( 3, groups.get(1), "Zone1" ),
+        instance( 4, groups.get(1), "Zone1" ),
+    ]
+    List<ScalingActivity> scalingActivities = []
+    List<Object> requests = []
+    ActivityManager manager = activityManager( groups, scalingActivities, instances, requests, true, ["i-00000004"] )
+    long groupCount = ActivityManager.getHealthCheckGroupCount()
+    long requestCount = ActivityManager.getHealthCheckRequestCount()
+
+    manager.doScaling()
+
+    List<Object> describeRequests = requests.findAll { request -> request instanceof DescribeInstanceStatusType }
+    assertEquals( "Describe instance status requests", 1, describeRequests.size() )
+    assertEquals( "Described instances", [ "i-00000001", "i-00000002", "i-00000003", "i-00000004" ] as Set,
+        describeRequests.get(0).instancesSet as Set )
+    assertEquals( "Instances 1 health status", HealthStatus.Healthy, instances.get(0).healthStatus )
+    assertEquals( "Instances 2 health status", HealthStatus.Healthy, instances.get(1).healthStatus )
+    assertEquals( "Instances 3 health status", HealthStatus.Healthy, instances.get(2).healthStatus )
+    assertEquals( "Instances 4 health status", HealthStatus.Unhealthy, instances.get(3).healthStatus )
+    assertEquals( "Scaling activity count", 0, scalingActivities.size() )
+    assertEquals( "Health check groups counted", 2, ActivityManager.getHealthCheckGroupCount() - groupCount )
+    assertEquals( "Health check requests counted", 1, ActivityManager.getHealthCheckRequestCount() - requestCount )
+  }
+
+  @Test
+  void testUnbatchedEC2HealthCheck() {
+    Accounts.setAccountProvider( accountProvider() )
+
+    List<AutoScalingGroup> groups = [ monitoredGroup( "Group1" ), monitoredGroup( "Group2" ) ]
+    List<AutoScalingInstance> instances = [
+        instance( 1, groups.get(0), "Zone1" ),
+        instance( 2, groups.get(0), "Zone1" ),
+        instance( 3, groups.get(1), "Zone1" ),
+        instance( 4, groups.get(1), "Zone1" ),
+    ]
+    List<ScalingActivity> scalingActivities = []
+    List<Object> requests = []
+    ActivityManager manager = activityManager( groups, scalingActivities, instances, requests, true, ["i-00000004"] )
+    long groupCount = ActivityManager.getHealthCheckGroupCount()
+    long requestCount = ActivityManager.getHealthCheckRequestCount()
+
+    withoutBatchRequests { manager.doScaling() }
+
+    List<Object> describeRequests = requests.findAll { request -> request instanceof DescribeInstanceStatusType }
+    assertEquals( "Describe instance status requests", 2, describeRequests.size() )
+    assertEquals( "Described instances", [ [ "i-00000001", "i-00000002" ] as Set, [ "i-00000003", "i-00000004" ] as Set ] as Set,
+        describeRequests.collect { request -> request.instancesSet as Set } as Set )
+    assertEquals( "Instances 1 health status", HealthStatus.Healthy, instances.get(0).healthStatus )
+    assertEquals( "Instances 2 health status", HealthStatus.Healthy, instances.get(1).healthStatus )
+    assertEquals( "Instances 3 health status", HealthStatus.Healthy, instances.get(2).healthStatus )
+    assertEquals( "Instances 4 health status", HealthStatus.Unhealthy, instances.get(3).healthStatus )
+    assertEquals( "Scaling activity count", 0, scalingActivities.size() )
+    assertEquals( "Health check groups counted", 2, ActivityManager.getHealthCheckGroupCount() - groupCount )
+    assertEquals( "Health check requests counted", 2, ActivityManager.getHealthCheckRequestCount() - requestCount )
+  }
+
+  @Test
+  void testBatchedEC2HealthCheckMaxInstances() {
+    Accounts.setAccountProvider( accountProvider() )
+
+    List<AutoScalingGroup> groups = [ monitoredGroup( "Group1" ), monitoredGroup( "Group2" ), monitoredGroup( "Group3" ) ]
+    List<AutoScalingInstance> instances = [
+        instance( 1, groups.get(0), "Zone1" ),
+        instance( 2, groups.get(0), "Zone1" ),
+        instance( 3, groups.get(1), "Zone1" ),
+        instance( 4, groups.get(2), "Zone1" ),
+        instance( 5, groups.get(2), "Zone1" ),
+    ]
+    List<ScalingActivity> scalingActivities = []
+    List<Object> requests = []
+    ActivityManager manager = activityManager( groups, scalingActivities, instances, requests, true, ["i-00000005"] )
+
+    AutoScalingConfiguration.maxBatchInstances = 3
+    try {
+      manager.doScaling()
+    } finally {
+      AutoScalingConfiguration.maxBatchInstances = 500
+    }
+
+    List<Object> describeRequests = requests.findAll { request -> request instanceof DescribeInstanceStatusType }
+    assertEquals( "Describe instance status requests", 2, describeRequests.size() )
+    assertEquals( "Described instances (request 1)", [ "i-00000001", "i-00000002", "i-00000003" ] as Set,
+        describeRequests.get(0).instancesSet as Set )
+    assertEquals( "Described instances (request 2)", [ "i-00000004", "i-00000005" ] as Set,
+        describeRequests.get(1).instancesSet as Set )
+    assertEquals( "Instances 4 health status", HealthStatus.Healthy, instances.get(3).healthStatus )
+    assertEquals( "Instances 5 health status", HealthStatus.Unhealthy, instances.get(4).healthStatus )
+  }
+
+  @Test
+  void testBatchedEC2HealthCheckGroupTaskInProgress() {
+    Accounts.setAccountProvider( accountProvider() )
+
+    List<AutoScalingGroup> groups = [ monitoredGroup( "Group1" ), monitoredGroup( "Group2" ) ]
+    List<AutoScalingInstance> instances = [
+        instance( 1, groups.get(0), "Zone1" ),
+        instance( 2, groups.get(1), "Zone1" ),
+    ]
+    List<ScalingActivity> scalingActivities = []
+    List<Object> requests = []
+    ActivityManager manager = activityManager( groups, scalingActivities, instances, requests, true, ["i-00000001", "i-00000002"] )
+    // Group2 task starts while the health check is in progress
+    manager.groupsInProgress = { String groupArn ->
+      groups.get(1).arn.equals( groupArn ) && requests.any { request -> request instanceof DescribeInstanceStatusType }
+    } as Predicate<String>
+
+    manager.doScaling()
+
+    assertEquals( "Describe instance status requests", 1,
+        requests.findAll { request -> request instanceof DescribeInstanceStatusType }.size() )
+    assertEquals( "Instances 1 health status", HealthStatus.Unhealthy, instances.get(0).healthStatus )
+    assertEquals( "Instances 2 health status", HealthStatus.Healthy, instances.get(1).healthStatus )
+  }
+
+  @Test
+  void testBatchedMetricsSubmission() {
+    Accounts.setAccountProvider( accountProvider() )
+
+    List<AutoScalingGroup> groups = [ monitoredGroup( "Group1" ), monitoredGroup( "Group2" ), monitoredGroup( "Group3" ) ]
+    groups.each { AutoScalingGroup group -> group.enabledMetrics = EnumSet.allOf( MetricCollectionType ) }
+    List<AutoScalingInstance> instances = [
+        instance( 1, groups.get(0), "Zone1" ),
+        instance( 2, groups.get(1), "Zone1" ),
+        instance( 3, groups.get(2), "Zone1" ),
+    ]
+    List<ScalingActivity> scalingActivities = []
+    List<Object> requests = []
+    ActivityManager manager = activityManager( groups, scalingActivities, instances, requests, true )
+    long groupCount = ActivityManager.getMetricsGroupCount()
+    long requestCount = ActivityManager.getMetricsRequestCount()
+
+    manager.doScaling()
+
+    List<Object> putRequests = requests.findAll { request -> request instanceof PutMetricDataType }
+    int metricsCount = 3 * MetricCollectionType.values().length
+    assertEquals( "Put metric data requests", 2, putRequests.size() ) // 21 metrics
+    putRequests.each { PutMetricDataType request ->
+      assertTrue( "Metric data per request", request.metricData.member.size() <= 20 )
+      assertEquals( "Namespace", "AWS/AutoScaling", request.namespace )
+    }
+    assertEquals( "Metric data", metricsCount, putRequests.sum { PutMetricDataType request -> request.metricData.member.size() } )
+    assertEquals( "Groups with metrics", [ "Group1", "Group2", "Group3" ] as Set, putRequests.collectMany { PutMetricDataType request ->
+      request.metricData.member.collect { datum -> datum.dimensions.member.get(0).value }
+    } as Set )
+    assertEquals( "Metrics groups counted", 3, ActivityManager.getMetricsGroupCount() - groupCount )
+    assertEquals( "Metrics requests counted", 2, ActivityManager.getMetricsRequestCount() - requestCount )
+  }
+
+  @Test
+  void testUnbatchedMetricsSubmission() {
+    Accounts.setAccountProvider( accountProvider() )
+
+    List<AutoScalingGroup> groups = [ monitoredGroup( "Group1" ), monitoredGroup( "Group2" ), monitoredGroup( "Group3" ) ]
+    groups.each { AutoScalingGroup group -> group.enabledMetrics = EnumSet.allOf( MetricCollectionType ) }
+    List<AutoScalingInstance> instances = [
+        instance( 1, groups.get(0), "Zone1" ),
+        instance( 2, groups.get(1), "Zone1" ),
+        instance( 3, groups.get(2), "Zone1" ),
+    ]
+    List<ScalingActivity> scalingActivities = []
+    List<Object> requests = []
+    ActivityManager manager = activityManager( groups, scalingActivities, instances, requests, true )
+    long groupCount = ActivityManager.getMetricsGroupCount()
+    long requestCount = ActivityManager.getMetricsRequestCount()
+
+    withoutBatchRequests { manager.doScaling() }
+
+    List<Object> putRequests = requests.findAll { request -> request instanceof PutMetricDataType }
+    assertEquals( "Put metric data requests", 3, putRequests.size() ) // one per group
+    putRequests.each { PutMetricDataType request ->
+      assertEquals( "Metric data per request", MetricCollectionType.values().length, request.metricData.member.size() )
+      assertEquals( "Namespace", "AWS/AutoScaling", request.namespace )
+      assertEquals( "Groups per request", 1, request.metricData.member.collect { datum -> datum.dimensions.member.get(0).value }.unique().size() )
+    }
+    assertEquals( "Groups with metrics", [ "Group1", "Group2", "Group3" ] as Set, putRequests.collectMany { PutMetricDataType request ->
+      request.metricData.member.collect { datum -> datum.dimensions.member.get(0).value }
+    } as Set )
+    assertEquals( "Metrics groups counted", 3, ActivityManager.getMetricsGroupCount() - groupCount )
+    assertEquals( "Metrics requests counted", 3, ActivityManager.getMetricsRequestCount() - requestCount )
+  }
+
   @Test
   void testELBHealthCheckFailure() {
     for ( HealthCheckType type : HealthCheckType.values() ) {
@@ -1090,6 +1293,31 @@ class ActivityManagerTest {
     Timestamps.parseIso8601Timestamp( text )
   }
 
+  AutoScalingGroup monitoredGroup( String groupName ) {
+    new AutoScalingGroup(
+        id: groupName,
+        naturalId: groupName,
+        availabilityZones: [ "Zone1" ],
+        healthCheckType: HealthCheckType.EC2,
+        displayName: groupName,
+        launchConfiguration: new LaunchConfiguration(
+            id: "1",
+            naturalId: "1",
+            ownerAccountNumber: "000000000000",
+            displayName: "Config1",
+            imageId: "emi-00000001",
+            instanceType: "m1.small",
+        ),
+        scalingRequired: false,
+        desiredCapacity: 2,
+        capacity:  2,
+        minSize: 1,
+        maxSize: 2,
+        ownerAccountNumber: "000000000000",
+        version: 1,
+    )
+  }
+
   AutoScalingInstance instance( int id,
                                 AutoScalingGroup group,
                                 String availabilityZone,
@@ -1126,6 +1354,15 @@ class ActivityManagerTest {
     }
   }
 
+  private void withoutBatchRequests( Closure<?> closure ) {
+    AutoScalingConfiguration.batchRequests = false
+    try {
+      closure.call()
+    } finally {
+      AutoScalingConfiguration.batchRequests = true
+    }
+  }
+
   private ActivityManager activityManager( AutoScalingGroup group,
                                            List<ScalingActivity> scalingActivities,
                                            List<AutoScalingInstance> instances,
@@ -1133,15 +1370,27 @@ class ActivityManagerTest {
                                            List<String> unhealthyInstanceIds = [],
                                            List<String> unhealthyElbInstanceIds = [],
                                            List<String> unavailableZones = [] ) {
+    activityManager( [group], scalingActivities, instances, [], healthChecks, unhealthyInstanceIds, unhealthyElbInstanceIds, unavailableZones )
+  }
+
+  private ActivityManager activityManager( List<AutoScalingGroup> groups,
+                                           List<ScalingActivity> scalingActivities,
+                                           List<AutoScalingInstance> instances,
+                                           List<Object> requests,
+                                           boolean healthChecks = false,
+                                           List<String> unhealthyInstanceIds = [],
+                                           List<String> unhealthyElbInstanceIds = [],
+                                           List<String> unavailableZones = [] ) {
     ActivityManager manager = new ActivityManager(
         autoScalingActivitiesStore(scalingActivities),
-        autoScalingGroupStore([group],healthChecks),
+        autoScalingGroupStore(groups,healthChecks),
         autoScalingInstanceStore(instances),
         zoneAvailabilityMarkers(),
         zoneMonitor(unavailableZones)
     ) {
       long timeOffset = 0
       int instanceCount = 0
+      Predicate<String> groupsInProgress = Predicates.alwaysFalse()
       BackoffRunner runner = new BackoffRunner() {
         @Override
         protected long timestamp() {
@@ -1171,12 +1420,13 @@ class ActivityManagerTest {
 
       @Override
       boolean taskInProgress(String groupArn) {
-        false
+        groupsInProgress.apply( groupArn )
       }
 
       @Override
       EucalyptusClient createEucalyptusClientForUser(String userId) {
         new TestClients.TestEucalyptusClient( userId, { request ->
+          requests.add( request )
           if (request instanceof RunInstancesType) {
             if ( "emi-00000000".equals( request.imageId ) )
                 throw new WebServicesException( "Test error triggered by using emi-00000000" )
@@ -1251,6 +1501,18 @@ class ActivityManagerTest {
         } as TestClients.RequestHandler )
       }
 
+      @Override
+      CloudWatchClient createCloudWatchClientForUser(final String userId) {
+        new TestClients.TesCloudWatchClient( userId, { request ->
+          requests.add( request )
+          if ( request instanceof PutMetricDataType ) {
+            new PutMetricDataResponseType()
+          } else {
+            throw new RuntimeException("Unknown request type: " + request.getClass())
+          }
+        } as TestClients.RequestHandler )
+      }
+
       @Override
       Supplier<String> userIdSupplier(String accountNumber) {
         Suppliers.ofInstance(accountNumber)
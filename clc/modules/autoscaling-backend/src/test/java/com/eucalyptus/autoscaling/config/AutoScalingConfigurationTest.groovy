@@ -37,6 +37,8 @@ class AutoScalingConfigurationTest {
   void testExpectedValues( ) {
     assertEquals( "Activity expiry millis", TimeUnit.DAYS.toMillis( 42 ), AutoScalingConfiguration.getActivityExpiryMillis() )
     assertEquals( "Activity timeout millis", TimeUnit.MINUTES.toMillis( 5 ), AutoScalingConfiguration.getActivityTimeoutMillis() )
+    assertTrue( "Batch requests", AutoScalingConfiguration.getBatchRequests() )
+    assertEquals( "Max batch instances", 500, AutoScalingConfiguration.getMaxBatchInstances() )
     assertEquals( "Max launch increment", 20, AutoScalingConfiguration.getMaxLaunchIncrement() )
     assertEquals( "Max registration retries", 5, AutoScalingConfiguration.getMaxRegistrationRetries() )
     assertEquals( "Suspended processes", Collections.emptySet(), AutoScalingConfiguration.getSuspendedProcesses() )
@@ -67,6 +67,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 public class FileResource extends StorageResource {
 
@@ -89,6 +92,11 @@ public class FileResource extends StorageResource {
 		return new FileOutputStream(new File(this.getPath()));
 	}
 
+	@Override
+	public FileChannel getWritableChannel() throws Exception {
+		return FileChannel.open(Paths.get(this.getPath()), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
 	@Override
 	public Boolean isDownloadSynchronous() {
 		return Boolean.TRUE;
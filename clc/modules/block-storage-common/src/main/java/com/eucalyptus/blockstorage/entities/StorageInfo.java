@@ -104,6 +104,8 @@ public class StorageInfo extends AbstractPersistent {
 	private static final Integer DEFAULT_SNAPSHOT_TRANSFER_TIMEOUT = 48;
 	private static final Integer DEFAULT_READ_BUFFER_SIZE_IN_MB = 1;
 	private static final Integer DEFAULT_WRITE_BUFFER_SIZE_IN_MB = 10;
+	private static final Boolean DEFAULT_INCREMENTAL_SNAPSHOTS = Boolean.FALSE;
+	private static final Integer DEFAULT_MAX_SNAPSHOT_UPLOAD_MEMORY_IN_MB = 1024;
 
 	@Transient
 	private static Logger LOG = Logger.getLogger(StorageInfo.class);
@@ -156,6 +158,14 @@ public class StorageInfo extends AbstractPersistent {
 	@Column(name = "write_buffer_size_mb")
 	private Integer writeBufferSizeInMB;
 
+	@ConfigurableField(description = "Upload only the blocks that changed since the previous snapshot of the volume", displayName = "Incremental Snapshots", initial = "false", type = ConfigurableFieldType.BOOLEAN)
+	@Column(name = "incremental_snapshots")
+	private Boolean incrementalSnapshots;
+
+	@ConfigurableField(description = "Maximum memory in MB used to buffer compressed parts across all concurrent snapshot uploads. Each upload needs about (2 + min(maxsnapshotpartsqueuesize, 2) + 1) times the part size", displayName = "Maximum Snapshot Upload Memory", initial = "1024", changeListener = PositiveIntegerChangeListener.class)
+	@Column(name = "max_snapshot_upload_memory_mb")
+	private Integer maxSnapshotUploadMemoryInMB;
+
 	public StorageInfo() {
 		this.name = StorageProperties.NAME;
 	}
@@ -268,6 +278,22 @@ public class StorageInfo extends AbstractPersistent {
 		this.writeBufferSizeInMB = writeBufferSizeInMB;
 	}
 
+	public Boolean getIncrementalSnapshots() {
+		return incrementalSnapshots;
+	}
+
+	public void setIncrementalSnapshots(Boolean incrementalSnapshots) {
+		this.incrementalSnapshots = incrementalSnapshots;
+	}
+
+	public Integer getMaxSnapshotUploadMemoryInMB() {
+		return maxSnapshotUploadMemoryInMB;
+	}
+
+	public void setMaxSnapshotUploadMemoryInMB(Integer maxSnapshotUploadMemoryInMB) {
+		this.maxSnapshotUploadMemoryInMB = maxSnapshotUploadMemoryInMB;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -334,6 +360,12 @@ public class StorageInfo extends AbstractPersistent {
 		if (writeBufferSizeInMB == null) {
 			writeBufferSizeInMB = DEFAULT_WRITE_BUFFER_SIZE_IN_MB;
 		}
+		if (incrementalSnapshots == null) {
+			incrementalSnapshots = DEFAULT_INCREMENTAL_SNAPSHOTS;
+		}
+		if (maxSnapshotUploadMemoryInMB == null) {
+			maxSnapshotUploadMemoryInMB = DEFAULT_MAX_SNAPSHOT_UPLOAD_MEMORY_IN_MB;
+		}
 	}
 
 	private static StorageInfo getDefaultInstance() {
@@ -349,6 +381,8 @@ public class StorageInfo extends AbstractPersistent {
 		info.setSnapshotTransferTimeoutInHours(DEFAULT_SNAPSHOT_TRANSFER_TIMEOUT);
 		info.setReadBuffferSizeInMB(DEFAULT_READ_BUFFER_SIZE_IN_MB);
 		info.setWriteBufferSizeInMB(DEFAULT_WRITE_BUFFER_SIZE_IN_MB);
+		info.setIncrementalSnapshots(DEFAULT_INCREMENTAL_SNAPSHOTS);
+		info.setMaxSnapshotUploadMemoryInMB(DEFAULT_MAX_SNAPSHOT_UPLOAD_MEMORY_IN_MB);
 		return info;
 	}
 
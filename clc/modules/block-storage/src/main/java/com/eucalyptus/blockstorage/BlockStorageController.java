@@ -1237,14 +1237,17 @@ public class BlockStorageController {
 				StorageResource snapshotResource = null;
 				SnapshotTransfer snapshotTransfer = null;
 				String bucket = null;
+				String key = null;
 
 				// Check whether the snapshot needs to be uploaded
-				shouldTransferSnapshots = StorageInfo.getStorageInfo().getShouldTransferSnapshots();
+				StorageInfo storageInfo = StorageInfo.getStorageInfo();
+				shouldTransferSnapshots = storageInfo.getShouldTransferSnapshots();
 
 				if (shouldTransferSnapshots) {
 					// Prepare for the snapshot upload (fetch credentials for snapshot upload to osg, create the bucket). Error out if this fails without
-					// creating the snapshot on the blockstorage backend
-					snapshotTransfer = new S3SnapshotTransfer(snapshotId, snapshotId);
+					// creating the snapshot on the blockstorage backend. Incremental snapshots are keyed by their manifest
+					key = storageInfo.getIncrementalSnapshots() ? SnapshotManifest.manifestKey(volumeId, snapshotId) : snapshotId;
+					snapshotTransfer = new S3SnapshotTransfer(snapshotId, key);
 					bucket = snapshotTransfer.prepareForUpload();
 
 					if (snapshotTransfer == null || StringUtils.isBlank(bucket)) {
@@ -1276,7 +1279,7 @@ public class BlockStorageController {
 					}
 
 					// Update snapshot location in database
-					String snapshotLocation = SnapshotInfo.generateSnapshotLocationURI(SnapshotTransferConfiguration.OSG, bucket, snapshotId);
+					String snapshotLocation = SnapshotInfo.generateSnapshotLocationURI(SnapshotTransferConfiguration.OSG, bucket, key);
 					SnapshotInfo snapInfo = new SnapshotInfo(snapshotId);
 					SnapshotInfo snapshotInfo = null;
 					try (TransactionResource tran = Entities.transactionFor(SnapshotInfo.class)) {
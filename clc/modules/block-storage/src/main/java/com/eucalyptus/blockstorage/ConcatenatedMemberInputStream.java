@@ -0,0 +1,54 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Input for a {@link java.util.zip.GZIPInputStream} reading a multi-member gzip stream, such as a snapshot uploaded with one gzip member per block.
+ * {@link SnapshotBlockCompressor} now writes a single member, so this is only needed for snapshots uploaded in that form.
+ * 
+ * GZIPInputStream only reads the gzip member following the current one if the underlying stream reports bytes available, which a network stream may
+ * not do between packets, so decompression can end silently after the first member. This stream reports at least one byte available until the end of
+ * the stream so all members are read. Snapshots with a single member, as uploaded before snapshots were compressed in blocks, are read the same way.
+ * Readers that wrap the object content directly in a GZIPInputStream, as older storage controllers do, are not safe for multi-member snapshots.
+ */
+final class ConcatenatedMemberInputStream extends PushbackInputStream {
+
+	ConcatenatedMemberInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int available() throws IOException {
+		int available = super.available();
+		if (available > 0) {
+			return available;
+		}
+		int next = read();
+		if (next < 0) {
+			return 0;
+		}
+		unread(next);
+		return 1;
+	}
+}
@@ -63,29 +63,26 @@
 package com.eucalyptus.blockstorage;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.Nullable;
 
@@ -104,11 +101,14 @@ import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
 import com.eucalyptus.auth.principal.Role;
@@ -137,6 +137,7 @@ import com.eucalyptus.objectstorage.client.EucaS3ClientFactory;
 import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.google.common.base.Function;
+import com.google.common.io.ByteStreams;
 
 /**
  * S3SnapshotTransfer manages snapshot transfers between SC and S3 API such as objectstorage gateway. An instance of the class must be obtained using one of the
@@ -168,15 +169,20 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 	private Integer poolSize;
 	private Integer readBufferSize;
 	private Integer writeBufferSize;
+	private Long maxUploadMemory;
 	private ServiceConfiguration serviceConfig;
 
 	// Static parameters
 	private static Role role;
+	private static final SnapshotMemoryBudget uploadMemory = new SnapshotMemoryBudget();
 
 	// Constants
 	private static final Integer TX_RETRIES = 20;
 	private static final Integer REFRESH_TOKEN_RETRIES = 1;
 	private static final String UNCOMPRESSED_SIZE_KEY = "uncompressedsize";
+	private static final Integer MAX_BUFFERED_PARTS = 2;
+	private static final Integer MAX_BLOCKS_IN_FLIGHT_PER_WORKER = 2;
+	private static final String RANGE_INDEX_SUFFIX = ".index";
 
 	public S3SnapshotTransfer() throws SnapshotTransferException {
 		initializeEucaS3Client();
@@ -250,170 +256,63 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 	 * {@link StorageInfo}. Bucket name should be configured before invoking this method. It can be looked up and initialized by {@link #prepareForUpload()} or
 	 * explicitly set using {@link #setBucketName(String)}
 	 * 
-	 * @param sourceFileName
-	 *            absolute path to the snapshot on the file system
+	 * The snapshot is compressed in blocks on a pool of workers and the compressed parts are uploaded from memory as they are assembled. The compressed
+	 * snapshot is a single gzip member with the deflate data flushed at the end of each block. If the key names a {@link SnapshotManifest} the snapshot is uploaded incrementally.
+	 * 
+	 * Each upload holds up to {@link #MAX_BUFFERED_PARTS} queued parts in memory, plus the part being assembled, the part waiting for the queue and the part
+	 * being uploaded, each about the part size. The memory is reserved from a budget shared by all uploads, configured by
+	 * {@link StorageInfo#getMaxSnapshotUploadMemoryInMB()}, and an upload waits to start until its reservation fits. The heap of the storage controller
+	 * must allow for the budget in addition to its other use.
+	 * 
+	 * @param storageResource
+	 *            the snapshot to upload
 	 */
 	@Override
 	public void upload(StorageResource storageResource) throws SnapshotTransferException {
 		validateInput(); // Validate input
 		loadTransferConfig(); // Load the transfer configuration parameters from database
+		if (SnapshotManifest.isManifestKey(keyName)) {
+			uploadIncremental(storageResource);
+			return;
+		}
 		SnapshotProgressCallback progressCallback = new SnapshotProgressCallback(snapshotId); // Setup the progress callback
 
 		Boolean error = Boolean.FALSE;
-		ArrayBlockingQueue<SnapshotPart> partQueue = null;
-		SnapshotPart part = null;
 		SnapshotUploadInfo snapUploadInfo = null;
-		Future<List<PartETag>> uploadPartsFuture = null;
-		Future<String> completeUploadFuture = null;
-
-		byte[] buffer = new byte[readBufferSize];
-		Long readOffset = 0L;
-		Long bytesRead = 0L;
-		Long bytesWritten = 0L;
-		int len;
-		int partNumber = 1;
+		UploadPartHandler partHandler = null;
+		InputStream inputStream = null;
+		SnapshotMemoryBudget.Reservation reservation = null;
 
 		try {
 			// Get the uncompressed file size for uploading as metadata
 			Long uncompressedSize = storageResource.getSize();
 
-			// Setup the snapshot and part entities.
-			snapUploadInfo = SnapshotUploadInfo.create(snapshotId, bucketName, keyName);
-			Path zipFilePath = Files.createTempFile(keyName + '-', '-' + String.valueOf(partNumber));
-			part = SnapshotPart.createPart(snapUploadInfo, zipFilePath.toString(), partNumber, readOffset);
-
-			InputStream inputStream = storageResource.getInputStream();
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			GZIPOutputStream gzipStream = new GZIPOutputStream(baos);
-			FileOutputStream outputStream = new FileOutputStream(zipFilePath.toString());
-
-			try {
-				LOG.debug("Reading snapshot " + snapshotId + " and compressing it to disk in chunks of size " + partSize + " bytes or greater");
-				while ((len = inputStream.read(buffer)) > 0) {
-					bytesRead += len;
-					gzipStream.write(buffer, 0, len);
-
-					if ((bytesWritten + baos.size()) < partSize) {
-						baos.writeTo(outputStream);
-						bytesWritten += baos.size();
-						baos.reset();
-					} else {
-						gzipStream.close();
-						baos.writeTo(outputStream); // Order is important. Closing the gzip stream flushes stuff
-						bytesWritten += baos.size();
-						baos.reset();
-						outputStream.close();
-
-						if (partNumber > 1) {// Update the part status
-							part = part.updateStateCreated(bytesWritten, bytesRead, Boolean.FALSE);
-						} else {// Initialize multipart upload only once after the first part is created
-							LOG.info("Uploading snapshot " + snapshotId + " to objectstorage using multipart upload");
-							progressCallback.setUploadSize(uncompressedSize);
-							uploadId = initiateMulitpartUpload(uncompressedSize);
-							snapUploadInfo = snapUploadInfo.updateUploadId(uploadId);
-							part = part.updateStateCreated(uploadId, bytesWritten, bytesRead, Boolean.FALSE);
-							partQueue = new ArrayBlockingQueue<SnapshotPart>(queueSize);
-							uploadPartsFuture = Threads.enqueue(serviceConfig, UploadPartTask.class, poolSize, new UploadPartTask(partQueue, progressCallback));
-						}
-
-						// Check for the future task before adding part to the queue.
-						if (uploadPartsFuture != null && uploadPartsFuture.isDone()) {
-							// This task shouldn't be done until the last part is added. If it is done at this point, then something might have gone wrong
-							throw new SnapshotUploadPartException(
-									"Error uploading parts, aborting part creation process. Check previous log messages for the exact error");
-						}
-
-						// Add part to the queue
-						partQueue.put(part);
-
-						// Prep the metadata for the next part
-						readOffset += bytesRead;
-						bytesRead = 0L;
-						bytesWritten = 0L;
-
-						// Setup the part entity for next part
-						zipFilePath = Files.createTempFile(keyName + '-', '-' + String.valueOf((++partNumber)));
-						part = SnapshotPart.createPart(snapUploadInfo, zipFilePath.toString(), partNumber, readOffset);
-
-						gzipStream = new GZIPOutputStream(baos);
-						outputStream = new FileOutputStream(zipFilePath.toString());
-					}
-				}
-
-				gzipStream.close();
-				baos.writeTo(outputStream);
-				bytesWritten += baos.size();
-				baos.reset();
-				outputStream.close();
-				inputStream.close();
-
-				// Update the part status
-				part = part.updateStateCreated(bytesWritten, bytesRead, Boolean.TRUE);
-
-				// Update the snapshot upload info status
-				snapUploadInfo = snapUploadInfo.updateStateCreatedParts(partNumber);
-			} catch (Exception e) {
-				LOG.error("Failed to upload " + snapshotId + " due to: ", e);
-				error = Boolean.TRUE;
-				throw new SnapshotTransferException("Failed to upload " + snapshotId + " due to: ", e);
-			} finally {
-				if (inputStream != null) {
-					try {
-						inputStream.close();
-					} catch (Exception e) {
-
-					}
-				}
-				if (gzipStream != null) {
-					try {
-						gzipStream.close();
-					} catch (Exception e) {
+			// Reserve memory for the compressed parts, waiting on other uploads if necessary
+			final int compressionThreads = Runtime.getRuntime().availableProcessors();
+			long uploadMemoryRequired = (Math.max(1, Math.min(queueSize, MAX_BUFFERED_PARTS)) + 3) * (partSize + readBufferSize) + 4L * compressionThreads
+					* readBufferSize;
+			if (uploadMemory.getReserved() + uploadMemoryRequired > maxUploadMemory) {
+				LOG.info("Snapshot " + snapshotId + " upload waiting for " + uploadMemoryRequired + " bytes of upload memory, " + uploadMemory.getReserved()
+						+ " of " + maxUploadMemory + " bytes in use by other uploads");
+			}
+			reservation = uploadMemory.reserve(uploadMemoryRequired, maxUploadMemory);
 
-					}
-				}
-				if (outputStream != null) {
-					try {
-						outputStream.close();
-					} catch (Exception e) {
+			// Setup the snapshot entity and the part handler
+			snapUploadInfo = SnapshotUploadInfo.create(snapshotId, bucketName, keyName);
+			SnapshotRangeIndex rangeIndex = new SnapshotRangeIndex(writeBufferSize);
+			partHandler = new UploadPartHandler(snapUploadInfo, uncompressedSize, progressCallback, rangeIndex, reservation);
 
-					}
+			SnapshotBlockCompressor compressor = new SnapshotBlockCompressor(new SnapshotBlockCompressor.BlockSubmitter() {
+				@Override
+				public <T> Future<T> submit(Callable<T> task) {
+					return Threads.enqueue(serviceConfig, SnapshotBlockCompressor.class, compressionThreads, task);
 				}
-				baos.reset();
-			}
+			}, readBufferSize, 2 * compressionThreads, partSize);
 
-			if (partNumber > 1) {
-				// Check for the future task before adding the last part to the queue.
-				if (uploadPartsFuture != null && uploadPartsFuture.isDone()) {
-					// This task shouldn't be done until the last part is added. If it is done at this point, then something might have gone wrong
-					throw new SnapshotUploadPartException(
-							"Error uploading parts, aborting part upload process. Check previous log messages for the exact error");
-				}
-				// Add the last part to the queue
-				partQueue.put(part);
-				// Kick off the completion task
-				completeUploadFuture = Threads.enqueue(serviceConfig, CompleteMpuTask.class, poolSize, new CompleteMpuTask(uploadPartsFuture, snapUploadInfo,
-						partNumber));
-			} else {
-				try {
-					LOG.info("Uploading snapshot " + snapshotId + " to objectstorage as a single object. Compressed size of snapshot (" + bytesWritten
-							+ " bytes) is less than minimum part size (" + partSize + " bytes) for multipart upload");
-					PutObjectResult putResult = uploadSnapshotAsSingleObject(zipFilePath.toString(), bytesWritten, uncompressedSize, progressCallback);
-					markSnapshotAvailable();
-					try {
-						part = part.updateStateUploaded(putResult.getETag());
-						snapUploadInfo = snapUploadInfo.updateStateUploaded(putResult.getETag());
-					} catch (Exception e) {
-						LOG.debug("Failed to update status in DB for " + snapUploadInfo);
-					}
-					LOG.info("Uploaded snapshot " + snapshotId + " to objectstorage");
-				} catch (Exception e) {
-					error = Boolean.TRUE;
-					LOG.error("Failed to upload snapshot " + snapshotId + " due to: ", e);
-					throw new SnapshotTransferException("Failed to upload snapshot " + snapshotId + " due to: ", e);
-				} finally {
-					deleteFile(zipFilePath);
-				}
-			}
+			LOG.debug("Reading snapshot " + snapshotId + " and compressing it in blocks of " + readBufferSize + " bytes into parts of size " + partSize
+					+ " bytes or greater");
+			inputStream = storageResource.getInputStream();
+			compressor.compress(inputStream, partHandler, rangeIndex);
 		} catch (SnapshotTransferException e) {
 			error = Boolean.TRUE;
 			throw e;
@@ -422,15 +321,22 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 			LOG.error("Failed to upload snapshot " + snapshotId + " due to: ", e);
 			throw new SnapshotTransferException("Failed to upload snapshot " + snapshotId + " due to: ", e);
 		} finally {
-			if (error) {
-				abortUpload(snapUploadInfo);
-				if (uploadPartsFuture != null && !uploadPartsFuture.isDone()) {
-					uploadPartsFuture.cancel(true);
+			if (inputStream != null) {
+				try {
+					inputStream.close();
+				} catch (Exception e) {
+
 				}
-				if (completeUploadFuture != null && !completeUploadFuture.isDone()) {
-					completeUploadFuture.cancel(true);
+			}
+			if (error) {
+				abortUpload(partHandler != null ? partHandler.snapUploadInfo : snapUploadInfo);
+				if (partHandler != null) {
+					partHandler.cancel();
 				}
 			}
+			if (reservation != null && (error || partHandler == null || partHandler.completeUploadFuture == null)) {
+				reservation.release(); // else released by the completion task once the parts are uploaded
+			}
 		}
 	}
 
@@ -462,126 +368,139 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 	}
 
 	/**
-	 * Downloads the compressed snapshot from objectstorage gateway to the filesystem
+	 * Downloads the compressed snapshot from objectstorage gateway to the storage resource. If the snapshot has a {@link SnapshotRangeIndex} the ranges are
+	 * fetched and decompressed in parallel and all-zero ranges are not fetched. All-zero regions are skipped rather than written if the storage resource
+	 * supports positional writes
 	 */
 	public void download(StorageResource storageResource) throws SnapshotTransferException {
 		validateInput();
 		loadTransferConfig();
+		if (SnapshotManifest.isManifestKey(keyName)) {
+			downloadIncremental(storageResource);
+			return;
+		}
 
+		SnapshotRangeIndex rangeIndex = null;
+		try {
+			rangeIndex = SnapshotRangeIndex.parse(getObjectBytes(rangeIndexKey()));
+		} catch (Exception e) {
+			LOG.debug("No usable range index for snapshot " + snapshotId + ", snapshot will be downloaded as a single stream");
+		}
+
+		if (rangeIndex != null) {
+			downloadRanges(storageResource, rangeIndex);
+		} else {
+			downloadStream(storageResource);
+		}
+	}
+
+	/**
+	 * Fetches the ranges of the compressed snapshot and decompresses them on a pool of workers, writing them to the storage resource in order
+	 */
+	private void downloadRanges(StorageResource storageResource, SnapshotRangeIndex rangeIndex) throws SnapshotTransferException {
+		Deque<PendingRange> pendingRanges = new ArrayDeque<PendingRange>();
+		SnapshotWriter writer = null;
+
+		try {
+			LOG.debug("Downloading " + rangeIndex.getRanges().size() + " ranges of snapshot " + snapshotId + " from objectstorage");
+			writer = SnapshotWriter.forResource(storageResource);
+			for (SnapshotRangeIndex.Range range : rangeIndex.getRanges()) {
+				Future<byte[]> future = null;
+				if (!range.isZero()) {
+					future = Threads.enqueue(serviceConfig, RangeDownloadTask.class, poolSize, new RangeDownloadTask(range, rangeIndex.isGzipMembers()));
+				}
+				pendingRanges.add(new PendingRange(range, future));
+
+				// Write ranges in order as they complete or when too many ranges are in flight
+				while (pendingRanges.size() > MAX_BLOCKS_IN_FLIGHT_PER_WORKER * poolSize
+						|| (!pendingRanges.isEmpty() && pendingRanges.peek().isDone())) {
+					pendingRanges.poll().write(writer);
+				}
+			}
+			while (!pendingRanges.isEmpty()) {
+				pendingRanges.poll().write(writer);
+			}
+
+			writer.finish(rangeIndex.getSize());
+			writer = null;
+			LOG.info("Downloaded snapshot " + snapshotId + " to storage backend");
+		} catch (Exception e) {
+			throw new SnapshotTransferException("Failed to download snapshot " + snapshotId + " to storage backend", e);
+		} finally {
+			for (PendingRange range : pendingRanges) {
+				range.cancel();
+			}
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Downloads and decompresses the snapshot as a single stream. Snapshots uploaded without a range index are downloaded this way. Snapshots uploaded
+	 * as one gzip member per block may still exist, so the content is read through a {@link ConcatenatedMemberInputStream}
+	 */
+	private void downloadStream(StorageResource storageResource) throws SnapshotTransferException {
 		S3Object snapObj = download();
 
 		if (snapObj != null && snapObj.getObjectContent() != null) {
-			byte[] buffer = new byte[10 * readBufferSize];
+			byte[] buffer = new byte[writeBufferSize];
 			int len;
 			GZIPInputStream gzipInputStream = null;
 
 			try {
-				gzipInputStream = new GZIPInputStream(new BufferedInputStream(snapObj.getObjectContent(), buffer.length * 3), buffer.length * 2);
+				gzipInputStream = new GZIPInputStream(new ConcatenatedMemberInputStream(new BufferedInputStream(snapObj.getObjectContent(),
+						readBufferSize * 3)), readBufferSize * 2);
 
 				if (storageResource.isDownloadSynchronous()) { // Download and unzip snapshot to the storage device directly
-					OutputStream outputStream = null;
+					SnapshotWriter writer = SnapshotWriter.forResource(storageResource);
+					long position = 0;
 					try {
-						outputStream = storageResource.getOutputStream();
-						while ((len = gzipInputStream.read(buffer)) > 0) {
-							// Write to the output stream
-							outputStream.write(buffer, 0, len);
+						while ((len = SnapshotBlockCompressor.readBlock(gzipInputStream, buffer)) > 0) {
+							writer.write(position, buffer, 0, len);
+							position += len;
 						}
-
-						// Close the streams and free the resources
-						gzipInputStream.close();
-						outputStream.close();
-						buffer = null;
+						writer.finish(position);
+						writer = null;
 					} finally {
-						try {
-							if (outputStream != null)
-								outputStream.close();
-						} catch (Exception e) {
-
+						if (writer != null) {
+							writer.close();
 						}
 					}
-				} else { // Download and unzip snpashot to disk in parts and write the parts to storage backend in parallel
-					ArrayBlockingQueue<SnapshotPart> partQueue = new ArrayBlockingQueue<SnapshotPart>(queueSize);
+				} else { // Download and unzip snapshot in parts and write the parts to storage backend in parallel
+					ArrayBlockingQueue<BufferedPart> partQueue = new ArrayBlockingQueue<BufferedPart>(Math.max(1, Math.min(queueSize, MAX_BUFFERED_PARTS)));
 					Future<String> storageWriterFuture = Threads.enqueue(serviceConfig, StorageWriterTask.class, poolSize, new StorageWriterTask(partQueue,
 							storageResource));
 
-					FileOutputStream fileOutputStream = null;
-					long bytesWritten = 0;
-					int partNumber = 1;
-
 					try {
-						Path filePath = Files.createTempFile(snapshotId + '-', '-' + String.valueOf(partNumber));
-						fileOutputStream = new FileOutputStream(filePath.toString());
-						SnapshotPart part = new SnapshotPart();
-						part.setFileName(filePath.toString());
-						part.setPartNumber(partNumber);
-						part.setIsLast(Boolean.FALSE);
-
-						while ((len = gzipInputStream.read(buffer)) > 0) {
-							if ((bytesWritten + len) < writeBufferSize) {
-								fileOutputStream.write(buffer, 0, len);
-								bytesWritten += len;
-							} else {
-								fileOutputStream.write(buffer, 0, len);
-								bytesWritten += len;
-								fileOutputStream.close();
-
-								// Check if writer is still relevant
+						int partNumber = 1;
+						BufferedPart bufferedPart = null;
+						do {
+							len = SnapshotBlockCompressor.readBlock(gzipInputStream, buffer);
+							SnapshotPart part = new SnapshotPart();
+							part.setPartNumber(partNumber++);
+							part.setSize((long) len);
+							part.setIsLast(len < buffer.length);
+
+							// Add the part to the queue, checking that the writer is still relevant
+							bufferedPart = new BufferedPart(part, buffer, len);
+							do {
 								if (storageWriterFuture.isDone()) {
 									throw new SnapshotTransferException(
 											"Error writing snapshot to backend, check previous log messages for more details. Aborting download and unzip process");
 								}
-
-								// Add the part to the queue
-								part.setSize(bytesWritten);
-								partQueue.put(part);
-
-								// Prep for the next part
-								bytesWritten = 0;
-								filePath = Files.createTempFile(snapshotId + '-', '-' + String.valueOf(++partNumber));
-								fileOutputStream = new FileOutputStream(filePath.toString());
-								part = new SnapshotPart();
-								part.setFileName(filePath.toString());
-								part.setPartNumber(partNumber);
-								part.setIsLast(Boolean.FALSE);
-							}
-						}
-
-						// Close the streams and free the resources
-						gzipInputStream.close();
-						fileOutputStream.close();
-						buffer = null;
-
-						// Add the last part to the queue
-						part.setSize(bytesWritten);
-						part.setIsLast(Boolean.TRUE);
-						partQueue.put(part);
+							} while (!partQueue.offer(bufferedPart, 1, TimeUnit.SECONDS));
+							buffer = new byte[writeBufferSize];
+						} while (!bufferedPart.part.getIsLast());
 
 						if (StringUtils.isNotBlank(storageWriterFuture.get(transferTimeout, TimeUnit.HOURS))) {
 							LOG.info("Downloaded snapshot " + snapshotId + " to storage backend");
 						} else {
 							throw new SnapshotTransferException("Failed to download snapshot " + snapshotId + " to storage backend");
 						}
-					} catch (Exception e) {
-						// Clean up the files that were created
-						try {
-							if (!storageWriterFuture.isDone()) {
-								storageWriterFuture.cancel(true);
-							}
-							List<SnapshotPart> remainingParts = new ArrayList<SnapshotPart>();
-							partQueue.drainTo(remainingParts);
-							for (SnapshotPart part : remainingParts) {
-								deleteFile(part.getFileName());
-							}
-						} catch (Exception ex) {
-							LOG.warn("Unable to clean up artifacts left by a failed attempt to download " + snapshotId + " to storage backend", ex);
-						}
-						throw e;
 					} finally {
-						try {
-							if (fileOutputStream != null)
-								fileOutputStream.close();
-						} catch (Exception e) {
-
+						if (!storageWriterFuture.isDone()) {
+							storageWriterFuture.cancel(true);
 						}
 					}
 				}
@@ -615,6 +534,10 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 	public void delete() throws SnapshotTransferException {
 		LOG.debug("Deleting snapshot from objectstorage: snapshotId=" + snapshotId + ", bucket=" + bucketName + ", key=" + keyName);
 		validateInput();
+		if (SnapshotManifest.isManifestKey(keyName)) {
+			deleteIncremental();
+			return;
+		}
 		try {
 			retryAfterRefresh(new Function<DeleteObjectRequest, String>() {
 
@@ -631,6 +554,11 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 			throw new SnapshotTransferException("Failed to delete snapshot from objectstorage: snapshotId=" + snapshotId + ", bucket=" + bucketName + ", key="
 					+ keyName, e);
 		}
+		try {
+			deleteObject(rangeIndexKey());
+		} catch (Exception e) {
+			LOG.debug("Failed to delete range index of snapshot " + snapshotId + " from objectstorage", e);
+		}
 	}
 
 	@Override
@@ -699,6 +627,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		this.poolSize = info.getMaxConcurrentSnapshotTransfers();
 		this.readBufferSize = info.getReadBuffferSizeInMB() * 1024 * 1024;
 		this.writeBufferSize = info.getWriteBufferSizeInMB() * 1024 * 1024;
+		this.maxUploadMemory = info.getMaxSnapshotUploadMemoryInMB() * 1024L * 1024L;
 	}
 
 	private void validateInput() throws SnapshotTransferException {
@@ -792,17 +721,16 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		}
 	}
 
-	private PutObjectResult uploadSnapshotAsSingleObject(String compressedSnapFileName, Long actualSize, Long uncompressedSize,
-			SnapshotProgressCallback callback) throws Exception {
-		callback.setUploadSize(actualSize);
-		FileInputStreamWithCallback snapInputStream = new FileInputStreamWithCallback(new File(compressedSnapFileName), callback);
+	private PutObjectResult uploadSnapshotAsSingleObject(byte[] data, int length, Long uncompressedSize, SnapshotProgressCallback callback)
+			throws Exception {
+		callback.setUploadSize(length);
 		ObjectMetadata objectMetadata = new ObjectMetadata();
 		Map<String, String> userMetadataMap = new HashMap<String, String>();
 		userMetadataMap.put(UNCOMPRESSED_SIZE_KEY, String.valueOf(uncompressedSize)); // Send the uncompressed length as the metadata
 		objectMetadata.setUserMetadata(userMetadataMap);
-		objectMetadata.setContentLength(actualSize);
+		objectMetadata.setContentLength(length);
 
-		return retryAfterRefresh(new Function<PutObjectRequest, PutObjectResult>() {
+		PutObjectResult result = retryAfterRefresh(new Function<PutObjectRequest, PutObjectResult>() {
 
 			@Override
 			@Nullable
@@ -811,7 +739,9 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 				return eucaS3Client.putObject(arg0);
 			}
 
-		}, new PutObjectRequest(bucketName, keyName, snapInputStream, objectMetadata), REFRESH_TOKEN_RETRIES);
+		}, new PutObjectRequest(bucketName, keyName, new ByteArrayInputStream(data, 0, length), objectMetadata), REFRESH_TOKEN_RETRIES);
+		callback.update(length);
+		return result;
 	}
 
 	private String initiateMulitpartUpload(Long uncompressedSize) throws SnapshotInitializeMpuException {
@@ -847,7 +777,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		return initResponse.getUploadId();
 	}
 
-	private PartETag uploadPart(SnapshotPart part, SnapshotProgressCallback progressCallback) throws SnapshotUploadPartException {
+	private PartETag uploadPart(SnapshotPart part, byte[] data, int length, SnapshotProgressCallback progressCallback) throws SnapshotUploadPartException {
 		try {
 			part = part.updateStateUploading();
 		} catch (Exception e) {
@@ -867,7 +797,8 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 						}
 					},
 					new UploadPartRequest().withBucketName(part.getBucketName()).withKey(part.getKeyName()).withUploadId(part.getUploadId())
-							.withPartNumber(part.getPartNumber()).withPartSize(part.getSize()).withFile(new File(part.getFileName())), REFRESH_TOKEN_RETRIES);
+							.withPartNumber(part.getPartNumber()).withPartSize(length).withInputStream(new ByteArrayInputStream(data, 0, length)),
+					REFRESH_TOKEN_RETRIES);
 
 			progressCallback.update(part.getInputFileBytesRead());
 
@@ -886,8 +817,6 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 				LOG.debug("Failed to update part status in DB. Moving on. " + part);
 			}
 			throw new SnapshotUploadPartException("Failed to upload part " + part, e);
-		} finally {
-			deleteFile(part.getFileName());
 		}
 	}
 
@@ -943,24 +872,6 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		}
 	}
 
-	private void deleteFile(String fileName) {
-		if (StringUtils.isNotBlank(fileName)) {
-			try {
-				Files.deleteIfExists(Paths.get(fileName));
-			} catch (IOException e) {
-				LOG.debug("Failed to delete file: " + fileName);
-			}
-		}
-	}
-
-	private void deleteFile(Path path) {
-		try {
-			Files.deleteIfExists(path);
-		} catch (IOException e) {
-			LOG.debug("Failed to delete file: " + path.toString());
-		}
-	}
-
 	private void markSnapshotAvailable() throws TransactionException, NoSuchElementException {
 		Function<String, SnapshotInfo> updateFunction = new Function<String, SnapshotInfo>() {
 
@@ -1004,6 +915,393 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		Entities.asTransaction(SnapshotInfo.class, updateFunction, TX_RETRIES).apply(snapshotId);
 	}
 
+	/**
+	 * Uploads the snapshot as blocks keyed by content hash and a {@link SnapshotManifest} listing the blocks in order. Blocks that are unchanged since the
+	 * latest available incremental snapshot of the volume are not uploaded again. The manifest is uploaded once all blocks are stored.
+	 */
+	private void uploadIncremental(StorageResource storageResource) throws SnapshotTransferException {
+		SnapshotProgressCallback progressCallback = new SnapshotProgressCallback(snapshotId); // Setup the progress callback
+
+		Boolean error = Boolean.FALSE;
+		Boolean manifestUploaded = Boolean.FALSE;
+		Deque<PendingBlock> pendingBlocks = new ArrayDeque<PendingBlock>();
+		InputStream inputStream = null;
+
+		try {
+			String volumeId = lookupVolumeId();
+			SnapshotManifest parent = loadParentManifest(volumeId, SnapshotManifest.DEFAULT_BLOCK_SIZE);
+			SnapshotManifest manifest = new SnapshotManifest(volumeId, snapshotId, parent != null ? parent.getSnapshotId() : null,
+					SnapshotManifest.DEFAULT_BLOCK_SIZE);
+			Set<String> storedBlocks = parent != null ? parent.getDistinctBlockHashes() : new HashSet<String>();
+			progressCallback.setUploadSize(storageResource.getSize());
+
+			LOG.info("Uploading snapshot " + snapshotId + " to objectstorage as an incremental snapshot"
+					+ (parent != null ? " of " + parent.getSnapshotId() : " with no previous snapshot"));
+			inputStream = storageResource.getInputStream();
+			byte[] buffer = new byte[manifest.getBlockSize()];
+			int length;
+			int uploadedBlocks = 0;
+			while ((length = SnapshotBlockCompressor.readBlock(inputStream, buffer)) > 0) {
+				String hash = SnapshotManifest.hash(buffer, 0, length);
+				manifest.addBlock(hash, length);
+				if (storedBlocks.add(hash)) { // New or changed block, upload it and use a new buffer for the next block
+					pendingBlocks.add(new PendingBlock(Threads.enqueue(serviceConfig, BlockUploadTask.class, poolSize,
+							new BlockUploadTask(manifest.blockKey(hash), buffer, length)), length));
+					buffer = new byte[manifest.getBlockSize()];
+					uploadedBlocks++;
+				} else {
+					progressCallback.update(length);
+				}
+
+				// Wait for uploads to catch up when too many blocks are in flight
+				while (pendingBlocks.size() > MAX_BLOCKS_IN_FLIGHT_PER_WORKER * poolSize
+						|| (!pendingBlocks.isEmpty() && pendingBlocks.peek().future.isDone())) {
+					progressCallback.update(pendingBlocks.poll().get());
+				}
+			}
+			while (!pendingBlocks.isEmpty()) {
+				progressCallback.update(pendingBlocks.poll().get());
+			}
+
+			putObject(keyName, manifest.toBytes(), manifest.getSize());
+			manifestUploaded = Boolean.TRUE;
+			markSnapshotAvailable();
+			LOG.info("Uploaded snapshot " + snapshotId + " to objectstorage, stored " + uploadedBlocks + " of " + manifest.getBlockHashes().size()
+					+ " blocks");
+		} catch (SnapshotTransferException e) {
+			error = Boolean.TRUE;
+			throw e;
+		} catch (Exception e) {
+			error = Boolean.TRUE;
+			LOG.error("Failed to upload snapshot " + snapshotId + " due to: ", e);
+			throw new SnapshotTransferException("Failed to upload snapshot " + snapshotId + " due to: ", e);
+		} finally {
+			if (inputStream != null) {
+				try {
+					inputStream.close();
+				} catch (Exception e) {
+
+				}
+			}
+			if (error) {
+				// Blocks that were stored are left in place, another upload of the volume may be referencing them
+				for (PendingBlock block : pendingBlocks) {
+					block.future.cancel(true);
+				}
+				if (manifestUploaded) {
+					try {
+						deleteObject(keyName);
+					} catch (Exception e) {
+						LOG.debug("Failed to delete manifest of snapshot " + snapshotId + " after a failed upload", e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Downloads the blocks listed in the {@link SnapshotManifest} on a pool of workers and writes them to the storage resource in order
+	 */
+	private void downloadIncremental(StorageResource storageResource) throws SnapshotTransferException {
+		SnapshotManifest manifest = SnapshotManifest.parse(getObjectBytes(keyName));
+		Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+		SnapshotWriter writer = null;
+		long position = 0;
+
+		try {
+			LOG.debug("Downloading " + manifest.getBlockHashes().size() + " blocks of snapshot " + snapshotId + " from objectstorage");
+			writer = SnapshotWriter.forResource(storageResource);
+			String previousHash = null;
+			Future<byte[]> previousBlock = null;
+			for (String hash : manifest.getBlockHashes()) {
+				if (!hash.equals(previousHash)) { // Runs of identical blocks, such as unwritten regions, are fetched once
+					previousBlock = Threads.enqueue(serviceConfig, BlockDownloadTask.class, poolSize,
+							new BlockDownloadTask(manifest.blockKey(hash), hash, manifest.getBlockSize()));
+					previousHash = hash;
+				}
+				pendingBlocks.add(previousBlock);
+
+				// Write blocks in order when too many blocks are in flight
+				while (pendingBlocks.size() > MAX_BLOCKS_IN_FLIGHT_PER_WORKER * poolSize) {
+					position += writeBlock(writer, position, blockContent(pendingBlocks.poll()));
+				}
+			}
+			while (!pendingBlocks.isEmpty()) {
+				position += writeBlock(writer, position, blockContent(pendingBlocks.poll()));
+			}
+
+			writer.finish(manifest.getSize());
+			writer = null;
+			LOG.info("Downloaded snapshot " + snapshotId + " to storage backend");
+		} catch (SnapshotTransferException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SnapshotTransferException("Failed to download snapshot " + snapshotId + " to storage backend", e);
+		} finally {
+			for (Future<byte[]> block : pendingBlocks) {
+				block.cancel(true);
+			}
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the {@link SnapshotManifest} of the snapshot, keeping it under the deleted manifest key until its blocks are reclaimed
+	 */
+	private void deleteIncremental() throws SnapshotTransferException {
+		byte[] content = null;
+		try {
+			content = getObjectBytes(keyName);
+		} catch (SnapshotTransferException e) {
+			if (isNotFound(e)) {
+				LOG.debug("Manifest of snapshot " + snapshotId + " is already deleted from objectstorage: bucket=" + bucketName + ", key=" + keyName);
+				return;
+			}
+			throw e;
+		}
+
+		SnapshotManifest manifest = SnapshotManifest.parse(content);
+		putObject(SnapshotManifest.deletedManifestKey(manifest.getVolumeId(), manifest.getSnapshotId()), content, manifest.getSize());
+		deleteObject(keyName);
+
+		try {
+			reclaimDeletedBlocks(manifest.getVolumeId());
+		} catch (Exception e) {
+			LOG.warn("Failed to reclaim blocks of deleted snapshots of " + manifest.getVolumeId() + ", will retry on next snapshot deletion", e);
+		}
+	}
+
+	/**
+	 * Deletes the blocks of deleted snapshots of the volume that are not referenced by the remaining snapshots of the volume. Nothing is reclaimed while
+	 * a snapshot of the volume is being created since the blocks it relies on are not yet listed in a manifest.
+	 */
+	private void reclaimDeletedBlocks(String volumeId) throws SnapshotTransferException {
+		if (isSnapshotInProgress(volumeId)) {
+			LOG.debug("Deferring reclaiming blocks of deleted snapshots of " + volumeId + " as a snapshot of the volume is in progress");
+			return;
+		}
+
+		List<String> deletedKeys = listKeys(SnapshotManifest.deletedManifestKeyPrefix(volumeId));
+		if (deletedKeys.isEmpty()) {
+			return;
+		}
+		List<SnapshotManifest> deleted = new ArrayList<SnapshotManifest>();
+		for (String key : deletedKeys) {
+			deleted.add(SnapshotManifest.parse(getObjectBytes(key)));
+		}
+		List<SnapshotManifest> live = new ArrayList<SnapshotManifest>();
+		for (String key : listKeys(SnapshotManifest.manifestKeyPrefix(volumeId))) {
+			live.add(SnapshotManifest.parse(getObjectBytes(key)));
+		}
+
+		Set<String> unreferenced = SnapshotManifest.unreferencedBlocks(deleted, live);
+		for (String hash : unreferenced) {
+			deleteObject(SnapshotManifest.blockKey(volumeId, hash));
+		}
+		for (String key : deletedKeys) {
+			deleteObject(key);
+		}
+		LOG.info("Reclaimed " + unreferenced.size() + " blocks of " + deletedKeys.size() + " deleted snapshots of " + volumeId);
+	}
+
+	private String lookupVolumeId() throws SnapshotTransferException {
+		try (TransactionResource tr = Entities.transactionFor(SnapshotInfo.class)) {
+			String volumeId = Entities.uniqueResult(new SnapshotInfo(snapshotId)).getVolumeId();
+			tr.commit();
+			return volumeId;
+		} catch (Exception e) {
+			throw new SnapshotTransferException("Failed to look up volume of snapshot " + snapshotId, e);
+		}
+	}
+
+	/**
+	 * Loads the manifest of the latest available incremental snapshot of the volume in the same bucket. Returns null if there is no such snapshot or its
+	 * blocks cannot be reused, in which case all blocks are uploaded.
+	 */
+	private SnapshotManifest loadParentManifest(String volumeId, int blockSize) {
+		SnapshotInfo latest = null;
+		String latestKey = null;
+		try (TransactionResource tr = Entities.transactionFor(SnapshotInfo.class)) {
+			SnapshotInfo example = new SnapshotInfo();
+			example.setVolumeId(volumeId);
+			example.setStatus(StorageProperties.Status.available.toString());
+			for (SnapshotInfo snapshot : Entities.query(example)) {
+				if (snapshotId.equals(snapshot.getSnapshotId()) || StringUtils.isBlank(snapshot.getSnapshotLocation())) {
+					continue;
+				}
+				String[] names = SnapshotInfo.getSnapshotBucketKeyNames(snapshot.getSnapshotLocation());
+				if (bucketName.equals(names[0]) && SnapshotManifest.isManifestKey(names[1])
+						&& (latest == null || snapshot.getCreationTimestamp().after(latest.getCreationTimestamp()))) {
+					latest = snapshot;
+					latestKey = names[1];
+				}
+			}
+			tr.commit();
+		} catch (Exception e) {
+			LOG.debug("Failed to look up previous snapshots of " + volumeId, e);
+			return null;
+		}
+
+		if (latestKey != null) {
+			try {
+				SnapshotManifest parent = SnapshotManifest.parse(getObjectBytes(latestKey));
+				if (parent.hasBlocksFor(volumeId, blockSize)) {
+					return parent;
+				}
+			} catch (Exception e) {
+				LOG.warn("Failed to load manifest of snapshot " + latest.getSnapshotId() + ", all blocks of " + snapshotId + " will be uploaded", e);
+			}
+		}
+		return null;
+	}
+
+	private boolean isSnapshotInProgress(String volumeId) {
+		try (TransactionResource tr = Entities.transactionFor(SnapshotInfo.class)) {
+			SnapshotInfo example = new SnapshotInfo();
+			example.setScName(null);
+			example.setVolumeId(volumeId);
+			example.setStatus(StorageProperties.Status.creating.toString());
+			boolean inProgress = !Entities.query(example).isEmpty();
+			tr.commit();
+			return inProgress;
+		} catch (Exception e) {
+			LOG.debug("Failed to look up snapshots in progress for " + volumeId, e);
+			return true;
+		}
+	}
+
+	private void putObject(String key, byte[] data, Long uncompressedSize) throws SnapshotTransferException {
+		ObjectMetadata objectMetadata = new ObjectMetadata();
+		if (uncompressedSize != null) {
+			Map<String, String> userMetadataMap = new HashMap<String, String>();
+			userMetadataMap.put(UNCOMPRESSED_SIZE_KEY, String.valueOf(uncompressedSize));
+			objectMetadata.setUserMetadata(userMetadataMap);
+		}
+		objectMetadata.setContentLength(data.length);
+
+		retryAfterRefresh(new Function<PutObjectRequest, PutObjectResult>() {
+
+			@Override
+			@Nullable
+			public PutObjectResult apply(@Nullable PutObjectRequest arg0) {
+				eucaS3Client.refreshEndpoint();
+				return eucaS3Client.putObject(arg0);
+			}
+
+		}, new PutObjectRequest(bucketName, key, new ByteArrayInputStream(data), objectMetadata), REFRESH_TOKEN_RETRIES);
+	}
+
+	private byte[] getObjectBytes(String key) throws SnapshotTransferException {
+		S3Object object = retryAfterRefresh(new Function<GetObjectRequest, S3Object>() {
+
+			@Override
+			@Nullable
+			public S3Object apply(@Nullable GetObjectRequest arg0) {
+				eucaS3Client.refreshEndpoint();
+				return eucaS3Client.getObject(arg0);
+			}
+
+		}, new GetObjectRequest(bucketName, key), REFRESH_TOKEN_RETRIES);
+
+		try (InputStream inputStream = object.getObjectContent()) {
+			return ByteStreams.toByteArray(inputStream);
+		} catch (IOException e) {
+			throw new SnapshotTransferException("Failed to read object from objectstorage: bucket=" + bucketName + ", key=" + key, e);
+		}
+	}
+
+	private void deleteObject(String key) throws SnapshotTransferException {
+		retryAfterRefresh(new Function<DeleteObjectRequest, String>() {
+
+			@Override
+			@Nullable
+			public String apply(@Nullable DeleteObjectRequest arg0) {
+				eucaS3Client.refreshEndpoint();
+				eucaS3Client.deleteObject(arg0);
+				return null;
+			}
+		}, new DeleteObjectRequest(bucketName, key), REFRESH_TOKEN_RETRIES);
+	}
+
+	private List<String> listKeys(String prefix) throws SnapshotTransferException {
+		List<String> keys = new ArrayList<String>();
+		ObjectListing listing = retryAfterRefresh(new Function<ListObjectsRequest, ObjectListing>() {
+
+			@Override
+			@Nullable
+			public ObjectListing apply(@Nullable ListObjectsRequest arg0) {
+				eucaS3Client.refreshEndpoint();
+				return eucaS3Client.listObjects(arg0);
+			}
+
+		}, new ListObjectsRequest().withBucketName(bucketName).withPrefix(prefix), REFRESH_TOKEN_RETRIES);
+
+		while (true) {
+			for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+				keys.add(summary.getKey());
+			}
+			if (!listing.isTruncated()) {
+				break;
+			}
+			listing = retryAfterRefresh(new Function<ObjectListing, ObjectListing>() {
+
+				@Override
+				@Nullable
+				public ObjectListing apply(@Nullable ObjectListing arg0) {
+					eucaS3Client.refreshEndpoint();
+					return eucaS3Client.listNextBatchOfObjects(arg0);
+				}
+
+			}, listing, REFRESH_TOKEN_RETRIES);
+		}
+		return keys;
+	}
+
+	private static boolean isNotFound(SnapshotTransferException e) {
+		return e.getCause() instanceof AmazonServiceException
+				&& ((AmazonServiceException) e.getCause()).getStatusCode() == HttpResponseStatus.NOT_FOUND.getCode();
+	}
+
+	private static byte[] blockContent(Future<byte[]> block) throws Exception {
+		try {
+			return block.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a block of an incremental snapshot, all-zero blocks are written as zeros so sparse writers can skip them
+	 */
+	private static int writeBlock(SnapshotWriter writer, long position, byte[] data) throws IOException {
+		if (SnapshotWriter.isZero(data, 0, data.length)) {
+			writer.writeZeros(position, data.length);
+		} else {
+			writer.write(position, data, 0, data.length);
+		}
+		return data.length;
+	}
+
+	private String rangeIndexKey() {
+		return keyName + RANGE_INDEX_SUFFIX;
+	}
+
+	/**
+	 * Stores the {@link SnapshotRangeIndex} alongside the snapshot. Failures are not fatal, the snapshot can still be downloaded as a single stream
+	 */
+	private void uploadRangeIndex(SnapshotRangeIndex rangeIndex) {
+		try {
+			putObject(rangeIndexKey(), rangeIndex.toBytes(), null);
+		} catch (Exception e) {
+			LOG.warn("Failed to upload range index for snapshot " + snapshotId + ", snapshot will be downloaded as a single stream", e);
+		}
+	}
+
 	private <F, T> T retryAfterRefresh(Function<F, T> function, F input, int retries) throws SnapshotTransferException {
 		int failedAttempts = 0;
 		T output = null;
@@ -1028,13 +1326,195 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		return output;
 	}
 
+	/**
+	 * Compressed part held in memory until it is uploaded
+	 */
+	static class BufferedPart {
+		private final SnapshotPart part;
+		private final byte[] data;
+		private final int length;
+
+		BufferedPart(SnapshotPart part, byte[] data, int length) {
+			this.part = part;
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Uploads compressed parts as they are assembled. A snapshot that compresses to less than the part size is uploaded as a single object, else a
+	 * multipart upload is initiated with the first part. Parts are queued for the upload task, the queue is bounded so compression waits on the upload.
+	 */
+	class UploadPartHandler implements SnapshotBlockCompressor.PartHandler {
+
+		private SnapshotUploadInfo snapUploadInfo;
+		private final Long uncompressedSize;
+		private final SnapshotProgressCallback progressCallback;
+		private final SnapshotRangeIndex rangeIndex;
+		private final SnapshotMemoryBudget.Reservation reservation;
+		private ArrayBlockingQueue<BufferedPart> partQueue;
+		private Future<List<PartETag>> uploadPartsFuture;
+		private Future<String> completeUploadFuture;
+		private Long readOffset = 0L;
+
+		UploadPartHandler(SnapshotUploadInfo snapUploadInfo, Long uncompressedSize, SnapshotProgressCallback progressCallback, SnapshotRangeIndex rangeIndex,
+				SnapshotMemoryBudget.Reservation reservation) {
+			this.snapUploadInfo = snapUploadInfo;
+			this.uncompressedSize = uncompressedSize;
+			this.progressCallback = progressCallback;
+			this.rangeIndex = rangeIndex;
+			this.reservation = reservation;
+		}
+
+		@Override
+		public void part(int partNumber, byte[] data, int length, long bytesRead, boolean isLast) throws Exception {
+			SnapshotPart part = SnapshotPart.createPart(snapUploadInfo, null, partNumber, readOffset);
+			if (partNumber == 1 && isLast) {
+				part = part.updateStateCreated((long) length, bytesRead, Boolean.TRUE);
+				snapUploadInfo = snapUploadInfo.updateStateCreatedParts(partNumber);
+				LOG.info("Uploading snapshot " + snapshotId + " to objectstorage as a single object. Compressed size of snapshot (" + length
+						+ " bytes) is less than minimum part size (" + partSize + " bytes) for multipart upload");
+				PutObjectResult putResult = uploadSnapshotAsSingleObject(data, length, uncompressedSize, progressCallback);
+				uploadRangeIndex(rangeIndex);
+				markSnapshotAvailable();
+				try {
+					part = part.updateStateUploaded(putResult.getETag());
+					snapUploadInfo = snapUploadInfo.updateStateUploaded(putResult.getETag());
+				} catch (Exception e) {
+					LOG.debug("Failed to update status in DB for " + snapUploadInfo);
+				}
+				LOG.info("Uploaded snapshot " + snapshotId + " to objectstorage");
+				return;
+			}
+
+			if (partNumber > 1) {// Update the part status
+				part = part.updateStateCreated((long) length, bytesRead, isLast);
+			} else {// Initialize multipart upload only once after the first part is created
+				LOG.info("Uploading snapshot " + snapshotId + " to objectstorage using multipart upload");
+				progressCallback.setUploadSize(uncompressedSize);
+				uploadId = initiateMulitpartUpload(uncompressedSize);
+				snapUploadInfo = snapUploadInfo.updateUploadId(uploadId);
+				part = part.updateStateCreated(uploadId, (long) length, bytesRead, isLast);
+				partQueue = new ArrayBlockingQueue<BufferedPart>(Math.max(1, Math.min(queueSize, MAX_BUFFERED_PARTS)));
+				uploadPartsFuture = Threads.enqueue(serviceConfig, UploadPartTask.class, poolSize, new UploadPartTask(partQueue, progressCallback));
+			}
+			readOffset += bytesRead;
+
+			if (isLast) {// Update the snapshot upload info status
+				snapUploadInfo = snapUploadInfo.updateStateCreatedParts(partNumber);
+			}
+
+			// Add part to the queue, waiting for space while checking on the upload task. The upload task shouldn't be done until the last part is added.
+			// If it is done at this point, then something might have gone wrong
+			BufferedPart bufferedPart = new BufferedPart(part, data, length);
+			do {
+				if (uploadPartsFuture.isDone()) {
+					throw new SnapshotUploadPartException(
+							"Error uploading parts, aborting part creation process. Check previous log messages for the exact error");
+				}
+			} while (!partQueue.offer(bufferedPart, 1, TimeUnit.SECONDS));
+
+			if (isLast) {// Kick off the completion task
+				completeUploadFuture = Threads.enqueue(serviceConfig, CompleteMpuTask.class, poolSize, new CompleteMpuTask(uploadPartsFuture, snapUploadInfo,
+						partNumber, rangeIndex, reservation));
+			}
+		}
+
+		void cancel() {
+			if (uploadPartsFuture != null && !uploadPartsFuture.isDone()) {
+				uploadPartsFuture.cancel(true);
+			}
+			if (completeUploadFuture != null && !completeUploadFuture.isDone()) {
+				completeUploadFuture.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Block upload in progress
+	 */
+	static class PendingBlock {
+		private final Future<String> future;
+		private final int length;
+
+		PendingBlock(Future<String> future, int length) {
+			this.future = future;
+			this.length = length;
+		}
+
+		/**
+		 * Waits for the block to be stored and returns its uncompressed length
+		 */
+		int get() throws Exception {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * Compresses a block of an incremental snapshot and stores it in objectstorage
+	 */
+	class BlockUploadTask implements Callable<String> {
+
+		private final String key;
+		private final byte[] data;
+		private final int length;
+
+		public BlockUploadTask(String key, byte[] data, int length) {
+			this.key = key;
+			this.data = data;
+			this.length = length;
+		}
+
+		@Override
+		public String call() throws Exception {
+			putObject(key, SnapshotBlockCompressor.compress(data, length), null);
+			return key;
+		}
+	}
+
+	/**
+	 * Fetches a block of an incremental snapshot from objectstorage, decompresses it and verifies its content hash
+	 */
+	class BlockDownloadTask implements Callable<byte[]> {
+
+		private final String key;
+		private final String hash;
+		private final int blockSize;
+
+		public BlockDownloadTask(String key, String hash, int blockSize) {
+			this.key = key;
+			this.hash = hash;
+			this.blockSize = blockSize;
+		}
+
+		@Override
+		public byte[] call() throws Exception {
+			byte[] data;
+			try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(getObjectBytes(key)))) {
+				data = ByteStreams.toByteArray(gzipInputStream);
+			}
+			if (data.length > blockSize || !hash.equals(SnapshotManifest.hash(data, 0, data.length))) {
+				throw new SnapshotTransferException("Content of block " + key + " of snapshot " + snapshotId + " does not match its hash");
+			}
+			return data;
+		}
+	}
+
 	class UploadPartTask implements Callable<List<PartETag>> {
 
-		private ArrayBlockingQueue<SnapshotPart> partQueue;
+		private ArrayBlockingQueue<BufferedPart> partQueue;
 		private SnapshotProgressCallback progressCallback;
 		private List<PartETag> partETags;
 
-		public UploadPartTask(ArrayBlockingQueue<SnapshotPart> partQueue, SnapshotProgressCallback progressCallback) throws EucalyptusCloudException {
+		public UploadPartTask(ArrayBlockingQueue<BufferedPart> partQueue, SnapshotProgressCallback progressCallback) throws EucalyptusCloudException {
 			if (partQueue == null || progressCallback == null) {
 				throw new EucalyptusCloudException("Invalid constructor parameters. Cannot proceed without part queue and or snapshot progress callback");
 			}
@@ -1047,21 +1527,22 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		public List<PartETag> call() throws Exception {
 			Boolean isLast = Boolean.FALSE;
 			do {
-				SnapshotPart part = null;
+				BufferedPart bufferedPart = null;
 
 				try {
-					part = partQueue.take();
+					bufferedPart = partQueue.take();
 				} catch (InterruptedException ex) { // Should rarely happen
 					LOG.error("Failed to upload snapshot " + snapshotId + " due to an retrieving parts from queue", ex);
 					return null;
 				}
 
+				SnapshotPart part = bufferedPart.part;
 				isLast = part.getIsLast();
 
 				if (part.getState().equals(SnapshotPartState.created) || part.getState().equals(SnapshotPartState.uploading)
 						|| part.getState().equals(SnapshotPartState.failed)) {
 					try {
-						partETags.add(uploadPart(part, progressCallback));
+						partETags.add(uploadPart(part, bufferedPart.data, bufferedPart.length, progressCallback));
 					} catch (Exception e) {
 						LOG.error("Failed to upload a part for " + snapshotId + ". Aborting the part upload process");
 						return null;
@@ -1080,11 +1561,16 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		private Future<List<PartETag>> uploadTaskFuture;
 		private SnapshotUploadInfo snapUploadInfo;
 		private Integer totalParts;
+		private SnapshotRangeIndex rangeIndex;
+		private SnapshotMemoryBudget.Reservation reservation;
 
-		public CompleteMpuTask(Future<List<PartETag>> uploadTaskFuture, SnapshotUploadInfo snapUploadInfo, Integer totalParts) {
+		public CompleteMpuTask(Future<List<PartETag>> uploadTaskFuture, SnapshotUploadInfo snapUploadInfo, Integer totalParts, SnapshotRangeIndex rangeIndex,
+				SnapshotMemoryBudget.Reservation reservation) {
 			this.uploadTaskFuture = uploadTaskFuture;
 			this.snapUploadInfo = snapUploadInfo;
 			this.totalParts = totalParts;
+			this.rangeIndex = rangeIndex;
+			this.reservation = reservation;
 		}
 
 		@Override
@@ -1096,6 +1582,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 				if (partETags != null && partETags.size() == totalParts) {
 					try {
 						etag = finalizeMultipartUpload(partETags);
+						uploadRangeIndex(rangeIndex);
 						markSnapshotAvailable();
 						try {
 							snapUploadInfo = snapUploadInfo.updateStateUploaded(etag);
@@ -1118,6 +1605,7 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 				error = Boolean.TRUE;
 				LOG.error("Failed to upload " + snapshotId, ex);
 			} finally {
+				reservation.release();
 				if (error) {
 					markSnapshotFailed();
 					abortUpload(snapUploadInfo);
@@ -1129,10 +1617,10 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 
 	class StorageWriterTask implements Callable<String> {
 
-		private ArrayBlockingQueue<SnapshotPart> partQueue;
+		private ArrayBlockingQueue<BufferedPart> partQueue;
 		private StorageResource storageResource;
 
-		public StorageWriterTask(ArrayBlockingQueue<SnapshotPart> partQueue, StorageResource storageResource) {
+		public StorageWriterTask(ArrayBlockingQueue<BufferedPart> partQueue, StorageResource storageResource) {
 			this.partQueue = partQueue;
 			this.storageResource = storageResource;
 		}
@@ -1140,52 +1628,109 @@ public class S3SnapshotTransfer implements SnapshotTransfer {
 		@Override
 		public String call() throws Exception {
 			String returnValue = null;
-			SnapshotPart part = null;
-			OutputStream outStream = null;
-			byte[] buffer = new byte[writeBufferSize];
-			int len;
+			BufferedPart bufferedPart = null;
+			SnapshotWriter writer = null;
+			long position = 0;
 
 			try {
-				outStream = storageResource.getOutputStream();
+				writer = SnapshotWriter.forResource(storageResource);
 				do {
-					part = partQueue.take();
+					bufferedPart = partQueue.take();
+					writer.write(position, bufferedPart.data, 0, bufferedPart.length);
+					position += bufferedPart.length;
+				} while (!bufferedPart.part.getIsLast());
 
-					FileInputStream inStream = null;
-					try {
-						inStream = new FileInputStream(part.getFileName());
-						while ((len = inStream.read(buffer)) > 0) {
-							outStream.write(buffer, 0, len);
-						}
-						inStream.close();
-					} finally {
-						if (inStream != null) {
-							try {
-								inStream.close();
-							} catch (Exception e) {
-
-							}
-						}
-						deleteFile(part.getFileName());
-					}
-				} while (!part.getIsLast());
-
-				outStream.close();
-				buffer = null;
+				writer.finish(position);
+				writer = null;
 
 				returnValue = storageResource.getId();
 			} catch (Exception e) {
 				LOG.error("Failed to write snapshot " + snapshotId + " to storage backend due to:", e);
 			} finally {
-				if (outStream != null) {
-					try {
-						outStream.close();
-					} catch (Exception e) {
+				if (writer != null) {
+					writer.close();
+				}
+			}
+			return returnValue;
+		}
+	}
 
-					}
+	/**
+	 * Range of a snapshot being fetched, all-zero ranges are not fetched
+	 */
+	static class PendingRange {
+		private final SnapshotRangeIndex.Range range;
+		private final Future<byte[]> future;
+
+		PendingRange(SnapshotRangeIndex.Range range, Future<byte[]> future) {
+			this.range = range;
+			this.future = future;
+		}
+
+		boolean isDone() {
+			return future == null || future.isDone();
+		}
+
+		/**
+		 * Waits for the range to be fetched and writes it at its offset
+		 */
+		void write(SnapshotWriter writer) throws Exception {
+			if (range.isZero()) {
+				writer.writeZeros(range.getOffset(), range.getLength());
+			} else {
+				byte[] data = blockContent(future);
+				if (data.length != range.getLength()) {
+					throw new SnapshotTransferException("Expected " + range.getLength() + " bytes at offset " + range.getOffset() + " but got " + data.length);
 				}
+				writer.write(range.getOffset(), data, 0, data.length);
 			}
+		}
 
-			return returnValue;
+		void cancel() {
+			if (future != null) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Fetches a range of the compressed snapshot from objectstorage and decompresses it
+	 */
+	class RangeDownloadTask implements Callable<byte[]> {
+
+		private final SnapshotRangeIndex.Range range;
+		private final boolean gzipMembers;
+
+		public RangeDownloadTask(SnapshotRangeIndex.Range range, boolean gzipMembers) {
+			this.range = range;
+			this.gzipMembers = gzipMembers;
+		}
+
+		@Override
+		public byte[] call() throws Exception {
+			GetObjectRequest request = new GetObjectRequest(bucketName, keyName).withRange(range.getCompressedOffset(), range.getCompressedOffset()
+					+ range.getCompressedLength() - 1);
+			S3Object object = retryAfterRefresh(new Function<GetObjectRequest, S3Object>() {
+
+				@Override
+				@Nullable
+				public S3Object apply(@Nullable GetObjectRequest arg0) {
+					eucaS3Client.refreshEndpoint();
+					return eucaS3Client.getObject(arg0);
+				}
+
+			}, request, REFRESH_TOKEN_RETRIES);
+
+			byte[] compressed;
+			try (InputStream inputStream = object.getObjectContent()) {
+				compressed = ByteStreams.toByteArray(inputStream);
+			}
+			if (!gzipMembers) {
+				return SnapshotBlockCompressor.inflate(compressed, (int) range.getLength());
+			}
+			try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+				return ByteStreams.toByteArray(gzipInputStream);
+			}
 		}
 	}
 }
@@ -0,0 +1,414 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Compresses snapshot data in fixed size blocks on a pool of workers and assembles the compressed blocks, in order, into parts for upload.
+ * 
+ * The parts concatenate to a single gzip member, as compressed by pigz. Each block is compressed as raw deflate data ending with a full flush, so blocks
+ * are byte aligned and do not refer to data in earlier blocks. The blocks follow one gzip header and are followed by a final empty deflate block and a
+ * trailer holding the CRC32 combined across the blocks. Any {@link java.util.zip.GZIPInputStream} reads the whole snapshot, and ranges starting at a
+ * flush point can be inflated independently as recorded in a {@link SnapshotRangeIndex}. All-zero blocks are not passed to the workers. Reading waits when the maximum number of blocks are being compressed and while the part handler is busy, so
+ * memory use is bounded by the block size, the number of blocks in flight and the part size.
+ */
+public class SnapshotBlockCompressor {
+
+	/**
+	 * Submits block compression tasks to a worker pool.
+	 */
+	public interface BlockSubmitter {
+		<T> Future<T> submit(Callable<T> task);
+	}
+
+	/**
+	 * Receives compressed parts in order. Parts other than the last are at least the part size.
+	 */
+	public interface PartHandler {
+		/**
+		 * @param partNumber
+		 *            the part number, starting at 1
+		 * @param data
+		 *            buffer holding the compressed part, ownership passes to the handler
+		 * @param length
+		 *            length of the compressed part in the buffer
+		 * @param bytesRead
+		 *            number of uncompressed bytes in the part
+		 * @param isLast
+		 *            true for the last part
+		 */
+		void part(int partNumber, byte[] data, int length, long bytesRead, boolean isLast) throws Exception;
+	}
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+	private static final int GZIP_TRAILER_LENGTH = 8;
+
+	private final BlockSubmitter submitter;
+	private final int blockSize;
+	private final int maxBlocksInFlight;
+	private final long partSize;
+
+	public SnapshotBlockCompressor(BlockSubmitter submitter, int blockSize, int maxBlocksInFlight, long partSize) {
+		this.submitter = submitter;
+		this.blockSize = blockSize;
+		this.maxBlocksInFlight = Math.max(1, maxBlocksInFlight);
+		this.partSize = partSize;
+	}
+
+	/**
+	 * Compress the input stream, passing each completed part to the handler.
+	 * 
+	 * @return the number of parts
+	 */
+	public int compress(InputStream inputStream, PartHandler handler) throws Exception {
+		return compress(inputStream, handler, null);
+	}
+
+	/**
+	 * Compress the input stream, passing each completed part to the handler and recording the compressed blocks in the index.
+	 * 
+	 * @param index
+	 *            index to record the blocks in, may be null. The index is complete when the last part is passed to the handler
+	 * @return the number of parts
+	 */
+	public int compress(InputStream inputStream, PartHandler handler, SnapshotRangeIndex index) throws Exception {
+		final Deque<Block> inFlight = new ArrayDeque<Block>();
+		final PartAssembler assembler = new PartAssembler(handler, index);
+		final Map<Integer, CompressedBlock> zeroBlocks = new HashMap<Integer, CompressedBlock>();
+		try {
+			int len;
+			byte[] buffer = new byte[blockSize];
+			while ((len = readBlock(inputStream, buffer)) > 0) {
+				if (SnapshotWriter.isZero(buffer, 0, len)) { // Compressed once for each length, the buffer can be reused
+					CompressedBlock compressed = zeroBlocks.get(len);
+					if (compressed == null) {
+						zeroBlocks.put(len, compressed = deflate(buffer, len));
+					}
+					inFlight.addLast(new Block(Futures.immediateFuture(compressed), len, true));
+				} else {
+					inFlight.addLast(new Block(submitter.submit(new CompressBlockTask(buffer, len)), len, false));
+					buffer = new byte[blockSize];
+				}
+				while (inFlight.size() >= maxBlocksInFlight || inFlight.peekFirst().future.isDone()) {
+					assembler.append(inFlight.pollFirst());
+					if (inFlight.isEmpty()) {
+						break;
+					}
+				}
+			}
+			while (!inFlight.isEmpty()) {
+				assembler.append(inFlight.pollFirst());
+			}
+			return assembler.finish();
+		} finally {
+			for (final Block block : inFlight) {
+				block.future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Assembles compressed blocks into parts. A part is passed to the handler when the next block arrives so that the last part can be identified.
+	 */
+	private final class PartAssembler {
+		private final PartHandler handler;
+		private final SnapshotRangeIndex index;
+		private PartBuffer part = new PartBuffer();
+		private long bytesRead = 0;
+		private int partNumber = 1;
+		private long crc = 0;
+		private long size = 0;
+
+		private PartAssembler(PartHandler handler, SnapshotRangeIndex index) {
+			this.handler = handler;
+			this.index = index;
+			part.write(GZIP_HEADER);
+			if (index != null) {
+				index.addHeader(GZIP_HEADER.length);
+			}
+		}
+
+		private void append(Block block) throws Exception {
+			final CompressedBlock compressed = compressed(block);
+			if (part.size() >= partSize) {
+				handler.part(partNumber++, part.buffer(), part.size(), bytesRead, false);
+				part = new PartBuffer();
+				bytesRead = 0;
+			}
+			part.write(compressed.data);
+			bytesRead += block.length;
+			crc = crc32Combine(crc, compressed.crc, block.length);
+			size += block.length;
+			if (index != null) {
+				index.addBlock(compressed.data.length, block.length, block.zero);
+			}
+		}
+
+		private int finish() throws Exception {
+			part.write(finalBlock());
+			part.write(gzipTrailer(crc, size));
+			handler.part(partNumber, part.buffer(), part.size(), bytesRead, true);
+			return partNumber;
+		}
+	}
+
+	private static CompressedBlock compressed(Block block) throws Exception {
+		try {
+			return block.future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Read until the buffer is full or the end of the stream is reached.
+	 */
+	static int readBlock(InputStream inputStream, byte[] buffer) throws IOException {
+		int total = 0;
+		int len;
+		while (total < buffer.length && (len = inputStream.read(buffer, total, buffer.length - total)) > 0) {
+			total += len;
+		}
+		return total;
+	}
+
+	private static final class Block {
+		private final Future<CompressedBlock> future;
+		private final int length;
+		private final boolean zero;
+
+		private Block(Future<CompressedBlock> future, int length, boolean zero) {
+			this.future = future;
+			this.length = length;
+			this.zero = zero;
+		}
+	}
+
+	/**
+	 * Raw deflate data for a block ending at a flush point and the CRC32 of the uncompressed block.
+	 */
+	private static final class CompressedBlock {
+		private final byte[] data;
+		private final long crc;
+
+		private CompressedBlock(byte[] data, long crc) {
+			this.data = data;
+			this.crc = crc;
+		}
+	}
+
+	private static final class CompressBlockTask implements Callable<CompressedBlock> {
+		private final byte[] data;
+		private final int length;
+
+		private CompressBlockTask(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+
+		@Override
+		public CompressedBlock call() throws Exception {
+			return deflate(data, length);
+		}
+	}
+
+	/**
+	 * Compress the data as raw deflate data ending with a full flush, so the compressed block can be followed by other blocks or inflated on its own.
+	 */
+	static CompressedBlock deflate(byte[] data, int length) {
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(data, 0, length);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+			final byte[] buffer = new byte[Math.max(512, Math.min(length, 64 * 1024))];
+			int len;
+			do { // a full buffer may mean the flush is incomplete
+				len = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH);
+				out.write(buffer, 0, len);
+			} while (len == buffer.length);
+			final CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			return new CompressedBlock(out.toByteArray(), crc.getValue());
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Inflate raw deflate data starting at a flush point, as for a range of a {@link SnapshotRangeIndex}.
+	 * 
+	 * @param length
+	 *            uncompressed length of the data
+	 */
+	static byte[] inflate(byte[] compressed, int length) throws IOException {
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			final byte[] data = new byte[length];
+			int total = 0;
+			while (total < length) {
+				final int len = inflater.inflate(data, total, length - total);
+				if (len == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+					throw new IOException("Compressed data ended after " + total + " of " + length + " bytes");
+				}
+				total += len;
+			}
+			return data;
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed data", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Final empty deflate block that ends the deflate data of the snapshot.
+	 */
+	private static byte[] finalBlock() {
+		final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.finish();
+			final byte[] buffer = new byte[64];
+			final int len = deflater.deflate(buffer);
+			final byte[] block = new byte[len];
+			System.arraycopy(buffer, 0, block, 0, len);
+			return block;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Gzip trailer holding the CRC32 and the length modulo 2^32 of the uncompressed data, little endian.
+	 */
+	private static byte[] gzipTrailer(long crc, long size) {
+		final byte[] trailer = new byte[GZIP_TRAILER_LENGTH];
+		for (int i = 0; i < 4; i++) {
+			trailer[i] = (byte) (crc >>> (8 * i));
+			trailer[i + 4] = (byte) (size >>> (8 * i));
+		}
+		return trailer;
+	}
+
+	/**
+	 * CRC32 of two sequences given the CRC32 of each and the length of the second, as zlib crc32_combine.
+	 */
+	static long crc32Combine(long crc1, long crc2, long length2) {
+		if (length2 <= 0) {
+			return crc1;
+		}
+		final long[] even = new long[32]; // operator for 2^n zero bits, even powers
+		final long[] odd = new long[32]; // operator for 2^n zero bits, odd powers
+
+		odd[0] = 0xedb88320L; // CRC32 polynomial
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		gf2MatrixSquare(even, odd); // two zero bits
+		gf2MatrixSquare(odd, even); // four zero bits
+
+		// apply length2 zero bytes to crc1, the first square gives the operator for one zero byte
+		long crc = crc1;
+		long length = length2;
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((length & 1) != 0) {
+				crc = gf2MatrixTimes(even, crc);
+			}
+			length >>= 1;
+			if (length == 0) {
+				break;
+			}
+			gf2MatrixSquare(odd, even);
+			if ((length & 1) != 0) {
+				crc = gf2MatrixTimes(odd, crc);
+			}
+			length >>= 1;
+		} while (length != 0);
+		return crc ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] matrix, long vector) {
+		long sum = 0;
+		for (int i = 0; vector != 0; i++, vector >>>= 1) {
+			if ((vector & 1) != 0) {
+				sum ^= matrix[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] matrix) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(matrix, matrix[n]);
+		}
+	}
+
+	/**
+	 * Compress the data as a complete gzip stream, for blocks stored as objects of their own.
+	 */
+	static byte[] compress(byte[] data, int length) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+		try (GZIPOutputStream gzipStream = new GZIPOutputStream(out)) {
+			gzipStream.write(data, 0, length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Part buffer exposing its contents without copying.
+	 */
+	private final class PartBuffer extends ByteArrayOutputStream {
+		private PartBuffer() {
+			super((int) Math.min(Integer.MAX_VALUE - 8, partSize + blockSize));
+		}
+
+		private byte[] buffer() {
+			return buf;
+		}
+
+		@Override
+		public void write(byte[] b) {
+			write(b, 0, b.length);
+		}
+	}
+}
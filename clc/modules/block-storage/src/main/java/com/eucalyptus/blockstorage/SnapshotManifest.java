@@ -0,0 +1,261 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.eucalyptus.blockstorage.exceptions.SnapshotTransferException;
+import com.google.common.hash.Hashing;
+
+/**
+ * Manifest for an incremental snapshot. The snapshot is split into fixed size blocks and each block is stored as an object keyed by the hash of its
+ * content, so blocks that are unchanged since the parent snapshot of the volume are not uploaded again. The manifest lists the block hashes in order and
+ * names the parent snapshot it was taken against.
+ * 
+ * Manifest and block objects of a volume share a key prefix so the manifests referencing a block can be found by listing the prefix. A deleted snapshot
+ * leaves its manifest under a deleted key until its blocks are reclaimed, blocks are reclaimed when no live manifest of the volume references them.
+ */
+public class SnapshotManifest {
+
+	public static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+
+	private static final String MANIFEST_KEY_TOKEN = ".manifest.";
+	private static final String DELETED_MANIFEST_KEY_TOKEN = ".deleted-manifest.";
+	private static final String BLOCK_KEY_TOKEN = ".block.";
+	private static final String HEADER = "eucalyptus-snapshot-manifest 1";
+	private static final String VOLUME = "volume";
+	private static final String SNAPSHOT = "snapshot";
+	private static final String PARENT = "parent";
+	private static final String BLOCK_SIZE = "blocksize";
+	private static final String SIZE = "size";
+	private static final String BLOCK = "block";
+
+	private final String volumeId;
+	private final String snapshotId;
+	private final String parentSnapshotId;
+	private final int blockSize;
+	private final List<String> blockHashes = new ArrayList<String>();
+	private long size;
+
+	public SnapshotManifest(String volumeId, String snapshotId, String parentSnapshotId, int blockSize) {
+		this.volumeId = volumeId;
+		this.snapshotId = snapshotId;
+		this.parentSnapshotId = parentSnapshotId;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Key of the manifest object for a snapshot of the given volume
+	 */
+	public static String manifestKey(String volumeId, String snapshotId) {
+		return volumeId + MANIFEST_KEY_TOKEN + snapshotId;
+	}
+
+	/**
+	 * Key of the object holding the block of the given volume with the given hash
+	 */
+	public static String blockKey(String volumeId, String hash) {
+		return volumeId + BLOCK_KEY_TOKEN + hash;
+	}
+
+	/**
+	 * Prefix of the keys of all manifest objects for snapshots of the given volume
+	 */
+	public static String manifestKeyPrefix(String volumeId) {
+		return volumeId + MANIFEST_KEY_TOKEN;
+	}
+
+	/**
+	 * Key of the manifest object for a deleted snapshot whose blocks have not yet been reclaimed
+	 */
+	public static String deletedManifestKey(String volumeId, String snapshotId) {
+		return volumeId + DELETED_MANIFEST_KEY_TOKEN + snapshotId;
+	}
+
+	/**
+	 * Prefix of the keys of all deleted manifest objects for snapshots of the given volume
+	 */
+	public static String deletedManifestKeyPrefix(String volumeId) {
+		return volumeId + DELETED_MANIFEST_KEY_TOKEN;
+	}
+
+	/**
+	 * Returns true if the key names an incremental snapshot manifest rather than a compressed snapshot
+	 */
+	public static boolean isManifestKey(String key) {
+		return key != null && key.contains(MANIFEST_KEY_TOKEN);
+	}
+
+	/**
+	 * Compute the content hash of a block
+	 */
+	public static String hash(byte[] data, int offset, int length) {
+		return Hashing.sha256().hashBytes(data, offset, length).toString();
+	}
+
+	/**
+	 * Hashes of the blocks referenced by the deleted manifests that are not referenced by any live manifest
+	 */
+	public static Set<String> unreferencedBlocks(Iterable<SnapshotManifest> deleted, Iterable<SnapshotManifest> live) {
+		Set<String> unreferenced = new LinkedHashSet<String>();
+		for (SnapshotManifest manifest : deleted) {
+			unreferenced.addAll(manifest.blockHashes);
+		}
+		for (SnapshotManifest manifest : live) {
+			for (String hash : manifest.blockHashes) {
+				unreferenced.remove(hash);
+			}
+		}
+		return unreferenced;
+	}
+
+	/**
+	 * Parse a manifest from the content of a manifest object
+	 */
+	public static SnapshotManifest parse(byte[] content) throws SnapshotTransferException {
+		String[] lines = new String(content, StandardCharsets.UTF_8).split("\n");
+		if (lines.length == 0 || !HEADER.equals(lines[0].trim())) {
+			throw new SnapshotTransferException("Invalid snapshot manifest, header not found");
+		}
+
+		String volumeId = null;
+		String snapshotId = null;
+		String parentSnapshotId = null;
+		Integer blockSize = null;
+		Long size = null;
+		List<String> hashes = new ArrayList<String>();
+		try {
+			for (int i = 1; i < lines.length; i++) {
+				String line = lines[i].trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				String name = StringUtils.substringBefore(line, " ");
+				String value = StringUtils.substringAfter(line, " ").trim();
+				if (BLOCK.equals(name)) {
+					hashes.add(value);
+				} else if (VOLUME.equals(name)) {
+					volumeId = value;
+				} else if (SNAPSHOT.equals(name)) {
+					snapshotId = value;
+				} else if (PARENT.equals(name)) {
+					parentSnapshotId = value;
+				} else if (BLOCK_SIZE.equals(name)) {
+					blockSize = Integer.valueOf(value);
+				} else if (SIZE.equals(name)) {
+					size = Long.valueOf(value);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new SnapshotTransferException("Invalid snapshot manifest", e);
+		}
+
+		if (StringUtils.isBlank(volumeId) || StringUtils.isBlank(snapshotId) || blockSize == null || blockSize <= 0 || size == null || size < 0) {
+			throw new SnapshotTransferException("Invalid snapshot manifest, volume, snapshot, block size or size missing");
+		}
+		if (hashes.size() != (size + blockSize - 1) / blockSize) {
+			throw new SnapshotTransferException("Invalid snapshot manifest for " + snapshotId + ", expected " + ((size + blockSize - 1) / blockSize)
+					+ " blocks but found " + hashes.size());
+		}
+
+		SnapshotManifest manifest = new SnapshotManifest(volumeId, snapshotId, parentSnapshotId, blockSize);
+		manifest.blockHashes.addAll(hashes);
+		manifest.size = size;
+		return manifest;
+	}
+
+	/**
+	 * Serialize the manifest as the content of a manifest object
+	 */
+	public byte[] toBytes() {
+		StringBuilder builder = new StringBuilder(HEADER).append('\n');
+		builder.append(VOLUME).append(' ').append(volumeId).append('\n');
+		builder.append(SNAPSHOT).append(' ').append(snapshotId).append('\n');
+		if (parentSnapshotId != null) {
+			builder.append(PARENT).append(' ').append(parentSnapshotId).append('\n');
+		}
+		builder.append(BLOCK_SIZE).append(' ').append(blockSize).append('\n');
+		builder.append(SIZE).append(' ').append(size).append('\n');
+		for (String hash : blockHashes) {
+			builder.append(BLOCK).append(' ').append(hash).append('\n');
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Append the next block of the snapshot
+	 */
+	public void addBlock(String hash, int length) {
+		blockHashes.add(hash);
+		size += length;
+	}
+
+	/**
+	 * Key of the object holding the block with the given hash
+	 */
+	public String blockKey(String hash) {
+		return blockKey(volumeId, hash);
+	}
+
+	/**
+	 * Returns true if the blocks of this manifest can be reused by a snapshot of the given volume and block size
+	 */
+	public boolean hasBlocksFor(String volumeId, int blockSize) {
+		return this.volumeId.equals(volumeId) && this.blockSize == blockSize;
+	}
+
+	/**
+	 * Distinct block hashes in the manifest
+	 */
+	public Set<String> getDistinctBlockHashes() {
+		return new LinkedHashSet<String>(blockHashes);
+	}
+
+	public String getVolumeId() {
+		return volumeId;
+	}
+
+	public String getSnapshotId() {
+		return snapshotId;
+	}
+
+	public String getParentSnapshotId() {
+		return parentSnapshotId;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public List<String> getBlockHashes() {
+		return Collections.unmodifiableList(blockHashes);
+	}
+}
@@ -0,0 +1,82 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounds the memory held for compressed snapshot parts across all concurrent snapshot uploads.
+ * 
+ * Each upload reserves its worst case buffer use before it starts compressing and releases it when its last part is uploaded. An upload waits while the
+ * reservations of other uploads would take the total over the limit. An upload that needs more than the limit on its own proceeds only when no other
+ * upload holds a reservation.
+ */
+final class SnapshotMemoryBudget {
+
+	private long reserved = 0;
+
+	/**
+	 * Reserve memory for an upload, waiting until it is available.
+	 * 
+	 * @param bytes
+	 *            the memory required
+	 * @param limit
+	 *            the total that reservations may not exceed
+	 * @return the reservation, to be released when the memory is no longer used
+	 */
+	synchronized Reservation reserve(long bytes, long limit) throws InterruptedException {
+		while (reserved > 0 && reserved + bytes > limit) {
+			wait();
+		}
+		reserved += bytes;
+		return new Reservation(bytes);
+	}
+
+	synchronized long getReserved() {
+		return reserved;
+	}
+
+	private synchronized void release(long bytes) {
+		reserved -= bytes;
+		notifyAll();
+	}
+
+	/**
+	 * Memory reserved by an upload. Releasing more than once has no further effect.
+	 */
+	final class Reservation {
+		private final long bytes;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		private Reservation(long bytes) {
+			this.bytes = bytes;
+		}
+
+		long getBytes() {
+			return bytes;
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				SnapshotMemoryBudget.this.release(bytes);
+			}
+		}
+	}
+}
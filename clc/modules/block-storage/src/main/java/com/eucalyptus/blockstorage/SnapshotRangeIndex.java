@@ -0,0 +1,212 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.eucalyptus.blockstorage.exceptions.SnapshotTransferException;
+
+/**
+ * Index of the ranges of a compressed snapshot. A compressed snapshot is a single gzip member whose deflate data is flushed at the end of each block, so a
+ * range made up of whole blocks can be fetched and inflated independently of the rest of the snapshot. Consecutive blocks are grouped into ranges of up
+ * to the maximum range size, runs of all-zero blocks are grouped into zero ranges that need not be fetched at all.
+ * 
+ * Version 1 indexes describe snapshots that are a concatenation of gzip members, one per block, where each range is made up of whole members.
+ */
+public class SnapshotRangeIndex {
+
+	private static final String HEADER = "eucalyptus-snapshot-index 2";
+	private static final String HEADER_MEMBERS = "eucalyptus-snapshot-index 1";
+	private static final String SIZE = "size";
+	private static final String SKIP = "skip";
+	private static final String DATA = "data";
+	private static final String ZERO = "zero";
+
+	private final long maxRangeSize;
+	private final List<Range> ranges = new ArrayList<Range>();
+	private final boolean members;
+	private long compressedSize;
+	private long size;
+	private long skipped;
+
+	public SnapshotRangeIndex(long maxRangeSize) {
+		this(maxRangeSize, false);
+	}
+
+	private SnapshotRangeIndex(long maxRangeSize, boolean members) {
+		this.maxRangeSize = maxRangeSize;
+		this.members = members;
+	}
+
+	/**
+	 * Append compressed data that is not part of any range, such as the gzip header. Only valid before the first block
+	 */
+	public void addHeader(long compressedLength) {
+		if (!ranges.isEmpty()) {
+			throw new IllegalStateException("Header after blocks");
+		}
+		compressedSize += compressedLength;
+		skipped += compressedLength;
+	}
+
+	/**
+	 * Append the next compressed block of the snapshot
+	 * 
+	 * @param compressedLength
+	 *            length of the deflate data for the block
+	 * @param length
+	 *            uncompressed length of the block
+	 * @param zero
+	 *            true if the block is all zeros
+	 */
+	public void addBlock(long compressedLength, long length, boolean zero) {
+		Range last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+		if (last != null && last.zero == zero && (zero || last.length + length <= maxRangeSize)) {
+			last.compressedLength += compressedLength;
+			last.length += length;
+		} else {
+			ranges.add(new Range(compressedSize, compressedLength, size, length, zero));
+		}
+		compressedSize += compressedLength;
+		size += length;
+	}
+
+	/**
+	 * Parse an index from the content of an index object
+	 */
+	public static SnapshotRangeIndex parse(byte[] content) throws SnapshotTransferException {
+		String[] lines = new String(content, StandardCharsets.UTF_8).split("\n");
+		if (lines.length == 0 || !(HEADER.equals(lines[0].trim()) || HEADER_MEMBERS.equals(lines[0].trim()))) {
+			throw new SnapshotTransferException("Invalid snapshot index, header not found");
+		}
+
+		SnapshotRangeIndex index = new SnapshotRangeIndex(Long.MAX_VALUE, HEADER_MEMBERS.equals(lines[0].trim()));
+		Long expectedSize = null;
+		try {
+			for (int i = 1; i < lines.length; i++) {
+				String[] fields = StringUtils.split(lines[i]);
+				if (fields.length == 0) {
+					continue;
+				}
+				if (SIZE.equals(fields[0]) && fields.length == 2) {
+					expectedSize = Long.valueOf(fields[1]);
+				} else if (SKIP.equals(fields[0]) && fields.length == 2 && !index.members && index.ranges.isEmpty()) {
+					index.addHeader(Long.parseLong(fields[1]));
+				} else if ((DATA.equals(fields[0]) || ZERO.equals(fields[0])) && fields.length == 3) {
+					long compressedLength = Long.parseLong(fields[1]);
+					long length = Long.parseLong(fields[2]);
+					if (compressedLength <= 0 || length < 0) {
+						throw new SnapshotTransferException("Invalid snapshot index, bad range " + lines[i]);
+					}
+					index.ranges.add(new Range(index.compressedSize, compressedLength, index.size, length, ZERO.equals(fields[0])));
+					index.compressedSize += compressedLength;
+					index.size += length;
+				} else {
+					throw new SnapshotTransferException("Invalid snapshot index, unexpected line " + lines[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new SnapshotTransferException("Invalid snapshot index", e);
+		}
+
+		if (expectedSize == null || expectedSize != index.size) {
+			throw new SnapshotTransferException("Invalid snapshot index, size " + expectedSize + " does not match ranges totalling " + index.size);
+		}
+		return index;
+	}
+
+	/**
+	 * Serialize the index as the content of an index object
+	 */
+	public byte[] toBytes() {
+		StringBuilder builder = new StringBuilder(members ? HEADER_MEMBERS : HEADER).append('\n');
+		builder.append(SIZE).append(' ').append(size).append('\n');
+		if (skipped > 0) {
+			builder.append(SKIP).append(' ').append(skipped).append('\n');
+		}
+		for (Range range : ranges) {
+			builder.append(range.zero ? ZERO : DATA).append(' ').append(range.compressedLength).append(' ').append(range.length).append('\n');
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return true if ranges are whole gzip members, false if ranges are raw deflate data starting at a flush point
+	 */
+	public boolean isGzipMembers() {
+		return members;
+	}
+
+	public List<Range> getRanges() {
+		return Collections.unmodifiableList(ranges);
+	}
+
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Range of whole compressed blocks in the compressed snapshot and the range of the snapshot they decompress to
+	 */
+	public static final class Range {
+		private final long compressedOffset;
+		private long compressedLength;
+		private final long offset;
+		private long length;
+		private final boolean zero;
+
+		private Range(long compressedOffset, long compressedLength, long offset, long length, boolean zero) {
+			this.compressedOffset = compressedOffset;
+			this.compressedLength = compressedLength;
+			this.offset = offset;
+			this.length = length;
+			this.zero = zero;
+		}
+
+		public long getCompressedOffset() {
+			return compressedOffset;
+		}
+
+		public long getCompressedLength() {
+			return compressedLength;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public boolean isZero() {
+			return zero;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a restored snapshot to a storage resource. If the resource supports positional writes all-zero regions are skipped so the resource stays
+ * sparse, otherwise the snapshot is written as a stream and zeros are written out.
+ */
+abstract class SnapshotWriter {
+
+	/**
+	 * Granularity at which all-zero regions are detected and skipped
+	 */
+	static final int SPARSE_BLOCK_SIZE = 64 * 1024;
+
+	private static final byte[] ZEROS = new byte[SPARSE_BLOCK_SIZE];
+
+	/**
+	 * Returns a writer for the resource, positional if the resource provides a writable channel
+	 */
+	static SnapshotWriter forResource(StorageResource storageResource) throws Exception {
+		FileChannel channel = storageResource.getWritableChannel();
+		return channel != null ? new ChannelWriter(channel) : new StreamWriter(storageResource.getOutputStream());
+	}
+
+	/**
+	 * Returns true if the data is all zeros
+	 */
+	static boolean isZero(byte[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (data[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write data at the given position in the snapshot
+	 */
+	abstract void write(long position, byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Write zeros at the given position in the snapshot
+	 */
+	abstract void writeZeros(long position, long length) throws IOException;
+
+	/**
+	 * Complete the snapshot with the given size and release the resource
+	 */
+	abstract void finish(long size) throws IOException;
+
+	/**
+	 * Release the resource without completing the snapshot
+	 */
+	abstract void close();
+
+	/**
+	 * Positional writer, the resource is empty when the channel is opened so skipped regions read as zeros
+	 */
+	static final class ChannelWriter extends SnapshotWriter {
+		private final FileChannel channel;
+
+		ChannelWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		void write(long position, byte[] data, int offset, int length) throws IOException {
+			int start = offset;
+			int end = offset + length;
+			while (start < end) {
+				// Skip zero regions, then write up to the next zero region
+				while (start < end && isZero(data, start, Math.min(SPARSE_BLOCK_SIZE, end - start))) {
+					start += Math.min(SPARSE_BLOCK_SIZE, end - start);
+				}
+				int runEnd = start;
+				while (runEnd < end && !isZero(data, runEnd, Math.min(SPARSE_BLOCK_SIZE, end - runEnd))) {
+					runEnd += Math.min(SPARSE_BLOCK_SIZE, end - runEnd);
+				}
+				ByteBuffer buffer = ByteBuffer.wrap(data, start, runEnd - start);
+				long runPosition = position + (start - offset);
+				while (buffer.hasRemaining()) {
+					runPosition += channel.write(buffer, runPosition);
+				}
+				start = runEnd;
+			}
+		}
+
+		@Override
+		void writeZeros(long position, long length) {
+			// Nothing to write
+		}
+
+		@Override
+		void finish(long size) throws IOException {
+			try {
+				if (size > 0 && channel.size() < size) { // Extend over trailing zeros
+					channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+				}
+			} finally {
+				channel.close();
+			}
+		}
+
+		@Override
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+
+			}
+		}
+	}
+
+	/**
+	 * Sequential writer, data must be written in order
+	 */
+	static final class StreamWriter extends SnapshotWriter {
+		private final OutputStream outputStream;
+		private long written = 0;
+
+		StreamWriter(OutputStream outputStream) {
+			this.outputStream = outputStream;
+		}
+
+		@Override
+		void write(long position, byte[] data, int offset, int length) throws IOException {
+			checkPosition(position);
+			outputStream.write(data, offset, length);
+			written += length;
+		}
+
+		@Override
+		void writeZeros(long position, long length) throws IOException {
+			checkPosition(position);
+			for (long remaining = length; remaining > 0; remaining -= SPARSE_BLOCK_SIZE) {
+				outputStream.write(ZEROS, 0, (int) Math.min(SPARSE_BLOCK_SIZE, remaining));
+			}
+			written += length;
+		}
+
+		@Override
+		void finish(long size) throws IOException {
+			try {
+				if (written != size) {
+					throw new IOException("Snapshot size " + size + " does not match " + written + " bytes written");
+				}
+			} finally {
+				outputStream.close();
+			}
+		}
+
+		@Override
+		void close() {
+			try {
+				outputStream.close();
+			} catch (IOException e) {
+
+			}
+		}
+
+		private void checkPosition(long position) throws IOException {
+			if (position != written) {
+				throw new IOException("Out of order write at " + position + ", " + written + " bytes written");
+			}
+		}
+	}
+}
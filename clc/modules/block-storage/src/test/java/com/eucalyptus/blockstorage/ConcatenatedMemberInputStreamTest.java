@@ -0,0 +1,130 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class ConcatenatedMemberInputStreamTest {
+
+	@Test
+	public void testMultipleMembers() throws Exception {
+		final byte[] data = data(300 * 1024 + 17);
+		final List<byte[]> members = compressInMembers(data, 64 * 1024);
+		assertArrayEquals("Decompressed data", data, ByteStreams.toByteArray(new GZIPInputStream(new ConcatenatedMemberInputStream(
+				new NetworkInputStream(members)))));
+	}
+
+	@Test
+	public void testSingleMember() throws Exception {
+		final byte[] data = data(100 * 1024);
+		final List<byte[]> members = Collections.singletonList(member(data, data.length));
+		assertArrayEquals("Decompressed data", data, ByteStreams.toByteArray(new GZIPInputStream(new ConcatenatedMemberInputStream(
+				new NetworkInputStream(members)))));
+	}
+
+	@Test
+	public void testWithoutConcatenatedMemberInputStream() throws Exception {
+		final byte[] data = data(300 * 1024 + 17);
+		final List<byte[]> members = compressInMembers(data, 64 * 1024);
+		final byte[] decompressed = ByteStreams.toByteArray(new GZIPInputStream(new NetworkInputStream(members)));
+		assertEquals("Only the first member read", 64 * 1024, decompressed.length);
+	}
+
+	private static List<byte[]> compressInMembers(byte[] data, int blockSize) throws IOException {
+		final List<byte[]> members = new ArrayList<byte[]>();
+		for (int offset = 0; offset < data.length; offset += blockSize) {
+			final int length = Math.min(blockSize, data.length - offset);
+			final byte[] block = new byte[length];
+			System.arraycopy(data, offset, block, 0, length);
+			members.add(member(block, length));
+		}
+		return members;
+	}
+
+	private static byte[] member(byte[] data, int length) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzipStream = new GZIPOutputStream(out)) {
+			gzipStream.write(data, 0, length);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] data(int length) {
+		final byte[] data = new byte[length];
+		final Random random = new Random(7);
+		for (int i = 0; i < length; i += 64) { // compressible but not uniform
+			data[i] = (byte) random.nextInt();
+		}
+		return data;
+	}
+
+	/**
+	 * Stream that never reports bytes available, as a socket stream may between packets. Reads return short and end at member boundaries, as when
+	 * each member arrives in its own packets.
+	 */
+	private static final class NetworkInputStream extends InputStream {
+		private final Iterator<byte[]> members;
+		private InputStream current = new ByteArrayInputStream(new byte[0]);
+
+		private NetworkInputStream(List<byte[]> members) {
+			this.members = members.iterator();
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read;
+			while ((read = current.read(b, off, Math.min(len, 1000))) < 0) {
+				if (!members.hasNext()) {
+					return -1;
+				}
+				current = new ByteArrayInputStream(members.next());
+			}
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return 0;
+		}
+	}
+}
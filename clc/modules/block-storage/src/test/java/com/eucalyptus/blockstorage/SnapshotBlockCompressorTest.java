@@ -0,0 +1,234 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SnapshotBlockCompressorTest {
+
+	private static ExecutorService executor;
+
+	@BeforeClass
+	public static void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final byte[] data = data(5 * 1024 * 1024 + 123);
+		final List<Part> parts = compress(data, 64 * 1024, 3, 256 * 1024);
+		assertTrue("Multiple parts", parts.size() > 1);
+		assertArrayEquals("Decompressed data", data, decompress(parts));
+	}
+
+	@Test
+	public void testPartSizes() throws Exception {
+		final byte[] data = data(3 * 1024 * 1024);
+		final long partSize = 200 * 1024;
+		final List<Part> parts = compress(data, 32 * 1024, 4, partSize);
+		long bytesRead = 0;
+		for (int i = 0; i < parts.size(); i++) {
+			final Part part = parts.get(i);
+			assertEquals("Part number", i + 1, part.partNumber);
+			assertEquals("Last part", i == parts.size() - 1, part.isLast);
+			if (!part.isLast) {
+				assertTrue("Part size " + part.data.length, part.data.length >= partSize);
+			}
+			bytesRead += part.bytesRead;
+		}
+		assertEquals("Uncompressed bytes", data.length, bytesRead);
+	}
+
+	@Test
+	public void testSinglePart() throws Exception {
+		final byte[] data = data(10000);
+		final List<Part> parts = compress(data, 1024, 2, 1024 * 1024);
+		assertEquals("Parts", 1, parts.size());
+		assertTrue("Last part", parts.get(0).isLast);
+		assertArrayEquals("Decompressed data", data, decompress(parts));
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		final List<Part> parts = compress(new byte[0], 1024, 2, 1024 * 1024);
+		assertEquals("Parts", 1, parts.size());
+		assertArrayEquals("Decompressed data", new byte[0], decompress(parts));
+	}
+
+	/**
+	 * The parts form a single gzip member, so a GZIPInputStream reads all of it even when the stream never reports bytes available
+	 */
+	@Test
+	public void testSingleMember() throws Exception {
+		final byte[] data = data(2 * 1024 * 1024 + 5);
+		final List<Part> parts = compress(data, 64 * 1024, 4, 256 * 1024);
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		for (final Part part : parts) {
+			compressed.write(part.data);
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new UnavailableInputStream(compressed.toByteArray()))) {
+			final byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
+			}
+		}
+		assertArrayEquals("Decompressed data", data, out.toByteArray());
+	}
+
+	@Test
+	public void testZeroBlocks() throws Exception {
+		final byte[] data = data(1024 * 1024);
+		for (int i = 100 * 1024; i < 900 * 1024; i++) {
+			data[i] = 0;
+		}
+		final List<Part> parts = compress(data, 32 * 1024, 4, 128 * 1024);
+		assertArrayEquals("Decompressed data", data, decompress(parts));
+	}
+
+	@Test
+	public void testCrc32Combine() throws Exception {
+		final byte[] data = data(100000);
+		final CRC32 expected = new CRC32();
+		expected.update(data);
+		for (final int split : new int[] { 0, 1, 4096, 99999, 100000 }) {
+			final CRC32 first = new CRC32();
+			first.update(data, 0, split);
+			final CRC32 second = new CRC32();
+			second.update(data, split, data.length - split);
+			assertEquals("CRC32 split at " + split, expected.getValue(),
+					SnapshotBlockCompressor.crc32Combine(first.getValue(), second.getValue(), data.length - split));
+		}
+	}
+
+	private static List<Part> compress(byte[] data, int blockSize, int maxBlocksInFlight, long partSize) throws Exception {
+		final List<Part> parts = new ArrayList<Part>();
+		final SnapshotBlockCompressor compressor = new SnapshotBlockCompressor(new SnapshotBlockCompressor.BlockSubmitter() {
+			@Override
+			public <T> Future<T> submit(Callable<T> task) {
+				return executor.submit(task);
+			}
+		}, blockSize, maxBlocksInFlight, partSize);
+		final int count = compressor.compress(new ByteArrayInputStream(data), new SnapshotBlockCompressor.PartHandler() {
+			@Override
+			public void part(int partNumber, byte[] buffer, int length, long bytesRead, boolean isLast) {
+				final byte[] copy = new byte[length];
+				System.arraycopy(buffer, 0, copy, 0, length);
+				parts.add(new Part(partNumber, copy, bytesRead, isLast));
+			}
+		});
+		assertEquals("Part count", parts.size(), count);
+		return parts;
+	}
+
+	private static byte[] decompress(List<Part> parts) throws Exception {
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		for (final Part part : parts) {
+			compressed.write(part.data);
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+			final byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Partly compressible data so parts are not trivially small.
+	 */
+	private static byte[] data(int size) {
+		final byte[] data = new byte[size];
+		final Random random = new Random(42);
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) (i % 7 == 0 ? random.nextInt() : i % 64);
+		}
+		return data;
+	}
+
+	/**
+	 * Stream that never reports bytes available and returns short reads, as a socket stream may.
+	 */
+	private static final class UnavailableInputStream extends InputStream {
+		private final ByteArrayInputStream in;
+
+		private UnavailableInputStream(byte[] data) {
+			this.in = new ByteArrayInputStream(data);
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, Math.min(len, 1000));
+		}
+
+		@Override
+		public int available() {
+			return 0;
+		}
+	}
+
+	private static final class Part {
+		private final int partNumber;
+		private final byte[] data;
+		private final long bytesRead;
+		private final boolean isLast;
+
+		private Part(int partNumber, byte[] data, long bytesRead, boolean isLast) {
+			this.partNumber = partNumber;
+			this.data = data;
+			this.bytesRead = bytesRead;
+			this.isLast = isLast;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.eucalyptus.blockstorage.exceptions.SnapshotTransferException;
+import com.google.common.collect.Sets;
+
+public class SnapshotManifestTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final SnapshotManifest manifest = new SnapshotManifest("vol-00000001", "snap-00000002", "snap-00000001", 4);
+		manifest.addBlock(SnapshotManifest.hash(new byte[] { 1, 2, 3, 4 }, 0, 4), 4);
+		manifest.addBlock(SnapshotManifest.hash(new byte[] { 0, 0, 0, 0 }, 0, 4), 4);
+		manifest.addBlock(SnapshotManifest.hash(new byte[] { 5 }, 0, 1), 1);
+
+		final SnapshotManifest parsed = SnapshotManifest.parse(manifest.toBytes());
+		assertEquals("Volume", "vol-00000001", parsed.getVolumeId());
+		assertEquals("Snapshot", "snap-00000002", parsed.getSnapshotId());
+		assertEquals("Parent", "snap-00000001", parsed.getParentSnapshotId());
+		assertEquals("Block size", 4, parsed.getBlockSize());
+		assertEquals("Size", 9, parsed.getSize());
+		assertEquals("Blocks", manifest.getBlockHashes(), parsed.getBlockHashes());
+		assertTrue("Reusable", parsed.hasBlocksFor("vol-00000001", 4));
+		assertFalse("Other block size", parsed.hasBlocksFor("vol-00000001", 8));
+		assertFalse("Other volume", parsed.hasBlocksFor("vol-00000003", 4));
+	}
+
+	@Test
+	public void testNoParent() throws Exception {
+		final SnapshotManifest manifest = new SnapshotManifest("vol-00000001", "snap-00000001", null, 4);
+		final SnapshotManifest parsed = SnapshotManifest.parse(manifest.toBytes());
+		assertNull("Parent", parsed.getParentSnapshotId());
+		assertEquals("Size", 0, parsed.getSize());
+		assertTrue("Blocks", parsed.getBlockHashes().isEmpty());
+	}
+
+	@Test(expected = SnapshotTransferException.class)
+	public void testParseInvalidHeader() throws Exception {
+		SnapshotManifest.parse("not a manifest\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = SnapshotTransferException.class)
+	public void testParseMissingBlocks() throws Exception {
+		final SnapshotManifest manifest = new SnapshotManifest("vol-00000001", "snap-00000001", null, 4);
+		manifest.addBlock("a", 4);
+		manifest.addBlock("b", 4);
+		final String content = new String(manifest.toBytes(), StandardCharsets.UTF_8);
+		SnapshotManifest.parse(content.substring(0, content.lastIndexOf("block ")).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testKeys() {
+		final String key = SnapshotManifest.manifestKey("vol-00000001", "snap-00000001");
+		assertTrue("Manifest key", SnapshotManifest.isManifestKey(key));
+		assertTrue("Manifest prefix", key.startsWith(SnapshotManifest.manifestKeyPrefix("vol-00000001")));
+		assertFalse("Snapshot key", SnapshotManifest.isManifestKey("snap-00000001"));
+		assertFalse("Deleted manifest key", SnapshotManifest.isManifestKey(SnapshotManifest.deletedManifestKey("vol-00000001", "snap-00000001")));
+		assertFalse("Block key in manifest prefix",
+				SnapshotManifest.blockKey("vol-00000001", "abc").startsWith(SnapshotManifest.manifestKeyPrefix("vol-00000001")));
+	}
+
+	@Test
+	public void testUnreferencedBlocks() {
+		final SnapshotManifest deleted = manifest("snap-00000001", "a", "b", "c", "c");
+		final SnapshotManifest live = manifest("snap-00000002", "a", "c", "d");
+		final Set<String> unreferenced = SnapshotManifest.unreferencedBlocks(Arrays.asList(deleted), Arrays.asList(live));
+		assertEquals("Unreferenced", Sets.newHashSet("b"), unreferenced);
+		assertEquals("No live manifests", Sets.newHashSet("a", "b", "c"),
+				SnapshotManifest.unreferencedBlocks(Arrays.asList(deleted), Collections.<SnapshotManifest> emptyList()));
+	}
+
+	private static SnapshotManifest manifest(String snapshotId, String... hashes) {
+		final SnapshotManifest manifest = new SnapshotManifest("vol-00000001", snapshotId, null, 4);
+		for (String hash : hashes) {
+			manifest.addBlock(hash, 4);
+		}
+		return manifest;
+	}
+}
@@ -0,0 +1,91 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class SnapshotMemoryBudgetTest {
+
+	@Test
+	public void testReserveWithinLimit() throws Exception {
+		final SnapshotMemoryBudget budget = new SnapshotMemoryBudget();
+		final SnapshotMemoryBudget.Reservation first = budget.reserve(40, 100);
+		final SnapshotMemoryBudget.Reservation second = budget.reserve(60, 100);
+		assertEquals("Reserved", 100, budget.getReserved());
+		first.release();
+		second.release();
+		assertEquals("Reserved", 0, budget.getReserved());
+	}
+
+	@Test
+	public void testReleaseOnce() throws Exception {
+		final SnapshotMemoryBudget budget = new SnapshotMemoryBudget();
+		budget.reserve(30, 100);
+		final SnapshotMemoryBudget.Reservation reservation = budget.reserve(50, 100);
+		reservation.release();
+		reservation.release();
+		assertEquals("Reserved", 30, budget.getReserved());
+	}
+
+	@Test
+	public void testOversizedReservationWhenIdle() throws Exception {
+		final SnapshotMemoryBudget budget = new SnapshotMemoryBudget();
+		final SnapshotMemoryBudget.Reservation reservation = budget.reserve(500, 100);
+		assertEquals("Reserved", 500, budget.getReserved());
+		reservation.release();
+	}
+
+	@Test
+	public void testWaitForRelease() throws Exception {
+		final SnapshotMemoryBudget budget = new SnapshotMemoryBudget();
+		final SnapshotMemoryBudget.Reservation first = budget.reserve(80, 100);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<SnapshotMemoryBudget.Reservation> second = executor.submit(new Callable<SnapshotMemoryBudget.Reservation>() {
+				@Override
+				public SnapshotMemoryBudget.Reservation call() throws Exception {
+					return budget.reserve(50, 100);
+				}
+			});
+			try {
+				second.get(200, TimeUnit.MILLISECONDS);
+				fail("Reservation over the limit should wait");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			first.release();
+			assertNotNull("Reservation after release", second.get(5, TimeUnit.SECONDS));
+			assertEquals("Reserved", 50, budget.getReserved());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
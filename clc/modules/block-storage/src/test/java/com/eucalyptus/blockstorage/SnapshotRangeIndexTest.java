@@ -0,0 +1,191 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.blockstorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import com.eucalyptus.blockstorage.exceptions.SnapshotTransferException;
+import com.google.common.io.ByteStreams;
+
+public class SnapshotRangeIndexTest {
+
+	@Test
+	public void testRanges() throws Exception {
+		final SnapshotRangeIndex index = new SnapshotRangeIndex(8);
+		index.addBlock(3, 4, false);
+		index.addBlock(2, 4, false);
+		index.addBlock(5, 4, false);
+		index.addBlock(1, 4, true);
+		index.addBlock(1, 4, true);
+		index.addBlock(1, 4, true);
+		index.addBlock(4, 2, false);
+
+		final List<SnapshotRangeIndex.Range> ranges = index.getRanges();
+		assertEquals("Ranges", 4, ranges.size());
+		assertRange(ranges.get(0), 0, 5, 0, 8, false);
+		assertRange(ranges.get(1), 5, 5, 8, 4, false);
+		assertRange(ranges.get(2), 10, 3, 12, 12, true);
+		assertRange(ranges.get(3), 13, 4, 24, 2, false);
+		assertEquals("Compressed size", 17, index.getCompressedSize());
+		assertEquals("Size", 26, index.getSize());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final SnapshotRangeIndex index = new SnapshotRangeIndex(8);
+		index.addBlock(3, 4, false);
+		index.addBlock(1, 4, true);
+		index.addBlock(4, 2, false);
+
+		final SnapshotRangeIndex parsed = SnapshotRangeIndex.parse(index.toBytes());
+		assertEquals("Ranges", index.getRanges().size(), parsed.getRanges().size());
+		for (int i = 0; i < index.getRanges().size(); i++) {
+			final SnapshotRangeIndex.Range range = index.getRanges().get(i);
+			assertRange(parsed.getRanges().get(i), range.getCompressedOffset(), range.getCompressedLength(), range.getOffset(), range.getLength(),
+					range.isZero());
+		}
+		assertEquals("Compressed size", index.getCompressedSize(), parsed.getCompressedSize());
+		assertEquals("Size", index.getSize(), parsed.getSize());
+	}
+
+	@Test
+	public void testRoundTripHeader() throws Exception {
+		final SnapshotRangeIndex index = new SnapshotRangeIndex(8);
+		index.addHeader(10);
+		index.addBlock(3, 4, false);
+		index.addBlock(1, 4, true);
+
+		final SnapshotRangeIndex parsed = SnapshotRangeIndex.parse(index.toBytes());
+		assertFalse("Raw deflate ranges", parsed.isGzipMembers());
+		assertRange(parsed.getRanges().get(0), 10, 3, 0, 4, false);
+		assertRange(parsed.getRanges().get(1), 13, 1, 4, 4, true);
+		assertEquals("Compressed size", 14, parsed.getCompressedSize());
+	}
+
+	/**
+	 * Indexes of snapshots uploaded as one gzip member per block are still readable
+	 */
+	@Test
+	public void testParseGzipMembers() throws Exception {
+		final SnapshotRangeIndex parsed = SnapshotRangeIndex.parse("eucalyptus-snapshot-index 1\nsize 8\ndata 3 4\nzero 1 4\n"
+				.getBytes(StandardCharsets.UTF_8));
+		assertTrue("Gzip member ranges", parsed.isGzipMembers());
+		assertRange(parsed.getRanges().get(0), 0, 3, 0, 4, false);
+		assertRange(parsed.getRanges().get(1), 3, 1, 4, 4, true);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		final SnapshotRangeIndex parsed = SnapshotRangeIndex.parse(new SnapshotRangeIndex(8).toBytes());
+		assertTrue("No ranges", parsed.getRanges().isEmpty());
+		assertEquals("Size", 0, parsed.getSize());
+	}
+
+	@Test(expected = SnapshotTransferException.class)
+	public void testParseBadHeader() throws Exception {
+		SnapshotRangeIndex.parse("not an index\nsize 0\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = SnapshotTransferException.class)
+	public void testParseSizeMismatch() throws Exception {
+		SnapshotRangeIndex.parse("eucalyptus-snapshot-index 1\nsize 10\ndata 3 4\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = SnapshotTransferException.class)
+	public void testParseBadRange() throws Exception {
+		SnapshotRangeIndex.parse("eucalyptus-snapshot-index 1\nsize 4\ndata x 4\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Each range of a compressed snapshot decompresses independently to its part of the snapshot
+	 */
+	@Test
+	public void testCompressedRanges() throws Exception {
+		final byte[] data = new byte[1024 * 1024 + 100];
+		for (int i = 0; i < data.length; i++) {
+			if (i < 300 * 1024 || i > 700 * 1024) {
+				data[i] = (byte) (i % 61);
+			}
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final SnapshotRangeIndex index = new SnapshotRangeIndex(128 * 1024);
+		try {
+			final SnapshotBlockCompressor compressor = new SnapshotBlockCompressor(new SnapshotBlockCompressor.BlockSubmitter() {
+				@Override
+				public <T> Future<T> submit(Callable<T> task) {
+					return executor.submit(task);
+				}
+			}, 64 * 1024, 4, 256 * 1024);
+			compressor.compress(new ByteArrayInputStream(data), new SnapshotBlockCompressor.PartHandler() {
+				@Override
+				public void part(int partNumber, byte[] buffer, int length, long bytesRead, boolean isLast) {
+					compressed.write(buffer, 0, length);
+				}
+			}, index);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final byte[] content = compressed.toByteArray();
+		assertTrue("Compressed size", index.getCompressedSize() < content.length);
+		assertEquals("First range offset after gzip header", 10, index.getRanges().get(0).getCompressedOffset());
+		assertEquals("Size", data.length, index.getSize());
+		assertArrayEquals("Whole snapshot", data, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(content))));
+		boolean zeroRange = false;
+		for (final SnapshotRangeIndex.Range range : index.getRanges()) {
+			final byte[] expected = new byte[(int) range.getLength()];
+			System.arraycopy(data, (int) range.getOffset(), expected, 0, expected.length);
+			final byte[] rangeContent = new byte[(int) range.getCompressedLength()];
+			System.arraycopy(content, (int) range.getCompressedOffset(), rangeContent, 0, rangeContent.length);
+			final byte[] actual = SnapshotBlockCompressor.inflate(rangeContent, (int) range.getLength());
+			assertArrayEquals("Range at " + range.getOffset(), expected, actual);
+			if (range.isZero()) {
+				zeroRange = true;
+				assertTrue("Zero range content", SnapshotWriter.isZero(expected, 0, expected.length));
+			}
+		}
+		assertTrue("Zero range", zeroRange);
+	}
+
+	private static void assertRange(SnapshotRangeIndex.Range range, long compressedOffset, long compressedLength, long offset, long length, boolean zero) {
+		assertEquals("Compressed offset", compressedOffset, range.getCompressedOffset());
+		assertEquals("Compressed length", compressedLength, range.getCompressedLength());
+		assertEquals("Offset", offset, range.getOffset());
+		assertEquals("Length", length, range.getLength());
+		assertEquals("Zero", zero, range.isZero());
+	}
+}
@@ -0,0 +1,375 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.alarms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricManager;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricStatistics;
+import com.eucalyptus.cloudwatch.domain.metricdata.SimpleMetricEntity;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Recent metric data for metrics that have alarms.
+ *
+ * The cache is fed from the metric data flush and holds a ring buffer of
+ * per-minute aggregates for each watched metric, sized to cover the
+ * evaluation window (including buffer periods) of the alarms on that metric.
+ *
+ * Data is only served for windows that start after the metric was first
+ * watched, until then (or after a restart) callers fall back to the
+ * database.
+ *
+ * The keys of the alarm metrics that receive data are tracked so that only
+ * the alarms on those metrics need to be evaluated after a flush.
+ */
+public class AlarmMetricCache {
+
+  private static final long MINUTE_MILLIS = 60000L;
+  private static final AlarmMetricCache INSTANCE = new AlarmMetricCache();
+
+  private final ConcurrentMap<Key, Series> seriesMap = Maps.newConcurrentMap();
+  private final Set<Key> watchedMetrics = Collections.newSetFromMap(Maps.<Key, Boolean>newConcurrentMap());
+  private final Set<Key> updatedKeys = Collections.newSetFromMap(Maps.<Key, Boolean>newConcurrentMap());
+  private final AtomicLong lastUpdateMillis = new AtomicLong();
+  private final AtomicLong updateCount = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public static AlarmMetricCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Ensure data for the alarms metric is cached from now on.
+   *
+   * @return The key for the alarms metric
+   */
+  Key watch(AlarmEntity alarmEntity, Date now) {
+    final Key key = key(alarmEntity);
+    final int windowMinutes = windowMinutes(alarmEntity);
+    Series series = seriesMap.get(key);
+    if (series == null) {
+      final Series newSeries = new Series(nextMinute(now), windowMinutes);
+      series = seriesMap.putIfAbsent(key, newSeries);
+      if (series == null) series = newSeries;
+    }
+    series.ensureCapacity(windowMinutes, nextMinute(now));
+    watchedMetrics.add(key.metricKey());
+    return key;
+  }
+
+  /**
+   * Discard data for any metric that is no longer watched.
+   */
+  void retain(Set<Key> keys) {
+    seriesMap.keySet().retainAll(keys);
+    updatedKeys.retainAll(keys);
+    final Set<Key> metricKeys = Sets.newHashSet();
+    for (final Key key : keys) {
+      metricKeys.add(key.metricKey());
+    }
+    watchedMetrics.retainAll(metricKeys);
+  }
+
+  public void clear() {
+    seriesMap.clear();
+    watchedMetrics.clear();
+    updatedKeys.clear();
+  }
+
+  /**
+   * Fold a batch of flushed (aggregated) metric data into the cache.
+   */
+  public void update(List<SimpleMetricEntity> dataBatch) {
+    if (seriesMap.isEmpty()) return;
+    for (final SimpleMetricEntity simpleMetricEntity : dataBatch) {
+      if (!watchedMetrics.contains(new Key(simpleMetricEntity.getAccountId(), simpleMetricEntity.getNamespace(),
+          simpleMetricEntity.getMetricName(), simpleMetricEntity.getMetricType(), null))) continue;
+      for (final MetricEntity me : MetricManager.foldAndHash(simpleMetricEntity)) {
+        final Key key = new Key(me.getAccountId(), me.getNamespace(), me.getMetricName(),
+            me.getMetricType(), me.getDimensionHash());
+        final Series series = seriesMap.get(key);
+        if (series != null) {
+          series.add(me.getUnits(), me.getTimestamp().getTime(), me.getSampleSize(), me.getSampleMax(),
+              me.getSampleMin(), me.getSampleSum());
+          updatedKeys.add(key);
+          updateCount.incrementAndGet();
+        }
+      }
+    }
+    lastUpdateMillis.set(System.currentTimeMillis());
+  }
+
+  /**
+   * Remove and return the keys of the alarm metrics updated since the last call.
+   */
+  Set<Key> drainUpdatedKeys() {
+    final Set<Key> keys = Sets.newHashSet();
+    for (final Iterator<Key> iterator = updatedKeys.iterator(); iterator.hasNext(); ) {
+      keys.add(iterator.next());
+      iterator.remove();
+    }
+    return keys;
+  }
+
+  /**
+   * Get statistics for the alarms metric from cached data.
+   *
+   * @return The statistics or null if the cache does not cover the period
+   */
+  Collection<MetricStatistics> getMetricStatistics(AlarmEntity alarmEntity, Date startTime, Date endTime) {
+    final Key key = key(alarmEntity);
+    final Series series = seriesMap.get(key);
+    final Collection<MetricStatistics> statistics = series == null ?
+        null :
+        series.statistics(key, alarmEntity.getUnit(), startTime.getTime(), endTime.getTime(), alarmEntity.getPeriod());
+    (statistics == null ? missCount : hitCount).incrementAndGet();
+    return statistics;
+  }
+
+  /**
+   * Is the alarms metric cached for the given period.
+   */
+  boolean covers(AlarmEntity alarmEntity, Date startTime, Date endTime) {
+    final Series series = seriesMap.get(key(alarmEntity));
+    return series != null && series.covers(startTime.getTime(), endTime.getTime());
+  }
+
+  public int getSize() {
+    return seriesMap.size();
+  }
+
+  /**
+   * @return The time of the last update from the metric data flush
+   */
+  public long getLastUpdateMillis() {
+    return lastUpdateMillis.get();
+  }
+
+  /**
+   * @return The total number of data points cached
+   */
+  public long getUpdateCount() {
+    return updateCount.get();
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  static int windowMinutes(AlarmEntity alarmEntity) {
+    return (alarmEntity.getEvaluationPeriods() + AlarmStateEvaluationWorker.numBufferPeriods(alarmEntity.getPeriod()))
+        * alarmEntity.getPeriod() / 60;
+  }
+
+  private static Key key(AlarmEntity alarmEntity) {
+    return new Key(alarmEntity.getAccountId(), alarmEntity.getNamespace(), alarmEntity.getMetricName(),
+        alarmEntity.getMetricType(), MetricManager.hash(alarmEntity.getDimensionMap()));
+  }
+
+  private static long nextMinute(Date now) {
+    return MetricManager.stripSeconds(now).getTime() + MINUTE_MILLIS;
+  }
+
+  static final class Key {
+    private final String accountId;
+    private final String namespace;
+    private final String metricName;
+    private final MetricType metricType;
+    private final String dimensionHash;
+
+    private Key(String accountId, String namespace, String metricName, MetricType metricType, String dimensionHash) {
+      this.accountId = accountId;
+      this.namespace = namespace;
+      this.metricName = metricName;
+      this.metricType = metricType;
+      this.dimensionHash = dimensionHash;
+    }
+
+    private Key metricKey() {
+      return new Key(accountId, namespace, metricName, metricType, null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final Key key = (Key) o;
+      return Objects.equal(accountId, key.accountId) &&
+          Objects.equal(namespace, key.namespace) &&
+          Objects.equal(metricName, key.metricName) &&
+          metricType == key.metricType &&
+          Objects.equal(dimensionHash, key.dimensionHash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(accountId, namespace, metricName, metricType, dimensionHash);
+    }
+  }
+
+  /**
+   * Per-minute data for a metric, one ring per unit.
+   */
+  private static final class Series {
+    private final Map<Units, Ring> rings = new EnumMap<Units, Ring>(Units.class);
+    private long coverageStart;
+    private int capacity;
+
+    private Series(long coverageStart, int capacity) {
+      this.coverageStart = coverageStart;
+      this.capacity = capacity;
+    }
+
+    private synchronized void ensureCapacity(int minutes, long coverageStart) {
+      if (minutes > capacity) {
+        // earlier data is not available for the longer window
+        this.capacity = minutes;
+        this.coverageStart = coverageStart;
+        rings.clear();
+      }
+    }
+
+    private synchronized void add(Units units, long timestamp, double sampleSize, double sampleMax,
+                                  double sampleMin, double sampleSum) {
+      if (timestamp < coverageStart) return;
+      Ring ring = rings.get(units);
+      if (ring == null) {
+        ring = new Ring(capacity);
+        rings.put(units, ring);
+      }
+      ring.add(timestamp, sampleSize, sampleMax, sampleMin, sampleSum);
+    }
+
+    private synchronized boolean covers(long startTime, long endTime) {
+      if (startTime < coverageStart || endTime - startTime > capacity * MINUTE_MILLIS) return false;
+      for (final Ring ring : rings.values()) {
+        if (!ring.covers(startTime)) return false;
+      }
+      return true;
+    }
+
+    private synchronized Collection<MetricStatistics> statistics(Key key, Units units, long startTime, long endTime,
+                                                                 int period) {
+      if (!covers(startTime, endTime)) return null;
+      final List<MetricStatistics> statistics = new ArrayList<MetricStatistics>();
+      for (final Map.Entry<Units, Ring> entry : rings.entrySet()) {
+        if (units == null || units == entry.getKey()) {
+          entry.getValue().statistics(statistics, key, entry.getKey(), startTime, endTime, 1000L * period);
+        }
+      }
+      return statistics;
+    }
+  }
+
+  private static final class Ring {
+    private final long[] minutes;
+    private final double[] sampleSize;
+    private final double[] sampleMax;
+    private final double[] sampleMin;
+    private final double[] sampleSum;
+    private long latest = Long.MIN_VALUE;
+
+    private Ring(int capacity) {
+      minutes = new long[capacity];
+      sampleSize = new double[capacity];
+      sampleMax = new double[capacity];
+      sampleMin = new double[capacity];
+      sampleSum = new double[capacity];
+      Arrays.fill(minutes, Long.MIN_VALUE);
+    }
+
+    private int slot(long minute) {
+      return (int) ((minute / MINUTE_MILLIS) % minutes.length);
+    }
+
+    private void add(long timestamp, double size, double max, double min, double sum) {
+      final long minute = timestamp - timestamp % MINUTE_MILLIS;
+      if (latest != Long.MIN_VALUE && minute <= latest - minutes.length * MINUTE_MILLIS) return; // too old to hold
+      final int slot = slot(minute);
+      if (minutes[slot] != minute) {
+        minutes[slot] = minute;
+        sampleSize[slot] = size;
+        sampleMax[slot] = max;
+        sampleMin[slot] = min;
+        sampleSum[slot] = sum;
+      } else {
+        sampleSize[slot] += size;
+        sampleMax[slot] = Math.max(sampleMax[slot], max);
+        sampleMin[slot] = Math.min(sampleMin[slot], min);
+        sampleSum[slot] += sum;
+      }
+      latest = Math.max(latest, minute);
+    }
+
+    /**
+     * Data from the start time on is held unless overwritten by (future dated) later data.
+     */
+    private boolean covers(long startTime) {
+      return latest == Long.MIN_VALUE || latest < startTime + minutes.length * MINUTE_MILLIS;
+    }
+
+    private void statistics(List<MetricStatistics> statistics, Key key, Units units,
+                            long startTime, long endTime, long periodMillis) {
+      for (long periodStart = startTime; periodStart < endTime; periodStart += periodMillis) {
+        MetricStatistics periodStatistics = null;
+        final long periodEnd = Math.min(periodStart + periodMillis, endTime);
+        for (long minute = periodStart; minute < periodEnd; minute += MINUTE_MILLIS) {
+          final int slot = slot(minute);
+          if (minutes[slot] != minute) continue;
+          if (periodStatistics == null) {
+            periodStatistics = new MetricStatistics(key.accountId, key.namespace, key.metricName, units,
+                key.metricType, new Date(periodStart), sampleSize[slot], sampleMax[slot], sampleMin[slot],
+                sampleSum[slot], null);
+          } else {
+            periodStatistics.setSampleMax(Math.max(sampleMax[slot], periodStatistics.getSampleMax()));
+            periodStatistics.setSampleMin(Math.min(sampleMin[slot], periodStatistics.getSampleMin()));
+            periodStatistics.setSampleSize(periodStatistics.getSampleSize() + sampleSize[slot]);
+            periodStatistics.setSampleSum(periodStatistics.getSampleSum() + sampleSum[slot]);
+          }
+        }
+        if (periodStatistics != null) {
+          statistics.add(periodStatistics);
+        }
+      }
+    }
+  }
+}
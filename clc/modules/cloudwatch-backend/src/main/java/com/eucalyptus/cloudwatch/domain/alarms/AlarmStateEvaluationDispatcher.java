@@ -19,8 +19,12 @@
  ************************************************************************/
 package com.eucalyptus.cloudwatch.domain.alarms;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityTransaction;
 
@@ -30,13 +34,43 @@ import org.hibernate.Criteria;
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.cloudwatch.backend.CloudWatchBackendService;
 import com.eucalyptus.cloudwatch.common.CloudWatchBackend;
+import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetricManager;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricManager;
 import com.eucalyptus.component.Topology;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+/**
+ * Dispatches alarm state evaluation.
+ *
+ * Alarms with cached metric data (see AlarmMetricCache) are evaluated in
+ * memory and a worker is only submitted when the alarm state changes or
+ * actions are due. Alarms without cached data (e.g. on cold start) are
+ * evaluated by a worker using the database.
+ *
+ * An alarm is only evaluated when the last flush updated its metric, when
+ * its period has elapsed since it was last evaluated or when it is new or
+ * was changed.
+ */
 public class AlarmStateEvaluationDispatcher implements Runnable {
   private static final Logger LOG = Logger.getLogger(AlarmStateEvaluationDispatcher.class);
+  private static final AtomicLong inMemoryEvaluations = new AtomicLong();
+  private static final AtomicLong submittedEvaluations = new AtomicLong();
+  private static final AtomicLong skippedEvaluations = new AtomicLong();
+  private static final AtomicLong lastEvaluationLagMillis = new AtomicLong();
+  private static final AtomicLong maxEvaluationLagMillis = new AtomicLong();
+  private static final AtomicLong lastDispatchMillis = new AtomicLong();
   ExecutorService executorService;
+  // last evaluation by alarm natural id, accessed only by the dispatch thread
+  private final Map<String, Evaluation> evaluations = Maps.newHashMap();
+
+  static {
+    Mbeans.register(new AlarmEvaluationStatistics());
+  }
 
   public AlarmStateEvaluationDispatcher(ExecutorService executorService) {
     super();
@@ -47,14 +81,35 @@ public class AlarmStateEvaluationDispatcher implements Runnable {
   public void run() {
     if (!CloudWatchBackendService.DISABLE_CLOUDWATCH_SERVICE && Bootstrap.isOperational( ) && Topology.isEnabledLocally( CloudWatchBackend.class )) {
       LOG.debug("Kicking off AlarmStateEvaluationDispatcher");
+      long before = System.currentTimeMillis();
+      AlarmMetricCache cache = AlarmMetricCache.getInstance();
+      long lastUpdate = cache.getLastUpdateMillis();
+      // drained first so that data flushed during dispatch is evaluated next time
+      Set<AlarmMetricCache.Key> updatedKeys = cache.drainUpdatedKeys();
       EntityTransaction db = Entities.get(AlarmEntity.class);
       try {
         Criteria criteria = Entities.createCriteria(AlarmEntity.class);
         List<AlarmEntity> results = (List<AlarmEntity>) criteria.list();
+        Set<AlarmMetricCache.Key> keys = Sets.newHashSet();
+        Set<String> alarmIds = Sets.newHashSet();
+        Date now = new Date();
         for (AlarmEntity alarmEntity: results) {
-          LOG.debug("Submitting job for " + alarmEntity.getAlarmName());
-          executorService.submit(new AlarmStateEvaluationWorker(alarmEntity.getAccountId(), alarmEntity.getAlarmName()));
+          AlarmMetricCache.Key key = cache.watch(alarmEntity, now);
+          keys.add(key);
+          alarmIds.add(alarmEntity.getNaturalId());
+          if (!evaluationDue(alarmEntity, evaluations.get(alarmEntity.getNaturalId()), updatedKeys.contains(key), now)) {
+            skippedEvaluations.incrementAndGet();
+            continue;
+          }
+          evaluations.put(alarmEntity.getNaturalId(), new Evaluation(alarmEntity.getVersion(), now));
+          if (requiresWorker(cache, alarmEntity, now)) {
+            LOG.debug("Submitting job for " + alarmEntity.getAlarmName());
+            submittedEvaluations.incrementAndGet();
+            executorService.submit(new AlarmStateEvaluationWorker(alarmEntity.getAccountId(), alarmEntity.getAlarmName()));
+          }
         }
+        cache.retain(keys);
+        evaluations.keySet().retainAll(alarmIds);
         db.commit();
       } catch (RuntimeException ex) {
         Logs.extreme().error(ex, ex); // TODO the exception will be swallowed...
@@ -62,7 +117,159 @@ public class AlarmStateEvaluationDispatcher implements Runnable {
       } finally {
         if (db.isActive())
           db.rollback();
+        long after = System.currentTimeMillis();
+        lastDispatchMillis.set(after - before);
+        if (lastUpdate > 0) {
+          long lag = after - lastUpdate;
+          lastEvaluationLagMillis.set(lag);
+          if (lag > maxEvaluationLagMillis.get()) maxEvaluationLagMillis.set(lag);
+        }
+        LOG.debug("Timing:AlarmStateEvaluationDispatcher:time="+(after-before));
       }
+    } else {
+      // cached data would be stale if the service is later enabled here
+      AlarmMetricCache.getInstance().clear();
+      evaluations.clear();
+      ListMetricManager.invalidateIndex();
+    }
+  }
+
+  /**
+   * An alarm is due for evaluation if it was not evaluated before or has
+   * changed since, if its metric was updated or if its period has elapsed.
+   */
+  static boolean evaluationDue(AlarmEntity alarmEntity, Evaluation previous, boolean metricUpdated, Date now) {
+    return previous == null ||
+        metricUpdated ||
+        !Objects.equal(previous.version, alarmEntity.getVersion()) ||
+        MetricManager.stripSeconds(now).getTime() - previous.minute >= 1000L * alarmEntity.getPeriod();
+  }
+
+  /**
+   * Evaluate in memory when the cache covers the alarm window, a worker is
+   * only needed to update the alarm or execute actions.
+   */
+  private static boolean requiresWorker(AlarmMetricCache cache, AlarmEntity alarmEntity, Date now) {
+    Date endDate = MetricManager.stripSeconds(now);
+    Date bufferStartDate = new Date(endDate.getTime() - 60000L * AlarmMetricCache.windowMinutes(alarmEntity));
+    if (!cache.covers(alarmEntity, bufferStartDate, endDate)) {
+      return true;
+    }
+    inMemoryEvaluations.incrementAndGet();
+    AlarmState state = AlarmStateEvaluationWorker.evaluateState(alarmEntity, now);
+    if (state.getStateValue() != alarmEntity.getStateValue()) {
+      return true;
+    }
+    return AlarmStateEvaluationWorker.moreThanOnePeriodHasPassed(alarmEntity, now) &&
+        alarmEntity.getActionsEnabled() &&
+        !AlarmUtils.getActionsByState(alarmEntity, state).isEmpty();
+  }
+
+  /**
+   * @return The number of alarm evaluations performed using cached data
+   */
+  public static long getInMemoryEvaluationCount() {
+    return inMemoryEvaluations.get();
+  }
+
+  /**
+   * @return The number of alarm evaluations submitted to workers
+   */
+  public static long getSubmittedEvaluationCount() {
+    return submittedEvaluations.get();
+  }
+
+  /**
+   * @return The number of alarm evaluations skipped as the alarm was not due
+   */
+  public static long getSkippedEvaluationCount() {
+    return skippedEvaluations.get();
+  }
+
+  /**
+   * @return The time between the last metric data flush and completion of the last dispatch
+   */
+  public static long getLastEvaluationLagMillis() {
+    return lastEvaluationLagMillis.get();
+  }
+
+  public static long getMaxEvaluationLagMillis() {
+    return maxEvaluationLagMillis.get();
+  }
+
+  public static long getLastDispatchMillis() {
+    return lastDispatchMillis.get();
+  }
+
+  static final class Evaluation {
+    private final Integer version;
+    private final long minute;
+
+    Evaluation(Integer version, Date evaluated) {
+      this.version = version;
+      this.minute = MetricManager.stripSeconds(evaluated).getTime();
+    }
+  }
+
+  /**
+   * JMX view of alarm evaluation and the alarm metric cache.
+   */
+  public interface AlarmEvaluationStatisticsMXBean {
+    long getInMemoryEvaluationCount();
+    long getSubmittedEvaluationCount();
+    long getSkippedEvaluationCount();
+    long getLastEvaluationLagMillis();
+    long getMaxEvaluationLagMillis();
+    long getLastDispatchMillis();
+    int getCachedMetricCount();
+    long getCacheHitCount();
+    long getCacheMissCount();
+  }
+
+  private static class AlarmEvaluationStatistics implements AlarmEvaluationStatisticsMXBean {
+    @Override
+    public long getInMemoryEvaluationCount() {
+      return AlarmStateEvaluationDispatcher.getInMemoryEvaluationCount();
+    }
+
+    @Override
+    public long getSubmittedEvaluationCount() {
+      return AlarmStateEvaluationDispatcher.getSubmittedEvaluationCount();
+    }
+
+    @Override
+    public long getSkippedEvaluationCount() {
+      return AlarmStateEvaluationDispatcher.getSkippedEvaluationCount();
+    }
+
+    @Override
+    public long getLastEvaluationLagMillis() {
+      return AlarmStateEvaluationDispatcher.getLastEvaluationLagMillis();
+    }
+
+    @Override
+    public long getMaxEvaluationLagMillis() {
+      return AlarmStateEvaluationDispatcher.getMaxEvaluationLagMillis();
+    }
+
+    @Override
+    public long getLastDispatchMillis() {
+      return AlarmStateEvaluationDispatcher.getLastDispatchMillis();
+    }
+
+    @Override
+    public int getCachedMetricCount() {
+      return AlarmMetricCache.getInstance().getSize();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+      return AlarmMetricCache.getInstance().getHitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+      return AlarmMetricCache.getInstance().getMissCount();
     }
   }
 }
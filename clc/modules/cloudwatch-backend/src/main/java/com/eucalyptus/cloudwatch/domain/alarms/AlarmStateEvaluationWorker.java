@@ -81,20 +81,30 @@ public class AlarmStateEvaluationWorker implements Runnable {
     }
   }
 
-  private boolean moreThanOnePeriodHasPassed(AlarmEntity alarmEntity, Date now) {
+  static boolean moreThanOnePeriodHasPassed(AlarmEntity alarmEntity, Date now) {
     now = MetricManager.stripSeconds(now);
     Date then = MetricManager.stripSeconds(alarmEntity.getLastActionsUpdatedTimestamp());
     return now.getTime() - then.getTime() >= 1000L * alarmEntity.getPeriod();
   }
 
-  private AlarmState evaluateState(AlarmEntity alarmEntity) {
-    Date queryDate = new Date();
+  static AlarmState evaluateState(AlarmEntity alarmEntity) {
+    return evaluateState(alarmEntity, new Date());
+  }
+
+  /**
+   * Evaluate the alarm state using cached metric data when available,
+   * falling back to the database (e.g. on cold start).
+   */
+  static AlarmState evaluateState(AlarmEntity alarmEntity, Date queryDate) {
     Date endDate = MetricManager.stripSeconds(queryDate);
     Date startDate = new Date(endDate.getTime() - 1000L * alarmEntity.getPeriod() * alarmEntity.getEvaluationPeriods());
     // We put in a slight buffer in addition to the regular window time (two additional periods or 5 minutes, whichever is greater) to delay
     // insufficient data from going down... 
     Date bufferStartDate = new Date(startDate.getTime() - 1000L * alarmEntity.getPeriod() * numBufferPeriods(alarmEntity.getPeriod()));
-    Collection<MetricStatistics> metricStatisticsList = MetricManager.getMetricStatistics(accountId, alarmEntity.getMetricName(), alarmEntity.getNamespace(), alarmEntity.getDimensionMap(), alarmEntity.getMetricType(), alarmEntity.getUnit(), bufferStartDate, endDate, alarmEntity.getPeriod());
+    Collection<MetricStatistics> metricStatisticsList = AlarmMetricCache.getInstance().getMetricStatistics(alarmEntity, bufferStartDate, endDate);
+    if (metricStatisticsList == null) {
+      metricStatisticsList = MetricManager.getMetricStatistics(alarmEntity.getAccountId(), alarmEntity.getMetricName(), alarmEntity.getNamespace(), alarmEntity.getDimensionMap(), alarmEntity.getMetricType(), alarmEntity.getUnit(), bufferStartDate, endDate, alarmEntity.getPeriod());
+    }
     TreeMap<Long, StateAndMetricValue> dataPointMap = new TreeMap<Long, StateAndMetricValue>();
     for (long L = bufferStartDate.getTime(); L < endDate.getTime(); L += alarmEntity.getPeriod() * 1000L) {
       dataPointMap.put(L, new StateAndMetricValue(StateValue.INSUFFICIENT_DATA, null));
@@ -172,7 +182,7 @@ public class AlarmStateEvaluationWorker implements Runnable {
     }
   }
 
-  private StateAndMetricValue calculateLocalStateAndMetricValue(
+  private static StateAndMetricValue calculateLocalStateAndMetricValue(
       AlarmEntity alarmEntity, MetricStatistics metricStatistics) {
     Double metricValue = AlarmUtils.calculateMetricValue(alarmEntity.getStatistic(), metricStatistics);
 
@@ -196,7 +206,7 @@ public class AlarmStateEvaluationWorker implements Runnable {
       return metricValue;
     }
   }
-  private Integer numBufferPeriods(Integer period) {
+  static Integer numBufferPeriods(Integer period) {
     // it is the greater of 5 minutes or two periods, but it should be a whole number of periods.
     Integer periodMinutes = period / 60;
     if (periodMinutes == 1) return 5;
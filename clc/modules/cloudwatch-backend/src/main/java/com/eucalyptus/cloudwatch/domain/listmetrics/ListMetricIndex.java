@@ -0,0 +1,354 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.listmetrics;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.eucalyptus.cloudwatch.backend.CloudWatchException;
+import com.eucalyptus.cloudwatch.backend.InvalidParameterValueException;
+import com.eucalyptus.cloudwatch.domain.DimensionEntity;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * In-memory index of list metrics.
+ *
+ * Metrics are indexed by account, then namespace and metric name, with
+ * postings for each dimension (name and value). All postings are ordered
+ * as for database paging (creation timestamp then natural id) so that
+ * next tokens are stable whichever postings are used for a query.
+ *
+ * Reads do not lock, updates and loading are serialized.
+ */
+class ListMetricIndex {
+
+  private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      int result = e1.created < e2.created ? -1 : (e1.created == e2.created ? 0 : 1);
+      if (result == 0) {
+        result = e1.naturalId.compareTo(e2.naturalId);
+      }
+      return result;
+    }
+  };
+
+  private final Object updateLock = new Object();
+  private final ConcurrentMap<String, Entry> entries = Maps.newConcurrentMap();
+  private final Postings all = new Postings();
+  private final ConcurrentMap<String, AccountIndex> accounts = Maps.newConcurrentMap();
+  private volatile boolean loaded;
+
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Load the index if it is not already loaded.
+   */
+  void load(Supplier<? extends Collection<ListMetric>> loader) {
+    synchronized (updateLock) {
+      if (loaded) return;
+      clear();
+      for (ListMetric metric : loader.get()) {
+        add(metric, metric.getLastUpdateTimestamp());
+      }
+      loaded = true;
+    }
+  }
+
+  /**
+   * Discard the index, it will be loaded again on next use.
+   */
+  void invalidate() {
+    synchronized (updateLock) {
+      loaded = false;
+      clear();
+    }
+  }
+
+  /**
+   * Update the index following a committed change.
+   *
+   * @param created Newly persisted metrics
+   * @param updated Natural ids of metrics that were updated
+   * @param timestamp The update time
+   */
+  void update(Collection<ListMetric> created, Collection<String> updated, Date timestamp) {
+    synchronized (updateLock) {
+      if (!loaded) return;
+      for (ListMetric metric : created) {
+        add(metric, timestamp);
+      }
+      for (String naturalId : updated) {
+        final Entry entry = entries.get(naturalId);
+        if (entry != null) {
+          entry.touch(timestamp);
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove all metrics last updated before the given date.
+   */
+  void removeBefore(Date before) {
+    synchronized (updateLock) {
+      if (!loaded) return;
+      for (final Entry entry : entries.values()) {
+        if (entry.lastUpdate < before.getTime()) {
+          remove(entry);
+        }
+      }
+    }
+  }
+
+  int size() {
+    return all.size.get();
+  }
+
+  /**
+   * List metrics matching the given filters, parameters are as for
+   * ListMetricManager#listMetrics
+   */
+  List<ListMetric> list(String accountId, String metricName, String namespace, Map<String, String> dimensionMap,
+                        Date after, Date before, Integer maxRecords, String nextToken) throws CloudWatchException {
+    Entry from = null;
+    if (nextToken != null) {
+      from = entries.get(nextToken);
+      if (from == null) {
+        throw new InvalidParameterValueException("Invalid nextToken");
+      }
+    }
+    final Set<String> dimensionKeys = dimensionKeys(dimensionMap);
+    final List<ListMetric> results = Lists.newArrayList();
+    final Postings postings = selectPostings(accountId, metricName, namespace, dimensionKeys);
+    if (postings == null) return results;
+    final Iterator<Entry> iterator = from == null ?
+        postings.entries.iterator() :
+        postings.entries.tailSet(from, false).iterator();
+    while (iterator.hasNext() && (maxRecords == null || results.size() < maxRecords)) {
+      final Entry entry = iterator.next();
+      if (entry.matches(accountId, metricName, namespace, dimensionKeys, after, before)) {
+        results.add(entry.metric);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Select the smallest postings that can satisfy the query.
+   *
+   * @return The postings or null if there can be no matches
+   */
+  private Postings selectPostings(String accountId, String metricName, String namespace, Set<String> dimensionKeys) {
+    if (accountId == null) return all;
+    final AccountIndex accountIndex = accounts.get(accountId);
+    if (accountIndex == null) return null;
+    Postings selected = accountIndex.all;
+    if (namespace != null) {
+      final NamespaceIndex namespaceIndex = accountIndex.namespaces.get(namespace);
+      if (namespaceIndex == null) return null;
+      selected = namespaceIndex.all;
+      if (metricName != null) {
+        selected = namespaceIndex.metricNames.get(metricName);
+        if (selected == null) return null;
+      }
+    }
+    for (String dimensionKey : dimensionKeys) {
+      final Postings dimensionPostings = accountIndex.dimensions.get(dimensionKey);
+      if (dimensionPostings == null) return null;
+      if (dimensionPostings.size.get() < selected.size.get()) {
+        selected = dimensionPostings;
+      }
+    }
+    return selected;
+  }
+
+  private void add(ListMetric metric, Date lastUpdate) {
+    final Entry existing = entries.get(metric.getNaturalId());
+    if (existing != null) {
+      existing.touch(lastUpdate);
+      return;
+    }
+    final Entry entry = new Entry(metric, lastUpdate);
+    entries.put(entry.naturalId, entry);
+    all.add(entry);
+    AccountIndex accountIndex = accounts.get(metric.getAccountId());
+    if (accountIndex == null) {
+      accountIndex = new AccountIndex();
+      accounts.put(metric.getAccountId(), accountIndex);
+    }
+    accountIndex.all.add(entry);
+    NamespaceIndex namespaceIndex = accountIndex.namespaces.get(metric.getNamespace());
+    if (namespaceIndex == null) {
+      namespaceIndex = new NamespaceIndex();
+      accountIndex.namespaces.put(metric.getNamespace(), namespaceIndex);
+    }
+    namespaceIndex.all.add(entry);
+    postings(namespaceIndex.metricNames, metric.getMetricName()).add(entry);
+    for (String dimensionKey : entry.dimensionKeys) {
+      postings(accountIndex.dimensions, dimensionKey).add(entry);
+    }
+  }
+
+  private void remove(Entry entry) {
+    entries.remove(entry.naturalId);
+    all.remove(entry);
+    final AccountIndex accountIndex = accounts.get(entry.metric.getAccountId());
+    if (accountIndex == null) return;
+    accountIndex.all.remove(entry);
+    for (String dimensionKey : entry.dimensionKeys) {
+      removePosting(accountIndex.dimensions, dimensionKey, entry);
+    }
+    final NamespaceIndex namespaceIndex = accountIndex.namespaces.get(entry.metric.getNamespace());
+    if (namespaceIndex != null) {
+      namespaceIndex.all.remove(entry);
+      removePosting(namespaceIndex.metricNames, entry.metric.getMetricName(), entry);
+      if (namespaceIndex.all.size.get() == 0) {
+        accountIndex.namespaces.remove(entry.metric.getNamespace());
+      }
+    }
+    if (accountIndex.all.size.get() == 0) {
+      accounts.remove(entry.metric.getAccountId());
+    }
+  }
+
+  private void clear() {
+    entries.clear();
+    all.clear();
+    accounts.clear();
+  }
+
+  private static Postings postings(ConcurrentMap<String, Postings> postingsMap, String key) {
+    Postings postings = postingsMap.get(key);
+    if (postings == null) {
+      postings = new Postings();
+      postingsMap.put(key, postings);
+    }
+    return postings;
+  }
+
+  private static void removePosting(ConcurrentMap<String, Postings> postingsMap, String key, Entry entry) {
+    final Postings postings = postingsMap.get(key);
+    if (postings != null) {
+      postings.remove(entry);
+      if (postings.size.get() == 0) {
+        postingsMap.remove(key);
+      }
+    }
+  }
+
+  private static Set<String> dimensionKeys(Map<String, String> dimensionMap) {
+    final ImmutableSet.Builder<String> keys = ImmutableSet.builder();
+    if (dimensionMap != null) {
+      for (Map.Entry<String, String> dimension : dimensionMap.entrySet()) {
+        keys.add(dimensionKey(dimension.getKey(), dimension.getValue()));
+      }
+    }
+    return keys.build();
+  }
+
+  private static String dimensionKey(String name, String value) {
+    return name + "|" + value;
+  }
+
+  private static final class Entry {
+    private final ListMetric metric;
+    private final String naturalId;
+    private final long created;
+    private final Set<String> dimensionKeys;
+    private volatile long lastUpdate;
+
+    private Entry(ListMetric metric, Date lastUpdate) {
+      this.metric = metric;
+      this.naturalId = metric.getNaturalId();
+      this.created = metric.getCreationTimestamp().getTime();
+      final ImmutableSet.Builder<String> keys = ImmutableSet.builder();
+      for (DimensionEntity dimension : metric.getDimensions()) {
+        keys.add(dimensionKey(dimension.getName(), dimension.getValue()));
+      }
+      this.dimensionKeys = keys.build();
+      this.lastUpdate = lastUpdate == null ? 0L : lastUpdate.getTime();
+    }
+
+    private void touch(Date timestamp) {
+      if (timestamp != null && timestamp.getTime() > lastUpdate) {
+        lastUpdate = timestamp.getTime();
+      }
+    }
+
+    private boolean matches(String accountId, String metricName, String namespace, Set<String> dimensionKeys,
+                            Date after, Date before) {
+      return (accountId == null || accountId.equals(metric.getAccountId())) &&
+          (metricName == null || metricName.equals(metric.getMetricName())) &&
+          (namespace == null || namespace.equals(metric.getNamespace())) &&
+          (after == null || lastUpdate >= after.getTime()) &&
+          (before == null || lastUpdate <= before.getTime()) &&
+          this.dimensionKeys.containsAll(dimensionKeys);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this).add("naturalId", naturalId).add("metric", metric).toString();
+    }
+  }
+
+  private static final class Postings {
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<Entry>(ORDER);
+    private final AtomicInteger size = new AtomicInteger();
+
+    private void add(Entry entry) {
+      if (entries.add(entry)) size.incrementAndGet();
+    }
+
+    private void remove(Entry entry) {
+      if (entries.remove(entry)) size.decrementAndGet();
+    }
+
+    private void clear() {
+      entries.clear();
+      size.set(0);
+    }
+  }
+
+  private static final class NamespaceIndex {
+    private final Postings all = new Postings();
+    private final ConcurrentMap<String, Postings> metricNames = Maps.newConcurrentMap();
+  }
+
+  private static final class AccountIndex {
+    private final Postings all = new Postings();
+    private final ConcurrentMap<String, Postings> dimensions = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, NamespaceIndex> namespaces = Maps.newConcurrentMap();
+  }
+}
@@ -27,7 +27,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import javax.annotation.Nullable;
@@ -35,28 +34,31 @@ import javax.persistence.EntityTransaction;
 
 import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
-import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Restrictions;
 
 import com.eucalyptus.cloudwatch.backend.CloudWatchException;
 import com.eucalyptus.cloudwatch.domain.DimensionEntity;
-import com.eucalyptus.cloudwatch.domain.NextTokenUtils;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
 import com.eucalyptus.cloudwatch.domain.metricdata.SimpleMetricEntity;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 public class ListMetricManager {
   private static final Logger LOG = Logger.getLogger(ListMetricManager.class);
+  private static final ListMetricIndex index = new ListMetricIndex();
   public static void addMetric(String accountId, String metricName, String namespace, Map<String, String> dimensionMap, MetricType metricType) {
     EntityTransaction db = Entities.get(ListMetric.class);
     try {
-      addMetric(db, accountId, metricName, namespace, dimensionMap, metricType);
+      List<ListMetric> created = Lists.newArrayList();
+      List<String> updated = Lists.newArrayList();
+      addMetric(db, accountId, metricName, namespace, dimensionMap, metricType, created, updated);
       db.commit();
+      index.update(created, updated, new Date());
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -109,7 +111,8 @@ public class ListMetricManager {
     }
     return metrics;
   }
-  private static void addMetric(EntityTransaction db, String accountId, String metricName, String namespace, Map<String, String> dimensionMap, MetricType metricType) {
+  private static void addMetric(EntityTransaction db, String accountId, String metricName, String namespace, Map<String, String> dimensionMap, MetricType metricType,
+                                List<ListMetric> created, List<String> updated) {
     List<ListMetric> foldedMetrics = foldMetric(accountId, metricName, namespace, dimensionMap, metricType);
     for (ListMetric metric: foldedMetrics) {
       Criteria criteria = Entities.createCriteria(ListMetric.class)
@@ -132,8 +135,9 @@ public class ListMetricManager {
       ListMetric inDbMetric = (ListMetric) criteria.uniqueResult();
       if (inDbMetric != null) {
         inDbMetric.setVersion(1 + inDbMetric.getVersion());
+        updated.add(inDbMetric.getNaturalId());
       } else {
-        Entities.persist(metric);
+        created.add(Entities.persist(metric));
       }
     }
   }
@@ -143,6 +147,7 @@ public class ListMetricManager {
     try {
       Entities.deleteAll(ListMetric.class);
       db.commit();
+      index.invalidate();
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -163,6 +168,7 @@ public class ListMetricManager {
       criteria.put("before", before);
       Entities.deleteAllMatching(ListMetric.class, "WHERE lastUpdateTimestamp < :before", criteria);
       db.commit();
+      index.removeBefore(before);
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -188,59 +194,38 @@ public class ListMetricManager {
     if (dimensionMap != null && dimensionMap.size() > ListMetric.MAX_DIM_NUM) {
       throw new IllegalArgumentException("Too many dimensions " + dimensionMap.size());
     }
-    EntityTransaction db = Entities.get(ListMetric.class);
-    try {
-      Date nextTokenCreatedTime = NextTokenUtils.getNextTokenCreatedTime(nextToken, ListMetric.class, false);
-      Map<String, String> sortedDimensionMap = new TreeMap<String, String>();
-      Criteria criteria = Entities.createCriteria(ListMetric.class);
-      if (accountId != null) {
-        criteria = criteria.add(Restrictions.eq("accountId", accountId));
-      }
-      if (metricName != null) {
-        criteria = criteria.add(Restrictions.eq("metricName", metricName));
-      }
-      if (namespace != null) {
-        criteria = criteria.add(Restrictions.eq("namespace", namespace));
-      }
-      if (before != null) {
-        criteria = criteria.add(Restrictions.le("lastUpdateTimestamp", before));
-      }
-      if (after != null) {
-        criteria = criteria.add(Restrictions.ge("lastUpdateTimestamp", after));
-      }
-      if (dimensionMap != null && !dimensionMap.isEmpty()) {
-        // sort the map 
-        sortedDimensionMap.putAll(dimensionMap);
-        // now we are going to add a bunch of restrictions to the criteria...
-        // note though there are certain dimensions we don't need to check.
-        // For example if we have two dimensions, we don't need to check dimension 10 for
-        // the first item or dimension 1 for the last item.
-        int numDimensions = sortedDimensionMap.size();
-        int lowDimNum = 1;
-        int highDimNum = ListMetric.MAX_DIM_NUM + 1 - numDimensions;
-        for (Map.Entry<String, String> dimEntry : sortedDimensionMap.entrySet()) {
-          Disjunction or = Restrictions.disjunction();
-          for (int i = lowDimNum; i <= highDimNum; i++) {
-            or.add(Restrictions.conjunction()
-                .add(Restrictions.eq("dim" + i + "Name", dimEntry.getKey()))
-                .add(Restrictions.eq("dim" + i + "Value", dimEntry.getValue())));
+    return loadedIndex().list(accountId, metricName, namespace, dimensionMap, after, before, maxRecords, nextToken);
+  }
+
+  /**
+   * Discard the in-memory index, it is loaded from the database on next use.
+   */
+  public static void invalidateIndex() {
+    index.invalidate();
+  }
+
+  private static ListMetricIndex loadedIndex() {
+    if (!index.isLoaded()) {
+      index.load(new Supplier<List<ListMetric>>() {
+        @Override
+        public List<ListMetric> get() {
+          EntityTransaction db = Entities.get(ListMetric.class);
+          try {
+            List<ListMetric> metrics = (List<ListMetric>) Entities.createCriteria(ListMetric.class).list();
+            db.commit();
+            LOG.info("Loaded " + metrics.size() + " metrics for list metrics index");
+            return metrics;
+          } catch (RuntimeException ex) {
+            Logs.extreme().error(ex, ex);
+            throw ex;
+          } finally {
+            if (db.isActive())
+              db.rollback();
           }
-          lowDimNum++;
-          highDimNum++;
-          criteria = criteria.add(or);
         }
-      }
-      criteria = NextTokenUtils.addNextTokenConstraints(maxRecords, nextToken, nextTokenCreatedTime, criteria);
-      List<ListMetric> dbResult = (List<ListMetric>) criteria.list();
-      db.commit();
-      return dbResult;
-    } catch (RuntimeException ex) {
-      Logs.extreme().error(ex, ex);
-      throw ex;
-    } finally {
-      if (db.isActive())
-        db.rollback();
+      });
     }
+    return index;
   }
 
   public static void addMetricBatch(List<SimpleMetricEntity> dataBatch) {
@@ -248,6 +233,8 @@ public class ListMetricManager {
     try {
       HashSet<ListMetricCacheLoadKey> loadedKeys = Sets.newHashSet();
       HashMap<ListMetricCacheKey, ListMetric> cache = Maps.newHashMap();
+      List<ListMetric> created = Lists.newArrayList();
+      Set<String> updated = Sets.newHashSet();
       Collection<ListMetricCacheKey> cacheKeys = prune(dataBatch);
       List<ListMetric> foldedMetrics = Lists.newArrayList();
       for (ListMetricCacheKey cacheKey:cacheKeys) {
@@ -283,12 +270,14 @@ public class ListMetricManager {
         ListMetric inDbMetric = cache.get(key);
         if (inDbMetric != null) {
           inDbMetric.setVersion(1 + inDbMetric.getVersion());
+          updated.add(inDbMetric.getNaturalId());
         } else {
           cache.put(key, metric);
-          Entities.persist(metric);
+          created.add(Entities.persist(metric));
         }
       }
       db.commit();
+      index.update(created, updated, new Date());
     } catch (RuntimeException ex) {
       Logs.extreme().error(ex, ex);
       throw ex;
@@ -0,0 +1,165 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Striped, per-minute pre-aggregation of metric data.
+ *
+ * Data points are folded into min/max/sum/count accumulators when they are
+ * added, so memory use is bounded by the number of distinct metrics per
+ * minute rather than the number of data points received. All data for a
+ * metric (account, namespace, metric name and dimensions) is held in the
+ * same stripe, so stripes can be flushed independently.
+ */
+public class MetricDataAggregator {
+
+  private final Stripe[] stripes;
+  private final int maxKeys;
+  private final AtomicInteger keys = new AtomicInteger();
+  private final AtomicLong aggregated = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param stripeCount The number of independently locked stripes
+   * @param maxKeys The maximum number of distinct metrics per minute held between flushes
+   */
+  public MetricDataAggregator(final int stripeCount, final int maxKeys) {
+    if (stripeCount < 1) throw new IllegalArgumentException("Invalid stripe count: " + stripeCount);
+    this.stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe();
+    }
+    this.maxKeys = maxKeys;
+  }
+
+  /**
+   * Fold the given item into the aggregate for its metric and minute.
+   *
+   * @param item The item, the timestamp must already have seconds stripped
+   * @return false if the item was dropped because the aggregator is full
+   */
+  public boolean add(final SimpleMetricEntity item) {
+    final PutMetricDataAggregationKey key = new PutMetricDataAggregationKey(item);
+    final Stripe stripe = stripes[(key.metricHashCode() & Integer.MAX_VALUE) % stripes.length];
+    synchronized (stripe) {
+      final Accumulator accumulator = stripe.accumulators.get(key);
+      if (accumulator != null) {
+        accumulator.fold(item);
+      } else if (keys.incrementAndGet() > maxKeys) {
+        keys.decrementAndGet();
+        dropped.incrementAndGet();
+        return false;
+      } else {
+        stripe.accumulators.put(key, new Accumulator(item));
+      }
+    }
+    aggregated.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Remove all aggregated data.
+   *
+   * @return The aggregated data for each non-empty stripe
+   */
+  public List<List<SimpleMetricEntity>> drain() {
+    final List<List<SimpleMetricEntity>> drained = new ArrayList<List<SimpleMetricEntity>>();
+    for (final Stripe stripe : stripes) {
+      final Map<PutMetricDataAggregationKey, Accumulator> accumulators;
+      synchronized (stripe) {
+        if (stripe.accumulators.isEmpty()) continue;
+        accumulators = stripe.accumulators;
+        stripe.accumulators = new HashMap<PutMetricDataAggregationKey, Accumulator>();
+        keys.addAndGet(-accumulators.size());
+      }
+      final List<SimpleMetricEntity> stripeData = new ArrayList<SimpleMetricEntity>(accumulators.size());
+      for (final Accumulator accumulator : accumulators.values()) {
+        stripeData.add(accumulator.toEntity());
+      }
+      drained.add(stripeData);
+    }
+    return drained;
+  }
+
+  /**
+   * @return The number of distinct metrics per minute currently held
+   */
+  public int getSize() {
+    return keys.get();
+  }
+
+  /**
+   * @return The total number of data points aggregated
+   */
+  public long getAggregatedCount() {
+    return aggregated.get();
+  }
+
+  /**
+   * @return The total number of data points dropped due to capacity
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  private static final class Stripe {
+    private Map<PutMetricDataAggregationKey, Accumulator> accumulators =
+        new HashMap<PutMetricDataAggregationKey, Accumulator>();
+  }
+
+  private static final class Accumulator {
+    private final SimpleMetricEntity template;
+    private double sampleMax;
+    private double sampleMin;
+    private double sampleSum;
+    private double sampleSize;
+
+    private Accumulator(final SimpleMetricEntity item) {
+      this.template = item;
+      this.sampleMax = item.getSampleMax();
+      this.sampleMin = item.getSampleMin();
+      this.sampleSum = item.getSampleSum();
+      this.sampleSize = item.getSampleSize();
+    }
+
+    private void fold(final SimpleMetricEntity item) {
+      sampleMax = Math.max(sampleMax, item.getSampleMax());
+      sampleMin = Math.min(sampleMin, item.getSampleMin());
+      sampleSum += item.getSampleSum();
+      sampleSize += item.getSampleSize();
+    }
+
+    private SimpleMetricEntity toEntity() {
+      final SimpleMetricEntity entity = new SimpleMetricEntity(template);
+      entity.setSampleMax(sampleMax);
+      entity.setSampleMin(sampleMin);
+      entity.setSampleSum(sampleSum);
+      entity.setSampleSize(sampleSize);
+      return entity;
+    }
+  }
+}
@@ -26,10 +26,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityTransaction;
 
@@ -37,30 +43,49 @@ import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Restrictions;
 
+import com.eucalyptus.bootstrap.OrderedShutdown;
+import com.eucalyptus.cloudwatch.common.CloudWatchBackend;
 import com.eucalyptus.cloudwatch.common.backend.msgs.Dimension;
 import com.eucalyptus.cloudwatch.common.backend.msgs.Dimensions;
 import com.eucalyptus.cloudwatch.common.backend.msgs.MetricDatum;
 import com.eucalyptus.cloudwatch.common.backend.msgs.StatisticSet;
 import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricHelper;
 import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricHistory;
+import com.eucalyptus.cloudwatch.domain.alarms.AlarmMetricCache;
 import com.eucalyptus.cloudwatch.domain.absolute.AbsoluteMetricHelper.MetricDifferenceInfo;
 import com.eucalyptus.cloudwatch.domain.listmetrics.ListMetricManager;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.Mbeans;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 public class MetricDataQueue {
   private static final Logger LOG = Logger.getLogger(MetricDataQueue.class);
-  final static LinkedBlockingQueue<MetricQueueItem> dataQueue = new LinkedBlockingQueue<MetricQueueItem>();
+  // Data points requiring absolute metric processing are queued, all others are aggregated on receipt
+  private static final int ABSOLUTE_QUEUE_CAPACITY = 100000;
+  private static final int AGGREGATION_STRIPES = 16;
+  private static final int AGGREGATION_MAX_METRICS = 250000;
+  private static final int FLUSH_THREADS = 4;
+
+  final static LinkedBlockingQueue<MetricQueueItem> dataQueue = new LinkedBlockingQueue<MetricQueueItem>(ABSOLUTE_QUEUE_CAPACITY);
+  private static final MetricDataAggregator aggregator = new MetricDataAggregator(AGGREGATION_STRIPES, AGGREGATION_MAX_METRICS);
+  private static final AtomicLong queueDropped = new AtomicLong();
+  private static final AtomicLong stripeFailures = new AtomicLong();
+  private static final AtomicLong lastFlushMillis = new AtomicLong();
+  private static long lastReportedDropped = 0; // accessed only by the flush timer thread
 
   private static final ScheduledExecutorService dataFlushTimer = Executors
-      .newSingleThreadScheduledExecutor();
+      .newSingleThreadScheduledExecutor(daemonThreadFactory("cloudwatch-metric-data-flush-timer"));
+
+  private static final ExecutorService dataFlushWorkers = Executors
+      .newFixedThreadPool(FLUSH_THREADS, daemonThreadFactory("cloudwatch-metric-data-flush"));
 
   private static MetricDataQueue singleton = getInstance();
 
@@ -72,9 +97,83 @@ public class MetricDataQueue {
     return singleton;
   }
 
+  /**
+   * @return The number of data points awaiting absolute metric processing
+   */
+  public static int getQueueSize() {
+    return dataQueue.size();
+  }
+
+  /**
+   * @return The number of distinct metrics per minute awaiting flush
+   */
+  public static int getAggregatedSize() {
+    return aggregator.getSize();
+  }
+
+  /**
+   * @return The number of data points dropped due to queue or aggregation capacity
+   */
+  public static long getDroppedCount() {
+    return queueDropped.get() + aggregator.getDroppedCount();
+  }
+
+  /**
+   * @return The number of aggregated stripes that failed to store
+   */
+  public static long getStripeFailureCount() {
+    return stripeFailures.get();
+  }
+
+  /**
+   * @return The duration of the last flush in milliseconds
+   */
+  public static long getLastFlushMillis() {
+    return lastFlushMillis.get();
+  }
+
+  private static ThreadFactory daemonThreadFactory(final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  /**
+   * Log at warn level if data points were dropped since the last flush.
+   */
+  private static void logDropped() {
+    final long dropped = getDroppedCount();
+    if (dropped > lastReportedDropped) {
+      LOG.warn("Dropped " + (dropped - lastReportedDropped) + " metric data points since the last flush due to queue or aggregation capacity (" + dropped + " total)");
+      lastReportedDropped = dropped;
+    }
+  }
+
   private void queue(Supplier<MetricQueueItem> metriMetaDataSupplier) {
     final MetricQueueItem metricData = metriMetaDataSupplier.get();
-    dataQueue.offer(metricData);
+    if (requiresAbsoluteProcessing(metricData)) {
+      if (!dataQueue.offer(metricData)) {
+        queueDropped.incrementAndGet();
+        LOG.debug("Metric data queue full, dropped data for " + metricData.getNamespace() + "/" + metricData.getMetricDatum().getMetricName());
+      }
+    } else {
+      final SimpleMetricEntity simpleMetricEntity = convertToSimpleMetricEntity(metricData);
+      simpleMetricEntity.setTimestamp(MetricManager.stripSeconds(simpleMetricEntity.getTimestamp()));
+      if (!aggregator.add(simpleMetricEntity)) {
+        LOG.debug("Metric data aggregation full, dropped data for " + metricData.getNamespace() + "/" + metricData.getMetricDatum().getMetricName());
+      }
+    }
+  }
+
+  private static boolean requiresAbsoluteProcessing(final MetricQueueItem item) {
+    return item.getMetricType() == MetricType.System &&
+        ("AWS/EBS".equals(item.getNamespace()) || "AWS/EC2".equals(item.getNamespace()));
   }
 
   private static Runnable safeRunner = new Runnable() {
@@ -83,37 +182,140 @@ public class MetricDataQueue {
       long before = System.currentTimeMillis();
       try {
         List<MetricQueueItem> dataBatch = Lists.newArrayList();
-        dataQueue.drainTo(dataBatch, 15000);
+        dataQueue.drainTo(dataBatch);
         LOG.debug("Timing:dataBatch.size()="+dataBatch.size());
         long t1 = System.currentTimeMillis();
         dataBatch = dealWithAbsoluteMetrics(dataBatch);
         long t2 = System.currentTimeMillis();
         LOG.debug("Timing:dataBatch.dealWithAbsoluteMetrics():time="+(t2-t1));
-        List<SimpleMetricEntity> simpleDataBatch = convertToSimpleDataBatch(dataBatch);
+        for (SimpleMetricEntity simpleMetricEntity : convertToSimpleDataBatch(dataBatch)) {
+          simpleMetricEntity.setTimestamp(MetricManager.stripSeconds(simpleMetricEntity.getTimestamp()));
+          aggregator.add(simpleMetricEntity);
+        }
         long t3 = System.currentTimeMillis();
         LOG.debug("Timing:dataBatch.convertToSimpleDataBatch():time="+(t3-t2));
-        simpleDataBatch = aggregate(simpleDataBatch);
+        final List<List<SimpleMetricEntity>> stripes = aggregator.drain();
         long t4 = System.currentTimeMillis();
-        LOG.debug("Timing:dataBatch.aggregate():time="+(t4-t3));
-        MetricManager.addMetricBatch(simpleDataBatch);
-        long t5 = System.currentTimeMillis();
-        LOG.debug("Timing:dataBatch.MetricManager.addMetricBatch():time="+(t5-t4));
-        ListMetricManager.addMetricBatch(simpleDataBatch);
+        LOG.debug("Timing:dataBatch.aggregate():time="+(t4-t3)+",size="+Iterables.size(Iterables.concat(stripes)));
+        // Only data from stripes that were stored is used for list metrics and alarms
+        final List<SimpleMetricEntity> simpleDataBatch = flushStripes(dataFlushWorkers, stripes, METRIC_WRITER);
         long t6 = System.currentTimeMillis();
-        LOG.debug("Timing:ListMetricManager.addMetricBatch:time="+(t6-t5));
+        LOG.debug("Timing:dataBatch.MetricManager.addMetricBatchWithRollups():time="+(t6-t4)+",committed="+simpleDataBatch.size());
+        ListMetricManager.addMetricBatch(simpleDataBatch);
+        long t7 = System.currentTimeMillis();
+        LOG.debug("Timing:ListMetricManager.addMetricBatch:time="+(t7-t6));
+        AlarmMetricCache.getInstance().update(simpleDataBatch);
+        long t8 = System.currentTimeMillis();
+        LOG.debug("Timing:AlarmMetricCache.update:time="+(t8-t7));
+        logDropped();
       } catch (Throwable ex) {
         LOG.debug("error");
         ex.printStackTrace();
         LOG.error(ex,ex);
       } finally {
         long after = System.currentTimeMillis();
+        lastFlushMillis.set(after-before);
         LOG.debug("Timing:time="+(after-before));
       }
     }
   };
 
+  /**
+   * Stores a stripe of aggregated metric data.
+   */
+  interface StripeWriter {
+    void write(List<SimpleMetricEntity> stripe);
+  }
+
+  /**
+   * Stores the metric data and its rollups together. Stripes hold all data
+   * for a metric so stripes do not update the same rollup rows.
+   */
+  private static final StripeWriter METRIC_WRITER = new StripeWriter() {
+    @Override
+    public void write(final List<SimpleMetricEntity> stripe) {
+      MetricManager.addMetricBatchWithRollups(stripe);
+    }
+  };
+
+  /**
+   * Store each stripe on the given workers and wait for them to complete.
+   *
+   * @return The data from the stripes that were stored, failed stripes are logged and counted
+   */
+  static List<SimpleMetricEntity> flushStripes(final ExecutorService workers,
+                                               final List<List<SimpleMetricEntity>> stripes,
+                                               final StripeWriter writer) throws InterruptedException {
+    final List<Future<?>> stripeFlushes = Lists.newArrayList();
+    for (final List<SimpleMetricEntity> stripe : stripes) {
+      stripeFlushes.add(workers.submit(new Runnable() {
+        @Override
+        public void run() {
+          writer.write(stripe);
+        }
+      }));
+    }
+    final List<SimpleMetricEntity> committed = Lists.newArrayList();
+    for (int i = 0; i < stripes.size(); i++) {
+      try {
+        stripeFlushes.get(i).get();
+        committed.addAll(stripes.get(i));
+      } catch (ExecutionException ex) {
+        stripeFailures.incrementAndGet();
+        LOG.error("Failed to store " + stripes.get(i).size() + " aggregated metrics, the metrics will not be rolled up, listed or alarmed on", ex.getCause());
+      }
+    }
+    return committed;
+  }
+
   static {
     dataFlushTimer.scheduleAtFixedRate(safeRunner, 0, 1, TimeUnit.MINUTES);
+    OrderedShutdown.registerShutdownHook(CloudWatchBackend.class, new Runnable() {
+      @Override
+      public void run() {
+        dataFlushTimer.shutdownNow();
+        dataFlushWorkers.shutdownNow();
+      }
+    });
+    Mbeans.register(new MetricDataQueueStatistics());
+  }
+
+  /**
+   * JMX view of queued, aggregated and dropped metric data.
+   */
+  public interface MetricDataQueueStatisticsMXBean {
+    int getQueueSize();
+    int getAggregatedSize();
+    long getDroppedCount();
+    long getStripeFailureCount();
+    long getLastFlushMillis();
+  }
+
+  private static class MetricDataQueueStatistics implements MetricDataQueueStatisticsMXBean {
+    @Override
+    public int getQueueSize() {
+      return MetricDataQueue.getQueueSize();
+    }
+
+    @Override
+    public int getAggregatedSize() {
+      return MetricDataQueue.getAggregatedSize();
+    }
+
+    @Override
+    public long getDroppedCount() {
+      return MetricDataQueue.getDroppedCount();
+    }
+
+    @Override
+    public long getStripeFailureCount() {
+      return MetricDataQueue.getStripeFailureCount();
+    }
+
+    @Override
+    public long getLastFlushMillis() {
+      return MetricDataQueue.getLastFlushMillis();
+    }
   }
 
   public static List<SimpleMetricEntity> aggregate(List<SimpleMetricEntity> dataBatch) {
@@ -138,41 +340,45 @@ public class MetricDataQueue {
       List<MetricQueueItem> stupidDataBatch) {
     ArrayList<SimpleMetricEntity> returnValue = new ArrayList<SimpleMetricEntity>();
     for(MetricQueueItem item: stupidDataBatch) {
-      SimpleMetricEntity metricMetadata = new SimpleMetricEntity();
-      metricMetadata.setAccountId(item.getAccountId());
-      MetricDatum datum = item.getMetricDatum();
-      
-      metricMetadata.setMetricName(datum.getMetricName());
-      metricMetadata.setNamespace(item.getNamespace());
-      final List<Dimension> dimensions = datum.getDimensions( ) == null ?
-          Collections.<Dimension>emptyList( ) :
-          datum.getDimensions( ).getMember( );
-      metricMetadata.setDimensionMap(makeDimensionMap(dimensions));
-      metricMetadata.setMetricType(item.getMetricType());
-      metricMetadata.setUnits(Units.fromValue(datum.getUnit())); 
-      metricMetadata.setTimestamp(datum.getTimestamp());
-      if (datum.getValue() != null) { // Either or case taken care of in service
-        metricMetadata.setSampleMax(datum.getValue());
-        metricMetadata.setSampleMin(datum.getValue());
-        metricMetadata.setSampleSum(datum.getValue());
-        metricMetadata.setSampleSize(1.0);
-      } else if ((datum.getStatisticValues() != null) &&
-            (datum.getStatisticValues().getMaximum() != null) &&
-            (datum.getStatisticValues().getMinimum() != null) &&
-            (datum.getStatisticValues().getSum() != null) &&
-            (datum.getStatisticValues().getSampleCount() != null)) {
-          metricMetadata.setSampleMax(datum.getStatisticValues().getMaximum());
-          metricMetadata.setSampleMin(datum.getStatisticValues().getMinimum());
-          metricMetadata.setSampleSum(datum.getStatisticValues().getSum());
-          metricMetadata.setSampleSize(datum.getStatisticValues().getSampleCount());
-      } else {
-        throw new RuntimeException("Statistics set (all values) or Value must be set"); 
-      }
-      returnValue.add(metricMetadata);
+      returnValue.add(convertToSimpleMetricEntity(item));
     }
     return returnValue;
   }
 
+  private static SimpleMetricEntity convertToSimpleMetricEntity(MetricQueueItem item) {
+    SimpleMetricEntity metricMetadata = new SimpleMetricEntity();
+    metricMetadata.setAccountId(item.getAccountId());
+    MetricDatum datum = item.getMetricDatum();
+
+    metricMetadata.setMetricName(datum.getMetricName());
+    metricMetadata.setNamespace(item.getNamespace());
+    final List<Dimension> dimensions = datum.getDimensions( ) == null ?
+        Collections.<Dimension>emptyList( ) :
+        datum.getDimensions( ).getMember( );
+    metricMetadata.setDimensionMap(makeDimensionMap(dimensions));
+    metricMetadata.setMetricType(item.getMetricType());
+    metricMetadata.setUnits(Units.fromValue(datum.getUnit()));
+    metricMetadata.setTimestamp(datum.getTimestamp());
+    if (datum.getValue() != null) { // Either or case taken care of in service
+      metricMetadata.setSampleMax(datum.getValue());
+      metricMetadata.setSampleMin(datum.getValue());
+      metricMetadata.setSampleSum(datum.getValue());
+      metricMetadata.setSampleSize(1.0);
+    } else if ((datum.getStatisticValues() != null) &&
+          (datum.getStatisticValues().getMaximum() != null) &&
+          (datum.getStatisticValues().getMinimum() != null) &&
+          (datum.getStatisticValues().getSum() != null) &&
+          (datum.getStatisticValues().getSampleCount() != null)) {
+        metricMetadata.setSampleMax(datum.getStatisticValues().getMaximum());
+        metricMetadata.setSampleMin(datum.getStatisticValues().getMinimum());
+        metricMetadata.setSampleSum(datum.getStatisticValues().getSum());
+        metricMetadata.setSampleSize(datum.getStatisticValues().getSampleCount());
+    } else {
+      throw new RuntimeException("Statistics set (all values) or Value must be set");
+    }
+    return metricMetadata;
+  }
+
   protected static List<MetricQueueItem> dealWithAbsoluteMetrics(
       List<MetricQueueItem> dataBatch) {
     List<MetricQueueItem> dataToInsert = new ArrayList<MetricQueueItem>(); 
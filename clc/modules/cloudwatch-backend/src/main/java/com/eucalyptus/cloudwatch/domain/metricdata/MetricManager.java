@@ -28,6 +28,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.Column;
 import javax.persistence.EntityTransaction;
@@ -37,15 +39,19 @@ import javax.persistence.Enumerated;
 import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 
 import com.eucalyptus.cloudwatch.domain.DimensionEntity;
+import com.eucalyptus.cloudwatch.domain.alarms.AlarmMetricCache;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
 import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
 import com.eucalyptus.cloudwatch.hashing.HashUtils;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.Logs;
+import com.google.common.base.Function;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -53,6 +59,9 @@ import com.google.common.collect.Sets;
 
 public class MetricManager {
 	public static final Logger LOG = Logger.getLogger(MetricManager.class);
+  private static final long ROLLUP_AVAILABILITY_RECHECK_MILLIS = 5 * 60 * 1000L;
+  private static final ConcurrentMap<MetricRollupEntity.Resolution, RollupAvailability> rollupAvailability = 
+      new ConcurrentHashMap<MetricRollupEntity.Resolution, RollupAvailability>();
   public static void addMetric(String accountId, 
       String metricName, String namespace, Map<String, String> dimensionMap,
       MetricType metricType, Units units, Date timestamp, Double sampleSize,
@@ -85,7 +94,7 @@ public class MetricManager {
   }
   
 
-  private static List<MetricEntity> foldAndHash(SimpleMetricEntity simpleMetricEntity) {
+  public static List<MetricEntity> foldAndHash(SimpleMetricEntity simpleMetricEntity) {
     if (simpleMetricEntity == null) return new ArrayList<MetricEntity>();
     TreeSet<DimensionEntity> dimensions = new TreeSet<DimensionEntity>();
     for (Map.Entry<String, String> entry : simpleMetricEntity.getDimensionMap().entrySet()) {
@@ -170,7 +179,7 @@ public class MetricManager {
   }
 
   public static void deleteAllMetrics() {
-    for (Class c : MetricEntityFactory.getAllClassesForEntitiesGet()) {
+    for (Class c : Iterables.concat(MetricEntityFactory.getAllClassesForEntitiesGet(), rollupClasses())) {
       EntityTransaction db = Entities.get(c);
       try {
         Entities.deleteAll(c);
@@ -183,6 +192,8 @@ public class MetricManager {
           db.rollback();
       }
     }
+    rollupAvailability.clear();
+    AlarmMetricCache.getInstance().clear();
   }
 
   /**
@@ -192,7 +203,7 @@ public class MetricManager {
    *          the date to delete before (inclusive)
    */
   public static void deleteMetrics(Date before) {
-    for (Class c : MetricEntityFactory.getAllClassesForEntitiesGet()) {
+    for (Class c : Iterables.concat(MetricEntityFactory.getAllClassesForEntitiesGet(), rollupClasses())) {
       EntityTransaction db = Entities.get(c);
       try {
         Map<String, Date> criteria = new HashMap<String, Date>();
@@ -259,37 +270,72 @@ public class MetricManager {
       throw new IllegalArgumentException("namespace must not be null");
     }
     String hash = hash(dimensions);
-    Class metricEntityClass = MetricEntityFactory.getClassForEntitiesGet(metricType, hash);
     Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap = new TreeMap<GetMetricStatisticsAggregationKey, MetricStatistics>(GetMetricStatisticsAggregationKey.COMPARATOR_WITH_NULLS.INSTANCE);
-    EntityTransaction db = Entities.get(metricEntityClass);
+    // Use the coarsest rollup that can satisfy the period, per-minute data covers any trailing partial rollup interval
+    Date rawStartTime = startTime;
+    MetricRollupEntity.Resolution resolution = selectRollupResolution(startTime, period);
+    if (resolution != null) {
+      Date rollupEndTime = resolution.intervalStart(endTime);
+      if (rollupEndTime.after(startTime)) {
+        aggregateStatistics(aggregationMap, resolution.getEntityClass(), accountId, metricName, namespace, 
+            metricType, hash, dimensions, units, startTime, rollupEndTime, startTime, period);
+        rawStartTime = rollupEndTime;
+      }
+    }
+    if (rawStartTime.before(endTime)) {
+      Class metricEntityClass = MetricEntityFactory.getClassForEntitiesGet(metricType, hash);
+      aggregateStatistics(aggregationMap, metricEntityClass, accountId, metricName, namespace,
+          metricType, hash, dimensions, units, rawStartTime, endTime, startTime, period);
+    }
+    return Lists.newArrayList(aggregationMap.values());
+  }
+
+  /**
+   * Aggregate statistics using a projection over the given metric data (or rollup) table
+   */
+  private static void aggregateStatistics(Map<GetMetricStatisticsAggregationKey, MetricStatistics> aggregationMap, 
+      Class entityClass, String accountId, String metricName, String namespace, MetricType metricType, String hash,
+      Collection<DimensionEntity> dimensions, Units units, Date queryStartTime, Date queryEndTime, Date startTime, Integer period) {
+    EntityTransaction db = Entities.get(entityClass);
     try {
-      Criteria criteria = Entities.createCriteria(metricEntityClass);
+      Criteria criteria = Entities.createCriteria(entityClass);
       criteria = criteria.add(Restrictions.eq("accountId", accountId));
       criteria = criteria.add(Restrictions.eq("metricName", metricName));
       criteria = criteria.add(Restrictions.eq("namespace", namespace));
-      criteria = criteria.add(Restrictions.lt("timestamp", endTime));
-      criteria = criteria.add(Restrictions.ge("timestamp", startTime));
+      criteria = criteria.add(Restrictions.lt("timestamp", queryEndTime));
+      criteria = criteria.add(Restrictions.ge("timestamp", queryStartTime));
       criteria = criteria.add(Restrictions.eq("dimensionHash", hash));
       if (units != null) {
         criteria = criteria.add(Restrictions.eq("units", units));
       }
-      criteria = criteria.addOrder( Order.asc("creationTimestamp") );
-      criteria = criteria.addOrder( Order.asc("naturalId") );
+      criteria = criteria.setProjection(Projections.projectionList()
+          .add(Projections.property("units"))
+          .add(Projections.property("timestamp"))
+          .add(Projections.property("sampleSize"))
+          .add(Projections.property("sampleMax"))
+          .add(Projections.property("sampleMin"))
+          .add(Projections.property("sampleSum")));
       Collection results = criteria.list();
       for (Object o: results) {
-        MetricEntity me = (MetricEntity) o;
-        // Note: dimensions from metric entity are the actual dimensions for the point.  dimensions passed in are from the
-        // hash (used for aggregation).  The hash dimensions are what we want.
-        GetMetricStatisticsAggregationKey key = new GetMetricStatisticsAggregationKey(me, startTime, period, hash);
-        MetricStatistics item = new MetricStatistics(me, startTime, period, dimensions);
-        if (!aggregationMap.containsKey(key)) {
-          aggregationMap.put(key, item);
+        Object[] row = (Object[]) o;
+        Units rowUnits = (Units) row[0];
+        Date periodStart = getPeriodStart((Date) row[1], startTime, period);
+        Double sampleSize = (Double) row[2];
+        Double sampleMax = (Double) row[3];
+        Double sampleMin = (Double) row[4];
+        Double sampleSum = (Double) row[5];
+        // Note: dimensions passed in are from the hash (used for aggregation), these are the dimensions we want.
+        GetMetricStatisticsAggregationKey key = new GetMetricStatisticsAggregationKey(accountId, namespace, 
+            metricName, rowUnits, metricType, periodStart, hash);
+        MetricStatistics totalSoFar = aggregationMap.get(key);
+        if (totalSoFar == null) {
+          aggregationMap.put(key, new MetricStatistics(accountId, namespace, metricName, rowUnits, metricType,
+              periodStart, sampleSize, sampleMax, sampleMin, sampleSum, dimensions));
         } else {
-          MetricStatistics totalSoFar = aggregationMap.get(key);
-          totalSoFar.setSampleMax(Math.max(item.getSampleMax(), totalSoFar.getSampleMax()));
-          totalSoFar.setSampleMin(Math.min(item.getSampleMin(), totalSoFar.getSampleMin()));
-          totalSoFar.setSampleSize(totalSoFar.getSampleSize() + item.getSampleSize());
-          totalSoFar.setSampleSum(totalSoFar.getSampleSum() + item.getSampleSum());
+          totalSoFar.setSampleMax(Math.max(sampleMax, totalSoFar.getSampleMax()));
+          totalSoFar.setSampleMin(Math.min(sampleMin, totalSoFar.getSampleMin()));
+          totalSoFar.setSampleSize(totalSoFar.getSampleSize() + sampleSize);
+          totalSoFar.setSampleSum(totalSoFar.getSampleSum() + sampleSum);
         }
       }
       db.commit();
@@ -300,8 +346,193 @@ public class MetricManager {
       if (db.isActive())
         db.rollback();
     }
-    return Lists.newArrayList(aggregationMap.values());
-  }    
+  }
+
+  /**
+   * Select the coarsest rollup resolution that evenly divides the period, is
+   * aligned with the start time and has been maintained for the whole query.
+   *
+   * @return The resolution or null if per-minute data must be used.
+   */
+  static MetricRollupEntity.Resolution selectRollupResolution(Date startTime, Integer period) {
+    return selectRollupResolution(startTime, period, RollupsAvailableSince.INSTANCE);
+  }
+
+  /**
+   * @param availableSince Function for the time from which a rollup is complete, null if none
+   */
+  static MetricRollupEntity.Resolution selectRollupResolution(Date startTime, Integer period,
+      Function<MetricRollupEntity.Resolution, Date> availableSince) {
+    for (MetricRollupEntity.Resolution resolution : MetricRollupEntity.Resolution.values()) {
+      if (period % resolution.getSeconds() == 0 && resolution.isAligned(startTime)) {
+        Date since = availableSince.apply(resolution);
+        if (since != null && !startTime.before(since)) {
+          return resolution;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Rollups are only complete for intervals starting after the first rollup
+   * was written. Once known this does not change, while there are no rollups
+   * the database is checked again after ROLLUP_AVAILABILITY_RECHECK_MILLIS.
+   */
+  private enum RollupsAvailableSince implements Function<MetricRollupEntity.Resolution, Date> {
+    INSTANCE;
+
+    @Override
+    public Date apply(MetricRollupEntity.Resolution resolution) {
+      RollupAvailability availability = rollupAvailability.get(resolution);
+      if (availability == null || availability.isExpired()) {
+        availability = new RollupAvailability(firstRollupInterval(resolution));
+        rollupAvailability.put(resolution, availability);
+      }
+      return availability.availableSince;
+    }
+
+    private static Date firstRollupInterval(MetricRollupEntity.Resolution resolution) {
+      EntityTransaction db = Entities.get(resolution.getEntityClass());
+      try {
+        Date firstCreated = (Date) Entities.createCriteria(resolution.getEntityClass())
+            .setProjection(Projections.min("creationTimestamp"))
+            .uniqueResult();
+        db.commit();
+        return firstCreated == null ?
+            null :
+            new Date(resolution.intervalStart(firstCreated).getTime() + resolution.getMillis());
+      } catch (RuntimeException ex) {
+        Logs.extreme().error(ex, ex);
+        throw ex;
+      } finally {
+        if (db.isActive())
+          db.rollback();
+      }
+    }
+  }
+
+  private static final class RollupAvailability {
+    private final Date availableSince;
+    private final long checked = System.currentTimeMillis();
+
+    private RollupAvailability(Date availableSince) {
+      this.availableSince = availableSince;
+    }
+
+    private boolean isExpired() {
+      return availableSince == null && System.currentTimeMillis() - checked > ROLLUP_AVAILABILITY_RECHECK_MILLIS;
+    }
+  }
+
+  private static Collection<Class> rollupClasses() {
+    List<Class> rollupClasses = Lists.newArrayList();
+    for (MetricRollupEntity.Resolution resolution : MetricRollupEntity.Resolution.values()) {
+      rollupClasses.add(resolution.getEntityClass());
+    }
+    return rollupClasses;
+  }
+
+  /**
+   * Fold a batch of (aggregated) metric data into the rollup tables.
+   *
+   * This should not be called concurrently for the same metric as rollup
+   * rows are read and updated in place.
+   */
+  public static void addMetricRollups(List<SimpleMetricEntity> dataBatch) {
+    ArrayList<MetricEntity> metricEntities = new ArrayList<MetricEntity>();
+    for (SimpleMetricEntity simpleMetricEntity: dataBatch) {
+      validateMetricQueueItem(simpleMetricEntity);
+      metricEntities.addAll(foldAndHash(simpleMetricEntity));
+    }
+    for (MetricRollupEntity.Resolution resolution : MetricRollupEntity.Resolution.values()) {
+      Map<GetMetricStatisticsAggregationKey, MetricRollupEntity> rollups = buildRollups(metricEntities, resolution);
+      if (rollups.isEmpty()) continue;
+      // Load only the existing rows that may match a key being merged
+      Set<Date> intervals = Sets.newHashSet();
+      Set<String> dimensionHashes = Sets.newHashSet();
+      Set<String> accountIds = Sets.newHashSet();
+      Set<String> metricNames = Sets.newHashSet();
+      for (MetricRollupEntity rollup : rollups.values()) {
+        intervals.add(rollup.getTimestamp());
+        dimensionHashes.add(rollup.getDimensionHash());
+        accountIds.add(rollup.getAccountId());
+        metricNames.add(rollup.getMetricName());
+      }
+      EntityTransaction db = Entities.get(resolution.getEntityClass());
+      try {
+        Criteria criteria = Entities.createCriteria(resolution.getEntityClass())
+            .add(Restrictions.in("timestamp", intervals))
+            .add(Restrictions.in("dimensionHash", dimensionHashes))
+            .add(Restrictions.in("accountId", accountIds))
+            .add(Restrictions.in("metricName", metricNames));
+        for (Object o : criteria.list()) {
+          MetricRollupEntity existing = (MetricRollupEntity) o;
+          GetMetricStatisticsAggregationKey key = rollupKey(existing.getAccountId(), existing.getNamespace(), 
+              existing.getMetricName(), existing.getUnits(), existing.getMetricType(), existing.getTimestamp(), 
+              existing.getDimensionHash());
+          MetricRollupEntity update = rollups.remove(key);
+          if (update != null) {
+            foldRollup(existing, update.getSampleSize(), update.getSampleMax(), update.getSampleMin(), update.getSampleSum());
+          }
+        }
+        for (MetricRollupEntity rollup : rollups.values()) {
+          Entities.persist(rollup);
+        }
+        db.commit();
+      } catch (RuntimeException ex) {
+        Logs.extreme().error(ex, ex);
+        throw ex;
+      } finally {
+        if (db.isActive())
+          db.rollback();
+      }
+    }
+  }
+
+  /**
+   * Fold metric data into new rollup entities for the given resolution.
+   */
+  static Map<GetMetricStatisticsAggregationKey, MetricRollupEntity> buildRollups(List<MetricEntity> metricEntities,
+      MetricRollupEntity.Resolution resolution) {
+    Map<GetMetricStatisticsAggregationKey, MetricRollupEntity> rollups = Maps.newHashMap();
+    for (MetricEntity me : metricEntities) {
+      Date intervalStart = resolution.intervalStart(me.getTimestamp());
+      GetMetricStatisticsAggregationKey key = rollupKey(me.getAccountId(), me.getNamespace(), me.getMetricName(),
+          me.getUnits(), me.getMetricType(), intervalStart, me.getDimensionHash());
+      MetricRollupEntity rollup = rollups.get(key);
+      if (rollup == null) {
+        rollup = resolution.newEntity();
+        rollup.setAccountId(me.getAccountId());
+        rollup.setNamespace(me.getNamespace());
+        rollup.setMetricName(me.getMetricName());
+        rollup.setDimensionHash(me.getDimensionHash());
+        rollup.setUnits(me.getUnits());
+        rollup.setMetricType(me.getMetricType());
+        rollup.setTimestamp(intervalStart);
+        rollup.setSampleSize(me.getSampleSize());
+        rollup.setSampleMax(me.getSampleMax());
+        rollup.setSampleMin(me.getSampleMin());
+        rollup.setSampleSum(me.getSampleSum());
+        rollups.put(key, rollup);
+      } else {
+        foldRollup(rollup, me.getSampleSize(), me.getSampleMax(), me.getSampleMin(), me.getSampleSum());
+      }
+    }
+    return rollups;
+  }
+
+  private static GetMetricStatisticsAggregationKey rollupKey(String accountId, String namespace, String metricName,
+      Units units, MetricType metricType, Date intervalStart, String dimensionHash) {
+    return new GetMetricStatisticsAggregationKey(accountId, namespace, metricName, units, metricType, intervalStart, dimensionHash);
+  }
+
+  private static void foldRollup(MetricRollupEntity rollup, Double sampleSize, Double sampleMax, Double sampleMin, Double sampleSum) {
+    rollup.setSampleMax(Math.max(sampleMax, rollup.getSampleMax()));
+    rollup.setSampleMin(Math.min(sampleMin, rollup.getSampleMin()));
+    rollup.setSampleSize(rollup.getSampleSize() + sampleSize);
+    rollup.setSampleSum(rollup.getSampleSum() + sampleSum);
+  }
 
   public static Date getPeriodStart(Date originalTimestamp, Date startTime, Integer period) {
     long difference = originalTimestamp.getTime() - startTime.getTime();
@@ -333,6 +564,29 @@ public class MetricManager {
     return allResults;
   }
 
+  /**
+   * Store a batch of (aggregated) metric data and fold it into the rollup
+   * tables in one transaction, so rollups are only written for stored data.
+   *
+   * This should not be called concurrently for the same metric as rollup
+   * rows are read and updated in place.
+   */
+  public static void addMetricBatchWithRollups(List<SimpleMetricEntity> dataBatch) {
+    // the metric and rollup transactions join this one, all tables share a persistence context
+    EntityTransaction db = Entities.get(MetricRollupEntity.Resolution.FiveMinutes.getEntityClass());
+    try {
+      addMetricBatch(dataBatch);
+      addMetricRollups(dataBatch);
+      db.commit();
+    } catch (RuntimeException ex) {
+      Logs.extreme().error(ex, ex);
+      throw ex;
+    } finally {
+      if (db.isActive())
+        db.rollback();
+    }
+  }
+
   public static void addMetricBatch(List<SimpleMetricEntity> dataBatch) {
     ArrayList<MetricEntity> metricEntities = new ArrayList<MetricEntity>();
     for (SimpleMetricEntity simpleMetricEntity: dataBatch) {
@@ -0,0 +1,253 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.MappedSuperclass;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.eucalyptus.entities.AbstractPersistent;
+
+/**
+ * Metric data aggregated over a fixed resolution (coarser than one minute).
+ *
+ * Rollups are keyed by dimension hash only, the dimensions themselves are
+ * available from the per-minute metric data. Each table is indexed by
+ * dimension hash and timestamp for queries and merges, and by timestamp
+ * for cleanup.
+ */
+@MappedSuperclass
+public abstract class MetricRollupEntity extends AbstractPersistent {
+
+  @Column(name = "account_id", nullable = false)
+  private String accountId;
+  @Column(name = "namespace", nullable = false)
+  private String namespace;
+  @Column(name = "metric_name", nullable = false)
+  private String metricName;
+  @Column(name = "dimension_hash", nullable = false)
+  private String dimensionHash;
+  @Column(name = "units", nullable = false)
+  @Enumerated(EnumType.STRING)
+  private Units units;
+  @Column(name = "metric_type", nullable = false)
+  @Enumerated(EnumType.STRING)
+  private MetricType metricType;
+  @Column(name = "timestamp", nullable = false)
+  private Date timestamp;
+  @Column(name = "sample_size", nullable = false)
+  private Double sampleSize;
+  @Column(name = "sample_max", nullable = false)
+  private Double sampleMax;
+  @Column(name = "sample_min", nullable = false)
+  private Double sampleMin;
+  @Column(name = "sample_sum", nullable = false)
+  private Double sampleSum;
+
+  /**
+   * Supported rollup resolutions, coarsest first.
+   */
+  public enum Resolution {
+    OneHour(3600, OneHourMetricRollupEntity.class) {
+      @Override
+      MetricRollupEntity newEntity() {
+        return new OneHourMetricRollupEntity();
+      }
+    },
+    FiveMinutes(300, FiveMinuteMetricRollupEntity.class) {
+      @Override
+      MetricRollupEntity newEntity() {
+        return new FiveMinuteMetricRollupEntity();
+      }
+    };
+
+    private final int seconds;
+    private final Class<? extends MetricRollupEntity> entityClass;
+
+    private Resolution(final int seconds, final Class<? extends MetricRollupEntity> entityClass) {
+      this.seconds = seconds;
+      this.entityClass = entityClass;
+    }
+
+    public int getSeconds() {
+      return seconds;
+    }
+
+    public long getMillis() {
+      return 1000L * seconds;
+    }
+
+    public Class<? extends MetricRollupEntity> getEntityClass() {
+      return entityClass;
+    }
+
+    /**
+     * @return The start of the rollup interval containing the given time
+     */
+    public Date intervalStart(final Date timestamp) {
+      final long time = timestamp.getTime();
+      return new Date(time - time % getMillis());
+    }
+
+    public boolean isAligned(final Date timestamp) {
+      return timestamp.getTime() % getMillis() == 0;
+    }
+
+    abstract MetricRollupEntity newEntity();
+  }
+
+  public String getAccountId() {
+    return accountId;
+  }
+
+  public void setAccountId(String accountId) {
+    this.accountId = accountId;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  public void setNamespace(String namespace) {
+    this.namespace = namespace;
+  }
+
+  public String getMetricName() {
+    return metricName;
+  }
+
+  public void setMetricName(String metricName) {
+    this.metricName = metricName;
+  }
+
+  public String getDimensionHash() {
+    return dimensionHash;
+  }
+
+  public void setDimensionHash(String dimensionHash) {
+    this.dimensionHash = dimensionHash;
+  }
+
+  public Units getUnits() {
+    return units;
+  }
+
+  public void setUnits(Units units) {
+    this.units = units;
+  }
+
+  public MetricType getMetricType() {
+    return metricType;
+  }
+
+  public void setMetricType(MetricType metricType) {
+    this.metricType = metricType;
+  }
+
+  public Date getTimestamp() {
+    return timestamp;
+  }
+
+  public void setTimestamp(Date timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  public Double getSampleSize() {
+    return sampleSize;
+  }
+
+  public void setSampleSize(Double sampleSize) {
+    this.sampleSize = sampleSize;
+  }
+
+  public Double getSampleMax() {
+    return sampleMax;
+  }
+
+  public void setSampleMax(Double sampleMax) {
+    this.sampleMax = sampleMax;
+  }
+
+  public Double getSampleMin() {
+    return sampleMin;
+  }
+
+  public void setSampleMin(Double sampleMin) {
+    this.sampleMin = sampleMin;
+  }
+
+  public Double getSampleSum() {
+    return sampleSum;
+  }
+
+  public void setSampleSum(Double sampleSum) {
+    this.sampleSum = sampleSum;
+  }
+
+  @Entity
+  @PersistenceContext(name = "eucalyptus_cloudwatch")
+  @Table(name = "metric_data_rollup_5_minute")
+  @org.hibernate.annotations.Table(appliesTo = "metric_data_rollup_5_minute", indexes = {
+      @Index(name = "metric_data_rollup_5_minute_hash_timestamp_idx", columnNames = {"dimension_hash", "timestamp"}),
+      @Index(name = "metric_data_rollup_5_minute_timestamp_idx", columnNames = {"timestamp"})
+  })
+  @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+  public static class FiveMinuteMetricRollupEntity extends MetricRollupEntity {
+    public FiveMinuteMetricRollupEntity() {
+      super();
+    }
+  }
+
+  @Entity
+  @PersistenceContext(name = "eucalyptus_cloudwatch")
+  @Table(name = "metric_data_rollup_1_hour")
+  @org.hibernate.annotations.Table(appliesTo = "metric_data_rollup_1_hour", indexes = {
+      @Index(name = "metric_data_rollup_1_hour_hash_timestamp_idx", columnNames = {"dimension_hash", "timestamp"}),
+      @Index(name = "metric_data_rollup_1_hour_timestamp_idx", columnNames = {"timestamp"})
+  })
+  @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+  public static class OneHourMetricRollupEntity extends MetricRollupEntity {
+    public OneHourMetricRollupEntity() {
+      super();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MetricRollupEntity [accountId=" + accountId
+        + ", namespace=" + namespace + ", metricName=" + metricName
+        + ", dimensionHash=" + dimensionHash + ", units=" + units
+        + ", metricType=" + metricType + ", timestamp=" + timestamp
+        + ", sampleSize=" + sampleSize + ", sampleMax=" + sampleMax
+        + ", sampleMin=" + sampleMin + ", sampleSum=" + sampleSum + "]";
+  }
+}
@@ -45,6 +45,24 @@ public class PutMetricDataAggregationKey {
     this.units = item.getUnits();
   }
 
+  /**
+   * Hash of the metric identity (account, namespace, metric name and dimensions)
+   * excluding the timestamp, metric type and units.
+   */
+  int metricHashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result
+        + ((accountId == null) ? 0 : accountId.hashCode());
+    result = prime * result
+        + ((dimensionHash == null) ? 0 : dimensionHash.hashCode());
+    result = prime * result
+        + ((metricName == null) ? 0 : metricName.hashCode());
+    result = prime * result
+        + ((namespace == null) ? 0 : namespace.hashCode());
+    return result;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
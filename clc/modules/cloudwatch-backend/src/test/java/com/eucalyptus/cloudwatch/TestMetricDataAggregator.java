@@ -0,0 +1,109 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricDataAggregator;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricManager;
+import com.eucalyptus.cloudwatch.domain.metricdata.SimpleMetricEntity;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+public class TestMetricDataAggregator {
+
+  private static final double TOLERANCE = 0.000000001;
+
+  @Test
+  public void testAggregation() {
+    final Date now = MetricManager.stripSeconds(new Date());
+    final MetricDataAggregator aggregator = new MetricDataAggregator(4, 100);
+    for (int i=0;i<10;i++) {
+      assertTrue(aggregator.add(item("account"+(i % 2), "metric1", now, i)));
+    }
+    assertEquals(2, aggregator.getSize());
+    assertEquals(10, aggregator.getAggregatedCount());
+
+    final List<SimpleMetricEntity> aggregateList =
+        Lists.newArrayList(Iterables.concat(aggregator.drain()));
+    assertEquals(2, aggregateList.size());
+    assertEquals(0, aggregator.getSize());
+    for (final SimpleMetricEntity entity : aggregateList) {
+      final boolean even = "account0".equals(entity.getAccountId());
+      assertEquals(even ? 8.0 : 9.0, entity.getSampleMax(), TOLERANCE);
+      assertEquals(even ? 0.0 : 1.0, entity.getSampleMin(), TOLERANCE);
+      assertEquals(5.0, entity.getSampleSize(), TOLERANCE);
+      assertEquals(even ? 20.0 : 25.0, entity.getSampleSum(), TOLERANCE);
+    }
+    assertTrue(aggregator.drain().isEmpty());
+  }
+
+  @Test
+  public void testDistinctMinutesShareStripe() {
+    final Date now = MetricManager.stripSeconds(new Date());
+    final Date next = new Date(now.getTime() + 60000L);
+    final MetricDataAggregator aggregator = new MetricDataAggregator(16, 100);
+    aggregator.add(item("account1", "metric1", now, 1));
+    aggregator.add(item("account1", "metric1", next, 2));
+    final List<List<SimpleMetricEntity>> stripes = aggregator.drain();
+    assertEquals(1, stripes.size());
+    assertEquals(2, stripes.get(0).size());
+  }
+
+  @Test
+  public void testCapacity() {
+    final Date now = MetricManager.stripSeconds(new Date());
+    final MetricDataAggregator aggregator = new MetricDataAggregator(2, 2);
+    assertTrue(aggregator.add(item("account1", "metric1", now, 1)));
+    assertTrue(aggregator.add(item("account1", "metric2", now, 1)));
+    assertFalse(aggregator.add(item("account1", "metric3", now, 1)));
+    assertTrue(aggregator.add(item("account1", "metric1", now, 2)));
+    assertEquals(1, aggregator.getDroppedCount());
+    aggregator.drain();
+    assertTrue(aggregator.add(item("account1", "metric3", now, 1)));
+  }
+
+  private static SimpleMetricEntity item(String accountId, String metricName, Date timestamp, double value) {
+    final Map<String,String> dimensions = new TreeMap<String, String>();
+    dimensions.put("dim1", "val1");
+    SimpleMetricEntity mqi = new SimpleMetricEntity();
+    mqi.setAccountId(accountId);
+    mqi.setDimensionMap(dimensions);
+    mqi.setMetricName(metricName);
+    mqi.setMetricType(MetricType.Custom);
+    mqi.setNamespace("namespace1");
+    mqi.setSampleMax(value);
+    mqi.setSampleMin(value);
+    mqi.setSampleSize(1.0);
+    mqi.setSampleSum(value);
+    mqi.setTimestamp(timestamp);
+    mqi.setUnits(Units.None);
+    return mqi;
+  }
+}
@@ -0,0 +1,144 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.alarms;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricManager;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricStatistics;
+import com.eucalyptus.cloudwatch.domain.metricdata.SimpleMetricEntity;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class AlarmMetricCacheTest {
+
+  private static final double TOLERANCE = 0.000000001;
+  private static final long MINUTE = 60000L;
+
+  @Test
+  public void testColdStart() {
+    final AlarmMetricCache cache = new AlarmMetricCache();
+    final AlarmEntity alarm = alarm(60, 3);
+    final Date now = new Date();
+    final Date start = MetricManager.stripSeconds(now);
+    final Date end = new Date(start.getTime() + AlarmMetricCache.windowMinutes(alarm) * MINUTE);
+    assertNull(cache.getMetricStatistics(alarm, start, end));
+    cache.watch(alarm, now);
+    assertFalse(cache.covers(alarm, start, end));
+    assertNull(cache.getMetricStatistics(alarm, start, end));
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testStatistics() {
+    final AlarmMetricCache cache = new AlarmMetricCache();
+    final AlarmEntity alarm = alarm(120, 2);
+    final Date now = new Date();
+    cache.watch(alarm, now);
+    final long start = MetricManager.stripSeconds(now).getTime() + MINUTE;
+    final Date end = new Date(start + AlarmMetricCache.windowMinutes(alarm) * MINUTE);
+    cache.update(Lists.newArrayList(
+        item("account1", "metric1", new Date(start), 1.0),
+        item("account1", "metric1", new Date(start + MINUTE), 3.0),
+        item("account1", "metric1", new Date(start + 4 * MINUTE), 5.0),
+        item("account1", "metric2", new Date(start), 7.0),
+        item("account2", "metric1", new Date(start), 9.0)));
+    assertEquals(3, cache.getUpdateCount());
+    assertTrue(cache.covers(alarm, new Date(start), end));
+
+    final List<MetricStatistics> statistics =
+        Lists.newArrayList(cache.getMetricStatistics(alarm, new Date(start), end));
+    assertEquals(2, statistics.size());
+    assertEquals(start, statistics.get(0).getTimestamp().getTime());
+    assertEquals(2.0, statistics.get(0).getSampleSize(), TOLERANCE);
+    assertEquals(3.0, statistics.get(0).getSampleMax(), TOLERANCE);
+    assertEquals(1.0, statistics.get(0).getSampleMin(), TOLERANCE);
+    assertEquals(4.0, statistics.get(0).getSampleSum(), TOLERANCE);
+    assertEquals(start + 4 * MINUTE, statistics.get(1).getTimestamp().getTime());
+    assertEquals(5.0, statistics.get(1).getSampleSum(), TOLERANCE);
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void testRetain() {
+    final AlarmMetricCache cache = new AlarmMetricCache();
+    final AlarmEntity alarm = alarm(60, 1);
+    final Date now = new Date();
+    cache.watch(alarm, now);
+    assertEquals(1, cache.getSize());
+    cache.retain(Collections.<AlarmMetricCache.Key>emptySet());
+    assertEquals(0, cache.getSize());
+    final AlarmMetricCache.Key key = cache.watch(alarm, now);
+    cache.retain(Sets.newHashSet(key));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void testUpdatedKeys() {
+    final AlarmMetricCache cache = new AlarmMetricCache();
+    final Date now = new Date();
+    final AlarmMetricCache.Key key = cache.watch(alarm(60, 1), now);
+    assertTrue(cache.drainUpdatedKeys().isEmpty());
+    final long start = MetricManager.stripSeconds(now).getTime() + MINUTE;
+    cache.update(Lists.newArrayList(
+        item("account1", "metric1", new Date(start), 1.0),
+        item("account1", "metric2", new Date(start), 2.0)));
+    assertEquals(Sets.newHashSet(key), cache.drainUpdatedKeys());
+    assertTrue(cache.drainUpdatedKeys().isEmpty());
+  }
+
+  private static AlarmEntity alarm(int period, int evaluationPeriods) {
+    final AlarmEntity alarm = new AlarmEntity();
+    alarm.setAccountId("account1");
+    alarm.setNamespace("namespace1");
+    alarm.setMetricName("metric1");
+    alarm.setMetricType(MetricType.Custom);
+    alarm.setPeriod(period);
+    alarm.setEvaluationPeriods(evaluationPeriods);
+    return alarm;
+  }
+
+  private static SimpleMetricEntity item(String accountId, String metricName, Date timestamp, double value) {
+    final Map<String,String> dimensions = new TreeMap<String, String>();
+    SimpleMetricEntity mqi = new SimpleMetricEntity();
+    mqi.setAccountId(accountId);
+    mqi.setDimensionMap(dimensions);
+    mqi.setMetricName(metricName);
+    mqi.setMetricType(MetricType.Custom);
+    mqi.setNamespace("namespace1");
+    mqi.setSampleMax(value);
+    mqi.setSampleMin(value);
+    mqi.setSampleSize(1.0);
+    mqi.setSampleSum(value);
+    mqi.setTimestamp(timestamp);
+    mqi.setUnits(Units.None);
+    return mqi;
+  }
+}
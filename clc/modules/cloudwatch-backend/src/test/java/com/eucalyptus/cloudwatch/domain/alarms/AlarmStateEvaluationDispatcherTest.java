@@ -0,0 +1,58 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.alarms;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricManager;
+
+public class AlarmStateEvaluationDispatcherTest {
+
+  private static final long MINUTE = 60000L;
+
+  @Test
+  public void testEvaluationDue() {
+    final AlarmEntity alarm = alarm(300, 1);
+    final Date evaluated = MetricManager.stripSeconds(new Date());
+    final AlarmStateEvaluationDispatcher.Evaluation previous = new AlarmStateEvaluationDispatcher.Evaluation(1, evaluated);
+    assertTrue("New alarm", AlarmStateEvaluationDispatcher.evaluationDue(alarm, null, false, evaluated));
+    assertFalse("Not due", AlarmStateEvaluationDispatcher.evaluationDue(alarm, previous, false, new Date(evaluated.getTime() + MINUTE)));
+    assertTrue("Metric updated", AlarmStateEvaluationDispatcher.evaluationDue(alarm, previous, true, new Date(evaluated.getTime() + MINUTE)));
+    assertFalse("Period not elapsed", AlarmStateEvaluationDispatcher.evaluationDue(alarm, previous, false, new Date(evaluated.getTime() + 5 * MINUTE - 1)));
+    assertTrue("Period elapsed", AlarmStateEvaluationDispatcher.evaluationDue(alarm, previous, false, new Date(evaluated.getTime() + 5 * MINUTE + 1)));
+    alarm.setVersion(2);
+    assertTrue("Alarm changed", AlarmStateEvaluationDispatcher.evaluationDue(alarm, previous, false, new Date(evaluated.getTime() + MINUTE)));
+  }
+
+  private static AlarmEntity alarm(int period, int evaluationPeriods) {
+    final AlarmEntity alarm = new AlarmEntity();
+    alarm.setAccountId("account1");
+    alarm.setNamespace("namespace1");
+    alarm.setMetricName("metric1");
+    alarm.setPeriod(period);
+    alarm.setEvaluationPeriods(evaluationPeriods);
+    alarm.setVersion(1);
+    return alarm;
+  }
+}
@@ -0,0 +1,137 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.listmetrics;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.backend.InvalidParameterValueException;
+import com.eucalyptus.cloudwatch.domain.DimensionEntity;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ListMetricIndexTest {
+
+  @Test
+  public void testFilters() throws Exception {
+    final ListMetricIndex index = loadedIndex(
+        metric("account1", "namespace1", "metric1", ImmutableMap.of("dim1", "val1")),
+        metric("account1", "namespace1", "metric1", ImmutableMap.of("dim1", "val1", "dim2", "val2")),
+        metric("account1", "namespace1", "metric2", ImmutableMap.of("dim1", "val2")),
+        metric("account1", "namespace2", "metric1", Collections.<String,String>emptyMap()),
+        metric("account2", "namespace1", "metric1", ImmutableMap.of("dim1", "val1")));
+    assertEquals(5, index.size());
+    assertEquals(4, index.list("account1", null, null, null, null, null, null, null).size());
+    assertEquals(3, index.list("account1", null, "namespace1", null, null, null, null, null).size());
+    assertEquals(2, index.list("account1", "metric1", "namespace1", null, null, null, null, null).size());
+    assertEquals(3, index.list("account1", "metric1", null, null, null, null, null, null).size());
+    assertEquals(2, index.list("account1", null, null, ImmutableMap.of("dim1", "val1"), null, null, null, null).size());
+    assertEquals(1, index.list("account1", null, null, ImmutableMap.of("dim1", "val1", "dim2", "val2"), null, null, null, null).size());
+    assertEquals(0, index.list("account1", null, null, ImmutableMap.of("dim3", "val3"), null, null, null, null).size());
+    assertEquals(0, index.list("account3", null, null, null, null, null, null, null).size());
+    assertEquals(5, index.list(null, null, null, null, null, null, null, null).size());
+  }
+
+  @Test
+  public void testPaging() throws Exception {
+    final List<ListMetric> metrics = Lists.newArrayList();
+    for (int i = 0; i < 25; i++) {
+      metrics.add(metric("account1", "namespace1", "metric" + i, ImmutableMap.of("dim1", "val" + (i % 2))));
+    }
+    final ListMetricIndex index = loadedIndex(metrics.toArray(new ListMetric[metrics.size()]));
+    final Set<String> seen = Sets.newHashSet();
+    String nextToken = null;
+    int pages = 0;
+    do {
+      final List<ListMetric> page = index.list("account1", null, "namespace1", ImmutableMap.of("dim1", "val0"), null, null, 5, nextToken);
+      for (final ListMetric metric : page) {
+        assertTrue("Duplicate metric " + metric, seen.add(metric.getNaturalId()));
+      }
+      nextToken = page.size() == 5 ? page.get(page.size() - 1).getNaturalId() : null;
+      pages++;
+    } while (nextToken != null);
+    assertEquals(13, seen.size());
+    assertEquals(3, pages);
+  }
+
+  @Test(expected = InvalidParameterValueException.class)
+  public void testInvalidNextToken() throws Exception {
+    loadedIndex().list("account1", null, null, null, null, null, 5, "invalid");
+  }
+
+  @Test
+  public void testUpdateAndRemove() throws Exception {
+    final ListMetric metric1 = metric("account1", "namespace1", "metric1", ImmutableMap.of("dim1", "val1"));
+    final ListMetric metric2 = metric("account1", "namespace1", "metric2", ImmutableMap.of("dim1", "val1"));
+    final ListMetricIndex index = loadedIndex(metric1);
+    final Date now = new Date();
+    index.update(Collections.singleton(metric2), Collections.singleton(metric1.getNaturalId()), now);
+    assertEquals(2, index.list("account1", null, null, null, now, null, null, null).size());
+    index.update(Collections.<ListMetric>emptySet(), Collections.singleton(metric2.getNaturalId()), new Date(now.getTime() + 1000L));
+    index.removeBefore(new Date(now.getTime() + 1000L));
+    final List<ListMetric> remaining = index.list("account1", null, null, ImmutableMap.of("dim1", "val1"), null, null, null, null);
+    assertEquals(1, remaining.size());
+    assertEquals(metric2.getNaturalId(), remaining.get(0).getNaturalId());
+    assertEquals(0, index.list("account1", "metric1", "namespace1", null, null, null, null, null).size());
+  }
+
+  @Test
+  public void testNotLoaded() {
+    final ListMetricIndex index = new ListMetricIndex();
+    index.update(Collections.singleton(metric("account1", "namespace1", "metric1", ImmutableMap.of("dim1", "val1"))),
+        Collections.<String>emptySet(), new Date());
+    assertFalse(index.isLoaded());
+    assertEquals(0, index.size());
+  }
+
+  private static ListMetricIndex loadedIndex(ListMetric... metrics) {
+    final ListMetricIndex index = new ListMetricIndex();
+    final Supplier<List<ListMetric>> loader = Suppliers.<List<ListMetric>>ofInstance(Lists.newArrayList(metrics));
+    index.load(loader);
+    assertTrue(index.isLoaded());
+    return index;
+  }
+
+  private static ListMetric metric(String accountId, String namespace, String metricName, Map<String, String> dimensionMap) {
+    final ListMetric metric = new ListMetric();
+    metric.setAccountId(accountId);
+    metric.setNamespace(namespace);
+    metric.setMetricName(metricName);
+    metric.setMetricType(MetricType.Custom);
+    final List<DimensionEntity> dimensions = Lists.newArrayList();
+    for (Map.Entry<String, String> entry : dimensionMap.entrySet()) {
+      dimensions.add(new DimensionEntity(entry.getKey(), entry.getValue()));
+    }
+    metric.setDimensions(dimensions);
+    metric.updateTimeStamps();
+    return metric;
+  }
+}
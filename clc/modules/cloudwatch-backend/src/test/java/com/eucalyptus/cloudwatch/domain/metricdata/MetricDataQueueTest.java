@@ -0,0 +1,133 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class MetricDataQueueTest {
+
+  private static ExecutorService workers;
+
+  @BeforeClass
+  public static void setUp() {
+    workers = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    workers.shutdownNow();
+  }
+
+  @Test
+  public void testFlushStripes() throws Exception {
+    final Date now = MetricManager.stripSeconds(new Date());
+    final List<List<SimpleMetricEntity>> stripes = ImmutableList.<List<SimpleMetricEntity>>of(
+        Lists.newArrayList(item("metric1", now), item("metric2", now)),
+        Lists.newArrayList(item("metric3", now)));
+    final List<List<SimpleMetricEntity>> written = Lists.newCopyOnWriteArrayList();
+    final List<SimpleMetricEntity> committed = MetricDataQueue.flushStripes(workers, stripes, new MetricDataQueue.StripeWriter() {
+      @Override
+      public void write(final List<SimpleMetricEntity> stripe) {
+        written.add(stripe);
+      }
+    });
+    assertEquals("Stripes written", 2, written.size());
+    assertEquals("Committed", 3, committed.size());
+  }
+
+  @Test
+  public void testFlushStripesFailure() throws Exception {
+    final Date now = MetricManager.stripSeconds(new Date());
+    final List<SimpleMetricEntity> failing = Lists.newArrayList(item("metric1", now), item("metric2", now));
+    final List<SimpleMetricEntity> succeeding = Lists.newArrayList(item("metric3", now));
+    final long failuresBefore = MetricDataQueue.getStripeFailureCount();
+    final List<SimpleMetricEntity> committed = MetricDataQueue.flushStripes(workers,
+        ImmutableList.<List<SimpleMetricEntity>>of(failing, succeeding), new MetricDataQueue.StripeWriter() {
+      @Override
+      public void write(final List<SimpleMetricEntity> stripe) {
+        if (stripe == failing) throw new IllegalStateException("stripe failed");
+      }
+    });
+    assertEquals("Committed", succeeding, committed);
+    assertEquals("Stripe failures", failuresBefore + 1, MetricDataQueue.getStripeFailureCount());
+  }
+
+  /**
+   * A stripe whose rollups fail is not stored, so it is not used for list
+   * metrics or alarms and no rollups are written for it later.
+   */
+  @Test
+  public void testFlushStripesRollupFailure() throws Exception {
+    final Date now = MetricManager.stripSeconds(new Date());
+    final List<SimpleMetricEntity> stripe = Lists.newArrayList(item("metric1", now));
+    final List<SimpleMetricEntity> stored = Lists.newCopyOnWriteArrayList();
+    final long failuresBefore = MetricDataQueue.getStripeFailureCount();
+    final List<SimpleMetricEntity> committed = MetricDataQueue.flushStripes(workers,
+        ImmutableList.<List<SimpleMetricEntity>>of(stripe), new MetricDataQueue.StripeWriter() {
+      @Override
+      public void write(final List<SimpleMetricEntity> stripe) {
+        final List<SimpleMetricEntity> pending = Lists.newArrayList(stripe); // metric data written, not committed
+        rollup(pending);
+        stored.addAll(pending); // commit
+      }
+
+      private void rollup(final List<SimpleMetricEntity> pending) {
+        throw new IllegalStateException("rollup failed");
+      }
+    });
+    assertTrue("Committed", committed.isEmpty());
+    assertTrue("Stored", stored.isEmpty());
+    assertEquals("Stripe failures", failuresBefore + 1, MetricDataQueue.getStripeFailureCount());
+  }
+
+  private static SimpleMetricEntity item(String metricName, Date timestamp) {
+    final Map<String,String> dimensions = new TreeMap<String, String>();
+    dimensions.put("dim1", "val1");
+    SimpleMetricEntity mqi = new SimpleMetricEntity();
+    mqi.setAccountId("account1");
+    mqi.setDimensionMap(dimensions);
+    mqi.setMetricName(metricName);
+    mqi.setMetricType(MetricType.Custom);
+    mqi.setNamespace("namespace1");
+    mqi.setSampleMax(1.0);
+    mqi.setSampleMin(1.0);
+    mqi.setSampleSize(1.0);
+    mqi.setSampleSum(1.0);
+    mqi.setTimestamp(timestamp);
+    mqi.setUnits(Units.None);
+    return mqi;
+  }
+}
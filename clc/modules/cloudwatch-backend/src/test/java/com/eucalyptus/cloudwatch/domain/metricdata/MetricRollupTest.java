@@ -0,0 +1,137 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloudwatch.domain.metricdata;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.MetricType;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricEntity.Units;
+import com.eucalyptus.cloudwatch.domain.metricdata.MetricRollupEntity.Resolution;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class MetricRollupTest {
+
+  private static final long HOUR = 3600 * 1000L;
+  private static final long MINUTE = 60 * 1000L;
+  private static final Date EPOCH_HOUR = new Date(1000 * HOUR);
+
+  @Test
+  public void testResolutionIntervals() {
+    assertEquals(EPOCH_HOUR, Resolution.OneHour.intervalStart(new Date(EPOCH_HOUR.getTime() + 59 * MINUTE)));
+    assertEquals(new Date(EPOCH_HOUR.getTime() + 55 * MINUTE),
+        Resolution.FiveMinutes.intervalStart(new Date(EPOCH_HOUR.getTime() + 59 * MINUTE)));
+    assertTrue(Resolution.OneHour.isAligned(EPOCH_HOUR));
+    assertFalse(Resolution.OneHour.isAligned(new Date(EPOCH_HOUR.getTime() + 5 * MINUTE)));
+    assertTrue(Resolution.FiveMinutes.isAligned(new Date(EPOCH_HOUR.getTime() + 5 * MINUTE)));
+    assertFalse(Resolution.FiveMinutes.isAligned(new Date(EPOCH_HOUR.getTime() + MINUTE)));
+  }
+
+  @Test
+  public void testBuildRollups() {
+    List<MetricEntity> metrics = Lists.newArrayList();
+    metrics.addAll(metric("dim1", 0, 1.0));
+    metrics.addAll(metric("dim1", 4, 5.0));
+    metrics.addAll(metric("dim1", 5, 3.0));
+    metrics.addAll(metric("dim2", 1, 7.0));
+
+    Map<GetMetricStatisticsAggregationKey, MetricRollupEntity> fiveMinute =
+        MetricManager.buildRollups(metrics, Resolution.FiveMinutes);
+    assertEquals("Five minute rollups", 3, fiveMinute.size());
+    MetricRollupEntity first = rollup(fiveMinute.values(), metrics.get(0).getDimensionHash(), EPOCH_HOUR);
+    assertTrue("Entity type", first instanceof MetricRollupEntity.FiveMinuteMetricRollupEntity);
+    assertEquals("Sample size", 2.0, first.getSampleSize(), 0);
+    assertEquals("Sample max", 5.0, first.getSampleMax(), 0);
+    assertEquals("Sample min", 1.0, first.getSampleMin(), 0);
+    assertEquals("Sample sum", 6.0, first.getSampleSum(), 0);
+
+    Map<GetMetricStatisticsAggregationKey, MetricRollupEntity> oneHour =
+        MetricManager.buildRollups(metrics, Resolution.OneHour);
+    assertEquals("One hour rollups", 2, oneHour.size());
+    MetricRollupEntity hour = rollup(oneHour.values(), metrics.get(0).getDimensionHash(), EPOCH_HOUR);
+    assertTrue("Entity type", hour instanceof MetricRollupEntity.OneHourMetricRollupEntity);
+    assertEquals("Sample size", 3.0, hour.getSampleSize(), 0);
+    assertEquals("Sample sum", 9.0, hour.getSampleSum(), 0);
+  }
+
+  @Test
+  public void testSelectRollupResolution() {
+    Function<Resolution, Date> available = availableSince(new Date(0));
+    assertEquals(Resolution.OneHour, MetricManager.selectRollupResolution(EPOCH_HOUR, 3600, available));
+    assertEquals(Resolution.OneHour, MetricManager.selectRollupResolution(EPOCH_HOUR, 7200, available));
+    assertEquals(Resolution.FiveMinutes, MetricManager.selectRollupResolution(EPOCH_HOUR, 600, available));
+    assertEquals("Start not aligned to the hour", Resolution.FiveMinutes,
+        MetricManager.selectRollupResolution(new Date(EPOCH_HOUR.getTime() + 5 * MINUTE), 3600, available));
+    assertNull("Period finer than rollups", MetricManager.selectRollupResolution(EPOCH_HOUR, 60, available));
+    assertNull("Start not aligned", MetricManager.selectRollupResolution(new Date(EPOCH_HOUR.getTime() + MINUTE), 300, available));
+  }
+
+  @Test
+  public void testSelectRollupResolutionAvailability() {
+    Function<Resolution, Date> none = availableSince(null);
+    assertNull("No rollups", MetricManager.selectRollupResolution(EPOCH_HOUR, 3600, none));
+
+    Function<Resolution, Date> hourLater = Functions.forMap(ImmutableMap.of(
+        Resolution.OneHour, new Date(EPOCH_HOUR.getTime() + HOUR),
+        Resolution.FiveMinutes, new Date(0)));
+    assertEquals("Hourly rollups incomplete", Resolution.FiveMinutes,
+        MetricManager.selectRollupResolution(EPOCH_HOUR, 3600, hourLater));
+    assertEquals("Hourly rollups complete", Resolution.OneHour,
+        MetricManager.selectRollupResolution(new Date(EPOCH_HOUR.getTime() + HOUR), 3600, hourLater));
+  }
+
+  private static Function<Resolution, Date> availableSince(Date since) {
+    return Functions.forMap(Collections.<Resolution, Date>emptyMap(), since);
+  }
+
+  private static MetricRollupEntity rollup(Iterable<MetricRollupEntity> rollups, String dimensionHash, Date timestamp) {
+    for (MetricRollupEntity rollup : rollups) {
+      if (rollup.getDimensionHash().equals(dimensionHash) && rollup.getTimestamp().equals(timestamp)) {
+        return rollup;
+      }
+    }
+    throw new AssertionError("Rollup not found for " + dimensionHash + " at " + timestamp);
+  }
+
+  private static List<MetricEntity> metric(String dimension, int minute, double value) {
+    SimpleMetricEntity entity = new SimpleMetricEntity();
+    entity.setAccountId("account1");
+    entity.setNamespace("namespace1");
+    entity.setMetricName("metric1");
+    entity.setDimensionMap(Collections.singletonMap("dim", dimension));
+    entity.setMetricType(MetricType.Custom);
+    entity.setUnits(Units.None);
+    entity.setTimestamp(new Date(EPOCH_HOUR.getTime() + minute * MINUTE));
+    entity.setSampleSize(1.0);
+    entity.setSampleMax(value);
+    entity.setSampleMin(value);
+    entity.setSampleSum(value);
+    return MetricManager.foldAndHash(entity);
+  }
+}
@@ -72,6 +72,9 @@ import javax.persistence.FetchType;
 import javax.persistence.Lob;
 import javax.persistence.OneToMany;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import org.hibernate.annotations.Cache;
@@ -139,6 +142,20 @@ public class Volume extends UserMetadata<State> implements VolumeMetadata {
     return new Volume( fullName, volumeId );
   }
 
+  /**
+   * Update the usage ledgers, applied on commit.
+   */
+  @PostPersist
+  @PostUpdate
+  private void updateUsage( ) {
+    Volumes.usageUpdated( this );
+  }
+
+  @PostRemove
+  private void removeUsage( ) {
+    Volumes.usageRemoved( this );
+  }
+
   public static Volume naturalId( final String naturalId ) {
     final Volume volume = new Volume();
     volume.setNaturalId( naturalId );
@@ -79,7 +79,9 @@ import com.eucalyptus.vm.VmInstance;
 
 import org.apache.log4j.Logger;
 import org.hibernate.criterion.Example;
+import org.hibernate.criterion.Projections;
 
+import com.eucalyptus.auth.policy.key.QuotaUsageLedger;
 import com.eucalyptus.auth.principal.UserFullName;
 import com.eucalyptus.blockstorage.msgs.CreateStorageVolumeResponseType;
 import com.eucalyptus.blockstorage.msgs.CreateStorageVolumeType;
@@ -93,6 +95,7 @@ import com.eucalyptus.component.Topology;
 import com.eucalyptus.component.id.Eucalyptus;
 import com.eucalyptus.compute.identifier.ResourceIdentifiers;
 import com.eucalyptus.entities.Entities;
+import com.eucalyptus.entities.ReconciledIndex;
 import com.eucalyptus.entities.TransactionException;
 import com.eucalyptus.entities.TransactionResource;
 import com.eucalyptus.entities.Transactions;
@@ -116,6 +119,7 @@ import com.eucalyptus.vm.VmVolumeAttachment;
 import com.eucalyptus.tags.FilterSupport;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -135,6 +139,9 @@ public class Volumes {
 
     @Override
     public Long apply( final OwnerFullName input ) {
+      if ( QuotaUsageLedger.isEnabled( ) ) {
+        return volumeCountUsage.usage( input );
+      }
       final EntityTransaction db = Entities.get( Volume.class );
       try {
         return Entities.count( Volume.named( input, null ) );
@@ -151,6 +158,9 @@ public class Volumes {
     @SuppressWarnings( "unchecked" )
     @Override
     public Long apply( final OwnerFullName input ) {
+      if ( QuotaUsageLedger.isEnabled( ) ) {
+        return volumeSizeUsage.usage( input );
+      }
       Long size = 0l;
       final EntityTransaction db = Entities.get( Volume.class );
       try {
@@ -170,6 +180,73 @@ public class Volumes {
 
   }
 
+  private static final QuotaUsageLedger volumeCountUsage =
+      QuotaUsageLedger.create( "volume count", new VolumeUsageSupplier( false ) );
+  private static final QuotaUsageLedger volumeSizeUsage =
+      QuotaUsageLedger.create( "volume size", new VolumeUsageSupplier( true ) );
+
+  /**
+   * Update the volume quota usage ledgers following a change to a volume,
+   * applied when the transaction commits.
+   */
+  static void usageUpdated( final Volume volume ) {
+    final QuotaUsageLedger.Usage count = new QuotaUsageLedger.Usage(
+        volume.getDisplayName( ), volume.getOwnerAccountNumber( ), volume.getOwnerUserId( ), 1 );
+    final QuotaUsageLedger.Usage size = new QuotaUsageLedger.Usage(
+        volume.getDisplayName( ), volume.getOwnerAccountNumber( ), volume.getOwnerUserId( ), size( volume.getSize( ) ) );
+    ReconciledIndex.afterCommit( Volume.class, new Runnable( ) {
+      @Override
+      public void run( ) {
+        volumeCountUsage.update( count );
+        volumeSizeUsage.update( size );
+      }
+    } );
+  }
+
+  static void usageRemoved( final Volume volume ) {
+    final String volumeId = volume.getDisplayName( );
+    ReconciledIndex.afterCommit( Volume.class, new Runnable( ) {
+      @Override
+      public void run( ) {
+        volumeCountUsage.remove( volumeId );
+        volumeSizeUsage.remove( volumeId );
+      }
+    } );
+  }
+
+  private static long size( final Integer size ) {
+    return size == null ? 0 : size;
+  }
+
+  private static final class VolumeUsageSupplier implements Supplier<List<QuotaUsageLedger.Usage>> {
+    private final boolean measure;
+
+    private VolumeUsageSupplier( final boolean measure ) {
+      this.measure = measure;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    @Override
+    public List<QuotaUsageLedger.Usage> get( ) {
+      try ( final TransactionResource db = Entities.transactionFor( Volume.class ) ) {
+        final List<Object[]> rows = (List<Object[]>) Entities.createCriteria( Volume.class )
+            .setProjection( Projections.projectionList( )
+                .add( Projections.property( "displayName" ) )
+                .add( Projections.property( "ownerAccountNumber" ) )
+                .add( Projections.property( "ownerUserId" ) )
+                .add( Projections.property( "size" ) ) )
+            .setReadOnly( true )
+            .list( );
+        final List<QuotaUsageLedger.Usage> usage = Lists.newArrayListWithCapacity( rows.size( ) );
+        for ( final Object[] row : rows ) {
+          usage.add( new QuotaUsageLedger.Usage(
+              (String) row[0], (String) row[1], (String) row[2], measure ? size( (Integer) row[3] ) : 1 ) );
+        }
+        return usage;
+      }
+    }
+  }
+
   public static class VolumeUpdateEvent implements EventListener<ClockTick>, Callable<Boolean> {
     private static final AtomicBoolean ready = new AtomicBoolean( true );
 
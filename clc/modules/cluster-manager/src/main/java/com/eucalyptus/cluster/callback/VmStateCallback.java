@@ -62,11 +62,15 @@
 
 package com.eucalyptus.cluster.callback;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
@@ -92,20 +96,29 @@ import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.vm.VmInstances.TerminatedInstanceException;
 import com.eucalyptus.vmtypes.VmType;
 import com.eucalyptus.vmtypes.VmTypes;
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import edu.ucsb.eucalyptus.cloud.VmDescribeResponseType;
 import edu.ucsb.eucalyptus.cloud.VmDescribeType;
 import edu.ucsb.eucalyptus.cloud.VmInfo;
+import edu.ucsb.eucalyptus.msgs.AttachedVolume;
 import edu.ucsb.eucalyptus.msgs.VmTypeInfo;
 
 public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescribeType, VmDescribeResponseType> {
   private static Logger               LOG                       = Logger.getLogger( VmStateCallback.class );
+  private static final ConcurrentMap<String,Map<String,String>> reconcileFingerprints = Maps.newConcurrentMap( );
   private final Supplier<Set<String>> initialInstances;
   
   public VmStateCallback( ) {
@@ -158,26 +171,40 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     } else {
       reply.setOriginCluster( this.getSubject( ).getConfiguration( ).getName( ) );
       final Set<String> reportedInstances = Sets.newHashSet( );
+      Map<List<Integer>,String> typeNames = null;
       for ( VmInfo vmInfo : reply.getVms( ) ) {
         reportedInstances.add( vmInfo.getInstanceId( ) );
         vmInfo.setPlacement( this.getSubject( ).getConfiguration( ).getName( ) );
         VmTypeInfo typeInfo = vmInfo.getInstanceType( );
         if ( typeInfo.getName( ) == null || "".equals( typeInfo.getName( ) ) ) {
-          for ( VmType t : VmTypes.list( ) ) {
-            if ( t.getCpu( ).equals( typeInfo.getCores( ) ) && t.getDisk( ).equals( typeInfo.getDisk( ) ) && t.getMemory( ).equals( typeInfo.getMemory( ) ) ) {
-              typeInfo.setName( t.getName( ) );
-            }
+          if ( typeNames == null ) {
+            typeNames = typeNamesByResources( );
+          }
+          final String typeName = typeNames.get( Arrays.asList( typeInfo.getCores( ), typeInfo.getDisk( ), typeInfo.getMemory( ) ) );
+          if ( typeName != null ) {
+            typeInfo.setName( typeName );
           }
         }
       }
-      
+
       final Set<String> unreportedInstances = Sets.newHashSet( Sets.difference( this.initialInstances.get( ), reportedInstances ) );
       final Set<String> restoreInstances = Sets.newHashSet( Sets.difference( reportedInstances, this.initialInstances.get( ) ) );
+      if ( VmInstances.VM_STATE_BATCH_RECONCILE ) {
+        final List<VmInfo> knownVms = Lists.newArrayList( );
+        for ( final VmInfo runVm : reply.getVms( ) ) {
+          if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
+            knownVms.add( runVm );
+          }
+        }
+        VmStateCallback.reconcile( this.getSubject( ).getConfiguration( ).getPartition( ), knownVms );
+      }
       for ( final VmInfo runVm : reply.getVms( ) ) {
         if ( Databases.isVolatile( ) ) {
           return;
         } else if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
-          VmStateCallback.handleReportedState( runVm );
+          if ( !VmInstances.VM_STATE_BATCH_RECONCILE ) {
+            VmStateCallback.handleReportedState( runVm );
+          }
         } else if ( restoreInstances.contains( runVm.getInstanceId( ) ) ) {
           VmStateCallback.handleRestore( runVm );
         }
@@ -239,22 +266,11 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
           return;
         }
 
-        if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
-          if ( vm.isBlockStorage( ) ) {
-            VmInstances.stopped( vm );
-          } else {
-            VmInstances.shutDown( vm );
-          }
-        } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
+        if ( !VmInstances.Timeout.EXPIRED.apply( vm ) && VmState.SHUTTING_DOWN.equals( runVmState ) ) {
           db.rollback();
           VmStateCallback.handleReportedTeardown( vm, runVm );
           return;
-        } else if ( VmStateSet.RUN.apply( vm ) ) {
-          vm.doUpdate( ).apply( runVm );
-        } else if ( !VmStateSet.RUN.apply( vm ) && VmStateSet.RUN.contains( runVmState )
-                    && vm.lastUpdateMillis( ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
-          vm.doUpdate( ).apply( runVm );
-        } else {
+        } else if ( !VmStateCallback.applyReportedState( vm, runVm ) ) {
           return;
         }
         Entities.commit( db );
@@ -275,6 +291,214 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     }
   }
   
+  /**
+   * Apply reported state to an instance that is not done and is not being
+   * torn down, the caller must have an active transaction.
+   *
+   * @return True if the reported state was applied
+   */
+  private static boolean applyReportedState( final VmInstance vm, final VmInfo runVm ) throws TransactionException {
+    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+    if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
+      if ( vm.isBlockStorage( ) ) {
+        VmInstances.stopped( vm );
+      } else {
+        VmInstances.shutDown( vm );
+      }
+    } else if ( VmStateSet.RUN.apply( vm ) ) {
+      vm.doUpdate( ).apply( runVm );
+    } else if ( !VmStateSet.RUN.apply( vm ) && VmStateSet.RUN.contains( runVmState )
+                && vm.lastUpdateMillis( ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
+      vm.doUpdate( ).apply( runVm );
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Reconcile reported state for known instances in a partition.
+   *
+   * <p>Instances are loaded with a single query and the reported state is
+   * compared with the fingerprint of the state last applied. Unchanged
+   * instances that are steadily running are skipped, other updates are
+   * applied in batched transactions. Reported teardown and restore of
+   * expired instances are handled per instance as these are infrequent.</p>
+   */
+  private static void reconcile( final String partition, final List<VmInfo> runVms ) {
+    final long start = System.currentTimeMillis( );
+    final Map<String,String> lastFingerprints =
+        Objects.firstNonNull( reconcileFingerprints.get( partition ), Collections.<String,String>emptyMap( ) );
+    final Map<String,String> fingerprints = Maps.newHashMap( );
+    final Map<String,String> updateFingerprints = Maps.newHashMap( );
+    final List<VmInfo> updates = Lists.newArrayList( );
+    final List<VmInfo> individual = Lists.newArrayList( );
+    int unchanged = 0;
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final Map<String,VmInstance> instances = Maps.uniqueIndex(
+          Entities.query( VmInstance.named( null, null ), true,
+              Restrictions.eq( "placement.partitionName", partition ), Collections.<String,String>emptyMap( ) ),
+          CloudMetadatas.<VmInstance>toDisplayName( ) );
+      for ( final VmInfo runVm : runVms ) {
+        final VmInstance vm = instances.get( runVm.getInstanceId( ) );
+        final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+        if ( vm == null ) {
+          continue;
+        } else if ( VmStateSet.DONE.apply( vm ) ) {
+          if ( VmInstance.Reason.EXPIRED.apply( vm ) ) {
+            individual.add( runVm );
+          } else {
+            LOG.trace( "Ignore state update to terminated instance: " + runVm.getInstanceId( ) );
+          }
+        } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
+          individual.add( runVm );
+        } else {
+          final String fingerprint = fingerprint( vm.getVersion( ), runVm );
+          if ( isSteady( vm, runVmState ) && fingerprint.equals( lastFingerprints.get( runVm.getInstanceId( ) ) ) ) {
+            fingerprints.put( runVm.getInstanceId( ), fingerprint );
+            unchanged++;
+          } else {
+            updateFingerprints.put( runVm.getInstanceId( ), fingerprint );
+            updates.add( runVm );
+          }
+        }
+      }
+    } catch ( final Exception ex ) {
+      LOG.error( "Error loading instances for partition " + partition + ", updating individually: " + ex.getMessage( ) );
+      Logs.extreme( ).error( ex, ex );
+      updates.clear( );
+      individual.clear( );
+      individual.addAll( runVms );
+    } finally {
+      db.rollback( );
+    }
+
+    int changed = 0;
+    for ( final List<VmInfo> batch : Iterables.partition( updates, VmInstances.VM_STATE_RECONCILE_BATCH_SIZE ) ) {
+      if ( Databases.isVolatile( ) ) {
+        return;
+      }
+      changed += applyReportedStates( batch, updateFingerprints, fingerprints );
+    }
+    for ( final VmInfo runVm : individual ) {
+      if ( Databases.isVolatile( ) ) {
+        return;
+      }
+      VmStateCallback.handleReportedState( runVm );
+    }
+    reconcileFingerprints.put( partition, fingerprints );
+    VmStateReconcileStatistics.reconciled(
+        System.currentTimeMillis( ) - start, runVms.size( ), unchanged, changed + individual.size( ) );
+  }
+
+  /**
+   * Apply reported state for a batch of instances in one transaction, if the
+   * batch fails each instance is updated in its own transaction.
+   *
+   * <p>Fingerprints are recorded for the batch when successfully committed.
+   * The fingerprint includes the instance version prior to the update so an
+   * instance is checked again in the next reconcile before it is skipped.</p>
+   *
+   * @return The number of instances updated
+   */
+  private static int applyReportedStates( final List<VmInfo> runVms,
+                                          final Map<String,String> batchFingerprints,
+                                          final Map<String,String> fingerprints ) {
+    final List<String> instanceIds = Lists.newArrayList( );
+    for ( final VmInfo runVm : runVms ) {
+      instanceIds.add( runVm.getInstanceId( ) );
+    }
+    int changed = 0;
+    boolean committed = false;
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final Map<String,VmInstance> instances = Maps.uniqueIndex(
+          Entities.query( VmInstance.named( null, null ), false,
+              Restrictions.in( "displayName", instanceIds ), Collections.<String,String>emptyMap( ) ),
+          CloudMetadatas.<VmInstance>toDisplayName( ) );
+      for ( final VmInfo runVm : runVms ) {
+        final VmInstance vm = instances.get( runVm.getInstanceId( ) );
+        if ( vm != null && VmStateCallback.applyReportedState( vm, runVm ) ) {
+          changed++;
+        }
+      }
+      db.commit( );
+      committed = true;
+    } catch ( final Exception ex ) {
+      LOG.warn( "Batched instance state update failed, updating individually: " + ex.getMessage( ) );
+      Logs.extreme( ).error( ex, ex );
+    } finally {
+      if ( db.isActive( ) ) db.rollback( );
+    }
+    VmStateReconcileStatistics.transaction( committed );
+    if ( committed ) {
+      for ( final String instanceId : instanceIds ) {
+        fingerprints.put( instanceId, batchFingerprints.get( instanceId ) );
+      }
+    } else {
+      changed = 0;
+      for ( final VmInfo runVm : runVms ) {
+        VmStateCallback.handleReportedState( runVm );
+        changed++;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * An instance is steady if it is running and is reported as running with
+   * no timeout or bundle task pending, so an unchanged report is a no-op.
+   */
+  private static boolean isSteady( final VmInstance vm, final VmState runVmState ) {
+    return VmState.RUNNING.apply( vm ) &&
+        VmState.RUNNING.equals( runVmState ) &&
+        !vm.getRuntimeState( ).isBundling( ) &&
+        !VmInstances.Timeout.EXPIRED.apply( vm ) &&
+        !VmInstances.Timeout.UNTOUCHED.apply( vm );
+  }
+
+  /**
+   * Fingerprint for the reported state of an instance, covers all reported
+   * values that are applied to the instance.
+   */
+  static String fingerprint( final Integer version, final VmInfo runVm ) {
+    final List<Object> values = Lists.newArrayList( );
+    values.add( version );
+    values.add( runVm.getStateName( ) );
+    values.add( runVm.getBundleTaskStateName( ) );
+    values.add( runVm.getBundleTaskProgress( ) );
+    values.add( runVm.getGuestStateName( ) );
+    values.add( runVm.getServiceTag( ) );
+    values.add( runVm.getMigrationStateName( ) );
+    values.add( runVm.getMigrationSource( ) );
+    values.add( runVm.getMigrationDestination( ) );
+    if ( runVm.getNetParams( ) != null ) {
+      values.add( runVm.getNetParams( ).getMacAddress( ) );
+      values.add( runVm.getNetParams( ).getIpAddress( ) );
+      values.add( runVm.getNetParams( ).getIgnoredPublicIp( ) );
+    }
+    for ( final AttachedVolume volume : runVm.getVolumes( ) ) {
+      values.add( volume.getVolumeId( ) );
+      values.add( volume.getDevice( ) );
+      values.add( volume.getRemoteDevice( ) );
+      values.add( volume.getStatus( ) );
+    }
+    final String state = Joiner.on( '|' ).useForNull( "" ).join( values );
+    return Hashing.sha1( ).hashBytes( state.getBytes( Charsets.UTF_8 ) ).toString( );
+  }
+
+  /**
+   * Map of instance type names by cpu, disk and memory.
+   */
+  private static Map<List<Integer>,String> typeNamesByResources( ) {
+    final Map<List<Integer>,String> typeNames = Maps.newHashMap( );
+    for ( VmType t : VmTypes.list( ) ) {
+      typeNames.put( Arrays.asList( t.getCpu( ), t.getDisk( ), t.getMemory( ) ), t.getName( ) );
+    }
+    return typeNames;
+  }
+
   private static boolean handleRestore( final VmInfo runVm ) {
     final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
     if ( VmStateSet.RUN.contains( runVmState ) ) {
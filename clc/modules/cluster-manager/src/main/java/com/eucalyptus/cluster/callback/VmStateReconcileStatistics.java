@@ -0,0 +1,115 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cluster.callback;
+
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.util.Mbeans;
+
+/**
+ * Counters and timings for reconciliation of reported instance state.
+ */
+public class VmStateReconcileStatistics {
+  private static final AtomicLong reconciles = new AtomicLong( );
+  private static final AtomicLong reconcileMillis = new AtomicLong( );
+  private static final AtomicLong lastReconcileMillis = new AtomicLong( );
+  private static final AtomicLong maxReconcileMillis = new AtomicLong( );
+  private static final AtomicLong reported = new AtomicLong( );
+  private static final AtomicLong lastReported = new AtomicLong( );
+  private static final AtomicLong unchanged = new AtomicLong( );
+  private static final AtomicLong lastUnchanged = new AtomicLong( );
+  private static final AtomicLong changed = new AtomicLong( );
+  private static final AtomicLong lastChanged = new AtomicLong( );
+  private static final AtomicLong transactions = new AtomicLong( );
+  private static final AtomicLong failedTransactions = new AtomicLong( );
+
+  static {
+    Mbeans.register( new ReconcileStatistics( ) );
+  }
+
+  /**
+   * JMX view of instance state reconciliation.
+   */
+  public interface ReconcileStatisticsMXBean {
+    long getReconciles( );
+    long getReconcileMillis( );
+    long getLastReconcileMillis( );
+    long getMaxReconcileMillis( );
+    long getReported( );
+    long getLastReported( );
+    long getUnchanged( );
+    long getLastUnchanged( );
+    long getChanged( );
+    long getLastChanged( );
+    long getTransactions( );
+    long getFailedTransactions( );
+  }
+
+  /**
+   * Record a completed reconciliation.
+   *
+   * @param millis The time taken
+   * @param reportedCount The number of instances reported by the cluster
+   * @param unchangedCount The number of instances skipped as unchanged
+   * @param changedCount The number of instances for which state was updated
+   */
+  static void reconciled( final long millis,
+                          final long reportedCount,
+                          final long unchangedCount,
+                          final long changedCount ) {
+    reconciles.incrementAndGet( );
+    reconcileMillis.addAndGet( millis );
+    lastReconcileMillis.set( millis );
+    long max;
+    while ( ( max = maxReconcileMillis.get( ) ) < millis && !maxReconcileMillis.compareAndSet( max, millis ) ) { }
+    reported.addAndGet( reportedCount );
+    lastReported.set( reportedCount );
+    unchanged.addAndGet( unchangedCount );
+    lastUnchanged.set( unchangedCount );
+    changed.addAndGet( changedCount );
+    lastChanged.set( changedCount );
+  }
+
+  /**
+   * Record a chunk transaction.
+   *
+   * @param success True if the transaction committed
+   */
+  static void transaction( final boolean success ) {
+    transactions.incrementAndGet( );
+    if ( !success ) {
+      failedTransactions.incrementAndGet( );
+    }
+  }
+
+  private static class ReconcileStatistics implements ReconcileStatisticsMXBean {
+    @Override public long getReconciles( ) { return reconciles.get( ); }
+    @Override public long getReconcileMillis( ) { return reconcileMillis.get( ); }
+    @Override public long getLastReconcileMillis( ) { return lastReconcileMillis.get( ); }
+    @Override public long getMaxReconcileMillis( ) { return maxReconcileMillis.get( ); }
+    @Override public long getReported( ) { return reported.get( ); }
+    @Override public long getLastReported( ) { return lastReported.get( ); }
+    @Override public long getUnchanged( ) { return unchanged.get( ); }
+    @Override public long getLastUnchanged( ) { return lastUnchanged.get( ); }
+    @Override public long getChanged( ) { return changed.get( ); }
+    @Override public long getLastChanged( ) { return lastChanged.get( ); }
+    @Override public long getTransactions( ) { return transactions.get( ); }
+    @Override public long getFailedTransactions( ) { return failedTransactions.get( ); }
+  }
+}
@@ -68,7 +68,6 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import javax.annotation.Nullable;
 import org.apache.log4j.Logger;
 import com.eucalyptus.bootstrap.Databases;
-import com.eucalyptus.compute.common.CloudMetadatas;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.entities.TransactionResource;
 import com.eucalyptus.records.Logs;
@@ -78,6 +77,7 @@ import com.eucalyptus.vm.MetadataRequest;
 import com.eucalyptus.vm.NetworkGroupsMetadata;
 import com.eucalyptus.vm.SensorsConfigMetadata;
 import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceAddressIndex.InstanceAddresses;
 import com.eucalyptus.vm.VmInstances;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -191,19 +191,21 @@ public class VmMetadata {
       @Nullable
       @Override
       public Optional<String> apply( final String requestIp  ) {
-        VmInstance findVm = null;
+        InstanceAddresses findVm = null;
         if ( !Databases.isVolatile() ) {
           try {
-            findVm = VmInstances.lookupByPublicIp( requestIp );
+            findVm = VmInstances.lookupAddressesByPublicIp( requestIp );
           } catch ( Exception ex2 ) {
             try {
-              findVm = VmInstances.lookupByPrivateIp( requestIp );
+              findVm = VmInstances.lookupAddressesByPrivateIp( requestIp );
             } catch ( Exception ex ) {
               Logs.exhaust().error( ex );
             }
           }
         }
-        return Optional.fromNullable( findVm ).transform( CloudMetadatas.toDisplayName( ) );
+        return findVm == null ?
+            Optional.<String>absent( ) :
+            Optional.of( findVm.getInstanceId( ) );
       }
     };
   }
@@ -161,6 +161,15 @@ public class NetworkGroups {
   @ConfigurableField( description = "Minimum interval between broadcasts of network information (seconds)." )
   public static Integer       MIN_BROADCAST_INTERVAL = 5;
 
+  @ConfigurableField( description = "Maximum interval between full refreshes of cached network information (seconds)." )
+  public static Integer       NETWORK_CACHE_REFRESH_INTERVAL = 60;
+
+  @ConfigurableField( description = "Maximum interval between broadcasts of unchanged network information to a cluster (seconds)." )
+  public static Integer       MAX_BROADCAST_INTERVAL = 60;
+
+  @ConfigurableField( description = "Broadcast to each cluster only the network information relevant to that cluster." )
+  public static Boolean       BROADCAST_PARTITION_FILTER = Boolean.FALSE;
+
 
   public static class NetworkRangeConfiguration {
     private Boolean useNetworkTags  = Boolean.TRUE;
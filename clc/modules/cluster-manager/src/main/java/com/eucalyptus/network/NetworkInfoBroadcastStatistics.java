@@ -0,0 +1,115 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.util.Mbeans;
+
+/**
+ * Counters and timings for network information broadcasts.
+ */
+public class NetworkInfoBroadcastStatistics {
+  private static final AtomicLong broadcasts = new AtomicLong( );
+  private static final AtomicLong buildMillis = new AtomicLong( );
+  private static final AtomicLong lastBuildMillis = new AtomicLong( );
+  private static final AtomicLong marshalMillis = new AtomicLong( );
+  private static final AtomicLong lastMarshalMillis = new AtomicLong( );
+  private static final AtomicLong lastPayloadBytes = new AtomicLong( );
+  private static final AtomicLong sent = new AtomicLong( );
+  private static final AtomicLong sentBytes = new AtomicLong( );
+  private static final AtomicLong sendMillis = new AtomicLong( );
+  private static final AtomicLong lastSendMillis = new AtomicLong( );
+  private static final AtomicLong suppressed = new AtomicLong( );
+
+  static {
+    Mbeans.register( new BroadcastStatistics( ) );
+  }
+
+  /**
+   * JMX view of network information broadcasts.
+   */
+  public interface BroadcastStatisticsMXBean {
+    long getBroadcasts( );
+    long getBuildMillis( );
+    long getLastBuildMillis( );
+    long getMarshalMillis( );
+    long getLastMarshalMillis( );
+    long getLastPayloadBytes( );
+    long getSent( );
+    long getSentBytes( );
+    long getSendMillis( );
+    long getLastSendMillis( );
+    long getSuppressed( );
+  }
+
+  /**
+   * Record the build and marshalling of the network information.
+   */
+  static void built( final long build, final long marshal, final long payloadBytes ) {
+    broadcasts.incrementAndGet( );
+    buildMillis.addAndGet( build );
+    lastBuildMillis.set( build );
+    marshalMillis.addAndGet( marshal );
+    lastMarshalMillis.set( marshal );
+    lastPayloadBytes.set( payloadBytes );
+  }
+
+  /**
+   * Record a completed send to a cluster.
+   *
+   * @param millis Time from dispatch to response
+   * @param payloadBytes The size of the network information sent
+   */
+  static void sent( final long millis, final long payloadBytes ) {
+    sent.incrementAndGet( );
+    sentBytes.addAndGet( payloadBytes );
+    sendMillis.addAndGet( millis );
+    lastSendMillis.set( millis );
+  }
+
+  /**
+   * Record a send to a cluster skipped as the information is unchanged.
+   */
+  static void suppressed( ) {
+    suppressed.incrementAndGet( );
+  }
+
+  public static long getSuppressed( ) {
+    return suppressed.get( );
+  }
+
+  public static long getSent( ) {
+    return sent.get( );
+  }
+
+  private static class BroadcastStatistics implements BroadcastStatisticsMXBean {
+    @Override public long getBroadcasts( ) { return broadcasts.get( ); }
+    @Override public long getBuildMillis( ) { return buildMillis.get( ); }
+    @Override public long getLastBuildMillis( ) { return lastBuildMillis.get( ); }
+    @Override public long getMarshalMillis( ) { return marshalMillis.get( ); }
+    @Override public long getLastMarshalMillis( ) { return lastMarshalMillis.get( ); }
+    @Override public long getLastPayloadBytes( ) { return lastPayloadBytes.get( ); }
+    @Override public long getSent( ) { return sent.get( ); }
+    @Override public long getSentBytes( ) { return sentBytes.get( ); }
+    @Override public long getSendMillis( ) { return sendMillis.get( ); }
+    @Override public long getLastSendMillis( ) { return lastSendMillis.get( ); }
+    @Override public long getSuppressed( ) { return suppressed.get( ); }
+  }
+}
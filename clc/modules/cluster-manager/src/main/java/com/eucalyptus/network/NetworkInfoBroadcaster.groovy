@@ -69,6 +69,7 @@ import com.eucalyptus.network.config.NetworkConfigurations
 import com.eucalyptus.network.config.Subnet
 import com.eucalyptus.system.BaseDirectory
 import com.eucalyptus.system.Threads
+import com.eucalyptus.util.Callback
 import com.eucalyptus.util.Strings as EucaStrings
 import com.eucalyptus.util.TypeMapper
 import com.eucalyptus.util.TypeMappers
@@ -94,6 +95,7 @@ import com.google.common.collect.Lists
 import com.google.common.collect.Maps
 import com.google.common.collect.Multimap
 import com.google.common.collect.Sets
+import com.google.common.hash.Hashing
 import com.google.common.io.Files as GFiles
 import edu.ucsb.eucalyptus.cloud.NodeInfo
 import edu.ucsb.eucalyptus.msgs.BroadcastNetworkInfoResponseType
@@ -110,6 +112,9 @@ import java.util.concurrent.Callable
 import java.util.concurrent.ConcurrentMap
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+import java.util.regex.Matcher
+import java.util.regex.Pattern
 
 import static com.eucalyptus.vm.VmInstance.VmStateSet.TORNDOWN
 
@@ -122,16 +127,21 @@ class NetworkInfoBroadcaster {
 
   private static final AtomicLong lastBroadcastTime = new AtomicLong( 0L );
   private static final ConcurrentMap<String,Long> activeBroadcastMap = Maps.<String,Long>newConcurrentMap( ) as ConcurrentMap<String, Long>
-  private static final EntityCache<VmInstance,VmInstanceNetworkView> instanceCache = new EntityCache<>( VmInstance.named(null), TypeMappers.lookup( VmInstance, VmInstanceNetworkView )  );
-  private static final EntityCache<NetworkGroup,NetworkGroupNetworkView> securityGroupCache = new EntityCache<>( NetworkGroup.withNaturalId( null ), TypeMappers.lookup( NetworkGroup, NetworkGroupNetworkView )  );
-
-  private static final EntityCache<Vpc,VpcNetworkView> vpcCache = new EntityCache<>( Vpc.exampleWithOwner( null ), TypeMappers.lookup( Vpc, VpcNetworkView )  );
-  private static final EntityCache<VpcSubnet,SubnetNetworkView> subnetCache = new EntityCache<>( VpcSubnet.exampleWithOwner( null ), TypeMappers.lookup( VpcSubnet, SubnetNetworkView )  );
-  private static final EntityCache<DhcpOptionSet,DhcpOptionSetNetworkView> dhcpOptionsCache = new EntityCache<>( DhcpOptionSet.exampleWithOwner( null ), TypeMappers.lookup( DhcpOptionSet, DhcpOptionSetNetworkView )  );
-  private static final EntityCache<NetworkAcl,NetworkAclNetworkView> networkAclCache = new EntityCache<>( NetworkAcl.exampleWithOwner( null ), TypeMappers.lookup( NetworkAcl, NetworkAclNetworkView )  );
-  private static final EntityCache<RouteTable,RouteTableNetworkView> routeTableCache = new EntityCache<>( RouteTable.exampleWithOwner( null ), TypeMappers.lookup( RouteTable, RouteTableNetworkView )  );
-  private static final EntityCache<InternetGateway,InternetGatewayNetworkView> internetGatewayCache = new EntityCache<>( InternetGateway.exampleWithOwner( null ), TypeMappers.lookup( InternetGateway, InternetGatewayNetworkView )  );
-  private static final EntityCache<VpcNetworkInterface,NetworkInterfaceNetworkView> networkInterfaceCache = new EntityCache<>( VpcNetworkInterface.exampleWithOwner( null ), TypeMappers.lookup( VpcNetworkInterface, NetworkInterfaceNetworkView )  );
+  private static final ConcurrentMap<String,BroadcastFingerprint> lastBroadcastFingerprintMap = Maps.<String,BroadcastFingerprint>newConcurrentMap( ) as ConcurrentMap<String, BroadcastFingerprint>
+  private static final AtomicReference<String> lastViewFingerprint = new AtomicReference<>( )
+  private static final Supplier<JAXBContext> jaxbContext = Suppliers.memoize( { JAXBContext.newInstance( "com.eucalyptus.cluster" ) } as Supplier<JAXBContext> )
+  private static final Pattern RULE_GROUP_PATTERN = Pattern.compile( " -o (\\S+) " )
+  private static final Supplier<Long> cacheRefreshInterval = { TimeUnit.SECONDS.toMillis( NetworkGroups.NETWORK_CACHE_REFRESH_INTERVAL ) } as Supplier<Long>
+  private static final EntityCache<VmInstance,VmInstanceNetworkView> instanceCache = new EntityCache<>( VmInstance.named(null), TypeMappers.lookup( VmInstance, VmInstanceNetworkView ), cacheRefreshInterval );
+  private static final EntityCache<NetworkGroup,NetworkGroupNetworkView> securityGroupCache = new EntityCache<>( NetworkGroup.withNaturalId( null ), TypeMappers.lookup( NetworkGroup, NetworkGroupNetworkView ), cacheRefreshInterval );
+
+  private static final EntityCache<Vpc,VpcNetworkView> vpcCache = new EntityCache<>( Vpc.exampleWithOwner( null ), TypeMappers.lookup( Vpc, VpcNetworkView ), cacheRefreshInterval );
+  private static final EntityCache<VpcSubnet,SubnetNetworkView> subnetCache = new EntityCache<>( VpcSubnet.exampleWithOwner( null ), TypeMappers.lookup( VpcSubnet, SubnetNetworkView ), cacheRefreshInterval );
+  private static final EntityCache<DhcpOptionSet,DhcpOptionSetNetworkView> dhcpOptionsCache = new EntityCache<>( DhcpOptionSet.exampleWithOwner( null ), TypeMappers.lookup( DhcpOptionSet, DhcpOptionSetNetworkView ), cacheRefreshInterval );
+  private static final EntityCache<NetworkAcl,NetworkAclNetworkView> networkAclCache = new EntityCache<>( NetworkAcl.exampleWithOwner( null ), TypeMappers.lookup( NetworkAcl, NetworkAclNetworkView ), cacheRefreshInterval );
+  private static final EntityCache<RouteTable,RouteTableNetworkView> routeTableCache = new EntityCache<>( RouteTable.exampleWithOwner( null ), TypeMappers.lookup( RouteTable, RouteTableNetworkView ), cacheRefreshInterval );
+  private static final EntityCache<InternetGateway,InternetGatewayNetworkView> internetGatewayCache = new EntityCache<>( InternetGateway.exampleWithOwner( null ), TypeMappers.lookup( InternetGateway, InternetGatewayNetworkView ), cacheRefreshInterval );
+  private static final EntityCache<VpcNetworkInterface,NetworkInterfaceNetworkView> networkInterfaceCache = new EntityCache<>( VpcNetworkInterface.exampleWithOwner( null ), TypeMappers.lookup( VpcNetworkInterface, NetworkInterfaceNetworkView ), cacheRefreshInterval );
 
   interface NetworkInfoSource {
     Iterable<VmInstanceNetworkView> getInstances( );
@@ -190,6 +200,7 @@ class NetworkInfoBroadcaster {
 
   @SuppressWarnings("UnnecessaryQualifiedReference")
   static void broadcastNetworkInfo( ){
+    final long buildStart = System.currentTimeMillis( )
     // populate with info directly from configuration
     final Optional<NetworkConfiguration> networkConfiguration = NetworkConfigurations.networkConfiguration
     final List<Cluster> clusters = Clusters.getInstance( ).listValues( )
@@ -201,26 +212,45 @@ class NetworkInfoBroadcaster {
         { Topology.lookup(Eucalyptus).inetAddress.hostAddress } as Supplier<String>,
         NetworkConfigurations.&loadSystemNameservers as Function<List<String>,List<String>> )
 
-    final JAXBContext jc = JAXBContext.newInstance( "com.eucalyptus.cluster" )
-    final StringWriter writer = new StringWriter( 8192 )
-    jc.createMarshaller().marshal( info, writer )
-
-    final String networkInfo = writer.toString( )
+    final long marshalStart = System.currentTimeMillis( )
+    final String networkInfo = marshal( info )
+    final String fingerprint = fingerprint( networkInfo )
+    NetworkInfoBroadcastStatistics.built( marshalStart - buildStart, System.currentTimeMillis( ) - marshalStart, networkInfo.length( ) )
     if ( logger.isTraceEnabled( ) ) {
       logger.trace( "Broadcasting network information:\n${networkInfo}" )
     }
 
-    final File newView = BaseDirectory.RUN.getChildFile( "global_network_info.xml.temp" )
-    if ( !newView.delete( ) ) logger.warn( "Error deleting stale network view ${newView.getAbsolutePath()}" )
-    GFiles.write( networkInfo, newView, Charsets.UTF_8 )
-    JFiles.move( newView.toPath( ), BaseDirectory.RUN.getChildFile( "global_network_info.xml" ).toPath( ), StandardCopyOption.REPLACE_EXISTING )
+    if ( fingerprint != lastViewFingerprint.get( ) ) {
+      final File newView = BaseDirectory.RUN.getChildFile( "global_network_info.xml.temp" )
+      if ( !newView.delete( ) ) logger.warn( "Error deleting stale network view ${newView.getAbsolutePath()}" )
+      GFiles.write( networkInfo, newView, Charsets.UTF_8 )
+      JFiles.move( newView.toPath( ), BaseDirectory.RUN.getChildFile( "global_network_info.xml" ).toPath( ), StandardCopyOption.REPLACE_EXISTING )
+      lastViewFingerprint.set( fingerprint )
+    }
 
-    final BroadcastNetworkInfoCallback callback = new BroadcastNetworkInfoCallback( networkInfo )
     clusters.each { Cluster cluster ->
+      final String clusterNetworkInfo = NetworkGroups.BROADCAST_PARTITION_FILTER ?
+          marshal( filterForPartition( info, cluster.partition ) ) :
+          networkInfo
+      final String clusterFingerprint = NetworkGroups.BROADCAST_PARTITION_FILTER ?
+          fingerprint( clusterNetworkInfo ) :
+          fingerprint
       final Long broadcastTime = System.currentTimeMillis( )
-      if ( null == activeBroadcastMap.putIfAbsent( cluster.partition, broadcastTime ) ) {
+      final BroadcastFingerprint lastBroadcast = lastBroadcastFingerprintMap.get( cluster.partition )
+      if ( lastBroadcast != null &&
+          lastBroadcast.fingerprint == clusterFingerprint &&
+          lastBroadcast.timestamp + TimeUnit.SECONDS.toMillis( NetworkGroups.MAX_BROADCAST_INTERVAL ) > broadcastTime ) {
+        NetworkInfoBroadcastStatistics.suppressed( )
+        logger.debug( "Skipping unchanged network information broadcast for partition ${cluster.partition}" )
+      } else if ( null == activeBroadcastMap.putIfAbsent( cluster.partition, broadcastTime ) ) {
         try {
-          AsyncRequests.newRequest( callback.newInstance( ) ).then( new UnconditionalCallback<BroadcastNetworkInfoResponseType>() {
+          AsyncRequests.newRequest( new BroadcastNetworkInfoCallback( clusterNetworkInfo ) ).then( new Callback.Success<BroadcastNetworkInfoResponseType>() {
+            @Override
+            void fire( final BroadcastNetworkInfoResponseType response ) {
+              lastBroadcastFingerprintMap.put( cluster.partition, new BroadcastFingerprint( clusterFingerprint, broadcastTime ) )
+              NetworkInfoBroadcastStatistics.sent( System.currentTimeMillis( ) - broadcastTime, clusterNetworkInfo.length( ) )
+            }
+          } ).then( new UnconditionalCallback<BroadcastNetworkInfoResponseType>() {
             @Override
             void fire() {
               activeBroadcastMap.remove( cluster.partition, broadcastTime )
@@ -237,6 +267,70 @@ class NetworkInfoBroadcaster {
     }
   }
 
+  @PackageScope
+  static String marshal( final NetworkInfo info ) {
+    final StringWriter writer = new StringWriter( 8192 )
+    jaxbContext.get( ).createMarshaller( ).marshal( info, writer )
+    writer.toString( )
+  }
+
+  @PackageScope
+  static String fingerprint( final String networkInfo ) {
+    Hashing.sha1( ).hashBytes( networkInfo.getBytes( Charsets.UTF_8 ) ).toString( )
+  }
+
+  /**
+   * Filter the network information to that needed by the given partition.
+   *
+   * The view contains the partition's cluster, its instances and their
+   * security groups, plus any instances (from any partition) that are members
+   * of groups referenced by those security groups rules.
+   */
+  @PackageScope
+  static NetworkInfo filterForPartition( final NetworkInfo info, final String partition ) {
+    final NICluster cluster = info.configuration.clusters?.clusters?.find{ NICluster cluster -> cluster.name == partition }
+    final Set<String> partitionInstanceIds = Sets.newHashSet( )
+    cluster?.nodes?.nodes?.each{ NINode node -> if ( node.instanceIds ) partitionInstanceIds.addAll( node.instanceIds ) }
+    final Set<String> partitionGroupIds = Sets.newHashSet( )
+    info.instances.each{ NIInstance instance ->
+      if ( partitionInstanceIds.contains( instance.name ) && instance.securityGroups ) {
+        partitionGroupIds.addAll( instance.securityGroups )
+      }
+    }
+    final Set<String> referencedGroupIds = Sets.newHashSet( )
+    info.securityGroups.each{ NISecurityGroup group ->
+      if ( partitionGroupIds.contains( group.name ) ) {
+        ( group.ingressRules + group.egressRules ).each{ NISecurityGroupIpPermission permission ->
+          if ( permission.groupId ) referencedGroupIds.add( permission.groupId )
+        }
+        group.rules.each{ String rule ->
+          final Matcher matcher = RULE_GROUP_PATTERN.matcher( rule )
+          if ( matcher.find( ) ) referencedGroupIds.add( matcher.group( 1 ) )
+        }
+      }
+    }
+    new NetworkInfo(
+        configuration: new NIConfiguration(
+            properties: info.configuration.properties,
+            subnets: info.configuration.subnets,
+            clusters: info.configuration.clusters ? new NIClusters(
+                name: info.configuration.clusters.name,
+                clusters: ( cluster ? [ cluster ] : [ ] ) as List<NICluster>
+            ) : null
+        ),
+        vpcs: info.vpcs,
+        instances: info.instances.findAll{ NIInstance instance ->
+          partitionInstanceIds.contains( instance.name ) ||
+              instance.securityGroups?.any{ String groupId -> referencedGroupIds.contains( groupId ) }
+        } as List<NIInstance>,
+        dhcpOptionSets: info.dhcpOptionSets,
+        internetGateways: info.internetGateways,
+        securityGroups: info.securityGroups.findAll{ NISecurityGroup group ->
+          partitionGroupIds.contains( group.name ) || referencedGroupIds.contains( group.name )
+        } as List<NISecurityGroup>
+    )
+  }
+
   @PackageScope
   static NetworkInfo buildNetworkConfiguration( final Optional<NetworkConfiguration> configuration,
                                                 final NetworkInfoSource networkInfoSource,
@@ -546,6 +640,12 @@ class NetworkInfoBroadcaster {
     }
   }
 
+  @Immutable
+  static class BroadcastFingerprint {
+    String fingerprint
+    long timestamp
+  }
+
   @Immutable
   static class VmInstanceNetworkView {
     String instanceId
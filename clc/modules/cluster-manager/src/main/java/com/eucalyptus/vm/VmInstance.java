@@ -98,6 +98,9 @@ import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.PrePersist;
 import javax.persistence.PreRemove;
 import javax.persistence.PreUpdate;
@@ -302,6 +305,22 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
     VmInstanceLifecycleHelpers.get( ).cleanUpInstance( this, VmState.BURIED );
   }
 
+  /**
+   * Update the address index and usage ledger, applied on commit.
+   */
+  @PostPersist
+  @PostUpdate
+  private void updateIndexes( ) {
+    VmInstanceAddressIndex.updated( this );
+    VmInstances.usageUpdated( this );
+  }
+
+  @PostRemove
+  private void removeFromIndexes( ) {
+    VmInstanceAddressIndex.removed( this );
+    VmInstances.usageRemoved( this );
+  }
+
   public enum Filters implements Predicate<VmInstance> {
     BUNDLING {
       
@@ -0,0 +1,308 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.vm;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.log4j.Level;
+import org.hibernate.criterion.Projections;
+import com.eucalyptus.component.Topology;
+import com.eucalyptus.component.id.Eucalyptus;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.entities.ReconciledIndex;
+import com.eucalyptus.entities.TransactionResource;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.vm.VmInstance.VmState;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * In-memory index of the addresses of pending and running instances.
+ *
+ * The index is loaded from the database on first use and then maintained
+ * from instance entity updates after commit. The index is periodically
+ * checked against the database and any differences are repaired.
+ *
+ * Reads do not lock, updates, loading and checks are serialized.
+ */
+public class VmInstanceAddressIndex extends ReconciledIndex<VmInstanceAddressIndex.InstanceAddresses> {
+  private static final VmInstanceAddressIndex index = new VmInstanceAddressIndex( );
+
+  private final ConcurrentMap<String,InstanceAddresses> byInstanceId = Maps.newConcurrentMap( );
+  private final ConcurrentMap<String,InstanceAddresses> byPublicIp = Maps.newConcurrentMap( );
+  private final ConcurrentMap<String,InstanceAddresses> byPrivateIp = Maps.newConcurrentMap( );
+
+  VmInstanceAddressIndex( ) {
+    super( "instance address index" );
+  }
+
+  public static VmInstanceAddressIndex get( ) {
+    return index;
+  }
+
+  /**
+   * Entity callback for an inserted or updated instance, the index is
+   * updated when the transaction commits.
+   */
+  static void updated( final VmInstance vm ) {
+    final VmState state = vm.getState( );
+    if ( VmState.PENDING == state || VmState.RUNNING == state ) {
+      final InstanceAddresses addresses = InstanceAddresses.of( vm );
+      afterCommit( VmInstance.class, new Runnable( ) {
+        @Override
+        public void run( ) {
+          index.update( addresses );
+        }
+      } );
+    } else {
+      removed( vm );
+    }
+  }
+
+  /**
+   * Entity callback for a deleted instance, the index is updated when the
+   * transaction commits.
+   */
+  static void removed( final VmInstance vm ) {
+    final String instanceId = vm.getDisplayName( );
+    afterCommit( VmInstance.class, new Runnable( ) {
+      @Override
+      public void run( ) {
+        index.remove( instanceId );
+      }
+    } );
+  }
+
+  public InstanceAddresses lookupByPublicIp( final String ip ) {
+    load( Database.INSTANCE );
+    return byPublicIp.get( ip );
+  }
+
+  public InstanceAddresses lookupByPrivateIp( final String ip ) {
+    load( Database.INSTANCE );
+    return byPrivateIp.get( ip );
+  }
+
+  public int size( ) {
+    return byInstanceId.size( );
+  }
+
+  /**
+   * Check the index against the given (current) addresses and repair any
+   * differences.
+   *
+   * @return The number of instances repaired
+   */
+  int check( final Supplier<? extends Iterable<InstanceAddresses>> loader ) {
+    return reconcile( loader );
+  }
+
+  @Override
+  protected String keyOf( final InstanceAddresses addresses ) {
+    return addresses.getInstanceId( );
+  }
+
+  @Override
+  protected InstanceAddresses get( final String instanceId ) {
+    return byInstanceId.get( instanceId );
+  }
+
+  @Override
+  protected Iterable<String> keys( ) {
+    return byInstanceId.keySet( );
+  }
+
+  @Override
+  protected Level getRepairLogLevel( ) {
+    return Level.WARN;
+  }
+
+  @Override
+  protected void put( final InstanceAddresses addresses ) {
+    delete( addresses.getInstanceId( ) );
+    byInstanceId.put( addresses.getInstanceId( ), addresses );
+    if ( addresses.getPublicAddress( ) != null ) {
+      byPublicIp.put( addresses.getPublicAddress( ), addresses );
+    }
+    if ( addresses.getPrivateAddress( ) != null ) {
+      byPrivateIp.put( addresses.getPrivateAddress( ), addresses );
+    }
+  }
+
+  @Override
+  protected void delete( final String instanceId ) {
+    final InstanceAddresses existing = byInstanceId.remove( instanceId );
+    if ( existing != null ) {
+      if ( existing.getPublicAddress( ) != null ) {
+        byPublicIp.remove( existing.getPublicAddress( ), existing );
+      }
+      if ( existing.getPrivateAddress( ) != null ) {
+        byPrivateIp.remove( existing.getPrivateAddress( ), existing );
+      }
+    }
+  }
+
+  @Override
+  protected void clear( ) {
+    byInstanceId.clear( );
+    byPublicIp.clear( );
+    byPrivateIp.clear( );
+  }
+
+  /**
+   * Addresses and DNS names for an instance, unassigned addresses are null.
+   */
+  public static final class InstanceAddresses {
+    private final String instanceId;
+    private final String privateAddress;
+    private final String publicAddress;
+    private final String privateDnsName;
+    private final String publicDnsName;
+
+    InstanceAddresses( final String instanceId,
+                       final String privateAddress,
+                       final String publicAddress,
+                       final String privateDnsName,
+                       final String publicDnsName ) {
+      this.instanceId = instanceId;
+      this.privateAddress = addressOrNull( privateAddress );
+      this.publicAddress = addressOrNull( publicAddress );
+      this.privateDnsName = Strings.emptyToNull( privateDnsName );
+      this.publicDnsName = Strings.emptyToNull( publicDnsName );
+    }
+
+    static InstanceAddresses of( final VmInstance vm ) {
+      return new InstanceAddresses(
+          vm.getDisplayName( ),
+          vm.getPrivateAddress( ),
+          vm.getPublicAddress( ),
+          vm.getPrivateDnsName( ),
+          vm.getPublicDnsName( ) );
+    }
+
+    private static String addressOrNull( final String address ) {
+      return VmNetworkConfig.DEFAULT_IP.equals( address ) ? null : Strings.emptyToNull( address );
+    }
+
+    public String getInstanceId( ) {
+      return instanceId;
+    }
+
+    public String getPrivateAddress( ) {
+      return privateAddress;
+    }
+
+    public String getPublicAddress( ) {
+      return publicAddress;
+    }
+
+    public String getPrivateDnsName( ) {
+      return privateDnsName;
+    }
+
+    public String getPublicDnsName( ) {
+      return publicDnsName;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass( ) != o.getClass( ) ) return false;
+      final InstanceAddresses that = (InstanceAddresses) o;
+      return instanceId.equals( that.instanceId ) &&
+          Objects.equal( privateAddress, that.privateAddress ) &&
+          Objects.equal( publicAddress, that.publicAddress ) &&
+          Objects.equal( privateDnsName, that.privateDnsName ) &&
+          Objects.equal( publicDnsName, that.publicDnsName );
+    }
+
+    @Override
+    public int hashCode( ) {
+      return Objects.hashCode( instanceId, privateAddress, publicAddress, privateDnsName, publicDnsName );
+    }
+
+    @Override
+    public String toString( ) {
+      return Objects.toStringHelper( this )
+          .add( "instanceId", instanceId )
+          .add( "privateAddress", privateAddress )
+          .add( "publicAddress", publicAddress )
+          .toString( );
+    }
+  }
+
+  /**
+   * Addresses for pending and running instances from the database.
+   */
+  private enum Database implements Supplier<List<InstanceAddresses>> {
+    INSTANCE;
+
+    @SuppressWarnings( "unchecked" )
+    @Override
+    public List<InstanceAddresses> get( ) {
+      try ( final TransactionResource db = Entities.transactionFor( VmInstance.class ) ) {
+        final List<Object[]> rows = (List<Object[]>) Entities.createCriteria( VmInstance.class )
+            .add( VmInstances.criterion( VmState.PENDING, VmState.RUNNING ) )
+            .setProjection( Projections.projectionList( )
+                .add( Projections.property( "displayName" ) )
+                .add( Projections.property( "networkConfig.privateAddress" ) )
+                .add( Projections.property( "networkConfig.publicAddress" ) )
+                .add( Projections.property( "networkConfig.privateDnsName" ) )
+                .add( Projections.property( "networkConfig.publicDnsName" ) ) )
+            .setReadOnly( true )
+            .list( );
+        final List<InstanceAddresses> addresses = Lists.newArrayListWithCapacity( rows.size( ) );
+        for ( final Object[] row : rows ) {
+          addresses.add( new InstanceAddresses(
+              (String) row[0], (String) row[1], (String) row[2], (String) row[3], (String) row[4] ) );
+        }
+        return addresses;
+      }
+    }
+  }
+
+  public static class AddressIndexCheckEventListener extends ReconcileEventListener {
+
+    public static void register( ) {
+      Listeners.register( ClockTick.class, new AddressIndexCheckEventListener( ) );
+    }
+
+    @Override
+    protected boolean isReconcileEnabled( ) {
+      return super.isReconcileEnabled( ) &&
+          Topology.isEnabledLocally( Eucalyptus.class ) &&
+          index.isLoaded( );
+    }
+
+    @Override
+    protected long getInterval( ) {
+      return VmInstances.VM_ADDRESS_INDEX_CHECK_INTERVAL * 1000L;
+    }
+
+    @Override
+    protected void reconcile( ) {
+      reconcileAndLog( index, Database.INSTANCE );
+    }
+  }
+}
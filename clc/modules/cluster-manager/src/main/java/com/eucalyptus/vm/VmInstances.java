@@ -91,12 +91,14 @@ import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Example;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.xbill.DNS.Name;
 
 import com.eucalyptus.address.Address;
 import com.eucalyptus.address.Addresses;
 import com.eucalyptus.address.AddressingDispatcher;
+import com.eucalyptus.auth.policy.key.QuotaUsageLedger;
 import com.eucalyptus.blockstorage.State;
 import com.eucalyptus.blockstorage.Storage;
 import com.eucalyptus.blockstorage.Volume;
@@ -122,8 +124,10 @@ import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.configurable.ConfigurableProperty;
 import com.eucalyptus.configurable.ConfigurablePropertyException;
 import com.eucalyptus.configurable.PropertyChangeListener;
+import com.eucalyptus.configurable.PropertyChangeListeners;
 import com.eucalyptus.crypto.util.B64;
 import com.eucalyptus.entities.Entities;
+import com.eucalyptus.entities.ReconciledIndex;
 import com.eucalyptus.entities.TransactionException;
 import com.eucalyptus.entities.TransactionResource;
 import com.eucalyptus.event.ClockTick;
@@ -417,6 +421,20 @@ public class VmInstances {
       changeListener = CacheSpecListener.class )
   public static volatile String VM_METADATA_REQUEST_CACHE     = "maximumSize=250, expireAfterWrite=1s";
 
+  @ConfigurableField( description = "Interval (in seconds) between checks of the instance address index against the database.",
+      initial = "60",
+      changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+  public static volatile Integer VM_ADDRESS_INDEX_CHECK_INTERVAL = 60;
+
+  @ConfigurableField( description = "Reconcile reported instance state in batches, updating only instances with changed state.",
+      initial = "true" )
+  public static volatile Boolean VM_STATE_BATCH_RECONCILE = Boolean.TRUE;
+
+  @ConfigurableField( description = "Maximum number of instances updated per transaction when reconciling reported instance state.",
+      initial = "100",
+      changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+  public static volatile Integer VM_STATE_RECONCILE_BATCH_SIZE = 100;
+
   public static class CacheSpecListener implements PropertyChangeListener {
     @Override
     public void fireChange( final ConfigurableProperty t, final Object newValue ) throws ConfigurablePropertyException {
@@ -448,6 +466,9 @@ public class VmInstances {
     
     @Override
     public Long apply( final OwnerFullName input ) {
+      if ( QuotaUsageLedger.isEnabled( ) ) {
+        return instanceUsage.usage( input );
+      }
       final EntityTransaction db = Entities.get( VmInstance.class );
       final long i;
       try {
@@ -461,6 +482,61 @@ public class VmInstances {
       return i;
     }
   }
+
+  private static final QuotaUsageLedger instanceUsage =
+      QuotaUsageLedger.create( "instance", InstanceUsageSupplier.INSTANCE );
+
+  /**
+   * Update the instance quota usage ledger following a change to an
+   * instance, applied when the transaction commits.
+   */
+  static void usageUpdated( final VmInstance vm ) {
+    final QuotaUsageLedger.Usage usage = new QuotaUsageLedger.Usage(
+        vm.getDisplayName( ),
+        vm.getOwnerAccountNumber( ),
+        vm.getOwnerUserId( ),
+        VmStateSet.DONE.contains( vm.getState( ) ) ? 0 : 1 );
+    ReconciledIndex.afterCommit( VmInstance.class, new Runnable( ) {
+      @Override
+      public void run( ) {
+        instanceUsage.update( usage );
+      }
+    } );
+  }
+
+  static void usageRemoved( final VmInstance vm ) {
+    final String instanceId = vm.getDisplayName( );
+    ReconciledIndex.afterCommit( VmInstance.class, new Runnable( ) {
+      @Override
+      public void run( ) {
+        instanceUsage.remove( instanceId );
+      }
+    } );
+  }
+
+  private enum InstanceUsageSupplier implements Supplier<List<QuotaUsageLedger.Usage>> {
+    INSTANCE;
+
+    @SuppressWarnings( "unchecked" )
+    @Override
+    public List<QuotaUsageLedger.Usage> get( ) {
+      try ( final TransactionResource db = Entities.transactionFor( VmInstance.class ) ) {
+        final List<Object[]> rows = (List<Object[]>) Entities.createCriteria( VmInstance.class )
+            .add( Restrictions.not( criterion( VmStateSet.DONE.array( ) ) ) )
+            .setProjection( Projections.projectionList( )
+                .add( Projections.property( "displayName" ) )
+                .add( Projections.property( "ownerAccountNumber" ) )
+                .add( Projections.property( "ownerUserId" ) ) )
+            .setReadOnly( true )
+            .list( );
+        final List<QuotaUsageLedger.Usage> usage = Lists.newArrayListWithCapacity( rows.size( ) );
+        for ( final Object[] row : rows ) {
+          usage.add( new QuotaUsageLedger.Usage( (String) row[0], (String) row[1], (String) row[2], 1 ) );
+        }
+        return usage;
+      }
+    }
+  }
   
   public static String getId( final Long rsvId, final int launchIndex ) {
     String vmId;
@@ -488,19 +564,65 @@ public class VmInstances {
     }
   }
 
+  /**
+   * Check if a private ip is in use by a pending or running instance.
+   *
+   * <p>This uses the instance address index and does not access the
+   * database.</p>
+   */
   public static boolean privateIpInUse( final String ip ) {
-    try ( final TransactionResource tx = Entities.transactionFor( VmInstance.class ) ) {
-      VmInstance vmExample = VmInstance.exampleWithPrivateIp( ip );
-      return Entities.count(
-          vmExample,
-          Restrictions.in( "state", new VmState[] { VmState.RUNNING, VmState.PENDING } ),
-          Collections.<String,String>emptyMap( ) ) > 0;
+    try {
+      return VmInstanceAddressIndex.get( ).lookupByPrivateIp( ip ) != null;
     } catch ( Exception ex ) {
       LOG.error( ex, ex );
       return false;
     }
   }
 
+  /**
+   * Check if a public ip is in use by a pending or running instance.
+   *
+   * @see #privateIpInUse(String)
+   */
+  public static boolean publicIpInUse( final String ip ) {
+    try {
+      return VmInstanceAddressIndex.get( ).lookupByPublicIp( ip ) != null;
+    } catch ( Exception ex ) {
+      LOG.error( ex, ex );
+      return false;
+    }
+  }
+
+  /**
+   * Lookup the addresses of the pending or running instance using a private ip.
+   *
+   * <p>This uses the instance address index and does not access the
+   * database.</p>
+   */
+  public static VmInstanceAddressIndex.InstanceAddresses lookupAddressesByPrivateIp( final String ip ) throws NoSuchElementException {
+    return lookupAddresses( "private", ip, VmInstanceAddressIndex.get( ).lookupByPrivateIp( ip ) );
+  }
+
+  /**
+   * Lookup the addresses of the pending or running instance using a public ip.
+   *
+   * @see #lookupAddressesByPrivateIp(String)
+   */
+  public static VmInstanceAddressIndex.InstanceAddresses lookupAddressesByPublicIp( final String ip ) throws NoSuchElementException {
+    return lookupAddresses( "public", ip, VmInstanceAddressIndex.get( ).lookupByPublicIp( ip ) );
+  }
+
+  private static VmInstanceAddressIndex.InstanceAddresses lookupAddresses(
+      final String type,
+      final String ip,
+      final VmInstanceAddressIndex.InstanceAddresses addresses
+  ) throws NoSuchElementException {
+    if ( addresses == null ) {
+      throw new NoSuchElementException( "VmInstance with " + type + " ip: " + ip );
+    }
+    return addresses;
+  }
+
   public static VmVolumeAttachment lookupVolumeAttachment( final String volumeId ) {
     VmVolumeAttachment ret = null;
     try ( TransactionResource db = Entities.transactionFor( VmInstance.class ) ) {
@@ -85,7 +85,7 @@ import com.eucalyptus.util.dns.DnsResolvers.DnsResolver;
 import com.eucalyptus.util.dns.DnsResolvers.DnsResponse;
 import com.eucalyptus.util.dns.DnsResolvers.RequestType;
 import com.eucalyptus.util.dns.DomainNameRecords;
-import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceAddressIndex.InstanceAddresses;
 import com.eucalyptus.vm.VmInstances;
 import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
@@ -121,23 +121,20 @@ public abstract class SplitHorizonResolver implements DnsResolver {
         return false;
       } else if ( Addresses.getInstance( ).contains( input.getHostAddress( ) ) ) {
         return true;
+      } else if ( VmInstances.publicIpInUse( input.getHostAddress( ) ) ) {
+        return true;
       } else {
-        try {
-          VmInstances.lookupByPublicIp( input.getHostAddress( ) );
-          return true;
-        } catch ( NoSuchElementException ex1 ) {
-          for ( final ServiceConfiguration clusterService : ServiceConfigurations.list( ClusterController.class ) ) {
-            final ClusterConfiguration cluster = ( ClusterConfiguration ) clusterService;
-            try {
-              if ( Subnets.internalPredicate( cluster.getVnetSubnet( ), cluster.getVnetNetmask( ) ).apply( input ) ) {
-                return true;
-              }
-            } catch ( final UnknownHostException ex ) {
-              LOG.trace( ex );
+        for ( final ServiceConfiguration clusterService : ServiceConfigurations.list( ClusterController.class ) ) {
+          final ClusterConfiguration cluster = ( ClusterConfiguration ) clusterService;
+          try {
+            if ( Subnets.internalPredicate( cluster.getVnetSubnet( ), cluster.getVnetNetmask( ) ).apply( input ) ) {
+              return true;
             }
+          } catch ( final UnknownHostException ex ) {
+            LOG.trace( ex );
           }
-          return false;
         }
+        return false;
       }
     }
     
@@ -164,7 +161,7 @@ public abstract class SplitHorizonResolver implements DnsResolver {
       if ( InstanceDomainNames.isInstance( ip ) ) {
         final String hostAddress = ip.getHostAddress( );
         if ( Addresses.getInstance( ).contains( hostAddress ) ) {
-          VmInstances.lookupByPublicIp( hostAddress );//existence check
+          VmInstances.lookupAddressesByPublicIp( hostAddress );//existence check
           final Name dnsName = InstanceDomainNames.fromInetAddress( InstanceDomainNames.EXTERNAL, ip );
           return DnsResponse.forName( query.getName( ) ).answer( DomainNameRecords.ptrRecord( dnsName, ip ) );
         } else if ( VmInstances.privateIpInUse( hostAddress ) ) {
@@ -230,7 +227,7 @@ public abstract class SplitHorizonResolver implements DnsResolver {
           final Name name = query.getName( );
           final InetAddress requestIp = InstanceDomainNames.toInetAddress( name.relativize( InstanceDomainNames.EXTERNAL.get( ) ) );
           //GRZE: here it is not necessary to lookup the instance -- they public address assignment must have the needed information
-          final VmInstance vm = VmInstances.lookupByPublicIp( requestIp.getHostAddress( ) );
+          final InstanceAddresses vm = VmInstances.lookupAddressesByPublicIp( requestIp.getHostAddress( ) );
           final InetAddress instanceAddress = InetAddresses.forString( vm.getPrivateAddress( ) );
           final Record instanceARecord = DomainNameRecords.addressRecord( name, instanceAddress );
           return DnsResponse.forName( name ).answer( instanceARecord );
@@ -262,7 +259,7 @@ public abstract class SplitHorizonResolver implements DnsResolver {
         try {
           final Name name = query.getName( );
           final InetAddress requestIp = InstanceDomainNames.toInetAddress( name.relativize( InstanceDomainNames.EXTERNAL.get( ) ) );
-          VmInstances.lookupByPublicIp( requestIp.getHostAddress( ) ); // Ensure used by instance
+          VmInstances.lookupAddressesByPublicIp( requestIp.getHostAddress( ) ); // Ensure used by instance
           final Record instanceARecord = DomainNameRecords.addressRecord( name, requestIp );
           return DnsResponse.forName( name ).answer( instanceARecord );
         } catch ( Exception ex ) {
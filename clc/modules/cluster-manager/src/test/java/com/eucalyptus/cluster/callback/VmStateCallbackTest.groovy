@@ -0,0 +1,67 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cluster.callback
+
+import static org.junit.Assert.*
+import org.junit.Test
+import edu.ucsb.eucalyptus.cloud.VmInfo
+import edu.ucsb.eucalyptus.msgs.AttachedVolume
+import edu.ucsb.eucalyptus.msgs.NetworkConfigType
+
+/**
+ *
+ */
+class VmStateCallbackTest {
+
+  @Test
+  void testFingerprintStable( ) {
+    assertEquals( VmStateCallback.fingerprint( 1, vmInfo( ) ), VmStateCallback.fingerprint( 1, vmInfo( ) ) )
+  }
+
+  @Test
+  void testFingerprintChanges( ) {
+    String fingerprint = VmStateCallback.fingerprint( 1, vmInfo( ) )
+    assertFalse( fingerprint == VmStateCallback.fingerprint( 2, vmInfo( ) ) )
+    assertFalse( fingerprint == VmStateCallback.fingerprint( 1, vmInfo( stateName: 'Teardown' ) ) )
+    assertFalse( fingerprint == VmStateCallback.fingerprint( 1, vmInfo( guestStateName: 'poweredOff' ) ) )
+    assertFalse( fingerprint == VmStateCallback.fingerprint( 1, vmInfo( bundleTaskStateName: 'bundling' ) ) )
+
+    VmInfo withAddress = vmInfo( )
+    withAddress.netParams.ignoredPublicIp = '1.1.1.1'
+    assertFalse( fingerprint == VmStateCallback.fingerprint( 1, withAddress ) )
+
+    VmInfo withVolume = vmInfo( )
+    withVolume.volumes.add( new AttachedVolume( volumeId: 'vol-00000001', device: '/dev/sdf', status: 'attached' ) )
+    assertFalse( fingerprint == VmStateCallback.fingerprint( 1, withVolume ) )
+  }
+
+  private static VmInfo vmInfo( Map<String,String> properties = [:] ) {
+    VmInfo info = new VmInfo(
+        instanceId: 'i-00000001',
+        stateName: 'Extant',
+        serviceTag: 'http://10.0.0.1:8775/axis2/services/EucalyptusNC',
+        guestStateName: 'poweredOn',
+        bundleTaskStateName: 'none',
+        netParams: new NetworkConfigType( macAddress: 'd0:0d:00:00:00:01', ipAddress: '10.0.0.1', ignoredPublicIp: '0.0.0.0' )
+    )
+    properties.each{ String name, String value -> info[name] = value }
+    info
+  }
+}
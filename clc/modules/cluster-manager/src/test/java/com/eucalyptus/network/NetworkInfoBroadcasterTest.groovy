@@ -28,6 +28,8 @@ import com.eucalyptus.cluster.NIInstance
 import com.eucalyptus.cluster.NINode
 import com.eucalyptus.cluster.NINodes
 import com.eucalyptus.cluster.NIProperty
+import com.eucalyptus.cluster.NISecurityGroup
+import com.eucalyptus.cluster.NISecurityGroupIpPermission
 import com.eucalyptus.cluster.NISubnet
 import com.eucalyptus.cluster.NISubnets
 import com.eucalyptus.cluster.NetworkInfo
@@ -286,6 +288,67 @@ class NetworkInfoBroadcasterTest {
     ), info )
   }
 
+  @Test
+  void testPartitionFilter( ) {
+    NetworkInfo info = new NetworkInfo(
+        configuration: new NIConfiguration(
+            properties: [ new NIProperty( name: 'enabledCLCIp', values: ['1.1.1.1'] ) ],
+            clusters: new NIClusters( name: 'clusters', clusters: [
+                new NICluster( name: 'cluster1', nodes: new NINodes( name: 'nodes', nodes: [
+                    new NINode( name: 'node1', instanceIds: [ 'i-00000001' ] )
+                ] ) ),
+                new NICluster( name: 'cluster2', nodes: new NINodes( name: 'nodes', nodes: [
+                    new NINode( name: 'node2', instanceIds: [ 'i-00000002', 'i-00000003', 'i-00000004' ] )
+                ] ) ),
+            ] )
+        ),
+        instances: [
+            new NIInstance( name: 'i-00000001', securityGroups: [ 'sg-00000001' ] ),
+            new NIInstance( name: 'i-00000002', securityGroups: [ 'sg-00000002' ] ),
+            new NIInstance( name: 'i-00000003', securityGroups: [ 'sg-00000003' ] ),
+            new NIInstance( name: 'i-00000004', securityGroups: [ 'sg-00000004' ] ),
+        ],
+        securityGroups: [
+            new NISecurityGroup( name: 'sg-00000001',
+                rules: [ '-P tcp -p 22-22  -o sg-00000003 -u 000000000002' ],
+                ingressRules: [ new NISecurityGroupIpPermission( protocol: 6, fromPort: 80, toPort: 80, groupId: 'sg-00000002' ) ] ),
+            new NISecurityGroup( name: 'sg-00000002' ),
+            new NISecurityGroup( name: 'sg-00000003' ),
+            new NISecurityGroup( name: 'sg-00000004' ),
+        ]
+    )
+
+    NetworkInfo cluster1 = NetworkInfoBroadcaster.filterForPartition( info, 'cluster1' )
+    assertEquals( 'clusters', [ 'cluster1' ], cluster1.configuration.clusters.clusters*.name )
+    assertEquals( 'properties', info.configuration.properties, cluster1.configuration.properties )
+    assertEquals( 'instances', [ 'i-00000001', 'i-00000002', 'i-00000003' ], cluster1.instances*.name )
+    assertEquals( 'groups', [ 'sg-00000001', 'sg-00000002', 'sg-00000003' ], cluster1.securityGroups*.name )
+
+    NetworkInfo cluster2 = NetworkInfoBroadcaster.filterForPartition( info, 'cluster2' )
+    assertEquals( 'clusters', [ 'cluster2' ], cluster2.configuration.clusters.clusters*.name )
+    assertEquals( 'instances', [ 'i-00000002', 'i-00000003', 'i-00000004' ], cluster2.instances*.name )
+    assertEquals( 'groups', [ 'sg-00000002', 'sg-00000003', 'sg-00000004' ], cluster2.securityGroups*.name )
+
+    NetworkInfo unknown = NetworkInfoBroadcaster.filterForPartition( info, 'cluster3' )
+    assertEquals( 'clusters', [ ], unknown.configuration.clusters.clusters )
+    assertEquals( 'instances', [ ], unknown.instances )
+  }
+
+  @Test
+  void testFingerprint( ) {
+    NetworkInfo info = new NetworkInfo(
+        configuration: new NIConfiguration(
+            properties: [ new NIProperty( name: 'enabledCLCIp', values: ['1.1.1.1'] ) ]
+        ),
+        instances: [ new NIInstance( name: 'i-00000001', privateIp: '10.0.0.1' ) ]
+    )
+    String fingerprint = NetworkInfoBroadcaster.fingerprint( NetworkInfoBroadcaster.marshal( info ) )
+    assertEquals( 'unchanged', fingerprint, NetworkInfoBroadcaster.fingerprint( NetworkInfoBroadcaster.marshal( info ) ) )
+
+    info.instances[0].privateIp = '10.0.0.2'
+    assertFalse( 'changed', fingerprint == NetworkInfoBroadcaster.fingerprint( NetworkInfoBroadcaster.marshal( info ) ) )
+  }
+
   private static Cluster cluster( String partition, String host, List<String> nodes = [ ] ) {
     Cluster cluster = new Cluster( new ClusterConfiguration( partition: partition, hostName: host ), (Void) null ){ }
     nodes.each{ String node -> cluster.nodeMap.put( node, new NodeInfo( name: node ) ) }
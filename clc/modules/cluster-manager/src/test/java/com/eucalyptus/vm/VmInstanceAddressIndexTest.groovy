@@ -0,0 +1,141 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.vm
+
+import com.google.common.base.Supplier
+import static org.junit.Assert.*
+import org.junit.Test
+
+/**
+ *
+ */
+class VmInstanceAddressIndexTest {
+
+  @Test
+  void testLookup( ) {
+    VmInstanceAddressIndex index = loaded( addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ) )
+
+    assertEquals( 'i-00000001', index.lookupByPublicIp( '1.1.1.1' )?.instanceId )
+    assertEquals( 'i-00000001', index.lookupByPrivateIp( '10.0.0.1' )?.instanceId )
+    assertNull( index.lookupByPublicIp( '10.0.0.1' ) )
+    assertNull( index.lookupByPrivateIp( '1.1.1.1' ) )
+  }
+
+  @Test
+  void testUnassignedAddresses( ) {
+    VmInstanceAddressIndex index = loaded( addresses( 'i-00000001', '10.0.0.1', '0.0.0.0' ) )
+
+    assertNull( index.lookupByPublicIp( '0.0.0.0' ) )
+    assertEquals( 1, index.size( ) )
+  }
+
+  @Test
+  void testUpdate( ) {
+    VmInstanceAddressIndex index = loaded( addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ) )
+
+    index.update( addresses( 'i-00000001', '10.0.0.1', '2.2.2.2' ) )
+    assertNull( index.lookupByPublicIp( '1.1.1.1' ) )
+    assertEquals( 'i-00000001', index.lookupByPublicIp( '2.2.2.2' )?.instanceId )
+
+    index.update( addresses( 'i-00000002', '10.0.0.2', '1.1.1.1' ) )
+    assertEquals( 'i-00000002', index.lookupByPublicIp( '1.1.1.1' )?.instanceId )
+
+    index.remove( 'i-00000001' )
+    assertNull( index.lookupByPublicIp( '2.2.2.2' ) )
+    assertNull( index.lookupByPrivateIp( '10.0.0.1' ) )
+    assertEquals( 'i-00000002', index.lookupByPrivateIp( '10.0.0.2' )?.instanceId )
+  }
+
+  @Test
+  void testReassignedAddressNotRemoved( ) {
+    VmInstanceAddressIndex index = loaded(
+        addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ) )
+
+    // address moved to another instance before the first instance is updated
+    index.update( addresses( 'i-00000002', '10.0.0.2', '1.1.1.1' ) )
+    index.update( addresses( 'i-00000001', '10.0.0.1', '0.0.0.0' ) )
+    assertEquals( 'i-00000002', index.lookupByPublicIp( '1.1.1.1' )?.instanceId )
+  }
+
+  @Test
+  void testUpdatesIgnoredUntilLoaded( ) {
+    VmInstanceAddressIndex index = new VmInstanceAddressIndex( )
+    index.update( addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ) )
+    index.load( supplier( [ ] ) )
+    assertEquals( 0, index.size( ) )
+  }
+
+  @Test
+  void testCheckRepairs( ) {
+    VmInstanceAddressIndex index = loaded(
+        addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ),
+        addresses( 'i-00000002', '10.0.0.2', '2.2.2.2' ) )
+
+    int repaired = index.check( supplier( [
+        addresses( 'i-00000001', '10.0.0.1', '3.3.3.3' ),
+        addresses( 'i-00000003', '10.0.0.3', '0.0.0.0' ),
+    ] ) )
+
+    assertEquals( 3, repaired )
+    assertNull( index.lookupByPublicIp( '1.1.1.1' ) )
+    assertEquals( 'i-00000001', index.lookupByPublicIp( '3.3.3.3' )?.instanceId )
+    assertNull( index.lookupByPrivateIp( '10.0.0.2' ) )
+    assertEquals( 'i-00000003', index.lookupByPrivateIp( '10.0.0.3' )?.instanceId )
+    assertEquals( 0, index.check( supplier( [
+        addresses( 'i-00000001', '10.0.0.1', '3.3.3.3' ),
+        addresses( 'i-00000003', '10.0.0.3', '0.0.0.0' ),
+    ] ) ) )
+  }
+
+  @Test
+  void testCheckSkipsConcurrentUpdates( ) {
+    VmInstanceAddressIndex index = loaded( addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ) )
+
+    // update applied while the check is loading from the database
+    int repaired = index.check( { ->
+      index.update( addresses( 'i-00000001', '10.0.0.1', '2.2.2.2' ) )
+      index.update( addresses( 'i-00000002', '10.0.0.2', '0.0.0.0' ) )
+      [ addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ) ]
+    } as Supplier<List<VmInstanceAddressIndex.InstanceAddresses>> )
+
+    assertEquals( 0, repaired )
+    assertEquals( 'i-00000001', index.lookupByPublicIp( '2.2.2.2' )?.instanceId )
+    assertEquals( 'i-00000002', index.lookupByPrivateIp( '10.0.0.2' )?.instanceId )
+
+    // next check repairs
+    assertEquals( 2, index.check( supplier( [ addresses( 'i-00000001', '10.0.0.1', '1.1.1.1' ) ] ) ) )
+    assertEquals( 'i-00000001', index.lookupByPublicIp( '1.1.1.1' )?.instanceId )
+  }
+
+  private static VmInstanceAddressIndex loaded( VmInstanceAddressIndex.InstanceAddresses... addresses ) {
+    VmInstanceAddressIndex index = new VmInstanceAddressIndex( )
+    index.load( supplier( addresses as List ) )
+    index
+  }
+
+  private static Supplier<List<VmInstanceAddressIndex.InstanceAddresses>> supplier(
+      List<VmInstanceAddressIndex.InstanceAddresses> addresses ) {
+    { -> addresses } as Supplier<List<VmInstanceAddressIndex.InstanceAddresses>>
+  }
+
+  private static VmInstanceAddressIndex.InstanceAddresses addresses( String instanceId, String privateIp, String publicIp ) {
+    new VmInstanceAddressIndex.InstanceAddresses( instanceId, privateIp, publicIp, null, null )
+  }
+}
@@ -131,7 +131,8 @@ import com.eucalyptus.util.dns.DnsResolvers;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 
-public class ConnectionHandler extends Thread {
+public class ConnectionHandler {
+	private static Logger LOG = Logger.getLogger( ConnectionHandler.class );
 
 	static final int FLAG_DNSSECOK = 1;
 	static final int FLAG_SIGONLY = 2;
@@ -139,8 +140,38 @@ public class ConnectionHandler extends Thread {
 	Map caches = new ConcurrentHashMap();
 	//Map TSIGs;
 
+	/**
+	 * Build the response for a request received by a listener.
+	 *
+	 * @param in The request bytes
+	 * @param local The address the request was received on
+	 * @param remote The address the request was received from
+	 * @param tcp True if the response is for a stream (not size limited)
+	 * @return The response or null if there should be no response
+	 */
 	byte []
-	      generateReply(Message query, byte [] in, int length, Socket s)
+	      reply(byte [] in, InetAddress local, InetAddress remote, boolean tcp)
+	{
+		final Message query;
+		try {
+			query = new Message(in);
+		} catch (IOException e) {
+			LOG.trace(e);
+			return formerrMessage(in);
+		}
+		setLocalAndRemoteInetAddresses(local, remote);
+		try {
+			return generateReply(query, in, in.length, tcp);
+		} catch (Exception e) {
+			LOG.debug("Error generating DNS reply: " + e.getMessage(), e);
+			return errorMessage(query, Rcode.SERVFAIL);
+		} finally {
+			clearInetAddresses();
+		}
+	}
+
+	byte []
+	      generateReply(Message query, byte [] in, int length, boolean tcp)
 	throws IOException
 	{
 		Header header;
@@ -173,10 +204,10 @@ public class ConnectionHandler extends Thread {
 		if (queryOPT != null && queryOPT.getVersion() > 0)
 			badversion = true;
 
-		if (s != null)
+		if (tcp)
 			maxLength = 65535;
 		else if (queryOPT != null)
-			maxLength = Math.max(queryOPT.getPayloadSize(), 512);
+			maxLength = Math.min(Math.max(queryOPT.getPayloadSize(), 512), udpPayloadSize());
 		else
 			maxLength = 512;
 
@@ -207,7 +238,7 @@ public class ConnectionHandler extends Thread {
 
 			 if (queryOPT != null) {
 				 int optflags = (flags == FLAG_DNSSECOK) ? ExtendedFlags.DO : 0;
-				 OPTRecord opt = new OPTRecord((short)4096, rcode, (byte)0, optflags);
+				 OPTRecord opt = new OPTRecord(udpPayloadSize(), rcode, (byte)0, optflags);
 				 response.addRecord(opt, Section.ADDITIONAL);
 			 }
 		}
@@ -215,6 +246,13 @@ public class ConnectionHandler extends Thread {
 		return response.toWire(maxLength);
 	}
 
+	/**
+	 * The EDNS0 UDP payload size to advertise and honour, at least 512.
+	 */
+	static int udpPayloadSize() {
+		return Math.max(512, Math.min(65535, DNSControl.dns_udp_max_payload_size));
+	}
+
 	public Zone
 	findBestZone(Name name) {
 		Zone foundzone = null;
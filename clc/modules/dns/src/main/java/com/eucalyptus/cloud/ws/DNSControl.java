@@ -62,6 +62,7 @@
 
 package com.eucalyptus.cloud.ws;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Collection;
@@ -161,6 +162,24 @@ public class DNSControl {
 			changeListener = DnsAddressChangeListener.class)
 	public static volatile String dns_listener_address_match = "";
 
+	@ConfigurableField( displayName = "dns_server_query_threads",
+			description = "Number of threads answering DNS requests received by the UDP and TCP listeners.",
+			initial = "32",
+			changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+	public static volatile Integer dns_server_query_threads = 32;
+
+	@ConfigurableField( displayName = "dns_udp_max_payload_size",
+			description = "Maximum EDNS0 UDP payload size in bytes advertised and used for UDP responses.",
+			initial = "4096",
+			changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+	public static volatile Integer dns_udp_max_payload_size = 4096;
+
+	@ConfigurableField( displayName = "dns_udp_receive_buffer_size",
+			description = "Socket receive buffer size in bytes for UDP listeners, applies when listeners are restarted.",
+			initial = "1048576",
+			changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+	public static volatile Integer dns_udp_receive_buffer_size = 1048576;
+
 	public static class DnsAddressChangeListener implements PropertyChangeListener {
 		@Override
 		public void fireChange( ConfigurableProperty t, Object newValue ) throws ConfigurablePropertyException {
@@ -204,7 +223,7 @@ public class DNSControl {
 		});
 	}
 
-	private static <T extends Thread> void initializeListeners(
+	private static <T extends Closeable> void initializeListeners(
 			final AtomicReference<Collection<T>> listenerRef,
 			final String description,
 			final ListenerBuilder<T> builder
@@ -226,9 +245,7 @@ public class DNSControl {
 						final T listener = Capabilities.runWithCapabilities( new Callable<T>() {
 							@Override
 							public T call() throws Exception {
-								final T listener = builder.build( listenAddress, listenPort );
-								listener.start( );
-								return listener;
+								return builder.build( listenAddress, listenPort );
 							}
 						} );
 						listeners.add( listener );
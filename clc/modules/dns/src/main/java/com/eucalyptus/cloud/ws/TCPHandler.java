@@ -62,78 +62,80 @@
 
 package com.eucalyptus.cloud.ws;
 
+import java.net.InetSocketAddress;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.timeout.ReadTimeoutException;
+
 import com.eucalyptus.component.id.Dns;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.system.Threads;
-import com.eucalyptus.util.DNSProperties;
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
-import com.google.common.util.concurrent.UncheckedTimeoutException;
-import org.apache.log4j.Logger;
-import org.xbill.DNS.Message;
-import org.xbill.DNS.Rcode;
-
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.net.Socket;
-import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
 
+/**
+ * Handler for length delimited DNS requests received by a TCP listener.
+ */
 @ConfigurableClass( root = "dns.tcp",
         description = "Handles dns TCP requests." )
-public class TCPHandler extends ConnectionHandler {
+@ChannelHandler.Sharable
+public class TCPHandler extends SimpleChannelUpstreamHandler {
   @ConfigurableField( description = "Parameter controlling tcp handler timeout in seconds." )
   public static Integer timeout_seconds = 30;
   private static Logger LOG = Logger.getLogger( TCPHandler.class );
+  private final ConnectionHandler connectionHandler;
 
-  private final Socket socket;
+  public TCPHandler( ) {
+    this( new ConnectionHandler( ) );
+  }
 
-  public TCPHandler( final Socket s ) {
-    this.socket = s;
+  TCPHandler( final ConnectionHandler connectionHandler ) {
+    this.connectionHandler = connectionHandler;
   }
 
-  public void run() {
-    try ( final Socket socket = this.socket ) {
-      socket.setSoTimeout( timeout_seconds * 1000 );
-      final TimeLimiter limiter = new SimpleTimeLimiter( Threads.lookup( Dns.class, TCPHandler.class ) );
-      final byte[] inBytes = limiter.callWithTimeout( new Callable<byte[]>( ) {
+  @Override
+  public void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) {
+    final ChannelBuffer buffer = (ChannelBuffer) e.getMessage( );
+    final byte[] in = new byte[ buffer.readableBytes( ) ];
+    buffer.readBytes( in );
+    final Channel channel = e.getChannel( );
+    final InetSocketAddress local = (InetSocketAddress) channel.getLocalAddress( );
+    final InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress( );
+    try {
+      execute( new Runnable( ) {
         @Override
-        public byte[] call() throws Exception {
-          final DataInputStream inStream = new DataInputStream(socket.getInputStream());
-          final int inputLength = inStream.readUnsignedShort();
-          byte[] inBytes = new byte[inputLength];
-          inStream.readFully(inBytes);
-          return inBytes;
+        public void run( ) {
+          final byte[] response = connectionHandler.reply( in, local.getAddress( ), remote.getAddress( ), true );
+          if ( response != null ) {
+            channel.write( ChannelBuffers.wrappedBuffer( response ) );
+          }
         }
-      }, timeout_seconds, TimeUnit.SECONDS, false );
+      } );
+    } catch ( RejectedExecutionException ex ) {
+      LOG.error( "failed to run dns TCP worker" );
+      channel.close( );
+    }
+  }
 
-      byte [] response = null;
-      try {
-        final Message query = new Message(inBytes);
-        ConnectionHandler.setLocalAndRemoteInetAddresses( socket.getLocalAddress( ), socket.getInetAddress( ) );
-        try {
-          response = generateReply(query, inBytes, inBytes.length, socket);
-        } catch ( RuntimeException ex ) {
-          response = errorMessage(query, Rcode.SERVFAIL);
-          throw ex;
-        } finally {
-          ConnectionHandler.clearInetAddresses( );
-        }
-        if (response == null)
-          return;
-      } catch ( IOException exception ) {
-        LOG.error(exception);
-      }
-      final DataOutputStream outStream = new DataOutputStream(socket.getOutputStream());
-      outStream.writeShort(response.length);
-      outStream.write(response);
-      outStream.flush();
-    } catch ( UncheckedTimeoutException e ) {
+  void execute( final Runnable task ) {
+    Threads.lookup( Dns.class, TCPHandler.class ).limitTo( DNSControl.dns_server_query_threads ).execute( task );
+  }
+
+  @Override
+  public void exceptionCaught( final ChannelHandlerContext ctx, final ExceptionEvent e ) {
+    if ( e.getCause( ) instanceof ReadTimeoutException ) {
       LOG.debug( "Timeout reading request." );
-    } catch(Exception ex) {
-      LOG.error(ex);
+    } else {
+      LOG.error( e.getCause( ) );
     }
+    e.getChannel( ).close( );
   }
 }
@@ -62,57 +62,81 @@
 
 package com.eucalyptus.cloud.ws;
 
-import org.apache.log4j.Logger;
-
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.ServerSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 
-public class TCPListener extends Thread implements Closeable {
+import com.eucalyptus.bootstrap.OrderedShutdown;
+import com.eucalyptus.component.id.Dns;
+import com.eucalyptus.system.Threads;
+
+/**
+ * TCP listener for DNS requests.
+ *
+ * Requests and responses are framed with a two byte length prefix, idle
+ * connections are closed after the tcp handler timeout.
+ */
+public class TCPListener implements Closeable {
 	private static Logger LOG = Logger.getLogger( TCPListener.class );
-	InetAddress address;
-	int port;
-	ServerSocket socket;
+	private static final ServerSocketChannelFactory channelFactory = new NioServerSocketChannelFactory(
+			Threads.lookup( Dns.class, TCPListener.class, "boss" ),
+			Threads.lookup( Dns.class, TCPListener.class, "worker" ),
+			Runtime.getRuntime( ).availableProcessors( ) );
+	private static final Timer timer = new HashedWheelTimer( );
+	private static final TCPHandler handler = new TCPHandler( );
+	private static final LengthFieldPrepender prepender = new LengthFieldPrepender( 2 );
 
-	public TCPListener(InetAddress address, int port) throws IOException {
-		this.address = address;
-		this.port = port;
-		try {
-			socket = new ServerSocket(port, 128, address);
-		} catch(IOException ex) {
-			LOG.error(ex);
-			throw ex;
-		}
-	}
+	private final Channel channel;
 
-	public void run() {
-		while (true) {
-			Socket s;
-			try {
-				if(socket != null) {
-					LOG.trace("Listening on port: " + port);
-					TCPHandler handler = new TCPHandler((Socket)socket.accept());
-					handler.start();
-				} else {
-					LOG.error("Cannot start service. Invalid socket.");
-					return;
-				}
-			} catch (IOException e) {
-				LOG.error(e);
+	static {
+		OrderedShutdown.registerShutdownHook( Dns.class, new Runnable( ) {
+			@Override
+			public void run( ) {
+				timer.stop( );
 			}
-		}
+		} );
 	}
 
-	public void close() {
-		if (socket != null) {
-			try {
-				socket.close();
-				socket = null;
-			} catch (IOException e) {
-				LOG.error(e, e);
+	public TCPListener( InetAddress address, int port ) throws IOException {
+		final ServerBootstrap bootstrap = new ServerBootstrap( channelFactory );
+		bootstrap.setPipelineFactory( new ChannelPipelineFactory( ) {
+			@Override
+			public ChannelPipeline getPipeline( ) throws Exception {
+				return Channels.pipeline(
+						new ReadTimeoutHandler( timer, TCPHandler.timeout_seconds ),
+						new LengthFieldBasedFrameDecoder( 65535 + 2, 0, 2, 0, 2 ),
+						prepender,
+						handler );
 			}
+		} );
+		bootstrap.setOption( "backlog", 128 );
+		bootstrap.setOption( "reuseAddress", true );
+		bootstrap.setOption( "child.tcpNoDelay", true );
+		try {
+			channel = bootstrap.bind( new InetSocketAddress( address, port ) );
+		} catch ( ChannelException ex ) {
+			LOG.error( ex );
+			throw new IOException( ex.getMessage( ), ex );
 		}
 	}
+
+	public void close( ) {
+		channel.close( ).awaitUninterruptibly( );
+	}
 }
@@ -93,103 +93,77 @@
 
 package com.eucalyptus.cloud.ws;
 
-import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.util.concurrent.Callable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Logger;
-import org.xbill.DNS.Message;
-import org.xbill.DNS.Rcode;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.component.id.Dns;
 import com.eucalyptus.system.Threads;
 
-public class UDPHandler extends Thread {
+/**
+ * Handler for DNS requests received by a UDP listener.
+ *
+ * Requests are dropped unless the system is operational.
+ */
+@ChannelHandler.Sharable
+public class UDPHandler extends SimpleChannelUpstreamHandler {
 	private static Logger LOG = Logger.getLogger( UDPHandler.class );
+	private final ConnectionHandler connectionHandler;
 
-	DatagramSocket socket;
-	UDPHandler(DatagramSocket s) {
-		this.socket = s;
+	public UDPHandler( ) {
+		this( new ConnectionHandler( ) );
 	}
 
-	public void run() {
-		final short udpLength = 512;
-		while (Bootstrap.isOperational( )) {
-			if ( socket.isClosed( ) ) {
-				LOG.info( "Exiting due to closed socket" );
-				return;
-			}
-			try {
-			  byte [] in = new byte[udpLength];
-			  DatagramPacket indp = new DatagramPacket(in, in.length);
-				indp.setLength(in.length);
-				try {
-					socket.receive(indp);
-				}catch (InterruptedIOException e) {
-					continue;
-				}
-				try{
-				  Threads.enqueue(Dns.class, UDPHandler.class, new UDPWorker(this.socket, indp, in));
-				}catch(Exception ex){
-				  LOG.error("failed to run dns UDP worker");
+	UDPHandler( final ConnectionHandler connectionHandler ) {
+		this.connectionHandler = connectionHandler;
+	}
+
+	@Override
+	public void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) {
+		if ( !isOperational( ) ) {
+			return;
+		}
+		final ChannelBuffer buffer = (ChannelBuffer) e.getMessage( );
+		final byte[] in = new byte[ buffer.readableBytes( ) ];
+		buffer.readBytes( in );
+		final Channel channel = e.getChannel( );
+		final InetSocketAddress local = (InetSocketAddress) channel.getLocalAddress( );
+		final InetSocketAddress remote = (InetSocketAddress) e.getRemoteAddress( );
+		try {
+			execute( new Runnable( ) {
+				@Override
+				public void run( ) {
+					final byte[] response = connectionHandler.reply( in, local.getAddress( ), remote.getAddress( ), false );
+					if ( response != null ) {
+						channel.write( ChannelBuffers.wrappedBuffer( response ), remote );
+					}
 				}
-			} catch (IOException e) {
-			    LOG.trace(e);
-			}
+			} );
+		} catch ( RejectedExecutionException ex ) {
+			LOG.error( "failed to run dns UDP worker" );
 		}
 	}
 
-	private static class UDPWorker extends ConnectionHandler implements Callable<Boolean>{
-	  private DatagramSocket socket = null;
-	  private DatagramPacket packet = null;
-	  private byte[] data = null;
-	  private UDPWorker(final DatagramSocket socket, final DatagramPacket dpin, byte[] data){
-	    this.socket = socket;
-	    this.packet = dpin;
-	    this.data = data;
-	  }
+	boolean isOperational( ) {
+		return Bootstrap.isOperational( );
+	}
+
+	void execute( final Runnable task ) {
+		Threads.lookup( Dns.class, UDPHandler.class ).limitTo( DNSControl.dns_server_query_threads ).execute( task );
+	}
 
-	  @Override
-	  public Boolean call() throws Exception {
-	    final byte[] in = this.data;
-	    Message query;
-	    byte [] response = null;
-	    try {
-	      query = new Message(in);
-	      ConnectionHandler.setLocalAndRemoteInetAddresses( this.socket.getLocalAddress( ), this.packet.getAddress( ) );
-	      try {
-	        response = generateReply( query, in,
-	            this.packet.getLength( ),
-	            null );
-	      } catch ( RuntimeException ex ) {
-	        response = errorMessage(query, Rcode.SERVFAIL);
-	        throw ex;
-	      } finally {
-	        ConnectionHandler.clearInetAddresses( );
-	      }
-	      if (response == null)
-	        return false;
-	    } catch (Exception e) {
-	      if ( response != null ) {
-	        response = formerrMessage(in);
-	      } else {
-	        LOG.trace(e);
-	        return false;
-	      }
-	    }
-	    try{
-	      final DatagramPacket outdp = new DatagramPacket(response,
-	          response.length,
-	          this.packet.getAddress(),
-	          this.packet.getPort());
-	      this.socket.send(outdp);
-	    }catch(Exception e){
-	      LOG.trace(e);
-	    }
-	    return true;
-	  }
+	@Override
+	public void exceptionCaught( final ChannelHandlerContext ctx, final ExceptionEvent e ) {
+		LOG.trace( e.getCause( ), e.getCause( ) );
 	}
 }
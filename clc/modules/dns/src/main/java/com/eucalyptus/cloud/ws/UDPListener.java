@@ -62,42 +62,60 @@
 
 package com.eucalyptus.cloud.ws;
 
-import org.apache.log4j.Logger;
-
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.socket.DatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+
+import com.eucalyptus.component.id.Dns;
+import com.eucalyptus.system.Threads;
 
-public class UDPListener extends Thread implements Closeable {
+/**
+ * UDP listener for DNS requests.
+ *
+ * Datagrams are received by the (shared) NIO workers and answered using the
+ * DNS query thread pool, so a slow resolver does not hold up receiving.
+ */
+public class UDPListener implements Closeable {
 	private static Logger LOG = Logger.getLogger( UDPListener.class );
-	InetAddress address;
-	int port;
-	DatagramSocket socket;
+	private static final DatagramChannelFactory channelFactory = new NioDatagramChannelFactory(
+			Threads.lookup( Dns.class, UDPListener.class ),
+			Runtime.getRuntime( ).availableProcessors( ) );
+	private static final UDPHandler handler = new UDPHandler( );
+
+	private final Channel channel;
 
-	public UDPListener(InetAddress address, int port) throws IOException {
-		this.address = address;
-		this.port = port;
+	public UDPListener( InetAddress address, int port ) throws IOException {
+		final ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap( channelFactory );
+		bootstrap.setPipelineFactory( new ChannelPipelineFactory( ) {
+			@Override
+			public ChannelPipeline getPipeline( ) throws Exception {
+				return Channels.pipeline( handler );
+			}
+		} );
+		bootstrap.setOption( "receiveBufferSize", DNSControl.dns_udp_receive_buffer_size );
+		bootstrap.setOption( "receiveBufferSizePredictorFactory",
+				new FixedReceiveBufferSizePredictorFactory( ConnectionHandler.udpPayloadSize( ) ) );
 		try {
-			socket = new DatagramSocket(port, address);
-			socket.setSoTimeout( 10000 );
-		} catch(IOException ex) {
-			LOG.error(ex);
-			throw ex;
+			channel = bootstrap.bind( new InetSocketAddress( address, port ) );
+		} catch ( ChannelException ex ) {
+			LOG.error( ex );
+			throw new IOException( ex.getMessage( ), ex );
 		}
 	}
 
-	public void run() {
-		if(socket != null)
-			ConnectionHandlerFactory.handle(socket);
-		else
-			LOG.error("Cannot start service. Invalid socket.");
-	}
-
-	public void close() {
-		if (socket != null) {
-			socket.close();
-			socket = null;
-		}
+	public void close( ) {
+		channel.close( ).awaitUninterruptibly( );
 	}
 }
@@ -76,7 +76,7 @@ import org.xbill.DNS.SetResponse;
 
 import com.eucalyptus.util.Internets;
 import com.eucalyptus.util.dns.DomainNames;
-import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceAddressIndex.InstanceAddresses;
 import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.vm.VmNetworkConfig;
 import com.eucalyptus.ws.StackConfiguration;
@@ -112,7 +112,7 @@ public class TransientPtrZone extends Zone {
 		  return super.findRecords( name, type, listenerAddress );
 		}
 		try {
-	      VmInstance instance = VmInstances.lookupByPublicIp( ipCandidate );
+	      InstanceAddresses instance = VmInstances.lookupAddressesByPublicIp( ipCandidate );
 	      target = new Name( instance.getPublicDnsName( ) + ".");
 	    } catch ( Exception e ) {
 	      if ( VmInstances.privateIpInUse( ipCandidate ) ) try {
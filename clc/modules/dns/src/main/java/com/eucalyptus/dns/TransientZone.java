@@ -78,7 +78,7 @@ import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
 import com.eucalyptus.util.Internets;
-import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceAddressIndex.InstanceAddresses;
 import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.ws.StackConfiguration;
 
@@ -170,12 +170,8 @@ public class TransientZone extends Zone {
           .append(tryIp[1]).append(".")
           .append(tryIp[2]).append(".")
           .append(tryIp[3]).toString( );
-        try {
-          VmInstances.lookupByPublicIp( ipCandidate );
-        } catch ( Exception e ) {
-          if ( !VmInstances.privateIpInUse( ipCandidate ) ) {
-            return super.findRecords( name, type, listenerAddress );
-          }
+        if ( !VmInstances.publicIpInUse( ipCandidate ) && !VmInstances.privateIpInUse( ipCandidate ) ) {
+          return super.findRecords( name, type, listenerAddress );
         }
         InetAddress ip = InetAddress.getByName( ipCandidate );
         SetResponse resp = new SetResponse(SetResponse.SUCCESSFUL);
@@ -201,11 +197,11 @@ public class TransientZone extends Zone {
 		  return super.findRecords( name, type, listenerAddress );
 		}
 		try {
-	      VmInstance instance = VmInstances.lookupByPublicIp( ipCandidate );
+	      InstanceAddresses instance = VmInstances.lookupAddressesByPublicIp( ipCandidate );
 	      target = new Name(instance.getPublicDnsName() + ".");
 	    } catch ( Exception e ) {
 	      try {
-	        VmInstance instance = VmInstances.lookupByPrivateIp( ipCandidate );
+	        InstanceAddresses instance = VmInstances.lookupAddressesByPrivateIp( ipCandidate );
 	        target = new Name(instance.getPrivateDnsName() + ".");
 	      } catch ( Exception e1 ) {
 	        return super.findRecords( name, type, listenerAddress );
@@ -69,6 +69,12 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.xbill.DNS.Cache;
@@ -84,14 +90,18 @@ import org.xbill.DNS.Type;
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.configurable.PropertyChangeListeners;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.util.Subnets;
 import com.eucalyptus.util.dns.DnsResolvers.DnsResolver;
 import com.eucalyptus.util.dns.DnsResolvers.DnsResponse;
 import com.eucalyptus.util.dns.DnsResolvers.RequestType;
 import com.eucalyptus.util.dns.DomainNameRecords;
 import com.eucalyptus.util.dns.DomainNames;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
@@ -107,6 +117,10 @@ import com.google.common.collect.Sets;
  * All responses include corresponding NS records in the authority section and their A records in
  * the additional section.
  * 
+ * Lookups use a cache shared by all requests, entries expire according to the record TTLs and
+ * negative responses are cached up to the configured maximum TTL. Concurrent requests for the
+ * same name and type are coalesced into a single lookup.
+ * 
  * @author chris grzegorczyk <grze@eucalyptus.com>
  */
 @ConfigurableClass( root = "dns.recursive",
@@ -115,7 +129,36 @@ public class RecursiveDnsResolver implements DnsResolver {
   private static Logger LOG = Logger.getLogger( RecursiveDnsResolver.class );
   @ConfigurableField( description = "Enable the recursive DNS resolver.  Note: dns.enable must also be 'true'" )
   public static Boolean enabled = Boolean.TRUE;
-  
+  @ConfigurableField( description = "Maximum number of entries in the recursive DNS cache.",
+                      changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+  public static Integer CACHE_SIZE = 10000;
+  @ConfigurableField( description = "Maximum time-to-live in seconds for negative responses in the recursive DNS cache.",
+                      changeListener = PropertyChangeListeners.IsPositiveInteger.class )
+  public static Integer CACHE_NEGATIVE_TTL = 60;
+
+  private static final Cache cache = new Cache( );
+  private static final ConcurrentMap<String, FutureTask<DnsResponse>> inflight = Maps.newConcurrentMap( );
+  private static final AtomicLong requests = new AtomicLong( );
+  private static final AtomicLong hits = new AtomicLong( );
+  private static final AtomicLong coalesced = new AtomicLong( );
+  private static final AtomicLong lookupNanos = new AtomicLong( );
+
+  static {
+    Mbeans.register( new RecursiveDnsStatistics( ) );
+  }
+
+  /**
+   * JMX view of recursive resolver caching.
+   */
+  public interface RecursiveDnsStatisticsMXBean {
+    long getRequests( );
+    long getHits( );
+    long getMisses( );
+    long getCoalesced( );
+    long getAverageLookupMicros( );
+    int getCacheSize( );
+  }
+
   private static List<Name> subdomainsForName( Name name ) {
     final List<Name> names = Lists.newArrayList( name );
     final String sub = parentDomainForName( name );
@@ -147,9 +190,65 @@ public class RecursiveDnsResolver implements DnsResolver {
   @Override
   public DnsResponse lookupRecords( final DnsRequest request ) {
     final Record query = request.getQuery( );
-    final Name name = query.getName( );
-    final int type = query.getType( );
-    final Cache cache = new Cache( );
+    final String key = query.getName( ) + "/" + query.getType( );
+    final FutureTask<DnsResponse> task = new FutureTask<>( new Callable<DnsResponse>( ) {
+      @Override
+      public DnsResponse call( ) throws Exception {
+        return lookup( query.getName( ), query.getType( ) );
+      }
+    } );
+    requests.incrementAndGet( );
+    final FutureTask<DnsResponse> existing = inflight.putIfAbsent( key, task );
+    if ( existing != null ) {
+      coalesced.incrementAndGet( );
+      return get( existing );
+    }
+    try {
+      task.run( );
+      return get( task );
+    } finally {
+      inflight.remove( key, task );
+    }
+  }
+
+  private static DnsResponse get( final FutureTask<DnsResponse> task ) {
+    try {
+      return task.get( );
+    } catch ( final InterruptedException ex ) {
+      Thread.currentThread( ).interrupt( );
+      throw Throwables.propagate( ex );
+    } catch ( final ExecutionException ex ) {
+      throw Throwables.propagate( ex.getCause( ) );
+    }
+  }
+
+  /**
+   * Look up records for the name and type using the shared cache.
+   */
+  DnsResponse lookup( final Name name, final int type ) {
+    configureCache( );
+    final SetResponse cached = cache.lookupRecords( name, type, Credibility.NORMAL );
+    if ( cached.isSuccessful( ) || cached.isNXDOMAIN( ) || cached.isNXRRSET( ) ) {
+      hits.incrementAndGet( );
+    }
+    final long start = System.nanoTime( );
+    try {
+      return resolve( name, type );
+    } finally {
+      lookupNanos.addAndGet( System.nanoTime( ) - start );
+    }
+  }
+
+  private static void configureCache( ) {
+    if ( cache.getMaxEntries( ) != CACHE_SIZE ) {
+      cache.setMaxEntries( CACHE_SIZE );
+    }
+    if ( cache.getMaxNCache( ) != CACHE_NEGATIVE_TTL ) {
+      cache.setMaxNCache( CACHE_NEGATIVE_TTL );
+    }
+  }
+
+  private static DnsResponse resolve( final Name name, final int type ) {
     Lookup aLookup = new Lookup( name, type );
     aLookup.setCache( cache );
     Record[] found = aLookup.run( );
@@ -210,14 +309,14 @@ public class RecursiveDnsResolver implements DnsResolver {
       }
     }
 
-    DnsResponse response = DnsResponse.forName( query.getName( ) )
+    DnsResponse response = DnsResponse.forName( name )
         .recursive( )
         .withAuthority( Lists.newArrayList( authority ) )
         .withAdditional( Lists.newArrayList( additional ) )
         .answer( Lists.newArrayList( answer ) );
     
     if(aLookup.getResult() == Lookup.HOST_NOT_FOUND && queriedrrs.size()==0){
-        response = DnsResponse.forName( query.getName( ) )
+        response = DnsResponse.forName( name )
           .recursive( )
           .withAuthority( Lists.newArrayList( authority ) )
           .nxdomain();
@@ -254,4 +353,37 @@ public class RecursiveDnsResolver implements DnsResolver {
   public String toString( ) {
     return this.getClass( ).getSimpleName( );
   }
+
+  private static class RecursiveDnsStatistics implements RecursiveDnsStatisticsMXBean {
+    @Override
+    public long getRequests( ) {
+      return requests.get( );
+    }
+
+    @Override
+    public long getHits( ) {
+      return hits.get( );
+    }
+
+    @Override
+    public long getMisses( ) {
+      return requests.get( ) - coalesced.get( ) - hits.get( );
+    }
+
+    @Override
+    public long getCoalesced( ) {
+      return coalesced.get( );
+    }
+
+    @Override
+    public long getAverageLookupMicros( ) {
+      final long lookups = requests.get( ) - coalesced.get( );
+      return lookups == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros( lookupNanos.get( ) ) / lookups;
+    }
+
+    @Override
+    public int getCacheSize( ) {
+      return cache.getSize( );
+    }
+  }
 }
@@ -0,0 +1,117 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.cloud.ws
+
+import static org.junit.Assert.*
+import java.util.concurrent.RejectedExecutionException
+import org.jboss.netty.buffer.ChannelBuffer
+import org.jboss.netty.buffer.ChannelBuffers
+import org.jboss.netty.channel.Channel
+import org.jboss.netty.channel.UpstreamMessageEvent
+import org.junit.Test
+
+/**
+ * Unit tests for the TCP listener request handler.
+ */
+class TCPHandlerTest {
+
+  private final InetSocketAddress local = new InetSocketAddress( InetAddress.getByName( '127.0.0.1' ), 53 )
+  private final InetSocketAddress remote = new InetSocketAddress( InetAddress.getByName( '127.0.0.2' ), 5353 )
+  private final List<Object> writes = []
+  private boolean closed = false
+
+  @Test
+  void testReply( ) {
+    List<Object> requests = []
+    TCPHandler handler = handler( { Runnable task -> task.run( ) } ) { byte[] request, InetAddress localAddress, InetAddress remoteAddress, boolean tcp ->
+      requests.addAll( [ request.toList( ), localAddress, remoteAddress, tcp ] )
+      [ 4, 5 ] as byte[]
+    }
+
+    handler.messageReceived( null, request( [ 1, 2, 3 ] as byte[] ) )
+    handler.messageReceived( null, request( [ 6 ] as byte[] ) )
+
+    assertEquals( 'Request', [ [ 1, 2, 3 ] as byte[] as List, local.address, remote.address, true ], requests[0..3] )
+    assertEquals( 'Requests on connection', [ 6 ] as byte[] as List, requests[4] )
+    assertEquals( 'Writes', 2, writes.size( ) )
+    assertEquals( 'Response', [ 4, 5 ] as byte[] as List, bytes( (ChannelBuffer) writes[0] ) )
+    assertFalse( 'Closed', closed )
+  }
+
+  @Test
+  void testNoReply( ) {
+    TCPHandler handler = handler( { Runnable task -> task.run( ) } ) { byte[] request, InetAddress localAddress, InetAddress remoteAddress, boolean tcp ->
+      null
+    }
+
+    handler.messageReceived( null, request( [ 1 ] as byte[] ) )
+
+    assertTrue( 'No writes', writes.isEmpty( ) )
+  }
+
+  @Test
+  void testRejected( ) {
+    TCPHandler handler = handler( { Runnable task -> throw new RejectedExecutionException( ) } ) { byte[] request, InetAddress localAddress, InetAddress remoteAddress, boolean tcp ->
+      [ 4 ] as byte[]
+    }
+
+    handler.messageReceived( null, request( [ 1 ] as byte[] ) )
+
+    assertTrue( 'No writes', writes.isEmpty( ) )
+    assertTrue( 'Closed', closed )
+  }
+
+  private static List<Byte> bytes( ChannelBuffer buffer ) {
+    byte[] data = new byte[ buffer.readableBytes( ) ]
+    buffer.readBytes( data )
+    data as List
+  }
+
+  private UpstreamMessageEvent request( byte[] data ) {
+    Channel channel = [
+        getLocalAddress: { local },
+        getRemoteAddress: { remote },
+        write: { Object message ->
+          writes.add( message )
+          null
+        },
+        close: {
+          closed = true
+          null
+        },
+    ] as Channel
+    new UpstreamMessageEvent( channel, ChannelBuffers.wrappedBuffer( data ), remote )
+  }
+
+  private static TCPHandler handler( Closure<?> executor, Closure<byte[]> responder ) {
+    ConnectionHandler connectionHandler = new ConnectionHandler( ) {
+      @Override
+      byte[] reply( byte[] request, InetAddress localAddress, InetAddress remoteAddress, boolean tcp ) {
+        responder.call( request, localAddress, remoteAddress, tcp )
+      }
+    }
+    new TCPHandler( connectionHandler ) {
+      @Override
+      void execute( final Runnable task ) {
+        executor.call( task )
+      }
+    }
+  }
+}
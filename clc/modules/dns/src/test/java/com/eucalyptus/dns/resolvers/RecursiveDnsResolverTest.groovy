@@ -0,0 +1,108 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.dns.resolvers
+
+import static org.junit.Assert.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Test
+import org.xbill.DNS.DClass
+import org.xbill.DNS.Name
+import org.xbill.DNS.Record
+import org.xbill.DNS.Type
+import com.eucalyptus.util.dns.DnsResolvers.DnsRequest
+import com.eucalyptus.util.dns.DnsResolvers.DnsResponse
+
+/**
+ * Unit tests for RecursiveDnsResolver request coalescing.
+ */
+class RecursiveDnsResolverTest {
+
+  @Test
+  void testConcurrentLookupsCoalesced( ) {
+    AtomicInteger lookups = new AtomicInteger( )
+    CountDownLatch started = new CountDownLatch( 1 )
+    CountDownLatch release = new CountDownLatch( 1 )
+    RecursiveDnsResolver resolver = new RecursiveDnsResolver( ) {
+      @Override
+      DnsResponse lookup( final Name name, final int type ) {
+        lookups.incrementAndGet( )
+        started.countDown( )
+        assertTrue( 'Released', release.await( 10, TimeUnit.SECONDS ) )
+        DnsResponse.forName( name ).nxdomain( )
+      }
+    }
+    DnsRequest request = request( 'coalesced.example.com.' )
+    List<DnsResponse> responses = Collections.synchronizedList( [] )
+
+    Thread first = Thread.start { responses.add( resolver.lookupRecords( request ) ) }
+    assertTrue( 'Lookup started', started.await( 10, TimeUnit.SECONDS ) )
+    Thread second = Thread.start { responses.add( resolver.lookupRecords( request( 'coalesced.example.com.' ) ) ) }
+    awaitWaiting( second )
+    release.countDown( )
+    first.join( 10000 )
+    second.join( 10000 )
+
+    assertEquals( 'Lookups', 1, lookups.get( ) )
+    assertEquals( 'Responses', 2, responses.size( ) )
+    assertSame( 'Shared response', responses[0], responses[1] )
+
+    resolver.lookupRecords( request )
+    assertEquals( 'Lookups after completion', 2, lookups.get( ) )
+  }
+
+  @Test
+  void testDifferentTypesNotCoalesced( ) {
+    List<Integer> types = Collections.synchronizedList( [] )
+    RecursiveDnsResolver resolver = new RecursiveDnsResolver( ) {
+      @Override
+      DnsResponse lookup( final Name name, final int type ) {
+        types.add( type )
+        DnsResponse.forName( name ).nxdomain( )
+      }
+    }
+
+    resolver.lookupRecords( request( 'types.example.com.', Type.A ) )
+    resolver.lookupRecords( request( 'types.example.com.', Type.AAAA ) )
+
+    assertEquals( 'Lookup types', [ Type.A, Type.AAAA ], types )
+  }
+
+  /**
+   * Wait for the thread to block waiting for the in-flight lookup.
+   */
+  private static void awaitWaiting( Thread thread ) {
+    long timeout = System.currentTimeMillis( ) + 10000
+    while ( thread.getState( ) != Thread.State.WAITING && System.currentTimeMillis( ) < timeout ) {
+      Thread.sleep( 10 )
+    }
+    assertEquals( 'Thread state', Thread.State.WAITING, thread.getState( ) )
+  }
+
+  private static DnsRequest request( String name, int type = Type.A ) {
+    Record query = Record.newRecord( Name.fromString( name ), type, DClass.IN )
+    [
+        getQuery: { query },
+        getRemoteAddress: { null },
+        getLocalAddress: { null },
+    ] as DnsRequest
+  }
+}
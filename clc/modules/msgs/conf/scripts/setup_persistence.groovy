@@ -83,6 +83,13 @@ default_hiber_config = [
       'hibernate.default_batch_fetch_size': '50',
 ]
 
+// Per context overrides, reporting events are inserted in batches
+context_hiber_config = [
+    'eucalyptus_reporting': [
+      'hibernate.jdbc.batch_size': '50',
+    ],
+]
+
 PersistenceContexts.list( ).each { String context_name ->
   
   // Set system properties
@@ -91,6 +98,7 @@ PersistenceContexts.list( ).each { String context_name ->
   // Configure the hibernate connection
   hibernate_config = [:]
   hibernate_config.putAll((Map<?,?>)default_hiber_config)
+  hibernate_config.putAll((Map<?,?>)context_hiber_config.get( context_name, [:] ))
   hibernate_config.putAll( [
         /** jdbc driver **/
         'hibernate.dialect': Databases.getHibernateDialect( ),
@@ -152,6 +152,15 @@ public class Context {
   public Channel getChannel( ) {
     return check( this.channel );
   }
+
+  @Nullable
+  Channel getChannelUnchecked( ) {
+    return this.channel;
+  }
+
+  boolean isChannelManaged( ) {
+    return this.channelManaged;
+  }
   
   public InetAddress getRemoteAddress( ) {
     if ( this.getChannel( ) != null ) {
@@ -190,6 +199,17 @@ public class Context {
     return check( this.request );
   }
   
+  /**
+   * Get the request message type, if known.
+   *
+   * @return The type or null if the request message is not yet available
+   */
+  @Nullable
+  public Class<? extends BaseMessage> getRequestType( ) {
+    initRequest();
+    return this.request == null ? null : this.request.getClass( );
+  }
+  
   public void setUser( User user ) {
     if ( user != null ) {
       EventRecord.caller( Context.class, EventType.CONTEXT_USER, this.correlationId, user.getUserId( ) ).debug( );
@@ -0,0 +1,281 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.context;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import com.google.common.collect.Lists;
+
+/**
+ * Registry for request contexts.
+ *
+ * <p>Contexts are indexed by correlation identifier and by channel and are
+ * also held in registration order so that stale contexts can be found
+ * without scanning. The registry watches the close future of each channel,
+ * when a channel closes its context remains available for the channel but
+ * will be swept if it is not cleared within the grace period.</p>
+ *
+ * <p>Wrapped contexts for internal requests have no client channel and are
+ * not swept by age, they are cleared by the caller.</p>
+ */
+class ContextRegistry {
+
+  private final ConcurrentMap<String, Context> uuidContexts = new ConcurrentHashMap<>( 1024 );
+  private final ConcurrentMap<Channel, Context> channelContexts = new ConcurrentHashMap<>( 1024 );
+  private final ConcurrentMap<Context, Registration> registrations = new ConcurrentHashMap<>( 1024 );
+  private final ConcurrentSkipListMap<Long, Registration> registrationsByAge = new ConcurrentSkipListMap<>( );
+  private final ConcurrentLinkedQueue<Registration> closedRegistrations = new ConcurrentLinkedQueue<>( );
+  private final Set<Channel> watchedChannels = Collections.newSetFromMap( new ConcurrentHashMap<Channel, Boolean>( 1024 ) );
+  private final AtomicLong sequence = new AtomicLong( );
+  private final AtomicInteger live = new AtomicInteger( );
+  private final AtomicInteger peak = new AtomicInteger( );
+  private final AtomicLong leaked = new AtomicLong( );
+  private final ChannelFutureListener closeListener = new ChannelFutureListener( ) {
+    @Override
+    public void operationComplete( final ChannelFuture future ) {
+      channelClosed( future.getChannel( ) );
+    }
+  };
+
+  void register( final String correlationId, final Context ctx ) {
+    uuidContexts.put( correlationId, ctx );
+    track( ctx );
+  }
+
+  /**
+   * Register a context for a channel.
+   *
+   * @return The context previously registered for the channel, if any
+   */
+  @Nullable
+  Context register( final String correlationId, final Context ctx, final Channel channel ) {
+    register( correlationId, ctx );
+    final Context previous = channelContexts.put( channel, ctx );
+    if ( watchedChannels.add( channel ) ) {
+      channel.getCloseFuture( ).addListener( closeListener );
+    }
+    return previous;
+  }
+
+  boolean registerIfAbsent( final String correlationId, final Context ctx ) {
+    if ( uuidContexts.putIfAbsent( correlationId, ctx ) == null ) {
+      track( ctx );
+      return true;
+    }
+    return false;
+  }
+
+  void rekey( final Context ctx, final String oldId, final String newId ) {
+    if ( oldId != null ) {
+      uuidContexts.remove( oldId, ctx );
+    }
+    uuidContexts.put( newId, ctx );
+  }
+
+  @Nullable
+  Context lookup( final String correlationId ) {
+    return uuidContexts.get( correlationId );
+  }
+
+  @Nullable
+  Context lookup( final Channel channel ) {
+    return channelContexts.get( channel );
+  }
+
+  boolean exists( final String correlationId ) {
+    return uuidContexts.containsKey( correlationId );
+  }
+
+  boolean exists( final Channel channel ) {
+    return channelContexts.containsKey( channel );
+  }
+
+  boolean isEmpty( ) {
+    return uuidContexts.isEmpty( );
+  }
+
+  /**
+   * Remove the context for the given correlation identifier.
+   *
+   * @return The removed context, if any
+   */
+  @Nullable
+  Context remove( final String correlationId ) {
+    final Context ctx = uuidContexts.remove( correlationId );
+    if ( ctx != null ) {
+      final Channel channel = ctx.getChannelUnchecked( );
+      if ( channel != null ) {
+        channelContexts.remove( channel, ctx );
+      }
+      untrack( ctx );
+    }
+    return ctx;
+  }
+
+  /**
+   * Remove the given context if it is registered.
+   */
+  void remove( final Context ctx ) {
+    final String correlationId = ctx.getCorrelationId( );
+    if ( correlationId == null || !uuidContexts.remove( correlationId, ctx ) ) {
+      uuidContexts.values( ).remove( ctx );
+    }
+    final Channel channel = ctx.getChannelUnchecked( );
+    if ( channel != null ) {
+      channelContexts.remove( channel, ctx );
+    }
+    untrack( ctx );
+  }
+
+  /**
+   * Find stale contexts.
+   *
+   * <p>A context is stale if its channel closed more than the grace period
+   * ago, or if it is older than the maximum age and has no open client
+   * channel. Wrapped contexts are not stale by age.</p>
+   *
+   * @param nowNanos The current time
+   * @param maxAgeNanos The maximum age for contexts without an open channel
+   * @param closedGraceNanos The grace period for contexts with a closed channel
+   * @return The stale contexts, which are removed from the registry
+   */
+  List<Context> sweep( final long nowNanos, final long maxAgeNanos, final long closedGraceNanos ) {
+    final List<Context> stale = Lists.newArrayList( );
+    for ( Registration registration; ( registration = closedRegistrations.peek( ) ) != null; ) {
+      if ( !registration.isRegistered( ) ) {
+        closedRegistrations.remove( registration );
+      } else if ( nowNanos - registration.closedNanos > closedGraceNanos ) {
+        closedRegistrations.remove( registration );
+        stale( registration, stale );
+      } else {
+        break;
+      }
+    }
+    final Iterator<Registration> iterator = registrationsByAge.values( ).iterator( );
+    while ( iterator.hasNext( ) ) {
+      final Registration registration = iterator.next( );
+      if ( nowNanos - registration.registeredNanos <= maxAgeNanos ) {
+        break;
+      }
+      if ( !registration.isWrapped( ) && !registration.hasOpenClientChannel( ) ) {
+        stale( registration, stale );
+      }
+    }
+    return stale;
+  }
+
+  int getLiveCount( ) {
+    return live.get( );
+  }
+
+  int getPeakCount( ) {
+    return peak.get( );
+  }
+
+  long getLeakedCount( ) {
+    return leaked.get( );
+  }
+
+  private void stale( final Registration registration, final List<Context> stale ) {
+    if ( registration.isRegistered( ) ) {
+      remove( registration.ctx );
+      leaked.incrementAndGet( );
+      stale.add( registration.ctx );
+    }
+  }
+
+  private void channelClosed( final Channel channel ) {
+    watchedChannels.remove( channel );
+    final Context ctx = channelContexts.get( channel );
+    if ( ctx != null ) {
+      final Registration registration = registrations.get( ctx );
+      if ( registration != null && registration.close( System.nanoTime( ) ) ) {
+        closedRegistrations.add( registration );
+      }
+    }
+  }
+
+  private void track( final Context ctx ) {
+    final Registration registration = new Registration( ctx, sequence.incrementAndGet( ), System.nanoTime( ) );
+    if ( registrations.putIfAbsent( ctx, registration ) == null ) {
+      registrationsByAge.put( registration.sequence, registration );
+      final int count = live.incrementAndGet( );
+      for ( int currentPeak; count > ( currentPeak = peak.get( ) ); ) {
+        if ( peak.compareAndSet( currentPeak, count ) ) break;
+      }
+    }
+  }
+
+  private void untrack( final Context ctx ) {
+    final Registration registration = registrations.remove( ctx );
+    if ( registration != null ) {
+      registration.registered = false;
+      registrationsByAge.remove( registration.sequence );
+      live.decrementAndGet( );
+    }
+  }
+
+  private static final class Registration {
+    private final Context ctx;
+    private final long sequence;
+    private final long registeredNanos;
+    private volatile boolean registered = true;
+    private volatile long closedNanos;
+    private volatile boolean closed;
+
+    private Registration( final Context ctx, final long sequence, final long registeredNanos ) {
+      this.ctx = ctx;
+      this.sequence = sequence;
+      this.registeredNanos = registeredNanos;
+    }
+
+    private boolean isRegistered( ) {
+      return registered;
+    }
+
+    private synchronized boolean close( final long nanos ) {
+      if ( closed ) return false;
+      closedNanos = nanos;
+      closed = true;
+      return true;
+    }
+
+    private boolean isWrapped( ) {
+      return ctx.isChannelManaged( );
+    }
+
+    private boolean hasOpenClientChannel( ) {
+      final Channel channel = ctx.getChannelUnchecked( );
+      return !closed && channel != null && !ctx.isChannelManaged( ) && channel.isOpen( );
+    }
+  }
+}
@@ -62,8 +62,8 @@
 
 package com.eucalyptus.context;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
@@ -72,12 +72,17 @@ import org.mule.RequestContext;
 import org.mule.api.MuleMessage;
 
 import com.eucalyptus.BaseException;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Hertz;
+import com.eucalyptus.event.Listeners;
 import com.eucalyptus.http.MappingHttpRequest;
 import com.eucalyptus.records.EventRecord;
 import com.eucalyptus.records.EventType;
 import com.eucalyptus.records.Logs;
 import com.eucalyptus.util.Consumer;
 import com.eucalyptus.util.Consumers;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.StackConfiguration;
 import com.eucalyptus.ws.util.ReplyQueue;
 
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
@@ -89,35 +94,109 @@ import static org.hamcrest.Matchers.notNullValue;
 
 public class Contexts {
   private static Logger                          LOG             = Logger.getLogger( Contexts.class );
-  private static int                             MAX             = 8192;
-  private static int                             CONCUR          = MAX / ( Runtime.getRuntime( ).availableProcessors( ) * 2 + 1 );
-  private static float                           THRESHOLD       = 1.0f;
-  private static ConcurrentMap<String, Context>  uuidContexts    = new ConcurrentHashMap<String, Context>( MAX, THRESHOLD, CONCUR );
-  private static ConcurrentMap<Channel, Context> channelContexts = new ConcurrentHashMap<Channel, Context>( MAX, THRESHOLD, CONCUR );
+  private static final long                      CLOSED_GRACE_SECS = 60;
+  private static final ContextRegistry           registry        = new ContextRegistry( );
+  
+  static {
+    Mbeans.register( new ContextStatistics( ) );
+  }
+  
+  /**
+   * JMX view of the request context registry.
+   */
+  public interface ContextStatisticsMXBean {
+    int getLiveCount( );
+    int getPeakCount( );
+    long getLeakedCount( );
+  }
+  
+  private static class ContextStatistics implements ContextStatisticsMXBean {
+    @Override
+    public int getLiveCount( ) {
+      return registry.getLiveCount( );
+    }
+    
+    @Override
+    public int getPeakCount( ) {
+      return registry.getPeakCount( );
+    }
+    
+    @Override
+    public long getLeakedCount( ) {
+      return registry.getLeakedCount( );
+    }
+  }
+  
+  /**
+   * Periodically clear contexts that were not cleared on response.
+   */
+  public static class ContextSweepListener implements EventListener<Hertz> {
+    public static void register( ) {
+      Listeners.register( Hertz.class, new ContextSweepListener( ) );
+    }
+    
+    @Override
+    public void fireEvent( final Hertz event ) {
+      if ( event.isAsserted( 10 ) ) {
+        sweep( );
+      }
+    }
+  }
   
   static boolean hasOutstandingRequests( ) {
-    return uuidContexts.keySet( ).size( ) > 0;
+    return !registry.isEmpty( );
   }
   
   public static Context create( MappingHttpRequest request, Channel channel ) {
     Context ctx = new Context( request, channel );
     request.setCorrelationId( ctx.getCorrelationId( ) );
-    uuidContexts.put( ctx.getCorrelationId( ), ctx );
-    final Context previousContext = channelContexts.put( channel, ctx );
+    final Context previousContext = registry.register( ctx.getCorrelationId( ), ctx, channel );
     if ( previousContext != null && previousContext.getCorrelationId() != null ) {
-      uuidContexts.remove( previousContext.getCorrelationId() );
+      registry.remove( previousContext.getCorrelationId() );
     }
     return ctx;
   }
   
   public static Context update ( Context ctx, final String correlationId) {
     final String oldId = ctx.getCorrelationId();
-    uuidContexts.remove(oldId);
     ctx.setCorrelationId(correlationId);
-    uuidContexts.put( ctx.getCorrelationId( ), ctx );
+    registry.rekey( ctx, oldId, ctx.getCorrelationId( ) );
     return ctx;
   }
   
+  /**
+   * @return The number of registered contexts
+   */
+  public static int getLiveCount( ) {
+    return registry.getLiveCount( );
+  }
+  
+  /**
+   * @return The maximum number of contexts registered at any time
+   */
+  public static int getPeakCount( ) {
+    return registry.getPeakCount( );
+  }
+  
+  /**
+   * @return The number of stale contexts cleared by sweeping
+   */
+  public static long getLeakedCount( ) {
+    return registry.getLeakedCount( );
+  }
+  
+  static void sweep( ) {
+    final long maxAgeSecs = StackConfiguration.CONTEXT_MAX_AGE_SECS;
+    if ( maxAgeSecs <= 0 ) return;
+    for ( final Context ctx : registry.sweep(
+        System.nanoTime( ),
+        TimeUnit.SECONDS.toNanos( maxAgeSecs ),
+        TimeUnit.SECONDS.toNanos( Math.min( maxAgeSecs, CLOSED_GRACE_SECS ) ) ) ) {
+      LOG.debug( "Clearing stale context for correlationId=" + ctx.getCorrelationId( ) );
+      ctx.clear( );
+    }
+  }
+  
   public static boolean exists( ) {
     try {
       lookup( );
@@ -127,21 +206,32 @@ public class Contexts {
     }
   }
   public static boolean exists( Channel channel ) {
-    return channelContexts.containsKey( channel );
+    return registry.exists( channel );
   }
   
   public static Context lookup( Channel channel ) throws NoSuchContextException {
-    if ( !channelContexts.containsKey( channel ) ) {
+    final Context ctx = registry.lookup( channel );
+    if ( ctx == null ) {
       throw new NoSuchContextException( "Found channel context " + channel + " but no corresponding context." );
     } else {
-      Context ctx = channelContexts.get( channel );
       ctx.setMuleEvent( RequestContext.getEvent( ) );
       return Context.maybeImpersonating( ctx );
     }
   }
   
+  /**
+   * Lookup the request message type for a channel without binding the context.
+   *
+   * @return The type or null if there is no context or request for the channel
+   */
+  @Nullable
+  public static Class<? extends BaseMessage> lookupRequestType( Channel channel ) {
+    final Context ctx = registry.lookup( channel );
+    return ctx == null ? null : ctx.getRequestType( );
+  }
+  
   public static boolean exists( String correlationId ) {
-    return correlationId != null && uuidContexts.containsKey( correlationId );
+    return correlationId != null && registry.exists( correlationId );
   }
   
   private static ThreadLocal<Context> tlContext = new ThreadLocal<Context>( );
@@ -183,10 +273,10 @@ public class Contexts {
 
   public static Context lookup( String correlationId ) throws NoSuchContextException {
     checkParam( "BUG: correlationId is null.", correlationId, notNullValue() );
-    if ( !uuidContexts.containsKey( correlationId ) ) {
+    final Context ctx = registry.lookup( correlationId );
+    if ( ctx == null ) {
       throw new NoSuchContextException( "Found correlation id " + correlationId + " but no corresponding context." );
     } else {
-      Context ctx = uuidContexts.get( correlationId );
       ctx.setMuleEvent( RequestContext.getEvent( ) );
       return Context.maybeImpersonating( ctx );
     }
@@ -228,11 +318,8 @@ public class Contexts {
   
   public static void clear( String corrId ) {
     checkParam( "BUG: correlationId is null.", corrId, notNullValue() );
-    Context ctx = uuidContexts.remove( corrId );
-    Channel channel = null;
-    if ( ctx != null && ( channel = ctx.getChannel( ) ) != null ) {
-      channelContexts.remove( channel );
-    } else {
+    Context ctx = registry.remove( corrId );
+    if ( ctx == null || ctx.getChannelUnchecked( ) == null ) {
       LOG.trace( "Context.clear() failed for correlationId=" + corrId );
       Logs.extreme( ).trace( "Context.clear() failed for correlationId=" + corrId, new RuntimeException( "Missing reference to channel for the request." ) );
     }
@@ -248,11 +335,14 @@ public class Contexts {
   }
   
   public static Context createWrapped( String dest, final BaseMessage msg ) {
-    if ( uuidContexts.containsKey( msg.getCorrelationId( ) ) ) {
+    if ( registry.exists( msg.getCorrelationId( ) ) ) {
       return null;
     } else {
       Context ctx = new Context( dest, msg );
-      uuidContexts.put( ctx.getCorrelationId( ), ctx );
+      if ( !registry.registerIfAbsent( ctx.getCorrelationId( ), ctx ) ) {
+        ctx.clear( );
+        return null;
+      }
       return Context.maybeImpersonating( ctx );
     }
   }
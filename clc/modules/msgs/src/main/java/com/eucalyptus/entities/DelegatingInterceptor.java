@@ -64,14 +64,18 @@ package com.eucalyptus.entities;
 
 import java.io.Serializable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import org.hibernate.CallbackException;
 import org.hibernate.EntityMode;
 import org.hibernate.Interceptor;
 import org.hibernate.Transaction;
 import org.hibernate.type.Type;
+import com.google.common.collect.Lists;
 
 public class DelegatingInterceptor implements Interceptor {
   private final Interceptor interceptor;
+  private final List<Map.Entry<Object,Serializable>> changes = Lists.newArrayList( );
   
   public DelegatingInterceptor( ) {
     this.interceptor = Interceptors.get( );
@@ -87,14 +91,17 @@ public class DelegatingInterceptor implements Interceptor {
   }
   
   public boolean onFlushDirty( Object entity, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types ) throws CallbackException {
+    trackChange( entity, id );
     return this.interceptor.onFlushDirty( entity, id, currentState, previousState, propertyNames, types );
   }
   
   public boolean onSave( Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types ) throws CallbackException {
+    trackChange( entity, id );
     return this.interceptor.onSave( entity, id, state, propertyNames, types );
   }
   
   public void onDelete( Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types ) throws CallbackException {
+    trackChange( entity, id );
     this.interceptor.onDelete( entity, id, state, propertyNames, types );
   }
   
@@ -147,11 +154,24 @@ public class DelegatingInterceptor implements Interceptor {
   }
   
   public void afterTransactionCompletion( Transaction tx ) {
+    try {
+      if ( !this.changes.isEmpty( ) && tx != null && tx.wasCommitted( ) ) {
+        EntityCommitListeners.fire( this.changes );
+      }
+    } finally {
+      this.changes.clear( );
+    }
     this.interceptor.afterTransactionCompletion( tx );
   }
   
   public String onPrepareStatement( String sql ) {
     return this.interceptor.onPrepareStatement( sql );
   }
+
+  private void trackChange( Object entity, Serializable id ) {
+    if ( id != null && EntityCommitListeners.isTracked( entity ) ) {
+      this.changes.add( EntityCommitListeners.change( entity, id ) );
+    }
+  }
   
 }
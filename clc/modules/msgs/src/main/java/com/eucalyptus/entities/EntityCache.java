@@ -19,28 +19,46 @@
  ************************************************************************/
 package com.eucalyptus.entities;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
 import org.hibernate.criterion.Example;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import com.eucalyptus.util.Pair;
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
+ * Cache of transformed entities, refreshed by comparing entity versions.
  *
+ * <p>By default the cache is refreshed on every read without locking. When
+ * created with a refresh interval the cache is fully refreshed at most once
+ * per interval and in between only entities changed by transactions
+ * committed in this JVM are reloaded, so reads are constant time when
+ * nothing has changed. Concurrent readers share a single refresh.</p>
  */
 public class EntityCache<E extends AbstractPersistent, TE> implements Supplier<Iterable<TE>> {
 
   private static final int batchSize = 500;
   private final E example;
   private final Function<? super E,TE> transformFunction;
-  private final ConcurrentMap<Pair<String,Integer>,TE> cache = Maps.newConcurrentMap( );
+  private final Supplier<Long> refreshIntervalMillis;
+  private final Object refreshLock = new Object( );
+  private final ConcurrentMap<String,Pair<Integer,TE>> cache = Maps.newConcurrentMap( );
+  private final Set<String> changedIds = Collections.newSetFromMap( Maps.<String,Boolean>newConcurrentMap( ) );
+  private volatile List<TE> values = ImmutableList.of( );
+  private volatile long lastRefresh;
 
   /**
    * Create an entity cache for the given example.
@@ -50,12 +68,37 @@ public class EntityCache<E extends AbstractPersistent, TE> implements Supplier<I
    */
   public EntityCache( final E example,
                       final Function<? super E,TE> transformFunction ) {
+    this( example, transformFunction, null );
+  }
+
+  /**
+   * Create an entity cache for the given example.
+   *
+   * @param example The example object
+   * @param transformFunction Function to transform to immutable cache format
+   * @param refreshIntervalMillis Supplier for the full refresh interval, null to refresh on every read
+   */
+  public EntityCache( final E example,
+                      final Function<? super E,TE> transformFunction,
+                      @Nullable final Supplier<Long> refreshIntervalMillis ) {
     this.example = example;
     this.transformFunction = transformFunction;
+    this.refreshIntervalMillis = refreshIntervalMillis;
+    if ( refreshIntervalMillis != null ) {
+      EntityCommitListeners.register( example.getClass( ), new EntityCommitListeners.EntityCommitListener( ) {
+        @Override
+        public void committed( final Set<String> ids ) {
+          changedIds.addAll( ids );
+        }
+      } );
+    }
   }
 
+  /**
+   * Load the identifier and version of each matching entity.
+   */
   @SuppressWarnings( "unchecked" )
-  private List<Pair<String,Integer>> loadVersionMap( ) {
+  List<Pair<String,Integer>> loadVersionMap( ) {
     try ( final TransactionResource db = Entities.transactionFor( example ) ){
       List<Object[]> idVersionList = (List<Object[]>) Entities.createCriteria( example.getClass( ) )
           .add( Example.create( example ) )
@@ -68,31 +111,104 @@ public class EntityCache<E extends AbstractPersistent, TE> implements Supplier<I
     }
   }
 
+  /**
+   * Load and transform the matching entities with the given identifiers.
+   *
+   * @return The version and transformed entity by identifier
+   */
   @SuppressWarnings( { "unchecked", "ConstantConditions" } )
+  Map<String,Pair<Integer,TE>> loadEntities( final List<String> ids ) {
+    final Map<String,Pair<Integer,TE>> loaded = Maps.newHashMap( );
+    try ( final TransactionResource db = Entities.transactionFor( example ) ) {
+      List<E> entities = (List<E>) Entities.createCriteria( example.getClass( ) )
+          .add( Example.create( example ) )
+          .setReadOnly( true )
+          .setCacheable( false )
+          .setFetchSize( batchSize )
+          .add( Restrictions.in( "id", ids ) )
+          .list( );
+      for ( final E entity : entities ) {
+        loaded.put( getId( entity ), Pair.pair( entity.getVersion( ), transformFunction.apply( entity ) ) );
+      }
+    }
+    return loaded;
+  }
+
+  long timestamp( ) {
+    return System.currentTimeMillis( );
+  }
+
+  /**
+   * Load the entities with the given identifiers, removing any that are no
+   * longer present.
+   */
+  private void load( final Collection<String> ids ) {
+    for ( List<String> idBatch : Iterables.partition( ids, batchSize ) ) {
+      final Set<String> missingIds = Sets.newHashSet( idBatch );
+      final Map<String,Pair<Integer,TE>> loaded = loadEntities( idBatch );
+      missingIds.removeAll( loaded.keySet( ) );
+      cache.putAll( loaded );
+      cache.keySet( ).removeAll( missingIds );
+    }
+  }
+
   private void refresh( ) {
-    final List<Pair<String,Integer>> currentKeys = loadVersionMap( );
-    cache.keySet( ).retainAll( currentKeys );
-    currentKeys.removeAll( cache.keySet( ) );
-    for ( List<Pair<String,Integer>> keyBatch : Iterables.partition( currentKeys, batchSize ) ) {
-      try ( final TransactionResource db = Entities.transactionFor( example ) ) {
-        List<E> entities = (List<E>) Entities.createCriteria( example.getClass( ) )
-            .add( Example.create( example ) )
-            .setReadOnly( true )
-            .setCacheable( false )
-            .setFetchSize( batchSize )
-            .add( Restrictions.in( "id", Lists.newArrayList( Iterables.transform( keyBatch, Pair.<String,Integer>left( ) ) ) ) )
-            .list( );
-        for ( final E entity : entities ) {
-          cache.put( Pair.pair( getId( entity ), entity.getVersion( ) ), transformFunction.apply( entity ) );
-        }
+    final Map<String,Integer> currentVersions = Maps.newHashMap( );
+    for ( final Pair<String,Integer> idAndVersion : loadVersionMap( ) ) {
+      currentVersions.put( idAndVersion.getLeft( ), idAndVersion.getRight( ) );
+    }
+    cache.keySet( ).retainAll( currentVersions.keySet( ) );
+    final List<String> staleIds = Lists.newArrayList( );
+    for ( final Map.Entry<String,Integer> entry : currentVersions.entrySet( ) ) {
+      final Pair<Integer,TE> cached = cache.get( entry.getKey( ) );
+      if ( cached == null || !Objects.equals( cached.getLeft( ), entry.getValue( ) ) ) {
+        staleIds.add( entry.getKey( ) );
       }
     }
+    load( staleIds );
+  }
+
+  private void refreshChanged( ) {
+    final List<String> ids = Lists.newArrayList( changedIds );
+    changedIds.removeAll( ids );
+    load( ids );
   }
 
   @Override
   public Iterable<TE> get( ) {
-    refresh( );
-    return Lists.newArrayList( cache.values( ) );
+    if ( refreshIntervalMillis == null ) {
+      refresh( );
+      return currentValues( );
+    } else {
+      final long now = timestamp( );
+      final long interval = refreshIntervalMillis.get( );
+      if ( now - lastRefresh >= interval || !changedIds.isEmpty( ) ) {
+        synchronized ( refreshLock ) { // recheck, another reader may have refreshed
+          if ( now - lastRefresh >= interval ) {
+            changedIds.clear( );
+            refresh( );
+            lastRefresh = now;
+            updateValues( );
+          } else if ( !changedIds.isEmpty( ) ) {
+            refreshChanged( );
+            updateValues( );
+          }
+        }
+      }
+    }
+    return values;
+  }
+
+  private void updateValues( ) {
+    values = currentValues( );
+  }
+
+  private List<TE> currentValues( ) {
+    final List<TE> currentValues = Lists.newArrayListWithCapacity( cache.size( ) );
+    for ( final Pair<Integer,TE> versionAndValue : cache.values( ) ) {
+      currentValues.add( versionAndValue.getRight( ) );
+    }
+    return ImmutableList.copyOf( currentValues );
   }
 
   private String getId( final E entity ) {
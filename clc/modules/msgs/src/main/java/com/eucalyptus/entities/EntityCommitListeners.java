@@ -0,0 +1,105 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.entities;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.log4j.Logger;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Registry for listeners notified of entities changed by committed transactions.
+ *
+ * <p>Changes are tracked per session by the {@link DelegatingInterceptor}
+ * and are only tracked for entity types with a registered listener.</p>
+ *
+ * <p>Only changes made via Hibernate in this JVM are seen, so listeners
+ * must not rely on notifications alone.</p>
+ */
+class EntityCommitListeners {
+
+  private static final Logger logger = Logger.getLogger( EntityCommitListeners.class );
+  private static final List<Registration> registrations = new CopyOnWriteArrayList<>( );
+
+  interface EntityCommitListener {
+    /**
+     * Called after commit of a transaction that saved, updated or deleted
+     * entities of the registered type.
+     *
+     * @param ids The identifiers of the changed entities
+     */
+    void committed( Set<String> ids );
+  }
+
+  static void register( final Class<?> type,
+                        final EntityCommitListener listener ) {
+    registrations.add( new Registration( type, listener ) );
+  }
+
+  static boolean isTracked( final Object entity ) {
+    if ( entity != null ) for ( final Registration registration : registrations ) {
+      if ( registration.type.isInstance( entity ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Notify listeners of changes from a committed transaction.
+   *
+   * @param changes The changed entities and their identifiers
+   */
+  static void fire( final Collection<Map.Entry<Object,Serializable>> changes ) {
+    for ( final Registration registration : registrations ) {
+      final Set<String> ids = Sets.newHashSet( );
+      for ( final Map.Entry<Object,Serializable> change : changes ) {
+        if ( registration.type.isInstance( change.getKey( ) ) ) {
+          ids.add( Objects.toString( change.getValue( ) ) );
+        }
+      }
+      if ( !ids.isEmpty( ) ) try {
+        registration.listener.committed( ids );
+      } catch ( final Exception e ) {
+        logger.error( "Error notifying listener of committed changes for " + registration.type.getSimpleName( ), e );
+      }
+    }
+  }
+
+  static Map.Entry<Object,Serializable> change( final Object entity, final Serializable id ) {
+    return Maps.immutableEntry( entity, id );
+  }
+
+  private static final class Registration {
+    private final Class<?> type;
+    private final EntityCommitListener listener;
+
+    private Registration( final Class<?> type, final EntityCommitListener listener ) {
+      this.type = type;
+      this.listener = listener;
+    }
+  }
+}
@@ -0,0 +1,300 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.entities;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nonnull;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.component.id.Eucalyptus;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.system.Threads;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Base class for an in-memory index of entity values that is loaded from the
+ * database on first use and then maintained from entity callbacks.
+ *
+ * Callbacks should apply their changes using {@link #afterCommit} so the
+ * index only sees committed changes. Changes that are not seen, such as bulk
+ * deletes, are repaired when the index is periodically reconciled against
+ * the database. Values updated while the reconciliation was reading from
+ * the database are skipped, they are reconciled next time.
+ *
+ * Subclasses maintain their own lookup structures in {@link #put},
+ * {@link #delete} and {@link #clear}, which are called holding the update
+ * lock, and should read them without locking.
+ *
+ * @param <V> The indexed value type
+ */
+public abstract class ReconciledIndex<V> {
+  private static final Logger LOG = Logger.getLogger( ReconciledIndex.class );
+
+  private final String name;
+  private final Object updateLock = new Object( );
+  private final Map<String,Long> updated = Maps.newHashMap( ); // guarded by updateLock
+  private long sequence; // guarded by updateLock
+  private volatile boolean loaded;
+
+  protected ReconciledIndex( @Nonnull final String name ) {
+    this.name = name;
+  }
+
+  public String getName( ) {
+    return name;
+  }
+
+  public boolean isLoaded( ) {
+    return loaded;
+  }
+
+  /**
+   * Load the index if it is not already loaded.
+   */
+  public void load( final Supplier<? extends Iterable<V>> loader ) {
+    if ( loaded ) return;
+    synchronized ( updateLock ) {
+      if ( loaded ) return;
+      clear( );
+      updated.clear( );
+      for ( final V value : loader.get( ) ) {
+        put( value );
+      }
+      loaded = true;
+    }
+  }
+
+  /**
+   * Discard the index, it will be loaded again on next use.
+   */
+  public void invalidate( ) {
+    synchronized ( updateLock ) {
+      loaded = false;
+      clear( );
+      updated.clear( );
+    }
+  }
+
+  /**
+   * Add or replace a value, ignored if the index is not loaded.
+   */
+  public void update( @Nonnull final V value ) {
+    synchronized ( updateLock ) {
+      if ( !loaded ) return;
+      updated.put( keyOf( value ), ++sequence );
+      put( value );
+    }
+  }
+
+  /**
+   * Remove the value for a key, ignored if the index is not loaded.
+   */
+  public void remove( @Nonnull final String key ) {
+    synchronized ( updateLock ) {
+      if ( !loaded ) return;
+      updated.put( key, ++sequence );
+      delete( key );
+    }
+  }
+
+  /**
+   * Reconcile the index against the given (current) values and repair any
+   * differences.
+   *
+   * @return The number of values repaired
+   */
+  public int reconcile( final Supplier<? extends Iterable<V>> loader ) {
+    final long start;
+    synchronized ( updateLock ) {
+      if ( !loaded ) return 0;
+      start = sequence;
+    }
+    final Map<String,V> current = Maps.newHashMap( );
+    for ( final V value : loader.get( ) ) {
+      if ( isIndexed( value ) ) {
+        current.put( keyOf( value ), value );
+      }
+    }
+    int repaired = 0;
+    synchronized ( updateLock ) {
+      if ( !loaded ) return 0;
+      for ( final Map.Entry<String,V> entry : current.entrySet( ) ) {
+        final V indexed = get( entry.getKey( ) );
+        if ( !entry.getValue( ).equals( indexed ) && !updatedSince( entry.getKey( ), start ) ) {
+          LOG.log( getRepairLogLevel( ), "Repairing " + name + " for " + entry.getKey( ) + " " + indexed + " -> " + entry.getValue( ) );
+          put( entry.getValue( ) );
+          repaired++;
+        }
+      }
+      for ( final String key : Lists.newArrayList( keys( ) ) ) {
+        if ( !current.containsKey( key ) && !updatedSince( key, start ) ) {
+          LOG.log( getRepairLogLevel( ), "Repairing " + name + " for " + key + " " + get( key ) + " -> none" );
+          delete( key );
+          repaired++;
+        }
+      }
+      for ( final Iterator<Long> iterator = updated.values( ).iterator( ); iterator.hasNext( ); ) {
+        if ( iterator.next( ) <= start ) iterator.remove( );
+      }
+    }
+    return repaired;
+  }
+
+  private boolean updatedSince( final String key, final long start ) {
+    final Long updatedAt = updated.get( key );
+    return updatedAt != null && updatedAt > start;
+  }
+
+  /**
+   * The key for a value.
+   */
+  protected abstract String keyOf( V value );
+
+  /**
+   * The indexed value for a key.
+   */
+  protected abstract V get( String key );
+
+  /**
+   * The keys of all indexed values.
+   */
+  protected abstract Iterable<String> keys( );
+
+  /**
+   * Add or replace a value, called holding the update lock.
+   */
+  protected abstract void put( V value );
+
+  /**
+   * Remove the value for a key if present, called holding the update lock.
+   */
+  protected abstract void delete( String key );
+
+  /**
+   * Remove all values, called holding the update lock.
+   */
+  protected abstract void clear( );
+
+  /**
+   * Is the value present in the index once put, values that are not are
+   * ignored when reconciling.
+   */
+  protected boolean isIndexed( final V value ) {
+    return true;
+  }
+
+  protected Level getRepairLogLevel( ) {
+    return Level.DEBUG;
+  }
+
+  /**
+   * Run an index update when the current transaction for the given entity
+   * type commits. The update is discarded if the transaction rolls back.
+   *
+   * @param entityClass The entity type whose transaction to follow
+   * @param update The update, which should capture the entity state when called
+   */
+  public static void afterCommit( final Class<?> entityClass,
+                                  final Runnable update ) {
+    Entities.registerSynchronization( entityClass, new Synchronization( ) {
+      @Override public void beforeCompletion( ) { }
+      @Override public void afterCompletion( final int status ) {
+        if ( Status.STATUS_COMMITTED == status ) try {
+          update.run( );
+        } catch ( final Exception ex ) {
+          LOG.error( "Error updating index after commit", ex );
+        }
+      }
+    } );
+  }
+
+  /**
+   * Clock tick listener that periodically reconciles indexes in the
+   * background.
+   */
+  public static abstract class ReconcileEventListener implements EventListener<ClockTick> {
+    private final AtomicBoolean ready = new AtomicBoolean( true );
+    private volatile long lastReconcile = System.currentTimeMillis( );
+
+    /**
+     * @return The reconciliation interval in milliseconds
+     */
+    protected abstract long getInterval( );
+
+    /**
+     * Reconcile the indexes, called on a background thread.
+     */
+    protected abstract void reconcile( );
+
+    /**
+     * @return True if reconciliation should run now, subject to the interval
+     */
+    protected boolean isReconcileEnabled( ) {
+      return Bootstrap.isFinished( );
+    }
+
+    @Override
+    public void fireEvent( final ClockTick event ) {
+      if ( isReconcileEnabled( ) &&
+          ( System.currentTimeMillis( ) - lastReconcile ) > getInterval( ) &&
+          ready.compareAndSet( true, false ) ) {
+        try {
+          Threads.enqueue( Eucalyptus.class, getClass( ), new Callable<Boolean>( ) {
+            @Override
+            public Boolean call( ) {
+              try {
+                reconcile( );
+                return true;
+              } catch ( final Exception ex ) {
+                LOG.error( "Error reconciling indexes", ex );
+                return false;
+              } finally {
+                lastReconcile = System.currentTimeMillis( );
+                ready.set( true );
+              }
+            }
+          } );
+        } catch ( final Exception ex ) {
+          ready.set( true );
+        }
+      }
+    }
+
+    /**
+     * Reconcile an index and log any repairs.
+     */
+    protected static <V> void reconcileAndLog( final ReconciledIndex<V> index,
+                                               final Supplier<? extends Iterable<V>> loader ) {
+      final int repaired = index.reconcile( loader );
+      if ( repaired > 0 ) {
+        LOG.info( "Repaired " + repaired + " entries in " + index.getName( ) );
+      }
+    }
+  }
+}
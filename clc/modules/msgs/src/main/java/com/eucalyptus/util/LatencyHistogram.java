@@ -0,0 +1,143 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory, lock free latency histogram.
+ *
+ * <p>Values are recorded in microseconds into log-linear buckets (each power
+ * of two is split into {@value #SUB_BUCKETS} linear sub-buckets) so reported
+ * percentiles are accurate to within ~12%. Recording does not allocate.</p>
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_SHIFT = 33; // ~ 2^36 micros, about 19 hours
+  private static final int BUCKETS = ( MAX_SHIFT + 2 ) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+  private final AtomicLong count = new AtomicLong( );
+  private final AtomicLong total = new AtomicLong( );
+  private final AtomicLong max = new AtomicLong( );
+
+  public void record( final long duration, final TimeUnit unit ) {
+    recordMicros( unit.toMicros( duration ) );
+  }
+
+  public void recordNanos( final long nanos ) {
+    recordMicros( TimeUnit.NANOSECONDS.toMicros( nanos ) );
+  }
+
+  public void recordMicros( final long micros ) {
+    final long value = Math.max( 0L, micros );
+    counts.incrementAndGet( index( value ) );
+    count.incrementAndGet( );
+    total.addAndGet( value );
+    long currentMax;
+    while ( value > ( currentMax = max.get( ) ) && !max.compareAndSet( currentMax, value ) );
+  }
+
+  public long getCount( ) {
+    return count.get( );
+  }
+
+  public long getMaxMicros( ) {
+    return max.get( );
+  }
+
+  public long getMeanMicros( ) {
+    final long currentCount = count.get( );
+    return currentCount == 0 ? 0 : total.get( ) / currentCount;
+  }
+
+  /**
+   * Get the value at the given percentile.
+   *
+   * @param percentile The percentile in the range (0,100]
+   * @return The upper bound of the bucket containing the percentile, in microseconds
+   */
+  public long getPercentileMicros( final double percentile ) {
+    long totalCount = 0;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      totalCount += counts.get( i );
+    }
+    if ( totalCount == 0 ) {
+      return 0;
+    }
+    final long target = Math.max( 1L, (long) Math.ceil( totalCount * Math.min( 100d, percentile ) / 100d ) );
+    long seen = 0;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      seen += counts.get( i );
+      if ( seen >= target ) {
+        return Math.min( upperValue( i ), getMaxMicros( ) );
+      }
+    }
+    return getMaxMicros( );
+  }
+
+  public void reset( ) {
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      counts.set( i, 0 );
+    }
+    count.set( 0 );
+    total.set( 0 );
+    max.set( 0 );
+  }
+
+  /**
+   * Summary of the histogram, e.g. "count=10 mean=5 p50=4 p90=9 p99=12 max=12 (usec)"
+   */
+  public String summary( ) {
+    return "count=" + getCount( ) +
+        " mean=" + getMeanMicros( ) +
+        " p50=" + getPercentileMicros( 50 ) +
+        " p90=" + getPercentileMicros( 90 ) +
+        " p99=" + getPercentileMicros( 99 ) +
+        " max=" + getMaxMicros( ) +
+        " (usec)";
+  }
+
+  @Override
+  public String toString( ) {
+    return summary( );
+  }
+
+  static int index( final long value ) {
+    if ( value < SUB_BUCKETS ) {
+      return (int) value;
+    }
+    final int shift = Math.min( 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS, MAX_SHIFT );
+    final long subBucket = Math.min( ( value >>> shift ) - SUB_BUCKETS, SUB_BUCKETS - 1 );
+    return ( shift + 1 ) * SUB_BUCKETS + (int) subBucket;
+  }
+
+  static long upperValue( final int index ) {
+    if ( index < SUB_BUCKETS ) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKETS - 1;
+    final long subBucket = index % SUB_BUCKETS;
+    return ( ( SUB_BUCKETS + subBucket + 1 ) << shift ) - 1;
+  }
+}
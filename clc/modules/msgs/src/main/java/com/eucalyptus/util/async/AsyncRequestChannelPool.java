@@ -0,0 +1,376 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.async;
+
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import com.eucalyptus.component.ServiceConfiguration;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.StackConfiguration;
+import com.eucalyptus.ws.WebServices;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Pool of keep-alive channels for internal requests.
+ *
+ * Channels are pooled by service address and client pipeline. A request
+ * leases an idle channel if one is available, else connects a new channel
+ * if the pool is not full, else waits for a channel to be released or
+ * closed. Idle channels are checked before reuse and are closed once idle
+ * for longer than the configured time.
+ *
+ * The request handler is added to the channel pipeline when the channel is
+ * leased and removed when the channel is released.
+ */
+public class AsyncRequestChannelPool {
+  private static final String REQUEST_HANDLER = "request-handler";
+  private static final ConcurrentMap<String,AsyncRequestChannelPool> pools = Maps.newConcurrentMap( );
+
+  private static final AtomicLong hits = new AtomicLong( );
+  private static final AtomicLong opens = new AtomicLong( );
+  private static final AtomicLong waits = new AtomicLong( );
+  private static final AtomicLong evictions = new AtomicLong( );
+
+  static {
+    Mbeans.register( new ChannelPoolStatistics( ) );
+  }
+
+  private final SocketAddress address;
+  private final ClientBootstrap bootstrap;
+  private final Object lock = new Object( );
+  private final Deque<IdleChannel> idle = new ArrayDeque<>( ); // guarded by lock
+  private final Deque<Lease> waiting = new ArrayDeque<>( ); // guarded by lock
+  private int open; // guarded by lock, includes channels that are connecting
+  private final ChannelFutureListener closeListener = new ChannelFutureListener( ) {
+    @Override
+    public void operationComplete( final ChannelFuture future ) {
+      closed( future.getChannel( ) );
+    }
+  };
+
+  private AsyncRequestChannelPool( final SocketAddress address,
+                                   final ChannelPipelineFactory factory ) {
+    this( address, WebServices.clientBootstrap( factory ) );
+  }
+
+  AsyncRequestChannelPool( final SocketAddress address,
+                           final ClientBootstrap bootstrap ) {
+    this.address = address;
+    this.bootstrap = bootstrap;
+  }
+
+  static boolean isEnabled( ) {
+    return StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL;
+  }
+
+  /**
+   * Get the pool for a service and client pipeline.
+   */
+  static AsyncRequestChannelPool forService( final ServiceConfiguration config,
+                                             final ChannelPipelineFactory factory ) {
+    final SocketAddress address = config.getSocketAddress( );
+    final String key = factory.getClass( ).getName( ) + "|" + address;
+    AsyncRequestChannelPool pool = pools.get( key );
+    if ( pool == null ) {
+      final AsyncRequestChannelPool newPool = new AsyncRequestChannelPool( address, factory );
+      pool = Objects.firstNonNull( pools.putIfAbsent( key, newPool ), newPool );
+    }
+    return pool;
+  }
+
+  /**
+   * Lease a channel for a request.
+   *
+   * The returned future completes when the channel is connected and the
+   * handler has been added to its pipeline. The future can be cancelled if
+   * the request is abandoned.
+   *
+   * @param handler The request handler to add to the channel pipeline
+   * @return The future for the leased channel
+   */
+  Lease lease( final ChannelHandler handler ) {
+    final Lease lease = new Lease( handler );
+    final List<Channel> stale = Lists.newArrayList( );
+    Channel channel = null;
+    boolean connect = false;
+    final long now = timestamp( );
+    synchronized ( lock ) {
+      IdleChannel idleChannel;
+      while ( channel == null && ( idleChannel = idle.pollFirst( ) ) != null ) {
+        if ( idleChannel.isUsable( now ) ) {
+          channel = idleChannel.channel;
+        } else {
+          stale.add( idleChannel.channel );
+        }
+      }
+      if ( channel == null ) {
+        if ( open < maximum( ) ) {
+          open++;
+          connect = true;
+        } else {
+          waiting.addLast( lease );
+        }
+      }
+    }
+    evict( stale );
+    if ( channel != null ) {
+      hits.incrementAndGet( );
+      if ( !lease.leased( channel, true ) ) {
+        release( channel );
+      }
+    } else if ( connect ) {
+      connect( lease );
+    } else {
+      waits.incrementAndGet( );
+    }
+    return lease;
+  }
+
+  /**
+   * Release a channel following a completed request.
+   *
+   * The request handler is removed and the channel is passed to a waiting
+   * request or returned to the pool. Channels that are not connected or
+   * that are not needed are closed.
+   */
+  void release( final Channel channel ) {
+    final ChannelPipeline pipeline = channel.getPipeline( );
+    if ( pipeline.get( REQUEST_HANDLER ) != null ) {
+      pipeline.remove( REQUEST_HANDLER );
+    }
+    if ( !channel.isConnected( ) || !isEnabled( ) ) {
+      channel.close( );
+      return;
+    }
+    final List<Channel> stale = Lists.newArrayList( );
+    final long now = timestamp( );
+    boolean close = false;
+    Lease waiter;
+    do {
+      synchronized ( lock ) {
+        waiter = waiting.pollFirst( );
+        if ( waiter == null ) {
+          if ( open > maximum( ) ) {
+            close = true;
+          } else {
+            idle.addFirst( new IdleChannel( channel, now ) );
+          }
+          IdleChannel idleChannel;
+          while ( ( idleChannel = idle.peekLast( ) ) != null && !idleChannel.isUsable( now ) ) {
+            stale.add( idle.pollLast( ).channel );
+          }
+        }
+      }
+      if ( waiter != null ) {
+        hits.incrementAndGet( );
+      }
+    } while ( waiter != null && !waiter.leased( channel, true ) );
+    if ( close ) {
+      channel.close( );
+    }
+    evict( stale );
+  }
+
+  private void connect( final Lease lease ) {
+    opens.incrementAndGet( );
+    bootstrap.connect( address ).addListener( new ChannelFutureListener( ) {
+      @Override
+      public void operationComplete( final ChannelFuture future ) {
+        if ( future.isSuccess( ) ) {
+          future.getChannel( ).getCloseFuture( ).addListener( closeListener );
+          if ( !lease.leased( future.getChannel( ), false ) ) {
+            release( future.getChannel( ) );
+          }
+        } else {
+          final Lease waiter;
+          synchronized ( lock ) {
+            open--;
+            waiter = nextWaiter( );
+          }
+          lease.setFailure( future.getCause( ) );
+          if ( waiter != null ) {
+            connect( waiter );
+          }
+        }
+      }
+    } );
+  }
+
+  private void closed( final Channel channel ) {
+    final Lease waiter;
+    synchronized ( lock ) {
+      open--;
+      for ( final IdleChannel idleChannel : idle ) {
+        if ( idleChannel.channel == channel ) {
+          idle.remove( idleChannel );
+          break;
+        }
+      }
+      waiter = nextWaiter( );
+    }
+    if ( waiter != null ) {
+      connect( waiter );
+    }
+  }
+
+  /**
+   * Take the next waiting lease if there is capacity to connect for it.
+   */
+  private Lease nextWaiter( ) {
+    Lease waiter = null;
+    if ( open < maximum( ) ) {
+      while ( ( waiter = waiting.pollFirst( ) ) != null && waiter.isCancelled( ) );
+      if ( waiter != null ) {
+        open++;
+      }
+    }
+    return waiter;
+  }
+
+  private static void evict( final List<Channel> channels ) {
+    for ( final Channel channel : channels ) {
+      evictions.incrementAndGet( );
+      channel.close( );
+    }
+  }
+
+  protected long timestamp( ) {
+    return System.currentTimeMillis( );
+  }
+
+  private static int maximum( ) {
+    return Math.max( 1, StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_SIZE );
+  }
+
+  private static long idleMillis( ) {
+    return TimeUnit.SECONDS.toMillis( StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_IDLE_SECS );
+  }
+
+  private static final class IdleChannel {
+    private final Channel channel;
+    private final long since;
+
+    private IdleChannel( final Channel channel, final long since ) {
+      this.channel = channel;
+      this.since = since;
+    }
+
+    /**
+     * A closed connection is only seen here once the close is processed,
+     * requests on reused channels are retried if the channel closes before
+     * the request is written.
+     */
+    private boolean isUsable( final long now ) {
+      return channel.isOpen( ) &&
+          channel.isConnected( ) &&
+          channel.isWritable( ) &&
+          ( now - since ) <= idleMillis( );
+    }
+  }
+
+  /**
+   * Future for a leased channel, the channel is available once the lease
+   * succeeds.
+   */
+  static final class Lease extends DefaultChannelFuture {
+    private final ChannelHandler handler;
+    private volatile Channel channel;
+    private volatile boolean reused;
+
+    private Lease( final ChannelHandler handler ) {
+      super( null, true );
+      this.handler = handler;
+    }
+
+    @Override
+    public Channel getChannel( ) {
+      return channel;
+    }
+
+    /**
+     * Was the channel used for an earlier request.
+     */
+    boolean isReused( ) {
+      return reused;
+    }
+
+    private boolean leased( final Channel channel, final boolean reused ) {
+      if ( isDone( ) ) return false;
+      this.channel = channel;
+      this.reused = reused;
+      channel.getPipeline( ).addLast( REQUEST_HANDLER, handler );
+      if ( !setSuccess( ) ) {
+        channel.getPipeline( ).remove( handler );
+        return false;
+      }
+      return true;
+    }
+  }
+
+  public interface ChannelPoolStatisticsMXBean {
+    long getHits( );
+    long getOpens( );
+    long getWaits( );
+    long getEvictions( );
+    int getPools( );
+  }
+
+  private static class ChannelPoolStatistics implements ChannelPoolStatisticsMXBean {
+    @Override
+    public long getHits( ) {
+      return hits.get( );
+    }
+
+    @Override
+    public long getOpens( ) {
+      return opens.get( );
+    }
+
+    @Override
+    public long getWaits( ) {
+      return waits.get( );
+    }
+
+    @Override
+    public long getEvictions( ) {
+      return evictions.get( );
+    }
+
+    @Override
+    public int getPools( ) {
+      return pools.size( );
+    }
+  }
+}
@@ -63,14 +63,13 @@
 package com.eucalyptus.util.async;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.log4j.Logger;
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpMethod;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpVersion;
@@ -98,6 +97,10 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
 
   private ClientBootstrap              clientBootstrap;
   private ChannelFuture                connectFuture;
+  private ServiceConfiguration         config;
+  private AsyncRequestChannelPool      pool;
+  private volatile boolean             reused;
+  private final AtomicBoolean          retried       = new AtomicBoolean( false );
   
   private final AtomicBoolean          writeComplete = new AtomicBoolean( false );
   private final CheckedListenableFuture<R>   response;
@@ -123,31 +126,35 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
       final SocketAddress serviceSocketAddress = config.getSocketAddress( );
       final ChannelPipelineFactory factory = config.getComponentId( ).getClientPipeline( );
       try {
-        this.clientBootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
-          @Override
-          public ChannelPipeline getPipeline( ) throws Exception {
-            final ChannelPipeline pipeline = factory.getPipeline( );
-            pipeline.addLast( "request-handler", AsyncRequestHandler.this );
-            return pipeline;
-          }
-        } );
+        this.config = config;
+        this.reused = false;
 //TODO:GRZE: better logging here        LOG.debug( request.getClass( ).getSimpleName( ) + ":" + request.getCorrelationId( ) + " connecting to " + serviceSocketAddress );
         Logs.extreme( ).debug( EventRecord.here( request.getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_OPENING, request.getClass( ).getSimpleName( ),
                           request.getCorrelationId( ), serviceSocketAddress.toString( ) ) );
-        this.connectFuture = this.clientBootstrap.connect( serviceSocketAddress );
-        final HttpRequest httpRequest = new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, config, this.request.get( ) );
+        if ( AsyncRequestChannelPool.isEnabled( ) && !this.retried.get( ) ) {
+          this.pool = this.pool( config, factory );
+          this.connectFuture = this.pool.lease( this );
+        } else {
+          this.pool = null;
+          this.connectFuture = this.connect( serviceSocketAddress, factory );
+        }
         
         this.connectFuture.addListener( new ChannelFutureListener( ) {
           @Override
           public void operationComplete( final ChannelFuture future ) throws Exception {
             try {
               if ( future.isSuccess( ) ) {
+                AsyncRequestHandler.this.reused = future instanceof AsyncRequestChannelPool.Lease &&
+                    ( ( AsyncRequestChannelPool.Lease ) future ).isReused( );
+                if ( AsyncRequestHandler.this.reused && !future.getChannel( ).isConnected( ) ) {
+                  if ( !AsyncRequestHandler.this.maybeRetry( ) ) {
+                    AsyncRequestHandler.this.teardown( new RetryableConnectionException( "Channel was closed before the write operation could be completed", request ) );
+                  }
+                  return;
+                }
                 Logs.extreme( ).debug( "Connected as: " + future.getChannel( ).getLocalAddress( ) );
                 
-                final InetAddress localAddr = ( ( InetSocketAddress ) future.getChannel( ).getLocalAddress( ) ).getAddress( );
-                if ( !factory.getClass( ).getSimpleName( ).startsWith( "GatherLog" ) ) {
-                  Topology.populateServices( config, AsyncRequestHandler.this.request.get( ) );
-                }
+                final HttpRequest httpRequest = AsyncRequestHandler.this.httpRequest( config, factory );
 
                 Logs.extreme( ).debug(
                   EventRecord.here(
@@ -164,7 +171,7 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
                 future.getChannel( ).write( httpRequest ).addListener( new ChannelFutureListener( ) {
                   @Override
                   public void operationComplete( final ChannelFuture future ) throws Exception {
-                    AsyncRequestHandler.this.writeComplete.set( true );
+                    AsyncRequestHandler.this.writeComplete.set( future.isSuccess( ) );
                     
                     Logs.extreme( ).debug(
                       EventRecord.here(
@@ -196,6 +203,50 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     }
   }
   
+  /**
+   * Pool to lease a channel from for the service.
+   */
+  AsyncRequestChannelPool pool( final ServiceConfiguration config, final ChannelPipelineFactory factory ) {
+    return AsyncRequestChannelPool.forService( config, factory );
+  }
+
+  /**
+   * Connect a new channel for this request only.
+   */
+  ChannelFuture connect( final SocketAddress serviceSocketAddress, final ChannelPipelineFactory factory ) {
+    this.clientBootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
+      @Override
+      public ChannelPipeline getPipeline( ) throws Exception {
+        final ChannelPipeline pipeline = factory.getPipeline( );
+        pipeline.addLast( "request-handler", AsyncRequestHandler.this );
+        return pipeline;
+      }
+    } );
+    return this.clientBootstrap.connect( serviceSocketAddress );
+  }
+
+  /**
+   * Build the HTTP request to write once connected.
+   */
+  HttpRequest httpRequest( final ServiceConfiguration config, final ChannelPipelineFactory factory ) {
+    if ( !factory.getClass( ).getSimpleName( ).startsWith( "GatherLog" ) ) {
+      Topology.populateServices( config, this.request.get( ) );
+    }
+    return new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, config, this.request.get( ) );
+  }
+
+  /**
+   * A reused channel can be closed by the service while idle, in which case
+   * the request is retried once using a new connection if it was not written.
+   */
+  private boolean maybeRetry( ) {
+    if ( this.reused && !this.writeComplete.get( ) && !this.response.isDone( ) && this.retried.compareAndSet( false, true ) ) {
+      Logs.extreme( ).debug( "Retrying request on new connection: " + this.request.get( ).getClass( ).getSimpleName( ) );
+      return this.fire( this.config, this.request.getAndSet( null ) );
+    }
+    return false;
+  }
+
   private void teardown( Throwable t ) {
     if ( t == null ) {
       t = new NullPointerException( "teardown() called with null argument." );
@@ -255,7 +306,7 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
   public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent e ) throws Exception {
     if ( e instanceof MessageEvent ) {
       this.messageReceived( ctx, ( MessageEvent ) e );
-    } else if ( e instanceof ChannelStateEvent ) {
+    } else if ( e instanceof ChannelStateEvent && this.isCurrentChannel( ctx.getChannel( ) ) ) {
       final ChannelStateEvent evt = ( ChannelStateEvent ) e;
       switch ( evt.getState( ) ) {
         case OPEN:
@@ -275,18 +326,31 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     ctx.sendUpstream( e );
   }
   
+  /**
+   * State changes for a channel abandoned on retry are ignored.
+   */
+  private boolean isCurrentChannel( final Channel channel ) {
+    return this.connectFuture == null || this.connectFuture.getChannel( ) == null || this.connectFuture.getChannel( ) == channel;
+  }
+
   private void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) {
     try {
       if ( e.getMessage( ) instanceof MappingHttpResponse ) {
         final MappingHttpResponse response = ( MappingHttpResponse ) e.getMessage( );
         try {
           final R msg = ( R ) response.getMessage( );
+          final boolean release = this.pool != null && msg.get_return( ) && HttpHeaders.isKeepAlive( response );
+          if ( release ) {
+            this.pool.release( ctx.getChannel( ) );
+          }
           if ( !msg.get_return( ) ) {
             this.teardown( new FailedRequestException( "Cluster response includes _return=false", msg ) );
           } else {
             this.response.set( msg );
           }
-          e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
+          if ( !release ) {
+            e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
+          }
         } catch ( final Exception e1 ) {
           LOG.error( e1, e1 );
           this.teardown( e1 );
@@ -309,6 +373,9 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
   }
   
   private void checkFinished( final ChannelHandlerContext ctx, final ChannelStateEvent evt ) {
+    if ( this.maybeRetry( ) ) {
+      return;
+    }
     if ( ( this.connectFuture != null ) && !this.connectFuture.isSuccess( )
          && ( this.connectFuture.getCause( ) instanceof IOException ) ) {
       final Throwable ioError = this.connectFuture.getCause( );
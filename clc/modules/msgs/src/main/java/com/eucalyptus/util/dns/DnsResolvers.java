@@ -68,6 +68,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
@@ -80,6 +83,8 @@ import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.bootstrap.ServiceJarDiscovery;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
@@ -87,6 +92,7 @@ import com.google.common.collect.ClassToInstanceMap;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MutableClassToInstanceMap;
 
@@ -100,6 +106,11 @@ public class DnsResolvers extends ServiceJarDiscovery {
                                     + "See 'euca-describe-properties dns'." )
   public static Boolean enabled = Boolean.TRUE;
   private static final ClassToInstanceMap<DnsResolver> resolvers = MutableClassToInstanceMap.create( );
+  private static final ConcurrentMap<String, ResolverStatistics> resolverStatistics = Maps.newConcurrentMap( );
+
+  static {
+    Mbeans.register( new DnsResolverStatistics( ) );
+  }
   
   public enum RequestType implements Predicate<Record> {
     A( 1 ),
@@ -448,7 +459,7 @@ public class DnsResolvers extends ServiceJarDiscovery {
 // bit
     for ( final DnsResolver r : DnsResolvers.resolversFor( request ) ) {
       try {
-        final DnsResponse reply = r.lookupRecords( request );
+        final DnsResponse reply = timedLookup( r, request );
         if ( reply == null ) {
           LOG.debug( "DnsResolver: returned null " + name + " using " + r );
           continue;
@@ -480,6 +491,96 @@ public class DnsResolvers extends ServiceJarDiscovery {
     return SetResponse.ofType( SetResponse.UNKNOWN );// no dice, return unknown
   }
   
+  private static DnsResponse timedLookup( final DnsResolver resolver,
+                                         final DnsRequest request ) {
+    final ResolverStatistics statistics = statisticsFor( resolver );
+    final long start = System.nanoTime( );
+    boolean failed = true;
+    try {
+      final DnsResponse reply = resolver.lookupRecords( request );
+      failed = false;
+      return reply;
+    } finally {
+      statistics.record( System.nanoTime( ) - start, failed );
+    }
+  }
+
+  private static ResolverStatistics statisticsFor( final DnsResolver resolver ) {
+    final String name = resolver.getClass( ).getSimpleName( );
+    ResolverStatistics statistics = resolverStatistics.get( name );
+    if ( statistics == null ) {
+      final ResolverStatistics created = new ResolverStatistics( );
+      statistics = Objects.firstNonNull( resolverStatistics.putIfAbsent( name, created ), created );
+    }
+    return statistics;
+  }
+
+  private static final class ResolverStatistics {
+    private final AtomicLong lookups = new AtomicLong( );
+    private final AtomicLong failures = new AtomicLong( );
+    private final AtomicLong nanos = new AtomicLong( );
+    private final AtomicLong maxNanos = new AtomicLong( );
+
+    private void record( final long elapsed, final boolean failed ) {
+      lookups.incrementAndGet( );
+      if ( failed ) failures.incrementAndGet( );
+      nanos.addAndGet( elapsed );
+      long max;
+      while ( elapsed > ( max = maxNanos.get( ) ) && !maxNanos.compareAndSet( max, elapsed ) );
+    }
+  }
+
+  /**
+   * JMX view of lookups by resolver, keyed by resolver class name.
+   */
+  public interface DnsResolverStatisticsMXBean {
+    Map<String,Long> getLookups( );
+    Map<String,Long> getFailures( );
+    Map<String,Long> getAverageLookupMicros( );
+    Map<String,Long> getMaxLookupMicros( );
+  }
+
+  private static class DnsResolverStatistics implements DnsResolverStatisticsMXBean {
+    @Override
+    public Map<String,Long> getLookups( ) {
+      final Map<String,Long> values = Maps.newTreeMap( );
+      for ( final Map.Entry<String,ResolverStatistics> entry : resolverStatistics.entrySet( ) ) {
+        values.put( entry.getKey( ), entry.getValue( ).lookups.get( ) );
+      }
+      return values;
+    }
+
+    @Override
+    public Map<String,Long> getFailures( ) {
+      final Map<String,Long> values = Maps.newTreeMap( );
+      for ( final Map.Entry<String,ResolverStatistics> entry : resolverStatistics.entrySet( ) ) {
+        values.put( entry.getKey( ), entry.getValue( ).failures.get( ) );
+      }
+      return values;
+    }
+
+    @Override
+    public Map<String,Long> getAverageLookupMicros( ) {
+      final Map<String,Long> values = Maps.newTreeMap( );
+      for ( final Map.Entry<String,ResolverStatistics> entry : resolverStatistics.entrySet( ) ) {
+        final long lookups = entry.getValue( ).lookups.get( );
+        values.put( entry.getKey( ), lookups == 0 ?
+            0L :
+            TimeUnit.NANOSECONDS.toMicros( entry.getValue( ).nanos.get( ) / lookups ) );
+      }
+      return values;
+    }
+
+    @Override
+    public Map<String,Long> getMaxLookupMicros( ) {
+      final Map<String,Long> values = Maps.newTreeMap( );
+      for ( final Map.Entry<String,ResolverStatistics> entry : resolverStatistics.entrySet( ) ) {
+        values.put( entry.getKey( ), TimeUnit.NANOSECONDS.toMicros( entry.getValue( ).maxNanos.get( ) ) );
+      }
+      return values;
+    }
+  }
+
   @SuppressWarnings( "unchecked" )
   @Override
   public boolean processClass( final Class candidate ) throws Exception {
@@ -154,7 +154,11 @@ public class StackConfiguration extends AbstractPersistent {
 
   @ConfigurableField( description = "Record and report service times." )
   public static Boolean       STATISTICS                        = Boolean.FALSE;
-  
+
+  @ConfigurableField( description = "Record handler and message latency histograms for one in every N handler invocations (0 to disable).",
+                      changeListener = WebServices.CheckNonNegativeIntegerPropertyChangeListener.class )
+  public static volatile Integer STATISTICS_SAMPLE_RATE         = 0;
+
   @ConfigurableField( description = "Execute service specific pipeline handlers from a separate thread pool (with respect to I/O)." )
   public static Boolean       ASYNC_PIPELINE                    = Boolean.FALSE;
   
@@ -173,6 +177,22 @@ public class StackConfiguration extends AbstractPersistent {
   @ConfigurableField( description = "Client idle timeout (secs)." )
   public static Integer       CLIENT_INTERNAL_TIMEOUT_SECS      = 60;
   
+  @ConfigurableField( description = "Reuse keep-alive connections for internal requests to services (false to connect for each request).",
+                      changeListener = WebServices.CheckBooleanPropertyChangeListener.class )
+  public static volatile Boolean CLIENT_INTERNAL_CONNECTION_POOL  = Boolean.TRUE;
+  
+  @ConfigurableField( description = "Maximum connections for internal requests to each service when reusing connections.",
+                      changeListener = WebServices.CheckNonNegativeIntegerPropertyChangeListener.class )
+  public static volatile Integer CLIENT_INTERNAL_CONNECTION_POOL_SIZE = 4;
+  
+  @ConfigurableField( description = "Idle time after which reusable connections for internal requests are closed (secs).",
+                      changeListener = WebServices.CheckNonNegativeIntegerPropertyChangeListener.class )
+  public static volatile Integer CLIENT_INTERNAL_CONNECTION_POOL_IDLE_SECS = 30;
+  
+  @ConfigurableField( description = "Maximum age of a request context without an open client connection before it is cleared (secs, 0 to disable).",
+                      changeListener = WebServices.CheckNonNegativeLongPropertyChangeListener.class )
+  public static volatile Long CONTEXT_MAX_AGE_SECS              = 1800L;
+  
   @ConfigurableField( description = "Cluster connect timeout (ms)." )
   public static Long          CLUSTER_CONNECT_TIMEOUT_MILLIS    = 2000L;
 
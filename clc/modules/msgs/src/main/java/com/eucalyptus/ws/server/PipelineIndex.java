@@ -0,0 +1,293 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.ws.server;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import com.eucalyptus.component.ComponentId;
+import com.eucalyptus.component.ComponentIds;
+import com.eucalyptus.component.annotation.AwsServiceName;
+import com.eucalyptus.component.annotation.ComponentPart;
+import com.eucalyptus.component.annotation.PublicService;
+import com.eucalyptus.system.Ats;
+import com.eucalyptus.ws.protocol.SoapHandler;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+
+/**
+ * Precomputed dispatch information for {@link Pipelines}.
+ *
+ * <p>The index is built once all pipelines are known and is immutable, with
+ * the exception of the host patterns for the system DNS domain which are
+ * recompiled when the configured domain changes.</p>
+ *
+ * <p>Lookups never compile regular expressions or allocate channel pipelines.
+ * Internal pipelines are located by request path prefix (query) or suffix
+ * (soap), only pipelines that are not path indexed are scanned and requests
+ * accepted by such a pipeline are counted as index fallbacks.</p>
+ */
+class PipelineIndex {
+  private static final Logger LOG = Logger.getLogger( PipelineIndex.class );
+  private static final String SOAP_ACTION = "SOAPAction";
+  private static final AtomicLong fallbacks = new AtomicLong( );
+
+  private final List<FilteredPipeline> publicPipelines;
+  private final List<HostIntercept> soapIntercepts;
+  private final List<HostIntercept> nonSoapIntercepts;
+  private final PathAffixes internalSoapBySuffix;
+  private final PathAffixes internalQueryByPrefix;
+  private final List<FilteredPipeline> unindexedPipelines;
+  private volatile DomainPatterns domainPatterns;
+
+  private PipelineIndex( final List<FilteredPipeline> publicPipelines,
+                         final List<HostIntercept> soapIntercepts,
+                         final List<HostIntercept> nonSoapIntercepts,
+                         final PathAffixes internalSoapBySuffix,
+                         final PathAffixes internalQueryByPrefix,
+                         final List<FilteredPipeline> unindexedPipelines ) {
+    this.publicPipelines = publicPipelines;
+    this.soapIntercepts = soapIntercepts;
+    this.nonSoapIntercepts = nonSoapIntercepts;
+    this.internalSoapBySuffix = internalSoapBySuffix;
+    this.internalQueryByPrefix = internalQueryByPrefix;
+    this.unindexedPipelines = unindexedPipelines;
+  }
+
+  /**
+   * Build an index for the given pipelines.
+   *
+   * @param pipelines The discovered (public) pipelines
+   * @param internalPipelines The internal query and soap pipelines
+   * @return The index
+   */
+  static PipelineIndex build( final Collection<FilteredPipeline> pipelines,
+                              final Collection<FilteredPipeline> internalPipelines ) {
+    final List<HostIntercept> soapIntercepts = Lists.newArrayList( );
+    final List<HostIntercept> nonSoapIntercepts = Lists.newArrayList( );
+    for ( final FilteredPipeline pipeline : pipelines ) {
+      if ( Ats.from( pipeline ).has( ComponentPart.class ) ) {
+        final Class<? extends ComponentId> compIdClass = Ats.from( pipeline ).get( ComponentPart.class ).value( );
+        if ( Ats.from( compIdClass ).has( PublicService.class ) ) {
+          final ComponentId compId = ComponentIds.lookup( compIdClass );
+          final HostIntercept intercept = new HostIntercept(
+              pipeline,
+              compId.name( ),
+              Ats.from( compIdClass ).has( AwsServiceName.class ) ?
+                  Pattern.compile( "[\\w\\.-_]*" + compId.getAwsServiceName( ) + "\\.\\w+\\.amazonaws.com" ) :
+                  null );
+          if ( pipeline.addHandlers( Channels.pipeline( ) ).get( SoapHandler.class ) != null ) {
+            soapIntercepts.add( intercept );
+          } else {
+            nonSoapIntercepts.add( intercept );
+          }
+        }
+      }
+    }
+
+    final ImmutableListMultimap.Builder<String,FilteredPipeline> soapBySuffix = ImmutableListMultimap.builder( );
+    final ImmutableListMultimap.Builder<String,FilteredPipeline> queryByPrefix = ImmutableListMultimap.builder( );
+    final List<FilteredPipeline> unindexedPipelines = Lists.newArrayList( );
+    for ( final FilteredPipeline pipeline : internalPipelines ) {
+      if ( pipeline instanceof PathIndexed ) {
+        final PathIndexed indexed = (PathIndexed) pipeline;
+        final ImmutableListMultimap.Builder<String,FilteredPipeline> builder =
+            indexed.isSoap( ) ? soapBySuffix : queryByPrefix;
+        for ( final String path : indexed.getIndexPaths( ) ) {
+          builder.put( path, pipeline );
+        }
+      } else {
+        unindexedPipelines.add( pipeline );
+      }
+    }
+
+    final PipelineIndex index = new PipelineIndex(
+        ImmutableList.copyOf( pipelines ),
+        ImmutableList.copyOf( soapIntercepts ),
+        ImmutableList.copyOf( nonSoapIntercepts ),
+        new PathAffixes( soapBySuffix.build( ), false ),
+        new PathAffixes( queryByPrefix.build( ), true ),
+        ImmutableList.copyOf( unindexedPipelines ) );
+    LOG.info( "Built pipeline index with " + pipelines.size( ) + " public pipelines, "
+        + ( soapIntercepts.size( ) + nonSoapIntercepts.size( ) ) + " host intercepts and "
+        + internalPipelines.size( ) + " internal pipelines (" + unindexedPipelines.size( ) + " not indexed)" );
+    return index;
+  }
+
+  /**
+   * Number of requests accepted by an internal pipeline that is not indexed.
+   */
+  static long getIndexFallbackCount( ) {
+    return fallbacks.get( );
+  }
+
+  /**
+   * Find the accepting pipeline for the request.
+   *
+   * @param request The request to dispatch
+   * @param dnsDomain The current system DNS domain
+   * @return The pipeline or null if none accepted the request
+   */
+  @Nullable
+  FilteredPipeline find( final HttpRequest request, final String dnsDomain ) {
+    for ( final FilteredPipeline f : publicPipelines ) {
+      if ( f.checkAccepts( request ) ) {
+        return f;
+      }
+    }
+
+    final boolean soap = request.containsHeader( SOAP_ACTION );
+    final String host = request.getHeader( HttpHeaders.Names.HOST );
+    if ( host != null && ( host.contains( "amazonaws.com" ) || host.contains( dnsDomain ) ) ) {
+      final DomainPatterns patterns = domainPatterns( dnsDomain );
+      for ( final HostIntercept intercept : soap ? soapIntercepts : nonSoapIntercepts ) {
+        if ( intercept.awsHostPattern != null && intercept.awsHostPattern.matcher( host ).matches( ) ) {
+          return intercept.pipeline;
+        } else if ( patterns.patterns.get( intercept.serviceName ).matcher( host ).matches( ) ) {
+          return intercept.pipeline;
+        }
+      }
+    }
+
+    final String uri = request.getUri( );
+    if ( soap ) {
+      final FilteredPipeline f = internalSoapBySuffix.find( uri, request );
+      if ( f != null ) {
+        return f;
+      }
+    }
+    final FilteredPipeline f = internalQueryByPrefix.find( uri, request );
+    if ( f != null ) {
+      return f;
+    }
+
+    for ( final FilteredPipeline unindexed : unindexedPipelines ) {
+      if ( unindexed.checkAccepts( request ) ) {
+        fallbacks.incrementAndGet( );
+        return unindexed;
+      }
+    }
+    return null;
+  }
+
+  private DomainPatterns domainPatterns( final String dnsDomain ) {
+    DomainPatterns patterns = domainPatterns;
+    if ( patterns == null || !patterns.dnsDomain.equals( dnsDomain ) ) {
+      final Map<String,Pattern> patternMap = Maps.newHashMap( );
+      for ( final HostIntercept intercept : Iterables.concat( soapIntercepts, nonSoapIntercepts ) ) {
+        if ( !patternMap.containsKey( intercept.serviceName ) ) {
+          patternMap.put( intercept.serviceName, Pattern.compile( "[\\w\\.-_]*" + intercept.serviceName + "\\." + dnsDomain ) );
+        }
+      }
+      domainPatterns = patterns = new DomainPatterns( dnsDomain, ImmutableMap.copyOf( patternMap ) );
+    }
+    return patterns;
+  }
+
+  /**
+   * Implemented by internal pipelines that accept requests only for known paths.
+   *
+   * <p>Soap pipelines accept request URIs ending with an index path, other
+   * pipelines accept request URIs starting with an index path.</p>
+   */
+  interface PathIndexed {
+    boolean isSoap( );
+    Collection<String> getIndexPaths( );
+  }
+
+  /**
+   * Pipelines by the path prefix or suffix they accept.
+   *
+   * <p>There are few distinct path lengths so each candidate prefix or
+   * suffix of a URI is a single map lookup, longest first.</p>
+   */
+  private static final class PathAffixes {
+    private final ImmutableListMultimap<String,FilteredPipeline> pipelinesByAffix;
+    private final int[] lengths;
+    private final boolean prefix;
+
+    private PathAffixes( final ImmutableListMultimap<String,FilteredPipeline> pipelinesByAffix,
+                         final boolean prefix ) {
+      final SortedSet<Integer> lengths = Sets.newTreeSet( Ordering.<Integer>natural( ).reverse( ) );
+      for ( final String affix : pipelinesByAffix.keySet( ) ) {
+        lengths.add( affix.length( ) );
+      }
+      this.pipelinesByAffix = pipelinesByAffix;
+      this.lengths = Ints.toArray( lengths );
+      this.prefix = prefix;
+    }
+
+    @Nullable
+    private FilteredPipeline find( final String uri, final HttpRequest request ) {
+      for ( final int length : lengths ) {
+        if ( length <= uri.length( ) ) {
+          final String affix = prefix ?
+              uri.substring( 0, length ) :
+              uri.substring( uri.length( ) - length );
+          for ( final FilteredPipeline f : pipelinesByAffix.get( affix ) ) {
+            if ( f.checkAccepts( request ) ) {
+              return f;
+            }
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class HostIntercept {
+    private final FilteredPipeline pipeline;
+    private final String serviceName;
+    @Nullable private final Pattern awsHostPattern;
+
+    private HostIntercept( final FilteredPipeline pipeline,
+                           final String serviceName,
+                           @Nullable final Pattern awsHostPattern ) {
+      this.pipeline = pipeline;
+      this.serviceName = serviceName;
+      this.awsHostPattern = awsHostPattern;
+    }
+  }
+
+  private static final class DomainPatterns {
+    private final String dnsDomain;
+    private final Map<String,Pattern> patterns;
+
+    private DomainPatterns( final String dnsDomain, final Map<String,Pattern> patterns ) {
+      this.dnsDomain = dnsDomain;
+      this.patterns = patterns;
+    }
+  }
+}
@@ -64,6 +64,7 @@ package com.eucalyptus.ws.server;
 
 import static com.eucalyptus.auth.principal.TemporaryAccessKey.TemporaryKeyType;
 import java.lang.reflect.Modifier;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -97,12 +98,14 @@ import com.eucalyptus.records.EventType;
 import com.eucalyptus.records.Logs;
 import com.eucalyptus.system.Ats;
 import com.eucalyptus.util.Classes;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.ws.Handlers;
 import com.eucalyptus.ws.handlers.HmacHandler;
 import com.eucalyptus.ws.protocol.BaseQueryBinding;
 import com.eucalyptus.ws.protocol.OperationParameter;
 import com.eucalyptus.ws.protocol.SoapHandler;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import edu.ucsb.eucalyptus.cloud.entities.SystemConfiguration;
@@ -120,6 +123,11 @@ public class Pipelines {
     }
     
   };
+  private static volatile PipelineIndex                                          index;
+  
+  static {
+    Mbeans.register( new PipelineIndexStatistics( ) );
+  }
   
   public static ChannelPipelineFactory lookup( Class<? extends ComponentId> compId ) {
     return clientPipelines.get( compId );
@@ -147,7 +155,32 @@ public class Pipelines {
     return candidate;
   }
   
+  /**
+   * Number of dispatches that could not be resolved using the pipeline index.
+   */
+  public static long getIndexFallbackCount( ) {
+    return PipelineIndex.getIndexFallbackCount( );
+  }
+  
+  /**
+   * JMX view of pipeline index use.
+   */
+  public interface PipelineIndexStatisticsMXBean {
+    long getIndexFallbackCount( );
+  }
+  
+  private static class PipelineIndexStatistics implements PipelineIndexStatisticsMXBean {
+    @Override
+    public long getIndexFallbackCount( ) {
+      return Pipelines.getIndexFallbackCount( );
+    }
+  }
+  
   private static FilteredPipeline findAccepting( final HttpRequest request ) {
+    final PipelineIndex currentIndex = index;
+    if ( currentIndex != null ) {
+      return currentIndex.find( request, subDomain.get( ) );
+    }
     final FilteredPipeline candidate = null;
     for ( final FilteredPipeline f : pipelines ) {
       if ( f.checkAccepts( request ) ) {
@@ -199,6 +232,7 @@ public class Pipelines {
         Pipelines.internalPipelines.add( new InternalQueryPipeline( comp ) );
         Pipelines.internalPipelines.add( new InternalSoapPipeline( comp ) );
       }
+      Pipelines.index = PipelineIndex.build( Pipelines.pipelines, Pipelines.internalPipelines );
       return true;
     }
     
@@ -246,7 +280,7 @@ public class Pipelines {
     
   }
   
-  private static class InternalSoapPipeline extends FilteredPipeline.InternalPipeline {
+  private static class InternalSoapPipeline extends FilteredPipeline.InternalPipeline implements PipelineIndex.PathIndexed {
     private final String servicePath;
     private final String internalServicePath;
     private final String serviceName;
@@ -264,6 +298,16 @@ public class Pipelines {
              && message.getHeaderNames( ).contains( "SOAPAction" );
     }
     
+    @Override
+    public boolean isSoap( ) {
+      return true;
+    }
+    
+    @Override
+    public Collection<String> getIndexPaths( ) {
+      return ImmutableSet.of( this.servicePath, this.internalServicePath );
+    }
+    
     @Override
     public String getName( ) {
       return "internal-soap-pipeline-" + this.serviceName.toLowerCase( ) + "-" + this.servicePath;
@@ -286,7 +330,7 @@ public class Pipelines {
     
   }
   
-  private static class InternalQueryPipeline extends FilteredPipeline.InternalPipeline {
+  private static class InternalQueryPipeline extends FilteredPipeline.InternalPipeline implements PipelineIndex.PathIndexed {
     public enum RequiredQueryParams {
       SignatureVersion,
       Version
@@ -347,6 +391,16 @@ public class Pipelines {
       return false;
     }
     
+    @Override
+    public boolean isSoap( ) {
+      return false;
+    }
+    
+    @Override
+    public Collection<String> getIndexPaths( ) {
+      return ImmutableSet.of( this.servicePath, this.internalServicePath );
+    }
+    
     @Override
     public String getName( ) {
       return "internal-query-pipeline-" + this.serviceName.toLowerCase( ) + "-" + this.servicePath;
@@ -65,7 +65,9 @@ package com.eucalyptus.ws.server;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
@@ -73,14 +75,106 @@ import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandler;
 import com.eucalyptus.context.Contexts;
 import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.LatencyHistogram;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.ws.StackConfiguration;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
-import com.google.common.util.concurrent.Callables;
 
 public class Statistics {
   private static Logger                            LOG               = Logger.getLogger( Statistics.class );
   private static final Map<Integer, RequestRecord> requestStatistics = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<Class<?>, HistogramPair> handlerHistograms = Maps.newConcurrentMap( );
+  private static final ConcurrentMap<Class<?>, HistogramPair> messageHistograms = Maps.newConcurrentMap( );
+  private static final AtomicLong                  sampled           = new AtomicLong( );
+  private static final Callable<Long>              NOT_RECORDED      = new Callable<Long>( ) {
+    @Override
+    public Long call( ) {
+      return 0L;
+    }
+  };
+  
+  static {
+    Mbeans.register( new HandlerLatency( ) );
+  }
+  
+  /**
+   * JMX view of the sampled handler and message latency histograms.
+   */
+  public interface HandlerLatencyMXBean {
+    long getSampledCount( );
+    Map<String,String> getHandlerUpstreamLatencies( );
+    Map<String,String> getHandlerDownstreamLatencies( );
+    Map<String,String> getMessageUpstreamLatencies( );
+    Map<String,String> getMessageDownstreamLatencies( );
+    void reset( );
+  }
+  
+  private static class HandlerLatency implements HandlerLatencyMXBean {
+    @Override
+    public long getSampledCount( ) {
+      return sampled.get( );
+    }
+    
+    @Override
+    public Map<String, String> getHandlerUpstreamLatencies( ) {
+      return summarize( handlerHistograms, true );
+    }
+    
+    @Override
+    public Map<String, String> getHandlerDownstreamLatencies( ) {
+      return summarize( handlerHistograms, false );
+    }
+    
+    @Override
+    public Map<String, String> getMessageUpstreamLatencies( ) {
+      return summarize( messageHistograms, true );
+    }
+    
+    @Override
+    public Map<String, String> getMessageDownstreamLatencies( ) {
+      return summarize( messageHistograms, false );
+    }
+    
+    @Override
+    public void reset( ) {
+      Statistics.reset( );
+    }
+  }
+  
+  private static class HistogramPair {
+    private final LatencyHistogram upstream   = new LatencyHistogram( );
+    private final LatencyHistogram downstream = new LatencyHistogram( );
+    
+    private LatencyHistogram get( final boolean up ) {
+      return up ? this.upstream : this.downstream;
+    }
+  }
+  
+  private static class HistogramRecord implements Callable<Long> {
+    private final Channel       channel;
+    private final HistogramPair handlerHistograms;
+    private final boolean       upstream;
+    private final long          startNanos = System.nanoTime( );
+    
+    private HistogramRecord( final Channel channel, final HistogramPair handlerHistograms, final boolean upstream ) {
+      this.channel = channel;
+      this.handlerHistograms = handlerHistograms;
+      this.upstream = upstream;
+    }
+    
+    @Override
+    public Long call( ) {
+      final long elapsed = System.nanoTime( ) - this.startNanos;
+      this.handlerHistograms.get( this.upstream ).recordNanos( elapsed );
+      final Class<?> messageType = Contexts.lookupRequestType( this.channel );
+      if ( messageType != null ) {
+        histograms( messageHistograms, messageType ).get( this.upstream ).recordNanos( elapsed );
+      }
+      return elapsed;
+    }
+  }
   
   private static class HandlerRecord implements Callable<Long> {
     private final String handlerClassName;
@@ -147,6 +241,70 @@ public class Statistics {
     }
   }
   
+  /**
+   * Report of the sampled latency histograms, for use by administrators.
+   *
+   * <p>e.g. euca-modify-property -p euca='com.eucalyptus.ws.server.Statistics.report()'</p>
+   */
+  public static String report( ) {
+    final StringBuilder builder = new StringBuilder( );
+    builder.append( "sampled=" ).append( sampled.get( ) ).append( '\n' );
+    appendReport( builder, "handler upstream", summarize( handlerHistograms, true ) );
+    appendReport( builder, "handler downstream", summarize( handlerHistograms, false ) );
+    appendReport( builder, "message upstream", summarize( messageHistograms, true ) );
+    appendReport( builder, "message downstream", summarize( messageHistograms, false ) );
+    return builder.toString( );
+  }
+  
+  public static void reset( ) {
+    handlerHistograms.clear( );
+    messageHistograms.clear( );
+    sampled.set( 0 );
+  }
+  
+  private static void appendReport( final StringBuilder builder, final String title, final Map<String,String> summaries ) {
+    for ( final Map.Entry<String,String> entry : summaries.entrySet( ) ) {
+      builder.append( title ).append( ' ' ).append( entry.getKey( ) ).append( ": " ).append( entry.getValue( ) ).append( '\n' );
+    }
+  }
+  
+  private static Map<String,String> summarize( final Map<Class<?>, HistogramPair> histograms, final boolean upstream ) {
+    final ImmutableSortedMap.Builder<String,String> builder = ImmutableSortedMap.naturalOrder( );
+    for ( final Map.Entry<Class<?>, HistogramPair> entry : histograms.entrySet( ) ) {
+      final LatencyHistogram histogram = entry.getValue( ).get( upstream );
+      if ( histogram.getCount( ) > 0 ) {
+        builder.put( entry.getKey( ).getName( ), histogram.summary( ) );
+      }
+    }
+    return builder.build( );
+  }
+  
+  private static HistogramPair histograms( final ConcurrentMap<Class<?>, HistogramPair> histograms, final Class<?> type ) {
+    HistogramPair pair = histograms.get( type );
+    if ( pair == null ) {
+      final HistogramPair newPair = new HistogramPair( );
+      pair = histograms.putIfAbsent( type, newPair );
+      if ( pair == null ) {
+        pair = newPair;
+      }
+    }
+    return pair;
+  }
+  
+  private static boolean sample( ) {
+    final int rate = StackConfiguration.STATISTICS_SAMPLE_RATE;
+    return rate > 0 && ( rate == 1 || ThreadLocalRandom.current( ).nextInt( rate ) == 0 );
+  }
+  
+  private static <T extends ChannelHandler> Callable<Long> startHistogram( final Channel channel, final T handler, final boolean upstream ) {
+    if ( sample( ) ) {
+      sampled.incrementAndGet( );
+      return new HistogramRecord( channel, histograms( handlerHistograms, handler.getClass( ) ), upstream );
+    } else {
+      return NOT_RECORDED;
+    }
+  }
+  
   public static final <T extends ChannelHandler> Callable<Long> startUpstream( Channel channel, T handler ) {
     Integer correlationId = channel.getId( );
     if ( StackConfiguration.STATISTICS && requestStatistics.containsKey( correlationId ) ) {
@@ -160,7 +318,7 @@ public class Statistics {
       record.handlerUpstreamStats.put( handler.getClass( ), handlerRecord );
       return handlerRecord;
     } else {
-      return Callables.returning( 0L );
+      return startHistogram( channel, handler, true );
     }
   }
   
@@ -172,7 +330,7 @@ public class Statistics {
       record.handlerDownstreamStats.put( handler.getClass( ), handlerRecord );
       return handlerRecord;
     } else {
-      return Callables.returning( 0L );
+      return startHistogram( channel, handler, false );
     }
   }
   
@@ -0,0 +1,119 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.context
+
+import static org.junit.Assert.*
+import org.jboss.netty.channel.Channel
+import org.jboss.netty.channel.ChannelFuture
+import org.jboss.netty.channel.DefaultChannelFuture
+import org.junit.Test
+
+/**
+ *
+ */
+class ContextRegistryTest {
+
+  @Test
+  void testRegisterAndRemove() {
+    ContextRegistry registry = new ContextRegistry( )
+    Context ctx1 = new Context( )
+    Context ctx2 = new Context( )
+    registry.register( "1", ctx1 )
+    registry.register( "2", ctx2 )
+    assertEquals( "live", 2, registry.getLiveCount( ) )
+    assertSame( "lookup", ctx1, registry.lookup( "1" ) )
+    assertSame( "remove", ctx1, registry.remove( "1" ) )
+    assertNull( "remove again", registry.remove( "1" ) )
+    assertEquals( "live", 1, registry.getLiveCount( ) )
+    assertEquals( "peak", 2, registry.getPeakCount( ) )
+    registry.rekey( ctx2, "2", "3" )
+    assertFalse( "old id", registry.exists( "2" ) )
+    assertSame( "new id", ctx2, registry.lookup( "3" ) )
+  }
+
+  @Test
+  void testSweepByAge() {
+    ContextRegistry registry = new ContextRegistry( )
+    Context ctx = new Context( )
+    registry.register( "1", ctx )
+    long now = System.nanoTime( )
+    assertTrue( "not stale", registry.sweep( now, Long.MAX_VALUE, Long.MAX_VALUE ).isEmpty( ) )
+    assertEquals( "stale", [ ctx ], registry.sweep( now + 1000, 0, Long.MAX_VALUE ) )
+    assertFalse( "swept", registry.exists( "1" ) )
+    assertEquals( "live", 0, registry.getLiveCount( ) )
+    assertEquals( "leaked", 1, registry.getLeakedCount( ) )
+  }
+
+  @Test
+  void testChannelClose() {
+    ContextRegistry registry = new ContextRegistry( )
+    ChannelFuture closeFuture = null
+    Channel channel = [ getCloseFuture: { closeFuture }, isOpen: { true } ] as Channel
+    closeFuture = new DefaultChannelFuture( channel, false )
+    Context ctx = new Context( )
+    assertNull( "previous", registry.register( "1", ctx, channel ) )
+    assertTrue( "channel", registry.exists( channel ) )
+
+    closeFuture.setSuccess( )
+    assertSame( "channel after close", ctx, registry.lookup( channel ) )
+    assertTrue( "context after close", registry.exists( "1" ) )
+    assertTrue( "within grace", registry.sweep( System.nanoTime( ), Long.MAX_VALUE, Long.MAX_VALUE ).isEmpty( ) )
+    assertEquals( "after grace", [ ctx ], registry.sweep( System.nanoTime( ) + 1000, Long.MAX_VALUE, 0 ) )
+    assertFalse( "channel after sweep", registry.exists( channel ) )
+    assertEquals( "leaked", 1, registry.getLeakedCount( ) )
+  }
+
+  @Test
+  void testChannelCloseThenClear() {
+    ContextRegistry registry = new ContextRegistry( )
+    ChannelFuture closeFuture = null
+    Channel channel = [ getCloseFuture: { closeFuture }, isOpen: { false } ] as Channel
+    closeFuture = new DefaultChannelFuture( channel, false )
+    Context ctx = new Context( ) {
+      @Override
+      Channel getChannelUnchecked( ) {
+        channel
+      }
+    }
+    registry.register( "1", ctx, channel )
+
+    closeFuture.setSuccess( )
+    assertSame( "channel after close", ctx, registry.lookup( channel ) )
+    assertSame( "remove", ctx, registry.remove( "1" ) )
+    assertFalse( "channel after remove", registry.exists( channel ) )
+    assertTrue( "removed before grace", registry.sweep( System.nanoTime( ) + 1000, Long.MAX_VALUE, 0 ).isEmpty( ) )
+    assertEquals( "leaked", 0, registry.getLeakedCount( ) )
+  }
+
+  @Test
+  void testWrappedNotSweptByAge() {
+    ContextRegistry registry = new ContextRegistry( )
+    Context ctx = new Context( ) {
+      @Override
+      boolean isChannelManaged( ) {
+        true
+      }
+    }
+    registry.register( "1", ctx )
+    assertTrue( "not stale", registry.sweep( System.nanoTime( ) + 1000, 0, 0 ).isEmpty( ) )
+    assertTrue( "registered", registry.exists( "1" ) )
+    assertEquals( "leaked", 0, registry.getLeakedCount( ) )
+  }
+}
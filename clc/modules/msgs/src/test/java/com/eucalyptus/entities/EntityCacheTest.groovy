@@ -0,0 +1,152 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.entities
+
+import static org.junit.Assert.*
+import com.eucalyptus.util.Pair
+import com.google.common.base.Functions
+import com.google.common.base.Supplier
+import org.junit.Test
+
+/**
+ * Unit tests for EntityCache
+ */
+class EntityCacheTest {
+
+  private final Map<String,Integer> versions = [:]
+  private final Map<String,String> entities = [:]
+  private final List<List<String>> loads = []
+  private long now = 10000
+
+  @Test
+  void testRefreshOnEveryRead( ) {
+    EntityCache<CacheTestEntity,String> cache = cache( null )
+    put( '1', 0, 'a' )
+    put( '2', 0, 'b' )
+    assertEquals( [ 'a', 'b' ], cached( cache ) )
+
+    put( '2', 1, 'c' )
+    assertEquals( [ 'a', 'c' ], cached( cache ) )
+    assertEquals( 'Loaded', [ '2' ], loads.last( ) )
+
+    remove( '1' )
+    assertEquals( [ 'c' ], cached( cache ) )
+    assertEquals( 'Loads', 2, loads.size( ) )
+  }
+
+  @Test
+  void testNoRefreshWithinInterval( ) {
+    EntityCache<CacheTestEntity,String> cache = cache( { 1000L } as Supplier<Long> )
+    put( '1', 0, 'a' )
+    assertEquals( [ 'a' ], cached( cache ) )
+
+    now = 10999
+    put( '1', 1, 'b' )
+    assertEquals( [ 'a' ], cached( cache ) )
+    assertEquals( 'Loads', 1, loads.size( ) )
+  }
+
+  @Test
+  void testCommittedChangesRefreshed( ) {
+    EntityCache<CacheTestEntity,String> cache = cache( { 1000L } as Supplier<Long> )
+    put( '1', 0, 'a' )
+    put( '2', 0, 'b' )
+    assertEquals( [ 'a', 'b' ], cached( cache ) )
+
+    now = 10001
+    put( '2', 1, 'c' )
+    put( '3', 0, 'd' )
+    EntityCommitListeners.fire( [ EntityCommitListeners.change( new CacheTestEntity( ), '2' ) ] )
+    assertEquals( [ 'a', 'c' ], cached( cache ) )
+    assertEquals( 'Loaded', [ '2' ], loads.last( ) )
+
+    remove( '1' )
+    EntityCommitListeners.fire( [ EntityCommitListeners.change( new CacheTestEntity( ), '1' ) ] )
+    assertEquals( [ 'c' ], cached( cache ) )
+    assertEquals( 'Loaded', [ '1' ], loads.last( ) )
+  }
+
+  @Test
+  void testOtherTypeChangesIgnored( ) {
+    EntityCache<CacheTestEntity,String> cache = cache( { 1000L } as Supplier<Long> )
+    put( '1', 0, 'a' )
+    assertEquals( [ 'a' ], cached( cache ) )
+
+    now = 10001
+    put( '1', 1, 'b' )
+    EntityCommitListeners.fire( [ EntityCommitListeners.change( new AbstractPersistent( ), '1' ) ] )
+    assertEquals( [ 'a' ], cached( cache ) )
+    assertEquals( 'Loads', 1, loads.size( ) )
+  }
+
+  @Test
+  void testRefreshAfterInterval( ) {
+    EntityCache<CacheTestEntity,String> cache = cache( { 1000L } as Supplier<Long> )
+    put( '1', 0, 'a' )
+    put( '2', 0, 'b' )
+    assertEquals( [ 'a', 'b' ], cached( cache ) )
+
+    now = 11000
+    put( '1', 1, 'c' )
+    remove( '2' )
+    put( '3', 0, 'd' )
+    assertEquals( [ 'c', 'd' ], cached( cache ) )
+    assertEquals( 'Loaded', [ '1', '3' ], loads.last( ).sort( ) )
+  }
+
+  private void put( String id, Integer version, String value ) {
+    versions.put( id, version )
+    entities.put( id, value )
+  }
+
+  private void remove( String id ) {
+    versions.remove( id )
+    entities.remove( id )
+  }
+
+  private static List<String> cached( EntityCache<CacheTestEntity,String> cache ) {
+    cache.get( ).toList( ).sort( )
+  }
+
+  private EntityCache<CacheTestEntity,String> cache( Supplier<Long> refreshIntervalMillis ) {
+    new EntityCache<CacheTestEntity,String>( new CacheTestEntity( ), Functions.constant( '' ), refreshIntervalMillis ) {
+      @Override
+      List<Pair<String,Integer>> loadVersionMap( ) {
+        versions.collect{ String id, Integer version -> Pair.pair( id, version ) }
+      }
+
+      @Override
+      Map<String,Pair<Integer,String>> loadEntities( final List<String> ids ) {
+        loads.add( ids.toList( ) )
+        ids.findAll{ String id -> entities.containsKey( id ) }.collectEntries{ String id ->
+          [ (id): Pair.pair( versions.get( id ), entities.get( id ) ) ]
+        }
+      }
+
+      @Override
+      long timestamp( ) {
+        now
+      }
+    }
+  }
+}
+
+class CacheTestEntity extends AbstractPersistent {
+}
@@ -0,0 +1,152 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.entities
+
+import static org.junit.Assert.*
+import com.google.common.base.Supplier
+import org.junit.Test
+
+/**
+ * Unit tests for ReconciledIndex
+ */
+class ReconciledIndexTest {
+
+  @Test
+  void testUpdatesIgnoredUntilLoaded( ) {
+    TestIndex index = new TestIndex( )
+    index.update( 'a=1' )
+    index.remove( 'b' )
+    assertFalse( 'Loaded', index.isLoaded( ) )
+    index.load( supplier( [ 'b=2' ] ) )
+    assertTrue( 'Loaded', index.isLoaded( ) )
+    assertEquals( [ b: '2' ], index.values )
+  }
+
+  @Test
+  void testUpdateAndRemove( ) {
+    TestIndex index = loaded( 'a=1', 'b=2' )
+    index.update( 'a=3' )
+    index.update( 'c=4' )
+    index.remove( 'b' )
+    index.remove( 'd' )
+    assertEquals( [ a: '3', c: '4' ], index.values )
+  }
+
+  @Test
+  void testReconcileRepairs( ) {
+    TestIndex index = loaded( 'a=1', 'b=2' )
+    assertEquals( 'Nothing to repair', 0, index.reconcile( supplier( [ 'a=1', 'b=2' ] ) ) )
+    assertEquals( 'Repaired', 3, index.reconcile( supplier( [ 'a=3', 'c=4' ] ) ) )
+    assertEquals( [ a: '3', c: '4' ], index.values )
+    assertEquals( 'Nothing to repair', 0, index.reconcile( supplier( [ 'a=3', 'c=4' ] ) ) )
+  }
+
+  @Test
+  void testReconcileSkipsConcurrentUpdates( ) {
+    TestIndex index = loaded( 'a=1' )
+
+    // updates applied while reconciliation is reading from the database
+    assertEquals( 'Repaired', 0, index.reconcile( { ->
+      index.update( 'a=2' )
+      index.update( 'b=3' )
+      [ 'a=1' ]
+    } as Supplier<List<String>> ) )
+    assertEquals( [ a: '2', b: '3' ], index.values )
+
+    // next reconciliation repairs
+    assertEquals( 'Repaired', 2, index.reconcile( supplier( [ 'a=1' ] ) ) )
+    assertEquals( [ a: '1' ], index.values )
+  }
+
+  @Test
+  void testReconcileIgnoresValuesNotIndexed( ) {
+    TestIndex index = loaded( 'a=1' )
+    assertEquals( 'Repaired', 0, index.reconcile( supplier( [ 'a=1', 'b=0' ] ) ) )
+    assertEquals( [ a: '1' ], index.values )
+  }
+
+  @Test
+  void testInvalidate( ) {
+    TestIndex index = loaded( 'a=1' )
+    index.invalidate( )
+    assertFalse( 'Loaded', index.isLoaded( ) )
+    assertEquals( [ : ], index.values )
+    assertEquals( 'Not reconciled', 0, index.reconcile( supplier( [ 'b=2' ] ) ) )
+    index.load( supplier( [ 'b=2' ] ) )
+    assertEquals( [ b: '2' ], index.values )
+  }
+
+  private static TestIndex loaded( String... values ) {
+    TestIndex index = new TestIndex( )
+    index.load( supplier( values as List ) )
+    index
+  }
+
+  private static Supplier<List<String>> supplier( List<String> values ) {
+    { -> values } as Supplier<List<String>>
+  }
+
+  /**
+   * Index of "key=value" strings, values of "0" are not indexed.
+   */
+  private static class TestIndex extends ReconciledIndex<String> {
+    final Map<String,String> values = [ : ]
+
+    TestIndex( ) {
+      super( 'test index' )
+    }
+
+    @Override
+    protected String keyOf( final String value ) {
+      value.split( '=' )[0]
+    }
+
+    @Override
+    protected String get( final String key ) {
+      values.containsKey( key ) ? "${key}=${values[key]}".toString( ) : null
+    }
+
+    @Override
+    protected Iterable<String> keys( ) {
+      values.keySet( )
+    }
+
+    @Override
+    protected boolean isIndexed( final String value ) {
+      value.split( '=' )[1] != '0'
+    }
+
+    @Override
+    protected void put( final String value ) {
+      String[] parts = value.split( '=' )
+      if ( parts[1] == '0' ) values.remove( parts[0] ) else values.put( parts[0], parts[1] )
+    }
+
+    @Override
+    protected void delete( final String key ) {
+      values.remove( key )
+    }
+
+    @Override
+    protected void clear( ) {
+      values.clear( )
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util
+
+import static org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+/**
+ *
+ */
+class LatencyHistogramTest {
+
+  @Test
+  void testBucketBoundaries() {
+    ( 0L..100000L ).step( 7 ) { long value ->
+      int index = LatencyHistogram.index( value )
+      assertTrue( "value ${value} above bucket ${index}", value <= LatencyHistogram.upperValue( index ) )
+      if ( index > 0 ) {
+        assertTrue( "value ${value} below bucket ${index}", value > LatencyHistogram.upperValue( index - 1 ) )
+      }
+    }
+  }
+
+  @Test
+  void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram( )
+    ( 1..1000 ).each { int value -> histogram.record( value, TimeUnit.MICROSECONDS ) }
+    assertEquals( "count", 1000L, histogram.getCount( ) )
+    assertEquals( "max", 1000L, histogram.getMaxMicros( ) )
+    assertEquals( "mean", 500L, histogram.getMeanMicros( ) )
+    assertEquals( "p50", 500d, histogram.getPercentileMicros( 50 ), 500 * 0.125d )
+    assertEquals( "p99", 990d, histogram.getPercentileMicros( 99 ), 990 * 0.125d )
+    assertEquals( "p100", 1000L, histogram.getPercentileMicros( 100 ) )
+  }
+
+  @Test
+  void testReset() {
+    LatencyHistogram histogram = new LatencyHistogram( )
+    histogram.recordNanos( TimeUnit.MILLISECONDS.toNanos( 5 ) )
+    histogram.reset( )
+    assertEquals( "count", 0L, histogram.getCount( ) )
+    assertEquals( "p50", 0L, histogram.getPercentileMicros( 50 ) )
+  }
+}
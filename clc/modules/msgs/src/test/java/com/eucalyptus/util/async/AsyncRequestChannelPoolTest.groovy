@@ -0,0 +1,261 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.async
+
+import static org.junit.Assert.*
+import org.jboss.netty.bootstrap.ClientBootstrap
+import org.jboss.netty.channel.Channel
+import org.jboss.netty.channel.ChannelFuture
+import org.jboss.netty.channel.ChannelHandler
+import org.jboss.netty.channel.ChannelPipeline
+import org.jboss.netty.channel.Channels
+import org.jboss.netty.channel.DefaultChannelFuture
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.eucalyptus.ws.StackConfiguration
+
+/**
+ *
+ */
+class AsyncRequestChannelPoolTest {
+
+  private Boolean poolEnabled
+  private Integer poolSize
+  private Integer poolIdleSecs
+  private long now = 0
+  private final List<DefaultChannelFuture> connects = []
+  private final List<TestChannel> channels = []
+
+  @Before
+  void setUp() {
+    poolEnabled = StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL
+    poolSize = StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_SIZE
+    poolIdleSecs = StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_IDLE_SECS
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL = true
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_SIZE = 1
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_IDLE_SECS = 30
+  }
+
+  @After
+  void tearDown() {
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL = poolEnabled
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_SIZE = poolSize
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_IDLE_SECS = poolIdleSecs
+  }
+
+  @Test
+  void testConnectWhenEmpty() {
+    AsyncRequestChannelPool pool = testPool()
+    ChannelHandler handler = new SimpleChannelUpstreamHandler()
+    AsyncRequestChannelPool.Lease lease = pool.lease( handler )
+
+    assertEquals( "Connects", 1, connects.size() )
+    assertFalse( "Leased before connect", lease.isDone() )
+
+    connects[0].setSuccess()
+
+    assertTrue( "Leased", lease.isSuccess() )
+    assertFalse( "Reused", lease.isReused() )
+    assertSame( "Channel", channels[0].channel, lease.getChannel() )
+    assertSame( "Handler", handler, lease.getChannel().getPipeline().get( "request-handler" ) )
+  }
+
+  @Test
+  void testReleaseAndReuse() {
+    AsyncRequestChannelPool pool = testPool()
+    Channel channel = connected( pool.lease( new SimpleChannelUpstreamHandler() ) )
+    pool.release( channel )
+
+    assertNull( "Handler after release", channel.getPipeline().get( "request-handler" ) )
+
+    ChannelHandler handler = new SimpleChannelUpstreamHandler()
+    AsyncRequestChannelPool.Lease lease = pool.lease( handler )
+
+    assertEquals( "Connects", 1, connects.size() )
+    assertTrue( "Leased", lease.isSuccess() )
+    assertTrue( "Reused", lease.isReused() )
+    assertSame( "Channel", channel, lease.getChannel() )
+    assertSame( "Handler", handler, channel.getPipeline().get( "request-handler" ) )
+  }
+
+  @Test
+  void testWaitWhenFull() {
+    AsyncRequestChannelPool pool = testPool()
+    Channel channel = connected( pool.lease( new SimpleChannelUpstreamHandler() ) )
+    AsyncRequestChannelPool.Lease lease = pool.lease( new SimpleChannelUpstreamHandler() )
+
+    assertEquals( "Connects", 1, connects.size() )
+    assertFalse( "Leased while full", lease.isDone() )
+
+    pool.release( channel )
+
+    assertTrue( "Leased on release", lease.isSuccess() )
+    assertTrue( "Reused", lease.isReused() )
+    assertSame( "Channel", channel, lease.getChannel() )
+  }
+
+  @Test
+  void testCloseWhileLeased() {
+    AsyncRequestChannelPool pool = testPool()
+    Channel channel = connected( pool.lease( new SimpleChannelUpstreamHandler() ) )
+    AsyncRequestChannelPool.Lease lease = pool.lease( new SimpleChannelUpstreamHandler() )
+    channel.close()
+
+    assertEquals( "Connects after close", 2, connects.size() )
+
+    connects[1].setSuccess()
+
+    assertTrue( "Leased", lease.isSuccess() )
+    assertFalse( "Reused", lease.isReused() )
+    assertSame( "Channel", channels[1].channel, lease.getChannel() )
+  }
+
+  @Test
+  void testConnectFailure() {
+    AsyncRequestChannelPool pool = testPool()
+    AsyncRequestChannelPool.Lease lease1 = pool.lease( new SimpleChannelUpstreamHandler() )
+    AsyncRequestChannelPool.Lease lease2 = pool.lease( new SimpleChannelUpstreamHandler() )
+    IOException failure = new IOException( "Connection refused" )
+    connects[0].setFailure( failure )
+
+    assertTrue( "Lease failed", lease1.isDone() && !lease1.isSuccess() )
+    assertSame( "Lease failure", failure, lease1.getCause() )
+    assertEquals( "Connects for waiter", 2, connects.size() )
+
+    connects[1].setSuccess()
+
+    assertTrue( "Waiter leased", lease2.isSuccess() )
+  }
+
+  @Test
+  void testIdleExpiry() {
+    AsyncRequestChannelPool pool = testPool()
+    Channel channel = connected( pool.lease( new SimpleChannelUpstreamHandler() ) )
+    pool.release( channel )
+    now = 31000
+    AsyncRequestChannelPool.Lease lease = pool.lease( new SimpleChannelUpstreamHandler() )
+
+    assertFalse( "Expired channel open", channel.isOpen() )
+    assertEquals( "Connects", 2, connects.size() )
+
+    connects[1].setSuccess()
+
+    assertTrue( "Leased", lease.isSuccess() )
+    assertFalse( "Reused", lease.isReused() )
+  }
+
+  @Test
+  void testDisconnectedIdleChannel() {
+    AsyncRequestChannelPool pool = testPool()
+    Channel channel = connected( pool.lease( new SimpleChannelUpstreamHandler() ) )
+    pool.release( channel )
+    channels[0].connected = false
+    AsyncRequestChannelPool.Lease lease = pool.lease( new SimpleChannelUpstreamHandler() )
+
+    assertFalse( "Disconnected channel open", channel.isOpen() )
+    assertEquals( "Connects", 2, connects.size() )
+
+    connects[1].setSuccess()
+
+    assertTrue( "Leased", lease.isSuccess() )
+    assertSame( "Channel", channels[1].channel, lease.getChannel() )
+  }
+
+  @Test
+  void testReleaseDisconnected() {
+    AsyncRequestChannelPool pool = testPool()
+    Channel channel = connected( pool.lease( new SimpleChannelUpstreamHandler() ) )
+    channels[0].connected = false
+    pool.release( channel )
+
+    assertFalse( "Released channel open", channel.isOpen() )
+
+    pool.lease( new SimpleChannelUpstreamHandler() )
+
+    assertEquals( "Connects", 2, connects.size() )
+  }
+
+  private Channel connected( AsyncRequestChannelPool.Lease lease ) {
+    connects[ connects.size() - 1 ].setSuccess()
+    assertTrue( "Leased", lease.isSuccess() )
+    lease.getChannel()
+  }
+
+  private AsyncRequestChannelPool testPool() {
+    ClientBootstrap bootstrap = new ClientBootstrap() {
+      @Override
+      ChannelFuture connect( final SocketAddress remoteAddress ) {
+        TestChannel channel = new TestChannel()
+        DefaultChannelFuture future = new DefaultChannelFuture( channel.channel, false )
+        channels.add( channel )
+        connects.add( future )
+        future
+      }
+    }
+    new AsyncRequestChannelPool( new InetSocketAddress( "127.0.0.1", 8773 ), bootstrap ) {
+      @Override
+      protected long timestamp() {
+        now
+      }
+    }
+  }
+}
+
+/**
+ * Channel stub with settable state, closing the channel completes its
+ * close future.
+ */
+class TestChannel {
+  boolean open = true
+  boolean connected = true
+  boolean writable = true
+  final List<Object> writes = []
+  final List<DefaultChannelFuture> writeFutures = []
+  final Channel channel
+  final DefaultChannelFuture closeFuture
+
+  TestChannel() {
+    ChannelPipeline pipeline = Channels.pipeline()
+    channel = [
+        getPipeline: { pipeline },
+        isOpen: { open },
+        isConnected: { connected },
+        isWritable: { writable },
+        getLocalAddress: { null },
+        getRemoteAddress: { null },
+        getCloseFuture: { closeFuture },
+        close: {
+          open = false
+          connected = false
+          closeFuture.setSuccess()
+          closeFuture
+        },
+        write: { Object message ->
+          DefaultChannelFuture future = new DefaultChannelFuture( channel, false )
+          writes.add( message )
+          writeFutures.add( future )
+          future
+        },
+    ] as Channel
+    closeFuture = new DefaultChannelFuture( channel, false )
+  }
+}
@@ -0,0 +1,232 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.util.async
+
+import static org.junit.Assert.*
+import java.util.concurrent.ExecutionException
+import org.jboss.netty.bootstrap.ClientBootstrap
+import org.jboss.netty.channel.ChannelFuture
+import org.jboss.netty.channel.ChannelHandler
+import org.jboss.netty.channel.ChannelHandlerContext
+import org.jboss.netty.channel.ChannelPipelineFactory
+import org.jboss.netty.channel.ChannelState
+import org.jboss.netty.channel.DefaultChannelFuture
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler
+import org.jboss.netty.channel.UpstreamChannelStateEvent
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest
+import org.jboss.netty.handler.codec.http.HttpMethod
+import org.jboss.netty.handler.codec.http.HttpRequest
+import org.jboss.netty.handler.codec.http.HttpVersion
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import com.eucalyptus.component.ComponentId
+import com.eucalyptus.component.ServiceConfiguration
+import com.eucalyptus.ws.StackConfiguration
+import edu.ucsb.eucalyptus.msgs.BaseMessage
+
+/**
+ *
+ */
+class AsyncRequestHandlerTest {
+
+  private Boolean poolEnabled
+  private Integer poolSize
+  private final List<DefaultChannelFuture> connects = []
+  private final List<TestChannel> channels = []
+
+  @Before
+  void setUp() {
+    poolEnabled = StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL
+    poolSize = StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_SIZE
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL = true
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_SIZE = 1
+  }
+
+  @After
+  void tearDown() {
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL = poolEnabled
+    StackConfiguration.CLIENT_INTERNAL_CONNECTION_POOL_SIZE = poolSize
+  }
+
+  @Test
+  void testReusedChannelClosedBeforeWriteRetried() {
+    AsyncRequestChannelPool pool = pooledChannelPool()
+    AsyncRequestHandler<BaseMessage,BaseMessage> handler = testHandler( pool )
+
+    assertTrue( "Fired", handler.fire( testConfiguration(), new BaseMessage() ) )
+    assertEquals( "Writes on reused channel", 1, channels[0].writes.size() )
+
+    channels[0].channel.close()
+    closed( handler, channels[0] )
+
+    assertEquals( "Connects for retry", 2, connects.size() )
+
+    connects[1].setSuccess()
+
+    assertEquals( "Writes on new channel", 1, channels[1].writes.size() )
+    assertFalse( "Response done", handler.getResponse().isDone() )
+  }
+
+  @Test
+  void testReusedChannelDisconnectedOnLeaseRetried() {
+    AsyncRequestChannelPool idlePool = pooledChannelPool()
+    AsyncRequestHandler<BaseMessage,BaseMessage> handler = testHandler( new AsyncRequestChannelPool( null, (ClientBootstrap) null ) {
+      @Override
+      AsyncRequestChannelPool.Lease lease( final ChannelHandler requestHandler ) {
+        AsyncRequestChannelPool.Lease lease = idlePool.lease( requestHandler )
+        channels[0].connected = false
+        lease
+      }
+    } )
+
+    assertTrue( "Fired", handler.fire( testConfiguration(), new BaseMessage() ) )
+    assertTrue( "No writes on disconnected channel", channels[0].writes.isEmpty() )
+    assertEquals( "Connects for retry", 2, connects.size() )
+
+    connects[1].setSuccess()
+
+    assertEquals( "Writes on new channel", 1, channels[1].writes.size() )
+    assertFalse( "Response done", handler.getResponse().isDone() )
+  }
+
+  @Test
+  void testAbandonedChannelEventsIgnored() {
+    AsyncRequestChannelPool pool = pooledChannelPool()
+    AsyncRequestHandler<BaseMessage,BaseMessage> handler = testHandler( pool )
+    handler.fire( testConfiguration(), new BaseMessage() )
+    channels[0].channel.close()
+    closed( handler, channels[0] )
+    connects[1].setSuccess()
+
+    closed( handler, channels[0] )
+
+    assertFalse( "Response done", handler.getResponse().isDone() )
+    assertTrue( "New channel open", channels[1].channel.isOpen() )
+  }
+
+  @Test
+  void testNewChannelClosedBeforeWriteNotRetried() {
+    AsyncRequestHandler<BaseMessage,BaseMessage> handler = testHandler( testPool() )
+    handler.fire( testConfiguration(), new BaseMessage() )
+    connects[0].setSuccess()
+    channels[0].channel.close()
+    closed( handler, channels[0] )
+
+    assertEquals( "Connects", 1, connects.size() )
+    assertFailure( handler, RetryableConnectionException )
+  }
+
+  @Test
+  void testReusedChannelClosedAfterWriteNotRetried() {
+    AsyncRequestChannelPool pool = pooledChannelPool()
+    AsyncRequestHandler<BaseMessage,BaseMessage> handler = testHandler( pool )
+    handler.fire( testConfiguration(), new BaseMessage() )
+    channels[0].writeFutures[0].setSuccess()
+    channels[0].channel.close()
+    closed( handler, channels[0] )
+
+    assertEquals( "Connects", 1, connects.size() )
+    assertFailure( handler, ConnectionException )
+    assertFalse( "Retryable failure", failure( handler ) instanceof RetryableConnectionException )
+  }
+
+  private static void assertFailure( AsyncRequestHandler<BaseMessage,BaseMessage> handler,
+                                     Class<? extends Throwable> expected ) {
+    assertTrue( "Response done", handler.getResponse().isDone() )
+    Throwable cause = failure( handler )
+    assertTrue( "Expected ${expected.simpleName} but was ${cause}", expected.isInstance( cause ) )
+  }
+
+  private static Throwable failure( AsyncRequestHandler<BaseMessage,BaseMessage> handler ) {
+    try {
+      handler.getResponse().get()
+      fail( "Expected failure" )
+      null
+    } catch ( ExecutionException e ) {
+      e.getCause()
+    }
+  }
+
+  private static void closed( AsyncRequestHandler<BaseMessage,BaseMessage> handler, TestChannel channel ) {
+    ChannelHandlerContext ctx = [
+        getChannel: { channel.channel },
+        sendUpstream: { event -> },
+    ] as ChannelHandlerContext
+    handler.handleUpstream( ctx, new UpstreamChannelStateEvent( channel.channel, ChannelState.CONNECTED, null ) )
+  }
+
+  /**
+   * Pool with one idle channel that was used for an earlier request.
+   */
+  private AsyncRequestChannelPool pooledChannelPool() {
+    AsyncRequestChannelPool pool = testPool()
+    AsyncRequestChannelPool.Lease lease = pool.lease( new SimpleChannelUpstreamHandler() )
+    connects[0].setSuccess()
+    pool.release( lease.getChannel() )
+    pool
+  }
+
+  private AsyncRequestChannelPool testPool() {
+    new AsyncRequestChannelPool( new InetSocketAddress( "127.0.0.1", 8773 ), new ClientBootstrap() {
+      @Override
+      ChannelFuture connect( final SocketAddress remoteAddress ) {
+        newConnect()
+      }
+    } )
+  }
+
+  private ChannelFuture newConnect() {
+    TestChannel channel = new TestChannel()
+    DefaultChannelFuture future = new DefaultChannelFuture( channel.channel, false )
+    channels.add( channel )
+    connects.add( future )
+    future
+  }
+
+  private AsyncRequestHandler<BaseMessage,BaseMessage> testHandler( AsyncRequestChannelPool channelPool ) {
+    new AsyncRequestHandler<BaseMessage,BaseMessage>( null, Futures.newGenericeFuture() ) {
+      @Override
+      AsyncRequestChannelPool pool( final ServiceConfiguration config, final ChannelPipelineFactory factory ) {
+        channelPool
+      }
+
+      @Override
+      ChannelFuture connect( final SocketAddress serviceSocketAddress, final ChannelPipelineFactory factory ) {
+        newConnect()
+      }
+
+      @Override
+      HttpRequest httpRequest( final ServiceConfiguration config, final ChannelPipelineFactory factory ) {
+        new DefaultHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, "/" )
+      }
+    }
+  }
+
+  private static ServiceConfiguration testConfiguration() {
+    ComponentId componentId = [
+        getClientPipeline: { null },
+    ] as ComponentId
+    [
+        getSocketAddress: { new InetSocketAddress( "127.0.0.1", 8773 ) },
+        getComponentId: { componentId },
+    ] as ServiceConfiguration
+  }
+}
@@ -0,0 +1,140 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.ws.server
+
+import static org.junit.Assert.*
+import org.jboss.netty.channel.ChannelPipeline
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest
+import org.jboss.netty.handler.codec.http.HttpMethod
+import org.jboss.netty.handler.codec.http.HttpRequest
+import org.jboss.netty.handler.codec.http.HttpVersion
+import org.junit.Test
+
+/**
+ * Unit tests for PipelineIndex
+ */
+class PipelineIndexTest {
+
+  @Test
+  void testQueryPrefix( ) {
+    FilteredPipeline compute = new TestPipeline( 'compute', false, '/services/compute' )
+    FilteredPipeline computeBackend = new TestPipeline( 'compute-backend', false, '/services/compute-backend' )
+    PipelineIndex index = PipelineIndex.build( [], [ compute, computeBackend ] )
+
+    assertSame( compute, index.find( request( '/services/compute?Action=Describe' ), 'localhost' ) )
+    assertSame( compute, index.find( request( '/services/compute/' ), 'localhost' ) )
+    assertSame( computeBackend, index.find( request( '/services/compute-backend' ), 'localhost' ) )
+    assertNull( index.find( request( '/services/comp' ), 'localhost' ) )
+  }
+
+  @Test
+  void testSoapSuffix( ) {
+    FilteredPipeline soap = new TestPipeline( 'soap', true, '/services/compute' )
+    FilteredPipeline query = new TestPipeline( 'query', false, '/services/compute' )
+    PipelineIndex index = PipelineIndex.build( [], [ soap, query ] )
+
+    assertSame( soap, index.find( request( '/prefix/services/compute', true ), 'localhost' ) )
+    assertNull( index.find( request( '/prefix/services/compute' ), 'localhost' ) )
+    assertSame( query, index.find( request( '/services/compute' ), 'localhost' ) )
+  }
+
+  @Test
+  void testFallbackCount( ) {
+    FilteredPipeline indexed = new TestPipeline( 'indexed', false, '/services/compute' )
+    FilteredPipeline unindexed = new UnindexedTestPipeline( '/services/other' )
+    PipelineIndex index = PipelineIndex.build( [], [ indexed, unindexed ] )
+    long fallbacks = PipelineIndex.getIndexFallbackCount( )
+
+    assertSame( indexed, index.find( request( '/services/compute' ), 'localhost' ) )
+    assertNull( index.find( request( '/services/missing' ), 'localhost' ) )
+    assertEquals( 'Fallbacks', fallbacks, PipelineIndex.getIndexFallbackCount( ) )
+
+    assertSame( unindexed, index.find( request( '/services/other' ), 'localhost' ) )
+    assertEquals( 'Fallbacks', fallbacks + 1, PipelineIndex.getIndexFallbackCount( ) )
+  }
+
+  private static HttpRequest request( String uri, boolean soap = false ) {
+    HttpRequest request = new DefaultHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, uri )
+    if ( soap ) request.setHeader( 'SOAPAction', '' )
+    request
+  }
+
+  private static class TestPipeline extends FilteredPipeline implements PipelineIndex.PathIndexed {
+    private final String name
+    private final boolean soap
+    private final String path
+
+    TestPipeline( String name, boolean soap, String path ) {
+      this.name = name
+      this.soap = soap
+      this.path = path
+    }
+
+    @Override
+    String getName( ) {
+      name
+    }
+
+    @Override
+    ChannelPipeline addHandlers( ChannelPipeline pipeline ) {
+      pipeline
+    }
+
+    @Override
+    boolean checkAccepts( HttpRequest message ) {
+      soap ?
+          message.getUri( ).endsWith( path ) && message.containsHeader( 'SOAPAction' ) :
+          message.getUri( ).startsWith( path )
+    }
+
+    @Override
+    boolean isSoap( ) {
+      soap
+    }
+
+    @Override
+    Collection<String> getIndexPaths( ) {
+      [ path ]
+    }
+  }
+
+  private static class UnindexedTestPipeline extends FilteredPipeline {
+    private final String path
+
+    UnindexedTestPipeline( String path ) {
+      this.path = path
+    }
+
+    @Override
+    String getName( ) {
+      'unindexed'
+    }
+
+    @Override
+    ChannelPipeline addHandlers( ChannelPipeline pipeline ) {
+      pipeline
+    }
+
+    @Override
+    boolean checkAccepts( HttpRequest message ) {
+      message.getUri( ).startsWith( path )
+    }
+  }
+}
@@ -71,6 +71,7 @@ import com.eucalyptus.bootstrap.Provides;
 import com.eucalyptus.bootstrap.RunDuring;
 import com.eucalyptus.objectstorage.ObjectStorage;
 import com.eucalyptus.objectstorage.ObjectStorageGateway;
+import com.eucalyptus.objectstorage.metadata.ObjectKeyIndex;
 
 @Provides( ObjectStorage.class )
 @RunDuring( Bootstrap.Stage.RemoteServicesInit )
@@ -99,6 +100,7 @@ public class OsgBootstrapper extends Bootstrapper {
   
   @Override
   public boolean start( ) throws Exception {
+    ObjectKeyIndex.ensure( );
     ObjectStorageGateway.configure( );
     return true;
   }
@@ -648,6 +648,30 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
     @Override
 	public PaginatedResult<ObjectEntity> listVersionsPaginated(final Bucket bucket, int maxEntries, String prefix,
 			String delimiter, String fromKeyMarker, String fromVersionId, boolean latestOnly) throws Exception {
+		return listVersionsPaginated(bucket, maxEntries, prefix, delimiter, fromKeyMarker, fromVersionId, latestOnly, true, new ListingStats());
+	}
+
+	/**
+	 * Statistics for a single listing, for testing.
+	 */
+	static final class ListingStats {
+		int queries;
+		long rowsExamined;
+	}
+
+	/**
+	 * List using keyset pagination, each query continues from the position
+	 * after the last record examined rather than using an offset.
+	 *
+	 * When skipScan is enabled and the records examined end within a common
+	 * prefix, the next query continues from the first key following that
+	 * prefix, so keys for common prefixes are not all examined.
+	 *
+	 * Keys are compared and ordered by code point, see ObjectKeyOrder.
+	 */
+	PaginatedResult<ObjectEntity> listVersionsPaginated(final Bucket bucket, int maxEntries, String prefix,
+			String delimiter, String fromKeyMarker, String fromVersionId, boolean latestOnly,
+			boolean skipScan, ListingStats stats) throws Exception {
 
 		EntityTransaction db = Entities.get(ObjectEntity.class);
 		try {
@@ -666,14 +690,7 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
                     searchObj.setIsDeleteMarker(false);
 				}
 
-				Criteria objCriteria = Entities.createCriteria(ObjectEntity.class);
-				objCriteria.setReadOnly(true);
-				objCriteria.setFetchSize(queryStrideSize);
-				objCriteria.add(Example.create(searchObj));
-				objCriteria.addOrder(Order.asc("objectKey"));
-				objCriteria.addOrder(Order.desc("objectModifiedTimestamp"));
-				objCriteria.setMaxResults(queryStrideSize);
-
+				Criterion position = null;
 				if (!Strings.isNullOrEmpty(fromKeyMarker)) {
 					if (!Strings.isNullOrEmpty(fromVersionId)) {
 						// Look for the key that matches the key-marker and version-id-marker
@@ -691,25 +708,18 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
 
 						// The result set should be exclusive of the key with the key-marker version-id-marker pair. Look for keys that chronologically
 						// follow the version-id-marker for the given key-marker and also the keys that follow the key-marker.
-						objCriteria.add(Restrictions.or(
-								Restrictions.and(Restrictions.eq("objectKey", fromKeyMarker),
-										Restrictions.lt("objectModifiedTimestamp", matchingObject.getObjectModifiedTimestamp())),
-								Restrictions.gt("objectKey", fromKeyMarker)));
+						position = after(fromKeyMarker, matchingObject.getObjectModifiedTimestamp(), matchingObject.getObjectUuid());
 					} else { // No version-id-marker, just set the criteria the key-marker
-						objCriteria.add(Restrictions.gt("objectKey", fromKeyMarker));
+						position = ObjectKeyOrder.gt("objectKey", fromKeyMarker);
 					}
 				} else {
 					// No criteria to be set
 				}
 
-				if (!Strings.isNullOrEmpty(prefix)) {
-					objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
-				} else {
+				if (Strings.isNullOrEmpty(prefix)) {
 					prefix = "";
 				}
 
-                objCriteria = getSearchByBucket(objCriteria, bucket);
-
 				// Ensure not null.
 				if (Strings.isNullOrEmpty(delimiter)) {
 					delimiter = "";
@@ -717,37 +727,52 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
 
 				List<ObjectEntity> objectInfos = null;
 				int resultKeyCount = 0;
-				String[] parts = null;
 				String prefixString = null;
 				boolean useDelimiter = !Strings.isNullOrEmpty(delimiter);
-				int pages = 0;
+
+				// A key-marker that is a common prefix excludes all keys with that prefix
+				if (skipScan && useDelimiter && Strings.isNullOrEmpty(fromVersionId) &&
+						fromKeyMarker != null && fromKeyMarker.equals(commonPrefix(fromKeyMarker, prefix, delimiter))) {
+					position = afterPrefix(fromKeyMarker, position);
+				}
 
 				// Iterate over result sets of size maxkeys + 1 since
 				// commonPrefixes collapse the list, we may examine many more
 				// records than maxkeys + 1
 				do {
-					parts = null;
 					prefixString = null;
 
-					// Skip ahead the next page of 'queryStrideSize' results.
-					objCriteria.setFirstResult(pages++ * queryStrideSize);
+					Criteria objCriteria = Entities.createCriteria(ObjectEntity.class);
+					objCriteria.setReadOnly(true);
+					objCriteria.setFetchSize(queryStrideSize);
+					objCriteria.add(Example.create(searchObj));
+					objCriteria.addOrder(ObjectKeyOrder.asc("objectKey"));
+					objCriteria.addOrder(Order.desc("objectModifiedTimestamp"));
+					objCriteria.addOrder(Order.asc("objectUuid"));
+					objCriteria.setMaxResults(queryStrideSize);
+					if (position != null) {
+						objCriteria.add(position);
+					}
+					if (!prefix.isEmpty()) {
+						objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
+					}
+					objCriteria = getSearchByBucket(objCriteria, bucket);
 
 					objectInfos = (List<ObjectEntity>) objCriteria.list();
+					stats.queries++;
 					if (objectInfos == null) {
 						// nothing to do.
 						break;
 					}
+					stats.rowsExamined += objectInfos.size();
 
 					for (ObjectEntity objectRecord : objectInfos) {
+						prefixString = null;
 						if (useDelimiter) {
-							// Check if it will get aggregated as a commonprefix
-							// Split the substring with at least 2 matches as we need a result containing trailing strings. For instance 
-							// if "x" is delimiter and key string is also "x", then this key should be included in common prefixes. 
-							// "x".split("x") gives 0 strings which causes the subsequent logic to skip the key where as 
-							// "x".split("x", 2) gives 2 empty strings which is what the logic expects
-							parts = objectRecord.getObjectKey().substring(prefix.length()).split(delimiter, 2);
-							if (parts.length > 1) {
-								prefixString = prefix + parts[0] + delimiter;
+							// Check if it will get aggregated as a commonprefix. If "x" is delimiter and key string is
+							// also "x", then this key should be included in common prefixes.
+							prefixString = commonPrefix(objectRecord.getObjectKey(), prefix, delimiter);
+							if (prefixString != null) {
 								if (!prefixString.equals(fromKeyMarker) && !commonPrefixes.contains(prefixString)) {
 									if (resultKeyCount == maxEntries) {
 										// This is a new record, so we know
@@ -786,6 +811,15 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
 					if (resultKeyCount <= maxEntries && objectInfos.size() <= maxEntries) {
 						break;
 					}
+
+					// Continue after the last record examined, or after the common prefix it is part of
+					final ObjectEntity lastRecord = objectInfos.get(objectInfos.size() - 1);
+					position = lastRecord.getObjectModifiedTimestamp() == null ?
+							ObjectKeyOrder.gt("objectKey", lastRecord.getObjectKey()) :
+							after(lastRecord.getObjectKey(), lastRecord.getObjectModifiedTimestamp(), lastRecord.getObjectUuid());
+					if (skipScan && prefixString != null) {
+						position = afterPrefix(prefixString, position);
+					}
 				} while (resultKeyCount <= maxEntries);
 
 				// Sort the prefixes from the hashtable and add to the reply
@@ -805,6 +839,58 @@ public class DbObjectMetadataManagerImpl implements ObjectMetadataManager {
 			db.rollback();
 		}
 	}
+
+	/**
+	 * Get the common prefix for the given key.
+	 *
+	 * @return The prefix up to and including the first delimiter following the prefix, or null if none
+	 */
+	static String commonPrefix(final String key, final String prefix, final String delimiter) {
+		if (!key.startsWith(prefix)) {
+			return null;
+		}
+		final int index = key.indexOf(delimiter, prefix.length());
+		return index < 0 ? null : key.substring(0, index + delimiter.length());
+	}
+
+	/**
+	 * Get the first key that follows all keys with the given prefix.
+	 *
+	 * @return The key or null if there is no such key, or it cannot be found by incrementing a character
+	 */
+	static String prefixSuccessor(final String prefix) {
+		final int last = prefix.length() - 1;
+		if (last < 0 || prefix.charAt(last) == Character.MAX_VALUE) {
+			return null;
+		}
+		final char successor = (char) (prefix.charAt(last) + 1);
+		if (Character.isSurrogate(prefix.charAt(last)) || Character.isSurrogate(successor)) {
+			return null;
+		}
+		return prefix.substring(0, last) + successor;
+	}
+
+	/**
+	 * Position after the given key and version, for keys ordered ascending then timestamps descending
+	 * then object uuids ascending. The uuid is unique so versions sharing a timestamp are not skipped.
+	 */
+	private static Criterion after(final String objectKey, final Date objectModifiedTimestamp, final String objectUuid) {
+		return Restrictions.or(
+				Restrictions.and(Restrictions.eq("objectKey", objectKey),
+						Restrictions.or(
+								Restrictions.lt("objectModifiedTimestamp", objectModifiedTimestamp),
+								Restrictions.and(Restrictions.eq("objectModifiedTimestamp", objectModifiedTimestamp),
+										Restrictions.gt("objectUuid", objectUuid)))),
+				ObjectKeyOrder.gt("objectKey", objectKey));
+	}
+
+	/**
+	 * Position after all keys with the given prefix, or the fallback position if there is no following key.
+	 */
+	private static Criterion afterPrefix(final String prefix, final Criterion fallback) {
+		final String successor = prefixSuccessor(prefix);
+		return successor == null ? fallback : ObjectKeyOrder.ge("objectKey", successor);
+	}
 	
 	@Override
 	public long countValid(Bucket bucket) throws Exception {
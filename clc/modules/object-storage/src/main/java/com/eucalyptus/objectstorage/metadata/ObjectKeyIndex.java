@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ */
+
+package com.eucalyptus.objectstorage.metadata;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import com.eucalyptus.objectstorage.entities.ObjectEntity;
+import com.eucalyptus.upgrade.Upgrades;
+import com.google.common.base.Function;
+
+/**
+ * Index for listing objects in key order.
+ *
+ * Listings compare and order keys in the "C" collation on PostgreSQL (see
+ * ObjectKeyOrder) so the IDX_object_key index, which uses the database
+ * collation, cannot be used for them. This index matches the listing order
+ * so each page is an index range scan within the bucket. Hibernate does not
+ * create indexes with a collation, so the index is created (if missing) when
+ * the service starts, which covers both new and upgraded installations.
+ */
+public final class ObjectKeyIndex {
+    private static final Logger LOG = Logger.getLogger(ObjectKeyIndex.class);
+
+    static final String INDEX_NAME = "idx_objects_bucket_key_c";
+
+    private static final String SQL_INDEX_EXISTS =
+            "select count(*) from pg_indexes where tablename = 'objects' and indexname = '" + INDEX_NAME + "'";
+
+    private static final String SQL_CREATE_INDEX =
+            "create index " + INDEX_NAME + " on objects " +
+                    "(bucket_fk, object_key collate \"C\", object_last_modified desc, object_uuid)";
+
+    private ObjectKeyIndex() {
+    }
+
+    /**
+     * Create the listing index if the database is PostgreSQL and the index does not exist.
+     *
+     * Failure is logged and not fatal, listings are correct without the index.
+     */
+    public static void ensure() {
+        try {
+            Upgrades.transactionalForEntity(ObjectEntity.class, new Function<EntityManager, Boolean>() {
+                @Override
+                public Boolean apply(final EntityManager entityManager) {
+                    final SessionFactoryImplementor factory =
+                            (SessionFactoryImplementor) entityManager.unwrap(Session.class).getSessionFactory();
+                    if (!(factory.getDialect() instanceof PostgreSQL81Dialect)) {
+                        return true;
+                    }
+                    final Number existing = (Number) entityManager.createNativeQuery(SQL_INDEX_EXISTS).getSingleResult();
+                    if (existing.intValue() == 0) {
+                        LOG.info("Creating object listing index " + INDEX_NAME);
+                        entityManager.createNativeQuery(SQL_CREATE_INDEX).executeUpdate();
+                    }
+                    return true;
+                }
+            });
+        } catch (final Exception e) {
+            LOG.error("Error creating object listing index " + INDEX_NAME + ", listings will not use an index", e);
+        }
+    }
+}
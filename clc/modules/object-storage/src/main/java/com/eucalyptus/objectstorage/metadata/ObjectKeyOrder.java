@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ */
+
+package com.eucalyptus.objectstorage.metadata;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.SimpleExpression;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+
+/**
+ * Object key comparisons and ordering by code point.
+ *
+ * Listings continue from a key and skip past common prefixes by comparing
+ * keys, which is only correct when the database compares keys by code
+ * point as S3 does. PostgreSQL databases are usually created with a locale
+ * collation, so for PostgreSQL the comparisons and ordering use the "C"
+ * collation. Other databases (Derby for tests) compare by code point.
+ */
+final class ObjectKeyOrder {
+
+    private static final String COLLATE_C = " collate \"C\"";
+
+    private ObjectKeyOrder() {
+    }
+
+    static Criterion gt(final String propertyName, final String key) {
+        return new CollatedExpression(propertyName, key, ">");
+    }
+
+    static Criterion ge(final String propertyName, final String key) {
+        return new CollatedExpression(propertyName, key, ">=");
+    }
+
+    static Order asc(final String propertyName) {
+        return new CollatedOrder(propertyName, true);
+    }
+
+    private static String collate(final CriteriaQuery criteriaQuery) {
+        final Dialect dialect = criteriaQuery.getFactory().getDialect();
+        return dialect instanceof PostgreSQL81Dialect ? COLLATE_C : "";
+    }
+
+    private static final class CollatedExpression extends SimpleExpression {
+        private static final long serialVersionUID = 1L;
+
+        private final String op;
+
+        private CollatedExpression(final String propertyName, final Object value, final String op) {
+            super(propertyName, value, op);
+            this.op = op;
+        }
+
+        @Override
+        public String toSqlString(final Criteria criteria, final CriteriaQuery criteriaQuery) throws HibernateException {
+            final String[] columns = criteriaQuery.getColumnsUsingProjection(criteria, getPropertyName());
+            if (columns.length != 1) {
+                throw new HibernateException("Collated comparison requires a single column: " + getPropertyName());
+            }
+            return columns[0] + collate(criteriaQuery) + op + "?";
+        }
+    }
+
+    private static final class CollatedOrder extends Order {
+        private static final long serialVersionUID = 1L;
+
+        private CollatedOrder(final String propertyName, final boolean ascending) {
+            super(propertyName, ascending);
+        }
+
+        @Override
+        public String toSqlString(final Criteria criteria, final CriteriaQuery criteriaQuery) throws HibernateException {
+            final String[] columns = criteriaQuery.getColumnsUsingProjection(criteria, getPropertyName());
+            final StringBuilder sql = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(columns[i]).append(collate(criteriaQuery)).append(isAscending() ? " asc" : " desc");
+            }
+            return sql.toString();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package com.eucalyptus.objectstorage.metadata
+
+import com.eucalyptus.auth.Accounts
+import com.eucalyptus.auth.principal.User
+import com.eucalyptus.entities.Entities
+import com.eucalyptus.objectstorage.BucketMetadataManagers
+import com.eucalyptus.objectstorage.ObjectState
+import com.eucalyptus.objectstorage.PaginatedResult
+import com.eucalyptus.objectstorage.TestUtils
+import com.eucalyptus.objectstorage.UnitTestSupport
+import com.eucalyptus.objectstorage.entities.Bucket
+import com.eucalyptus.objectstorage.entities.ObjectEntity
+import com.google.common.base.Strings
+import org.hibernate.Criteria
+import org.hibernate.criterion.Example
+import org.hibernate.criterion.Order
+import org.apache.log4j.Logger
+import org.junit.AfterClass
+import org.junit.BeforeClass
+import org.junit.Ignore
+import org.junit.Test
+
+import javax.persistence.EntityTransaction
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+/**
+ * Compares rows examined and latency for delimiter listings over a
+ * synthetic bucket using the previous OFFSET pagination and keyset
+ * pagination with and without the common prefix skip-scan.
+ *
+ * For OFFSET pagination the rows examined include the rows the database
+ * steps over for each offset. Derby does not use the PostgreSQL "C"
+ * collation index, so only the relative row counts are representative.
+ *
+ * Manual performance test, listing correctness is covered by ObjectListingTest.
+ */
+@Ignore("Manual performance test")
+public class ObjectListingBenchmarkTest {
+    private static final Logger LOG = Logger.getLogger(ObjectListingBenchmarkTest.class)
+    private static final int PREFIXES = 20
+    private static final int KEYS_PER_PREFIX = 250
+    private static final int TOP_LEVEL_KEYS = 50
+
+    static BucketMetadataManager mgr = BucketMetadataManagers.getInstance()
+    static DbObjectMetadataManagerImpl objMgr = new DbObjectMetadataManagerImpl()
+    static Bucket bucket
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        UnitTestSupport.setupOsgPersistenceContext()
+        UnitTestSupport.setupAuthPersistenceContext()
+        UnitTestSupport.initializeAuth(2, 2)
+        mgr.start()
+        objMgr.start()
+        UnitTestSupport.flushObjects()
+        UnitTestSupport.flushBuckets()
+        TestUtils.initTestAccountsAndAcls()
+
+        bucket = TestUtils.createTestBucket(mgr, "listingbucket")
+        User usr = Accounts.lookupUserById(UnitTestSupport.getUsersByAccountName(UnitTestSupport.getTestAccounts().first()).first())
+        EntityTransaction tx = Entities.get(ObjectEntity.class)
+        try {
+            for (int p = 0; p < PREFIXES; p++) {
+                for (int k = 0; k < KEYS_PER_PREFIX; k++) {
+                    Entities.persist(extant(bucket, String.format("dir%02d/key%04d", p, k), usr))
+                }
+            }
+            for (int k = 0; k < TOP_LEVEL_KEYS; k++) {
+                Entities.persist(extant(bucket, String.format("file%04d", k), usr))
+            }
+            tx.commit()
+        } finally {
+            if (tx.isActive()) tx.rollback()
+        }
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        UnitTestSupport.flushObjects()
+        UnitTestSupport.flushBuckets()
+        mgr.stop()
+        objMgr.stop()
+        UnitTestSupport.tearDownOsgPersistenceContext()
+        UnitTestSupport.tearDownAuthPersistenceContext()
+    }
+
+    private static ObjectEntity extant(Bucket bucket, String key, User usr) {
+        ObjectEntity entity = ObjectEntity.newInitializedForCreate(bucket, key, 100, usr)
+        entity.setState(ObjectState.extant)
+        entity.setIsLatest(true)
+        entity.setIsDeleteMarker(false)
+        entity.setObjectModifiedTimestamp(new Date())
+        return entity
+    }
+
+    @Test
+    public void testDelimiterListing() throws Exception {
+        compareListings(1000)
+    }
+
+    @Test
+    public void testSmallPageDelimiterListing() throws Exception {
+        compareListings(10)
+    }
+
+    private static void compareListings(int maxKeys) {
+        DbObjectMetadataManagerImpl.ListingStats offsetStats = new DbObjectMetadataManagerImpl.ListingStats()
+        DbObjectMetadataManagerImpl.ListingStats scanStats = new DbObjectMetadataManagerImpl.ListingStats()
+        DbObjectMetadataManagerImpl.ListingStats skipStats = new DbObjectMetadataManagerImpl.ListingStats()
+
+        long start = System.nanoTime()
+        PaginatedResult<ObjectEntity> offset = offsetListing(bucket, maxKeys, "/", offsetStats)
+        long offsetNanos = System.nanoTime() - start
+        start = System.nanoTime()
+        PaginatedResult<ObjectEntity> scanned = objMgr.listVersionsPaginated(bucket, maxKeys, null, "/", null, null, true, false, scanStats)
+        long scanNanos = System.nanoTime() - start
+        start = System.nanoTime()
+        PaginatedResult<ObjectEntity> skipped = objMgr.listVersionsPaginated(bucket, maxKeys, null, "/", null, null, true, true, skipStats)
+        long skipNanos = System.nanoTime() - start
+
+        LOG.info(String.format("Max keys %d", maxKeys))
+        LOG.info(String.format("Offset:    %d rows examined, %d queries, %dms", offsetStats.rowsExamined, offsetStats.queries, (long) (offsetNanos / 1000000)))
+        LOG.info(String.format("Full scan: %d rows examined, %d queries, %dms", scanStats.rowsExamined, scanStats.queries, (long) (scanNanos / 1000000)))
+        LOG.info(String.format("Skip scan: %d rows examined, %d queries, %dms", skipStats.rowsExamined, skipStats.queries, (long) (skipNanos / 1000000)))
+
+        assertEquals(offset.getCommonPrefixes(), scanned.getCommonPrefixes())
+        assertEquals(offset.getEntityList()*.getObjectKey(), scanned.getEntityList()*.getObjectKey())
+        assertEquals(offset.getIsTruncated(), scanned.getIsTruncated())
+        assertEquals(scanned.getCommonPrefixes(), skipped.getCommonPrefixes())
+        assertEquals(scanned.getEntityList()*.getObjectKey(), skipped.getEntityList()*.getObjectKey())
+        assertEquals(scanned.getIsTruncated(), skipped.getIsTruncated())
+        assertTrue("Expected keyset scan to examine no more rows than offset", scanStats.rowsExamined <= offsetStats.rowsExamined)
+        assertTrue("Expected skip scan to examine fewer rows", skipStats.rowsExamined < scanStats.rowsExamined)
+    }
+
+    /**
+     * Listing as performed before keyset pagination, each page of the
+     * listing is a query with an increasing offset.
+     */
+    private static PaginatedResult<ObjectEntity> offsetListing(Bucket bucket, int maxEntries, String delimiter,
+                                                               DbObjectMetadataManagerImpl.ListingStats stats) {
+        EntityTransaction db = Entities.get(ObjectEntity.class)
+        try {
+            PaginatedResult<ObjectEntity> result = new PaginatedResult<ObjectEntity>()
+            Set<String> commonPrefixes = new HashSet<String>()
+            int queryStrideSize = maxEntries + 1
+            ObjectEntity searchObj = new ObjectEntity().withBucket(bucket).withState(ObjectState.extant)
+            searchObj.setIsLatest(true)
+            searchObj.setIsDeleteMarker(false)
+
+            Criteria objCriteria = Entities.createCriteria(ObjectEntity.class)
+            objCriteria.setReadOnly(true)
+            objCriteria.setFetchSize(queryStrideSize)
+            objCriteria.add(Example.create(searchObj))
+            objCriteria.addOrder(Order.asc("objectKey"))
+            objCriteria.addOrder(Order.desc("objectModifiedTimestamp"))
+            objCriteria.setMaxResults(queryStrideSize)
+            objCriteria = DbObjectMetadataManagerImpl.getSearchByBucket(objCriteria, bucket)
+
+            boolean useDelimiter = !Strings.isNullOrEmpty(delimiter)
+            int resultKeyCount = 0
+            int pages = 0
+            List<ObjectEntity> objectInfos
+            do {
+                int firstResult = pages++ * queryStrideSize
+                objCriteria.setFirstResult(firstResult)
+                objectInfos = (List<ObjectEntity>) objCriteria.list()
+                stats.queries++
+                stats.rowsExamined += firstResult + objectInfos.size()
+
+                for (ObjectEntity objectRecord : objectInfos) {
+                    String prefixString = useDelimiter ?
+                            DbObjectMetadataManagerImpl.commonPrefix(objectRecord.getObjectKey(), "", delimiter) :
+                            null
+                    if (prefixString != null) {
+                        if (!commonPrefixes.contains(prefixString)) {
+                            if (resultKeyCount == maxEntries) {
+                                result.setIsTruncated(true)
+                                resultKeyCount++
+                                break
+                            }
+                            commonPrefixes.add(prefixString)
+                            result.setLastEntry(prefixString)
+                            resultKeyCount++
+                        }
+                        continue
+                    }
+                    if (resultKeyCount == maxEntries) {
+                        result.setIsTruncated(true)
+                        resultKeyCount++
+                        break
+                    }
+                    result.getEntityList().add(objectRecord)
+                    result.setLastEntry(objectRecord)
+                    resultKeyCount++
+                }
+
+                if (resultKeyCount <= maxEntries && objectInfos.size() <= maxEntries) {
+                    break
+                }
+            } while (resultKeyCount <= maxEntries)
+
+            result.getCommonPrefixes().addAll(commonPrefixes)
+            Collections.sort(result.getCommonPrefixes())
+            return result
+        } finally {
+            db.rollback()
+        }
+    }
+}
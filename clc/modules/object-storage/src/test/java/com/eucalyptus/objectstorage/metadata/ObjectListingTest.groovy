@@ -0,0 +1,181 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package com.eucalyptus.objectstorage.metadata
+
+import com.eucalyptus.auth.Accounts
+import com.eucalyptus.auth.principal.User
+import com.eucalyptus.entities.Entities
+import com.eucalyptus.objectstorage.BucketMetadataManagers
+import com.eucalyptus.objectstorage.ObjectState
+import com.eucalyptus.objectstorage.PaginatedResult
+import com.eucalyptus.objectstorage.TestUtils
+import com.eucalyptus.objectstorage.UnitTestSupport
+import com.eucalyptus.objectstorage.entities.Bucket
+import com.eucalyptus.objectstorage.entities.ObjectEntity
+import org.junit.AfterClass
+import org.junit.BeforeClass
+import org.junit.Test
+
+import javax.persistence.EntityTransaction
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+/**
+ * Listing of object versions with keyset pagination and the common prefix skip-scan.
+ */
+public class ObjectListingTest {
+    private static final int PREFIXES = 3
+    private static final int KEYS_PER_PREFIX = 5
+    private static final int TOP_LEVEL_KEYS = 4
+    private static final int VERSIONS = 3
+
+    static BucketMetadataManager mgr = BucketMetadataManagers.getInstance()
+    static DbObjectMetadataManagerImpl objMgr = new DbObjectMetadataManagerImpl()
+    static Bucket bucket
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        UnitTestSupport.setupOsgPersistenceContext()
+        UnitTestSupport.setupAuthPersistenceContext()
+        UnitTestSupport.initializeAuth(2, 2)
+        mgr.start()
+        objMgr.start()
+        UnitTestSupport.flushObjects()
+        UnitTestSupport.flushBuckets()
+        TestUtils.initTestAccountsAndAcls()
+
+        bucket = TestUtils.createTestBucket(mgr, "listingtestbucket")
+        User usr = Accounts.lookupUserById(UnitTestSupport.getUsersByAccountName(UnitTestSupport.getTestAccounts().first()).first())
+        Date modified = new Date()
+        EntityTransaction tx = Entities.get(ObjectEntity.class)
+        try {
+            for (int p = 0; p < PREFIXES; p++) {
+                for (int k = 0; k < KEYS_PER_PREFIX; k++) {
+                    Entities.persist(extant(bucket, String.format("dir%02d/key%04d", p, k), usr, modified, true))
+                }
+            }
+            for (int k = 0; k < TOP_LEVEL_KEYS; k++) {
+                Entities.persist(extant(bucket, String.format("file%04d", k), usr, modified, true))
+            }
+            // versions of one key sharing a modified timestamp
+            for (int v = 0; v < VERSIONS; v++) {
+                Entities.persist(extant(bucket, "versioned", usr, modified, v == 0))
+            }
+            tx.commit()
+        } finally {
+            if (tx.isActive()) tx.rollback()
+        }
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        UnitTestSupport.flushObjects()
+        UnitTestSupport.flushBuckets()
+        mgr.stop()
+        objMgr.stop()
+        UnitTestSupport.tearDownOsgPersistenceContext()
+        UnitTestSupport.tearDownAuthPersistenceContext()
+    }
+
+    private static ObjectEntity extant(Bucket bucket, String key, User usr, Date modified, boolean latest) {
+        ObjectEntity entity = ObjectEntity.newInitializedForCreate(bucket, key, 100, usr)
+        entity.setVersionId(UUID.randomUUID().toString())
+        entity.setState(ObjectState.extant)
+        entity.setIsLatest(latest)
+        entity.setIsDeleteMarker(false)
+        entity.setObjectModifiedTimestamp(modified)
+        return entity
+    }
+
+    @Test
+    public void testDelimiterListing() throws Exception {
+        DbObjectMetadataManagerImpl.ListingStats scanStats = new DbObjectMetadataManagerImpl.ListingStats()
+        DbObjectMetadataManagerImpl.ListingStats skipStats = new DbObjectMetadataManagerImpl.ListingStats()
+        PaginatedResult<ObjectEntity> scanned = objMgr.listVersionsPaginated(bucket, 1000, null, "/", null, null, true, false, scanStats)
+        PaginatedResult<ObjectEntity> skipped = objMgr.listVersionsPaginated(bucket, 1000, null, "/", null, null, true, true, skipStats)
+
+        assertEquals(PREFIXES, skipped.getCommonPrefixes().size())
+        assertEquals(TOP_LEVEL_KEYS + 1, skipped.getEntityList().size())
+        assertEquals(scanned.getCommonPrefixes(), skipped.getCommonPrefixes())
+        assertEquals(scanned.getEntityList()*.getObjectKey(), skipped.getEntityList()*.getObjectKey())
+        assertEquals(PREFIXES * KEYS_PER_PREFIX + TOP_LEVEL_KEYS + 1, scanStats.rowsExamined)
+        assertTrue("Expected skip scan to examine fewer rows", skipStats.rowsExamined < scanStats.rowsExamined)
+    }
+
+    @Test
+    public void testPaginatedDelimiterListing() throws Exception {
+        List<String> entries = []
+        String marker = null
+        DbObjectMetadataManagerImpl.ListingStats stats = new DbObjectMetadataManagerImpl.ListingStats()
+        while (true) {
+            PaginatedResult<ObjectEntity> page = objMgr.listVersionsPaginated(bucket, 2, null, "/", marker, null, true, true, stats)
+            entries.addAll(page.getCommonPrefixes())
+            entries.addAll(page.getEntityList()*.getObjectKey())
+            if (!page.getIsTruncated()) break
+            marker = page.getLastEntry() instanceof ObjectEntity ?
+                    ((ObjectEntity) page.getLastEntry()).getObjectKey() :
+                    (String) page.getLastEntry()
+        }
+
+        assertEquals(PREFIXES + TOP_LEVEL_KEYS + 1, entries.size())
+        assertEquals(PREFIXES + TOP_LEVEL_KEYS + 1, new HashSet<String>(entries).size())
+        assertTrue("Expected keys for prefixes to be skipped", stats.rowsExamined < PREFIXES * KEYS_PER_PREFIX)
+    }
+
+    @Test
+    public void testPaginatedVersionsSharingTimestamp() throws Exception {
+        Set<String> versionIds = new HashSet<String>()
+        String keyMarker = null
+        String versionMarker = null
+        while (true) {
+            PaginatedResult<ObjectEntity> page = objMgr.listVersionsPaginated(bucket, 1, "versioned", null, keyMarker, versionMarker, false)
+            for (ObjectEntity entity : page.getEntityList()) {
+                assertTrue("Version listed twice: " + entity.getVersionId(), versionIds.add(entity.getVersionId()))
+            }
+            if (!page.getIsTruncated()) break
+            ObjectEntity last = (ObjectEntity) page.getLastEntry()
+            keyMarker = last.getObjectKey()
+            versionMarker = last.getVersionId()
+        }
+
+        assertEquals(VERSIONS, versionIds.size())
+    }
+
+    @Test
+    public void testCommonPrefix() {
+        assertEquals("a/", DbObjectMetadataManagerImpl.commonPrefix("a/b", "", "/"))
+        assertEquals("a/b/", DbObjectMetadataManagerImpl.commonPrefix("a/b/c", "a/", "/"))
+        assertEquals("x", DbObjectMetadataManagerImpl.commonPrefix("x", "", "x"))
+        assertEquals("a.", DbObjectMetadataManagerImpl.commonPrefix("a.b", "", "."))
+        assertNull(DbObjectMetadataManagerImpl.commonPrefix("ab", "", "/"))
+    }
+
+    @Test
+    public void testPrefixSuccessor() {
+        assertEquals("a0", DbObjectMetadataManagerImpl.prefixSuccessor("a/"))
+        assertNull(DbObjectMetadataManagerImpl.prefixSuccessor(""))
+        assertNull(DbObjectMetadataManagerImpl.prefixSuccessor("a" + Character.MAX_VALUE))
+        assertNull(DbObjectMetadataManagerImpl.prefixSuccessor("a" + (char) 0xD7FF))
+        assertNull(DbObjectMetadataManagerImpl.prefixSuccessor("a\uD83D\uDE00"))
+    }
+}
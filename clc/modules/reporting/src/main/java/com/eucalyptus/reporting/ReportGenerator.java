@@ -64,12 +64,18 @@ package com.eucalyptus.reporting;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import com.eucalyptus.reporting.art.entity.ReportArtEntity;
+import com.eucalyptus.reporting.art.generator.ReportEventScanner;
 import com.eucalyptus.reporting.art.renderer.RendererFactory;
 import com.eucalyptus.reporting.units.Units;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * <p>ReportGenerator is the main class by which the reporting system is
@@ -95,6 +101,9 @@ public class ReportGenerator
 
 	/**
 	 * Generate a report.
+	 *
+	 * <p>The report is generated as for {@link #generateReports}, with a
+	 * single report type.</p>
 	 * 
 	 * @param displayUnits Can be null if you just want the default units.
 	 * @param type The type of report, which is INSTANCE for the time being regardless of what you specify
@@ -117,11 +126,51 @@ public class ReportGenerator
 		if (out==null) {
 			throw new IllegalArgumentException("out can't be null");
 		}
+
+		generateReports(period, format, ImmutableMap.of(type, out), displayUnits);
+	}
+
+	/**
+	 * Generate reports of several types for the same period.
+	 *
+	 * <p>The event tables are scanned once for all the reports, so this is
+	 * cheaper than generating each report separately.</p>
+	 *
+	 * @param displayUnits Can be null if you just want the default units.
+	 * @param format The report format
+	 * @param period The period for which you wish to generate the reports
+	 * @param outs The report types to generate, with where to send each report
+	 *
+	 * @throws IOException If it cannot write to a stream you passed.
+	 */
+	public void generateReports(Period period, ReportFormat format,
+			Map<ReportType,? extends OutputStream> outs, Units displayUnits)
+		throws IOException
+	{
+		if (period==null) {
+			throw new IllegalArgumentException("Period can't be null");
+		}
+		if (outs==null || outs.containsKey(null) || outs.containsValue(null)) {
+			throw new IllegalArgumentException("outs can't be null or contain nulls");
+		}
 		if (format==null) format=ReportFormat.HTML;
-		
-		ReportArtEntity report = new ReportArtEntity(period.getBeginningMs(), period.getEndingMs());
 		if (displayUnits==null) displayUnits=Units.getDefaultDisplayUnits();
-		type.getGenerator().generateReportArt(report);
-		RendererFactory.getRenderer(type, format).render(report, out, displayUnits);
+
+		final ReportEventScanner scanner = new ReportEventScanner();
+		final Map<ReportType,ReportArtEntity> reports = Maps.newLinkedHashMap();
+		final List<Runnable> completions = Lists.newArrayList();
+		for (ReportType type : outs.keySet()) {
+			ReportArtEntity report = new ReportArtEntity(period.getBeginningMs(), period.getEndingMs());
+			reports.put(type, report);
+			completions.add(type.getGenerator().prepareReportArt(report, scanner));
+		}
+		scanner.run();
+		for (Runnable completion : completions) {
+			completion.run();
+		}
+		for (Map.Entry<ReportType,ReportArtEntity> entry : reports.entrySet()) {
+			RendererFactory.getRenderer(entry.getKey(), format)
+					.render(entry.getValue(), outs.get(entry.getKey()), displayUnits);
+		}
 	}
 }
@@ -19,18 +19,9 @@
  ************************************************************************/
 package com.eucalyptus.reporting.art.generator;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
-import javax.persistence.EntityTransaction;
-import org.hibernate.CacheMode;
-import org.hibernate.ScrollMode;
-import org.hibernate.ScrollableResults;
-import org.hibernate.criterion.Criterion;
-import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Restrictions;
-import com.eucalyptus.entities.Entities;
 import com.eucalyptus.reporting.art.entity.ReportArtEntity;
+import com.eucalyptus.reporting.art.util.TimestampIndex;
 import com.eucalyptus.reporting.domain.ReportingAccount;
 import com.eucalyptus.reporting.domain.ReportingAccountDao;
 import com.eucalyptus.reporting.domain.ReportingUser;
@@ -38,14 +29,36 @@ import com.eucalyptus.reporting.domain.ReportingUserDao;
 import com.eucalyptus.reporting.event_store.ReportingEventSupport;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
-import com.google.common.collect.Lists;
 
 /**
  *
  */
 public abstract class AbstractArtGenerator implements ArtGenerator {
 
-  protected static final String TIMESTAMP_MS = "timestampMs";
+  @Override
+  public ReportArtEntity generateReportArt( final ReportArtEntity report ) {
+    final ReportEventScanner scanner = new ReportEventScanner( );
+    final Runnable completion = prepareReportArt( report, scanner );
+    scanner.run( );
+    completion.run( );
+    return report;
+  }
+
+  @Override
+  public Runnable prepareReportArt( final ReportArtEntity report, final ReportEventScanner scanner ) {
+    return registerScans( report, scanner.newScans( ) );
+  }
+
+  /**
+   * Register the event scans for the report.
+   *
+   * <p>Callbacks for a scan may use the results of scans registered before
+   * it, any processing that uses the results of all scans must be done by
+   * the returned completion.</p>
+   *
+   * @return The completion for the report
+   */
+  protected abstract Runnable registerScans( ReportArtEntity report, ReportEventScanner.Scans scans );
 
   protected ReportingUser getUserById( final String userId ) {
     return ReportingUserDao.getInstance().getReportingUser( userId );
@@ -80,33 +93,15 @@ public abstract class AbstractArtGenerator implements ArtGenerator {
     return accountName;
   }
 
-  protected Criterion between( final Long beginInclusive, final Long endExclusive ) {
-    return Restrictions.conjunction()
-        .add( Restrictions.ge( TIMESTAMP_MS, beginInclusive ) )
-        .add( before( endExclusive ) );
-  }
-
-  protected Criterion before( final Long endExclusive ) {
-    return Restrictions.lt( TIMESTAMP_MS, endExclusive );
-  }
-
   protected <KT,ET extends ReportingEventSupport> Predicate<ET> buildTimestampMap(
       final ReportArtEntity report,
-      final Map<KT,List<Long>> keyToTimesMap,
+      final TimestampIndex<KT> keyToTimesMap,
       final Function<ET,KT> keyBuilder ) {
     return new Predicate<ET>(){
       @Override
       public boolean apply( final ET event ) {
         if ( event.getTimestampMs() <= report.getEndMs() ) {
-          final KT key = keyBuilder.apply( event );
-          List<Long> endTimes = keyToTimesMap.get( key );
-          if ( endTimes == null ) {
-            endTimes = Lists.newArrayList( event.getTimestampMs() );
-            keyToTimesMap.put( key, endTimes );
-          } else {
-            endTimes.add( event.getTimestampMs() );
-          }
-          Collections.sort( endTimes );
+          keyToTimesMap.add( keyBuilder.apply( event ), event.getTimestampMs() );
         } else {
           return false; // end of relevant data
         }
@@ -115,53 +110,10 @@ public abstract class AbstractArtGenerator implements ArtGenerator {
     };
   }
 
-  protected <KT> Long findTimeAfter( final Map<KT, List<Long>> keyToEndTimesMap,
+  protected <KT> Long findTimeAfter( final TimestampIndex<KT> keyToEndTimesMap,
                                      final KT key,
                                      final Long startTime ) {
-    Long timeAfter = Long.MAX_VALUE;
-
-    final List<Long> endTimesForKey = keyToEndTimesMap.get( key );
-    if ( endTimesForKey != null ) {
-      for ( final Long endTime : endTimesForKey ) {
-        if ( endTime > startTime ) {
-          timeAfter = endTime;
-          break;
-        }
-      }
-    }
-
-    return timeAfter;
-  }
-
-  @SuppressWarnings( "unchecked" )
-  protected <ET> void foreach( final Class<ET> eventClass,
-                               final Criterion criterion,
-                               final boolean ascending,
-                               final Predicate<? super ET> callback ) {
-    final EntityTransaction transaction = Entities.get( eventClass );
-    ScrollableResults results = null;
-    try {
-      results = Entities.createCriteria( eventClass )
-          .setReadOnly( true )
-          .setCacheable( false )
-          .setCacheMode( CacheMode.IGNORE )
-          .setFetchSize( 100 )
-          .add( criterion )
-          .addOrder( ascending ? Order.asc( TIMESTAMP_MS ) : Order.desc( TIMESTAMP_MS ) )
-          .scroll( ScrollMode.FORWARD_ONLY );
-
-      while ( results.next() ) {
-        final ET event = (ET) results.get( 0 );
-        if ( !callback.apply( event ) ) {
-          break;
-        }
-        Entities.evict( event );
-      }
-    } finally {
-      if (results != null) try { results.close(); } catch( Exception e ) { }
-      transaction.rollback();
-    }
+    final Long timeAfter = keyToEndTimesMap.higher( key, startTime );
+    return timeAfter == null ? Long.MAX_VALUE : timeAfter;
   }
-
-
 }
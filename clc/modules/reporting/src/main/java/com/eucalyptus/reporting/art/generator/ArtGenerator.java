@@ -25,4 +25,12 @@ import com.eucalyptus.reporting.art.entity.ReportArtEntity;
 public interface ArtGenerator
 {
 	public ReportArtEntity generateReportArt(ReportArtEntity report);
+
+	/**
+	 * Prepare to generate the report using the given scanner, so that event
+	 * scans are shared with other reports generated with the same scanner.
+	 *
+	 * @return The completion to run once the scanner has run
+	 */
+	public Runnable prepareReportArt(ReportArtEntity report, ReportEventScanner scanner);
 }
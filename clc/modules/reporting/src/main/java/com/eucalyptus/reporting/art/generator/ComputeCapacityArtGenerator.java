@@ -89,6 +89,16 @@ public class ComputeCapacityArtGenerator implements ArtGenerator {
     return report;
   }
 
+  @Override
+  public Runnable prepareReportArt( final ReportArtEntity report, final ReportEventScanner scanner ) {
+    return new Runnable( ) {
+      @Override
+      public void run( ) {
+        generateReportArt( report );
+      }
+    };
+  }
+
   private Integer nullSafe( final Integer value ) {
     return Objects.firstNonNull( value, 0 );
   }
@@ -24,7 +24,6 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
-import org.hibernate.criterion.Restrictions;
 
 import com.eucalyptus.reporting.art.entity.AccountArtEntity;
 import com.eucalyptus.reporting.art.entity.ElasticIpArtEntity;
@@ -32,6 +31,7 @@ import com.eucalyptus.reporting.art.entity.ElasticIpUsageArtEntity;
 import com.eucalyptus.reporting.art.entity.InstanceArtEntity;
 import com.eucalyptus.reporting.art.entity.ReportArtEntity;
 import com.eucalyptus.reporting.art.entity.UserArtEntity;
+import com.eucalyptus.reporting.art.util.TimestampIndex;
 import com.eucalyptus.reporting.domain.ReportingUser;
 import com.eucalyptus.reporting.event_store.ReportingElasticIpAttachEvent;
 import com.eucalyptus.reporting.event_store.ReportingElasticIpCreateEvent;
@@ -49,13 +49,13 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 	private static Logger log = Logger.getLogger( ElasticIpArtGenerator.class );
 
 	@Override
-	public ReportArtEntity generateReportArt( final ReportArtEntity report )
+	protected Runnable registerScans( final ReportArtEntity report, final ReportEventScanner.Scans scans )
 	{
 		log.debug("Generating report ART");
 
 		// Find end times for the elastic ips (key is uuid)
-		final Map<String,List<Long>> ipToDeleteTimesMap = Maps.newHashMap();
-		foreachElasticIpDeleteEvent( buildTimestampMap( report, ipToDeleteTimesMap, ipUuid() ) );
+		final TimestampIndex<String> ipToDeleteTimesMap = new TimestampIndex<String>();
+		foreachElasticIpDeleteEvent( scans, buildTimestampMap( report, ipToDeleteTimesMap, ipUuid() ) );
 
 		// cache for user/account info
 		final Map<String,ReportingUser> reportingUsersById = Maps.newHashMap();
@@ -65,7 +65,7 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 		 * and create a Map of the instance nodes at the bottom.
 		 */
 		final Map<String,List<ElasticIpAllocation>> ipToAllocationListMap = Maps.newHashMap();
-		foreachElasticIpCreateEvent( new Predicate<ReportingElasticIpCreateEvent>() {
+		foreachElasticIpCreateEvent( scans, new Predicate<ReportingElasticIpCreateEvent>() {
 			@Override
 			public boolean apply( final ReportingElasticIpCreateEvent createEvent ) {
 				final Long deleteTime = findTimeAfter( ipToDeleteTimesMap, createEvent.getIp(), createEvent.getTimestampMs() );
@@ -122,7 +122,7 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 		/* Scan instance entities so we can get the instance id from the uuid
 				 */
 		final Map<String,InstanceArtEntity> instanceEntities = Maps.newHashMap();
-		foreachInstanceCreateEvent( new Predicate<ReportingInstanceCreateEvent>() {
+		foreachInstanceCreateEvent( scans, new Predicate<ReportingInstanceCreateEvent>() {
 			@Override
 			public boolean apply( final ReportingInstanceCreateEvent createEvent ) {
 				if ( createEvent.getTimestampMs() > report.getEndMs() ) {
@@ -135,12 +135,12 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 		} );
 
 		// Find end times for the elastic ips (key is uuid)
-		final Map<String,List<Long>> ipToDetachTimesMap = Maps.newHashMap();
-		foreachElasticIpDetachEvent( buildTimestampMap( report, ipToDetachTimesMap, ipUuid() ) );
+		final TimestampIndex<String> ipToDetachTimesMap = new TimestampIndex<String>();
+		foreachElasticIpDetachEvent( scans, buildTimestampMap( report, ipToDetachTimesMap, ipUuid() ) );
 
 		/* Find attachment start times
 				 */
-		foreachElasticIpAttachEvent( new Predicate<ReportingElasticIpAttachEvent>() {
+		foreachElasticIpAttachEvent( scans, new Predicate<ReportingElasticIpAttachEvent>() {
 			@Override
 			public boolean apply( final ReportingElasticIpAttachEvent attachEvent ) {
 				// tolerate missing detach events by accounting for delete events also
@@ -174,19 +174,22 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 			}
 		} );
 
-		/* Perform totals and summations for user, account, and global
-		 */
-		for( final AccountArtEntity account : report.getAccounts().values() ) {
-			for( final UserArtEntity user  : account.getUsers().values() ) {
-				for( final ElasticIpArtEntity ip : user.getElasticIps().values() ) {
-					updateUsageTotals(user.getUsageTotals().getElasticIpTotals(), ip.getUsage());
-					updateUsageTotals(account.getUsageTotals().getElasticIpTotals(), ip.getUsage());
-					updateUsageTotals(report.getUsageTotals().getElasticIpTotals(), ip.getUsage());
+		return new Runnable() {
+			@Override
+			public void run() {
+				/* Perform totals and summations for user, account, and global
+				 */
+				for( final AccountArtEntity account : report.getAccounts().values() ) {
+					for( final UserArtEntity user  : account.getUsers().values() ) {
+						for( final ElasticIpArtEntity ip : user.getElasticIps().values() ) {
+							updateUsageTotals(user.getUsageTotals().getElasticIpTotals(), ip.getUsage());
+							updateUsageTotals(account.getUsageTotals().getElasticIpTotals(), ip.getUsage());
+							updateUsageTotals(report.getUsageTotals().getElasticIpTotals(), ip.getUsage());
+						}
+					}
 				}
 			}
-		}
-
-		return report;
+		};
 	}
 
 	private ElasticIpArtEntity findEntityForTimestamp( final ReportArtEntity report, final Map<String,List<ElasticIpAllocation>> ipUuidToAllocationListMap, final String uuid, final Long timestampMs ) {
@@ -231,24 +234,24 @@ public class ElasticIpArtGenerator extends AbstractArtGenerator
 		throw new IllegalStateException("Unsupported event type: " + event.getClass());
 	}
 
-	protected void foreachElasticIpCreateEvent( final Predicate<? super ReportingElasticIpCreateEvent> callback ) {
-		foreach( ReportingElasticIpCreateEvent.class, Restrictions.conjunction(), true, callback );
+	protected void foreachElasticIpCreateEvent( final ReportEventScanner.Scans scans, final Predicate<? super ReportingElasticIpCreateEvent> callback ) {
+		scans.add( ReportingElasticIpCreateEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, callback );
 	}
 
-	protected void foreachElasticIpDeleteEvent( final Predicate<? super ReportingElasticIpDeleteEvent> callback ) {
-		foreach( ReportingElasticIpDeleteEvent.class, Restrictions.conjunction(), true, callback );
+	protected void foreachElasticIpDeleteEvent( final ReportEventScanner.Scans scans, final Predicate<? super ReportingElasticIpDeleteEvent> callback ) {
+		scans.add( ReportingElasticIpDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, callback );
 	}
 
-	protected void foreachElasticIpAttachEvent( final Predicate<? super ReportingElasticIpAttachEvent> callback ) {
-		foreach( ReportingElasticIpAttachEvent.class, Restrictions.conjunction(), true, callback );
+	protected void foreachElasticIpAttachEvent( final ReportEventScanner.Scans scans, final Predicate<? super ReportingElasticIpAttachEvent> callback ) {
+		scans.add( ReportingElasticIpAttachEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, callback );
 	}
 
-	protected void foreachElasticIpDetachEvent( final Predicate<? super ReportingElasticIpDetachEvent> callback ) {
-		foreach( ReportingElasticIpDetachEvent.class, Restrictions.conjunction(), true, callback );
+	protected void foreachElasticIpDetachEvent( final ReportEventScanner.Scans scans, final Predicate<? super ReportingElasticIpDetachEvent> callback ) {
+		scans.add( ReportingElasticIpDetachEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, callback );
 	}
 
-	protected void foreachInstanceCreateEvent( final Predicate<? super ReportingInstanceCreateEvent> callback ) {
-		foreach( ReportingInstanceCreateEvent.class, Restrictions.conjunction(), true, callback );
+	protected void foreachInstanceCreateEvent( final ReportEventScanner.Scans scans, final Predicate<? super ReportingInstanceCreateEvent> callback ) {
+		scans.add( ReportingInstanceCreateEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, callback );
 	}
 
 	private static void updateUsageTotals( ElasticIpUsageArtEntity totalEntity, ElasticIpUsageArtEntity newEntity ) {
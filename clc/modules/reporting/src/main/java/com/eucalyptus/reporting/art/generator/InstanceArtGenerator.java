@@ -94,14 +94,14 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
   private static final long USAGE_SEARCH_PERIOD = TimeUnit.DAYS.toMillis( 12 );
 
   @Override
-  public ReportArtEntity generateReportArt( final ReportArtEntity report ) {
+  protected Runnable registerScans( final ReportArtEntity report, final ReportEventScanner.Scans scans ) {
     log.debug( "Generating report ART" );
 
     /* Find all instance create events. These will be used to populate the ART tree with instances etc,
      * if there is usage for them within the report boundaries (determined below).
      */
     final Map<String, ReportingInstanceCreateEvent> createEvents = Maps.newHashMap();
-    foreachInstanceCreateEvent( report.getEndMs(), new Predicate<ReportingInstanceCreateEvent>() {
+    foreachInstanceCreateEvent( scans, report.getEndMs(), new Predicate<ReportingInstanceCreateEvent>() {
       @Override
       public boolean apply( final ReportingInstanceCreateEvent createEvent ) {
         final ReportingInstanceCreateEvent prevEvent = createEvents.put( createEvent.getUuid(), createEvent );
@@ -116,7 +116,10 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
      */
     final Map<InstanceMetricDimensionKey, MetricPrevData> prevDataMap = Maps.newHashMap();
     final Map<String, InstanceUsageArtEntity> usageEntities = Maps.newHashMap();
+    final Map<String, ReportingUser> users = Maps.newHashMap();
+    final Map<String, String> accounts = Maps.newHashMap();
     foreachInstanceUsageEvent(
+        scans,
         report.getBeginMs() - USAGE_SEARCH_PERIOD,
         report.getEndMs() + USAGE_SEARCH_PERIOD,
         new Predicate<ReportingInstanceUsageEvent>() {
@@ -140,7 +143,7 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
 
             /* Populate the nodes in the tree for this usage, if the usage falls within report boundaries */
             if ( eventMs >= report.getBeginMs() || eventMs <= report.getEndMs() ) {
-              if (!addParentNodes( report, createEvent, usageEntity )) {
+              if (!addParentNodes( report, users, accounts, createEvent, usageEntity )) {
                 return true;
               }
             }
@@ -198,39 +201,41 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
                     prevData.lastMs, eventMs, report.getBeginMs(), report.getEndMs(), event.getUuid(), event.getMetric(),
                     event.getDimension(), event.getValue(), prevData.lastVal, fractionalVal ) );
               }
-              prevDataMap.put( key, new MetricPrevData( prevData.firstMs, eventMs, event.getValue(), event.getSequenceNum() ) );
+              prevData.update( eventMs, event.getValue(), event.getSequenceNum() );
             }
             return true;
           }
         } );
 
 
-    /* Perform totals and summations
-       */
-    for ( final AvailabilityZoneArtEntity zone : report.getZones().values() ) {
-      final UsageTotalsArtEntity zoneUsage = zone.getUsageTotals();
-      for ( final AccountArtEntity account : zone.getAccounts().values() ) {
-        final UsageTotalsArtEntity accountUsage = account.getUsageTotals();
-        for ( final UserArtEntity user : account.getUsers().values() ) {
-          final UsageTotalsArtEntity userUsage = user.getUsageTotals();
-          for ( final InstanceArtEntity instance : user.getInstances().values() ) {
-            updateUsageTotals( userUsage, instance );
-            updateUsageTotals( accountUsage, instance );
-            updateUsageTotals( zoneUsage, instance );
+    return new Runnable() {
+      @Override
+      public void run() {
+        /* Perform totals and summations
+         */
+        for ( final AvailabilityZoneArtEntity zone : report.getZones().values() ) {
+          final UsageTotalsArtEntity zoneUsage = zone.getUsageTotals();
+          for ( final AccountArtEntity account : zone.getAccounts().values() ) {
+            final UsageTotalsArtEntity accountUsage = account.getUsageTotals();
+            for ( final UserArtEntity user : account.getUsers().values() ) {
+              final UsageTotalsArtEntity userUsage = user.getUsageTotals();
+              for ( final InstanceArtEntity instance : user.getInstances().values() ) {
+                updateUsageTotals( userUsage, instance );
+                updateUsageTotals( accountUsage, instance );
+                updateUsageTotals( zoneUsage, instance );
+              }
+            }
           }
         }
       }
-    }
-
-    return report;
+    };
   }
 
   private boolean addParentNodes( final ReportArtEntity report,
+                                  final Map<String, ReportingUser> users,
+                                  final Map<String, String> accounts,
                                   final ReportingInstanceCreateEvent createEvent,
                                   final InstanceUsageArtEntity usageEntity ) {
-    final Map<String, ReportingUser> users = Maps.newHashMap();
-    final Map<String, String> accounts = Maps.newHashMap();
-
     final ReportingUser reportingUser = getUserById( users, createEvent.getUserId() );
     if ( reportingUser == null ) {
       log.error( "No user corresponding to event:" + createEvent.getUserId() );
@@ -352,13 +357,13 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
   }
 
   /**
-   * Immutable record of prior data for a uuid/metric/dim combo. This is replaced rather than updated.
+   * Record of prior data for a uuid/metric/dim combo. This is updated in place for each event.
    */
   private static class MetricPrevData {
     private final long firstMs;
-    private final double lastVal;
-    private final long lastMs;
-    private final long lastSeq;
+    private double lastVal;
+    private long lastMs;
+    private long lastSeq;
 
     private MetricPrevData( long firstMs, long lastMs, double lastVal, long lastSeq ) {
       this.firstMs = firstMs;
@@ -366,6 +371,12 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
       this.lastVal = lastVal;
       this.lastSeq = lastSeq;
     }
+
+    private void update( long lastMs, double lastVal, long lastSeq ) {
+      this.lastMs = lastMs;
+      this.lastVal = lastVal;
+      this.lastSeq = lastSeq;
+    }
   }
 
   /**
@@ -389,14 +400,14 @@ public class InstanceArtGenerator extends AbstractArtGenerator {
     return usage * (overlapping / duration);
   }
 
-  protected void foreachInstanceUsageEvent( long startInclusive, long endExclusive,
+  protected void foreachInstanceUsageEvent( ReportEventScanner.Scans scans, long startInclusive, long endExclusive,
                                             Predicate<? super ReportingInstanceUsageEvent> callback ) {
-    foreach( ReportingInstanceUsageEvent.class, between( startInclusive, endExclusive ), true, callback );
+    scans.add( ReportingInstanceUsageEvent.class, startInclusive, endExclusive, callback );
   }
 
-  protected void foreachInstanceCreateEvent( long endExclusive,
+  protected void foreachInstanceCreateEvent( ReportEventScanner.Scans scans, long endExclusive,
                                              Predicate<? super ReportingInstanceCreateEvent> callback ) {
-    foreach( ReportingInstanceCreateEvent.class, before( endExclusive ), true, callback );
+    scans.add( ReportingInstanceCreateEvent.class, Long.MIN_VALUE, endExclusive, callback );
   }
 
 }
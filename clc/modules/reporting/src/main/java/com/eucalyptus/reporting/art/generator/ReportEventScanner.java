@@ -0,0 +1,283 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.reporting.art.generator;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.persistence.EntityTransaction;
+import org.apache.log4j.Logger;
+import org.hibernate.CacheMode;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.reporting.event_store.ReportingEventSupport;
+import com.google.common.base.Predicate;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+/**
+ * Single pass scan of the reporting event tables for one or more reports.
+ *
+ * <p>Generators register the event scans they need, each scan is for an
+ * event type and time range with a callback that is passed events in
+ * ascending timestamp order. When run, each event table is read once for
+ * all the scans registered for it, so reports generated together share
+ * the reads.</p>
+ *
+ * <p>Scans registered through the same {@link Scans} are run in the order
+ * they were registered, so a generator can use the results of one scan in
+ * the callbacks for later scans.</p>
+ */
+public class ReportEventScanner {
+
+  private static final Logger log = Logger.getLogger( ReportEventScanner.class );
+
+  private static final String TIMESTAMP_MS = "timestampMs";
+  private static final int FETCH_SIZE = 1000;
+  private static final long PROGRESS_INTERVAL = 100000;
+
+  private final Map<Class<?>,List<Scan>> scansByEventClass = Maps.newLinkedHashMap( );
+  private final SetMultimap<Class<?>,Class<?>> predecessors = HashMultimap.create( );
+
+  /**
+   * Create a handle for registering scans that must run in order.
+   */
+  public Scans newScans( ) {
+    return new Scans( );
+  }
+
+  /**
+   * Scan each event table once, passing events to all registered scans.
+   */
+  public void run( ) {
+    final List<Class<?>> order = scanOrder( );
+    int table = 0;
+    for ( final Class<?> eventClass : order ) {
+      final List<Scan> scans = scansByEventClass.get( eventClass );
+      long beginInclusive = Long.MAX_VALUE;
+      long endExclusive = Long.MIN_VALUE;
+      for ( final Scan scan : scans ) {
+        beginInclusive = Math.min( beginInclusive, scan.beginInclusive );
+        endExclusive = Math.max( endExclusive, scan.endExclusive );
+      }
+      final ScanProgress progress = new ScanProgress( eventClass, ++table, order.size( ), scans.size( ) );
+      try {
+        foreach( eventClass, beginInclusive, endExclusive, new Predicate<Object>( ) {
+          @Override
+          public boolean apply( final Object event ) {
+            progress.event( );
+            return dispatch( scans, (ReportingEventSupport) event );
+          }
+        } );
+      } finally {
+        progress.done( );
+      }
+    }
+  }
+
+  /**
+   * Read events of the given type in ascending timestamp order.
+   *
+   * @param callback Returns false when no further events are required
+   */
+  protected void foreach( final Class<?> eventClass,
+                          final long beginInclusive,
+                          final long endExclusive,
+                          final Predicate<Object> callback ) {
+    final EntityTransaction transaction = Entities.get( eventClass );
+    ScrollableResults results = null;
+    try {
+      final Criteria criteria = Entities.createCriteria( eventClass )
+          .setReadOnly( true )
+          .setCacheable( false )
+          .setCacheMode( CacheMode.IGNORE )
+          .setFetchSize( FETCH_SIZE )
+          .addOrder( Order.asc( TIMESTAMP_MS ) );
+      if ( beginInclusive > Long.MIN_VALUE ) {
+        criteria.add( Restrictions.ge( TIMESTAMP_MS, beginInclusive ) );
+      }
+      if ( endExclusive < Long.MAX_VALUE ) {
+        criteria.add( Restrictions.lt( TIMESTAMP_MS, endExclusive ) );
+      }
+      results = criteria.scroll( ScrollMode.FORWARD_ONLY );
+
+      while ( results.next() ) {
+        final Object event = results.get( 0 );
+        if ( !callback.apply( event ) ) {
+          break;
+        }
+        Entities.evict( event );
+      }
+    } finally {
+      if (results != null) try { results.close(); } catch( Exception e ) { }
+      transaction.rollback();
+    }
+  }
+
+  /**
+   * Pass the event to each scan that is in range and not complete.
+   *
+   * @return false if all scans are complete
+   */
+  private static boolean dispatch( final List<Scan> scans, final ReportingEventSupport event ) {
+    final long timestamp = event.getTimestampMs( );
+    boolean active = false;
+    for ( final Scan scan : scans ) {
+      if ( scan.complete ) continue;
+      if ( timestamp >= scan.endExclusive || ( timestamp >= scan.beginInclusive && !scan.apply( event ) ) ) {
+        scan.complete = true;
+      } else {
+        active = true;
+      }
+    }
+    return active;
+  }
+
+  /**
+   * Order event tables so that each table is scanned after the tables for
+   * scans registered before it on the same handle. Tables are otherwise
+   * scanned in the order they were first registered.
+   */
+  private List<Class<?>> scanOrder( ) {
+    final List<Class<?>> order = Lists.newArrayList( );
+    final Set<Class<?>> remaining = Sets.newLinkedHashSet( scansByEventClass.keySet( ) );
+    while ( !remaining.isEmpty( ) ) {
+      final Iterator<Class<?>> iterator = remaining.iterator( );
+      Class<?> next = null;
+      while ( iterator.hasNext( ) ) {
+        final Class<?> candidate = iterator.next( );
+        if ( order.containsAll( predecessors.get( candidate ) ) ) {
+          next = candidate;
+          iterator.remove( );
+          break;
+        }
+      }
+      if ( next == null ) {
+        throw new IllegalStateException( "Conflicting scan order for event types " + names( remaining ) );
+      }
+      order.add( next );
+    }
+    return order;
+  }
+
+  private static String names( final Collection<Class<?>> classes ) {
+    final List<String> names = Lists.newArrayList( );
+    for ( final Class<?> eventClass : classes ) {
+      names.add( eventClass.getSimpleName( ) );
+    }
+    return names.toString( );
+  }
+
+  /**
+   * Handle for registering scans, scans registered with a handle are run in
+   * registration order.
+   */
+  public final class Scans {
+    private Class<?> lastEventClass;
+
+    private Scans( ) {
+    }
+
+    /**
+     * Register a scan for events in the given time range.
+     *
+     * @param callback Passed events in ascending timestamp order, returns false when no further events are required
+     */
+    public <ET extends ReportingEventSupport> void add( final Class<ET> eventClass,
+                                                        final long beginInclusive,
+                                                        final long endExclusive,
+                                                        final Predicate<? super ET> callback ) {
+      if ( lastEventClass != null && lastEventClass != eventClass ) {
+        predecessors.put( eventClass, lastEventClass );
+      }
+      lastEventClass = eventClass;
+      List<Scan> scans = scansByEventClass.get( eventClass );
+      if ( scans == null ) {
+        scans = Lists.newArrayList( );
+        scansByEventClass.put( eventClass, scans );
+      }
+      scans.add( new Scan( beginInclusive, endExclusive, callback ) );
+    }
+  }
+
+  private static final class Scan {
+    private final long beginInclusive;
+    private final long endExclusive;
+    private final Predicate<Object> callback;
+    private boolean complete;
+
+    @SuppressWarnings( "unchecked" )
+    private Scan( final long beginInclusive, final long endExclusive, final Predicate<?> callback ) {
+      this.beginInclusive = beginInclusive;
+      this.endExclusive = endExclusive;
+      this.callback = (Predicate<Object>) callback;
+    }
+
+    private boolean apply( final Object event ) {
+      return callback.apply( event );
+    }
+  }
+
+  /**
+   * Periodic logging of event scan progress and heap use.
+   */
+  private static final class ScanProgress {
+    private final String eventType;
+    private final int table;
+    private final int tables;
+    private final int scans;
+    private final long startMs = System.currentTimeMillis( );
+    private long count;
+
+    private ScanProgress( final Class<?> eventClass, final int table, final int tables, final int scans ) {
+      this.eventType = eventClass.getSimpleName( );
+      this.table = table;
+      this.tables = tables;
+      this.scans = scans;
+    }
+
+    private void event( ) {
+      if ( ++count % PROGRESS_INTERVAL == 0 ) {
+        log.info( status( "Scanned" ) );
+      }
+    }
+
+    private void done( ) {
+      log.debug( status( "Completed scan of" ) );
+    }
+
+    private String status( final String action ) {
+      final Runtime runtime = Runtime.getRuntime( );
+      final long usedMb = ( runtime.totalMemory( ) - runtime.freeMemory( ) ) / ( 1024 * 1024 );
+      return String.format( "%s %d %s events for %d scans (table %d of %d) in %dms, heap used %dMB of %dMB",
+          action, count, eventType, scans, table, tables, System.currentTimeMillis( ) - startMs,
+          usedMb, runtime.maxMemory( ) / ( 1024 * 1024 ) );
+    }
+  }
+}
@@ -70,6 +70,7 @@ import com.eucalyptus.reporting.art.entity.AccountArtEntity;
 import com.eucalyptus.reporting.art.entity.BucketUsageArtEntity;
 import com.eucalyptus.reporting.art.entity.ReportArtEntity;
 import com.eucalyptus.reporting.art.entity.UserArtEntity;
+import com.eucalyptus.reporting.art.util.TimestampIndex;
 import com.eucalyptus.reporting.domain.ReportingUser;
 import com.eucalyptus.reporting.event_store.ReportingS3ObjectCreateEvent;
 import com.eucalyptus.reporting.event_store.ReportingS3ObjectDeleteEvent;
@@ -87,7 +88,7 @@ public class S3ArtGenerator
 	private static Logger log = Logger.getLogger( S3ArtGenerator.class );
 
 	@Override
-  public ReportArtEntity generateReportArt(final ReportArtEntity report)
+	protected Runnable registerScans(final ReportArtEntity report, final ReportEventScanner.Scans scans)
 	{
 		log.debug("Generating S3 report ART");
 
@@ -100,8 +101,8 @@ public class S3ArtGenerator
 		/* Find end timestamps for objects which are subsequently deleted, including
 				 * objects which are created and deleted repeatedly during a single period.
 				 */
-		final Map<S3ObjectKey,List<Long>> endTimesMap = Maps.newHashMap();
-		foreachReportingS3ObjectDeleteEvent( report.getEndMs(), buildTimestampMap( report, endTimesMap, key() ) );
+		final TimestampIndex<S3ObjectKey> endTimesMap = new TimestampIndex<S3ObjectKey>();
+		foreachReportingS3ObjectDeleteEvent( scans, report.getEndMs(), buildTimestampMap( report, endTimesMap, key() ) );
 
 		/* Generate a tree of zones, accounts, users, and bucket usages.
 		 * Retain a Map of bucket usages at the leaf nodes.
@@ -113,7 +114,7 @@ public class S3ArtGenerator
 		final Map<String,ReportingUser> users = Maps.newHashMap();
 		final Map<String,String> accounts = Maps.newHashMap();
 		final Map<BucketUsageArtEntity,List<S3ObjectData>> bucketObjectData = Maps.newHashMap();
-		foreachReportingS3ObjectCreateEvent( report.getEndMs(), new Predicate<ReportingS3ObjectCreateEvent>() {
+		foreachReportingS3ObjectCreateEvent( scans, report.getEndMs(), new Predicate<ReportingS3ObjectCreateEvent>() {
 			@Override
 			public boolean apply( final ReportingS3ObjectCreateEvent createEvent ) {
 				final S3ObjectKey objectKey = new S3ObjectKey(createEvent.getS3BucketName(),
@@ -161,40 +162,43 @@ public class S3ArtGenerator
 			}
 		});
 		
-		/* Perform totals and summations for user, account, zone, and bucket
-		 */
-		for ( final String accountName : report.getAccounts().keySet() ) {
-			final AccountArtEntity account = report.getAccounts().get(accountName);
-			for ( final String userName : account.getUsers().keySet() ) {
-				final UserArtEntity user = account.getUsers().get(userName);
-				for ( final String bucketName : user.getBucketUsage().keySet() ) {
-					final BucketUsageArtEntity usage = user.getBucketUsage().get(bucketName);
-					final List<S3ObjectData> objectUsages = bucketObjectData.get( usage );
-					if ( objectUsages == null ) {
-						log.error("Missing object usage for bucket");
-						continue;
-					}
+		return new Runnable() {
+			@Override
+			public void run() {
+				/* Perform totals and summations for user, account, zone, and bucket
+				 */
+				for ( final String accountName : report.getAccounts().keySet() ) {
+					final AccountArtEntity account = report.getAccounts().get(accountName);
+					for ( final String userName : account.getUsers().keySet() ) {
+						final UserArtEntity user = account.getUsers().get(userName);
+						for ( final String bucketName : user.getBucketUsage().keySet() ) {
+							final BucketUsageArtEntity usage = user.getBucketUsage().get(bucketName);
+							final List<S3ObjectData> objectUsages = bucketObjectData.get( usage );
+							if ( objectUsages == null ) {
+								log.error("Missing object usage for bucket");
+								continue;
+							}
 
-					usage.setObjectsNum( objectUsages.size() );
-					long size = 0;
-					long KBSecs = 0;
-					for ( final S3ObjectData data : objectUsages ) {
-						size += data.size;
-						KBSecs += (data.durationMs/1000) *
-								UnitUtil.convertSize( data.size, SizeUnit.B, SizeUnit.KB );
-					}
+							usage.setObjectsNum( objectUsages.size() );
+							long size = 0;
+							long KBSecs = 0;
+							for ( final S3ObjectData data : objectUsages ) {
+								size += data.size;
+								KBSecs += (data.durationMs/1000) *
+										UnitUtil.convertSize( data.size, SizeUnit.B, SizeUnit.KB );
+							}
 
-					long gBSecs =
-							UnitUtil.convertSizeTime( KBSecs, SizeUnit.KB,  SizeUnit.GB, TimeUnit.SECS,TimeUnit.SECS );
-					usage.setGBSecs( gBSecs );
-					usage.setSize( size );
-					updateUsageTotals(user.getUsageTotals().getBucketTotals(), usage);
-					updateUsageTotals(account.getUsageTotals().getBucketTotals(), usage);
+							long gBSecs =
+									UnitUtil.convertSizeTime( KBSecs, SizeUnit.KB,  SizeUnit.GB, TimeUnit.SECS,TimeUnit.SECS );
+							usage.setGBSecs( gBSecs );
+							usage.setSize( size );
+							updateUsageTotals(user.getUsageTotals().getBucketTotals(), usage);
+							updateUsageTotals(account.getUsageTotals().getBucketTotals(), usage);
+						}
+					}
 				}
 			}
-		}
-
-		return report;
+		};
 	}
 	
 	private static void updateUsageTotals(
@@ -295,11 +299,11 @@ public class S3ArtGenerator
 		}
 	}
 	
-	protected void foreachReportingS3ObjectCreateEvent( final long endExclusive, final Predicate<ReportingS3ObjectCreateEvent> callback ) {
-		foreach( ReportingS3ObjectCreateEvent.class, before( endExclusive ), true, callback );
+	protected void foreachReportingS3ObjectCreateEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingS3ObjectCreateEvent> callback ) {
+		scans.add( ReportingS3ObjectCreateEvent.class, Long.MIN_VALUE, endExclusive, callback );
 	}
 
-	protected void foreachReportingS3ObjectDeleteEvent( final long endExclusive, final Predicate<ReportingS3ObjectDeleteEvent> callback ) {
-		foreach( ReportingS3ObjectDeleteEvent.class, before( endExclusive ), true, callback );
+	protected void foreachReportingS3ObjectDeleteEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingS3ObjectDeleteEvent> callback ) {
+		scans.add( ReportingS3ObjectDeleteEvent.class, Long.MIN_VALUE, endExclusive, callback );
 	}
 }
@@ -86,7 +86,7 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 	private static Logger log = Logger.getLogger( VolumeArtGenerator.class );
 
 	@Override
-	public ReportArtEntity generateReportArt( final ReportArtEntity report )
+	protected Runnable registerScans( final ReportArtEntity report, final ReportEventScanner.Scans scans )
 	{
 		log.debug("Generating report ART");
 
@@ -99,7 +99,7 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 		 */
 		final Map<String,VolumeArtEntity> volumeEntities = Maps.newHashMap();
 		final Map<String,StartEndTimes> volStartEndTimes = Maps.newHashMap();
-		foreachReportingVolumeCreateEvent( report.getEndMs(), new Predicate<ReportingVolumeCreateEvent>() {
+		foreachReportingVolumeCreateEvent( scans, report.getEndMs(), new Predicate<ReportingVolumeCreateEvent>() {
 			@Override
 			public boolean apply( final ReportingVolumeCreateEvent createEvent ) {
 				if (! report.getZones().containsKey(createEvent.getAvailabilityZone())) {
@@ -140,7 +140,7 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 
 		/* Find end times for the volumes
 		 */
-		foreachReportingVolumeDeleteEvent( report.getEndMs(), new Predicate<ReportingVolumeDeleteEvent>() {
+		foreachReportingVolumeDeleteEvent( scans, report.getEndMs(), new Predicate<ReportingVolumeDeleteEvent>() {
 			@Override
 			public boolean apply( final ReportingVolumeDeleteEvent deleteEvent ) {
 				long endTime = deleteEvent.getTimestampMs();
@@ -155,25 +155,10 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 			}
 		} );
 
-		/* Set the duration of each volume
-		 */
-		for (String uuid: volumeEntities.keySet()) {
-			VolumeArtEntity volume = volumeEntities.get(uuid);
-			StartEndTimes startEndTimes = volStartEndTimes.get(uuid);
-			if (uuid == null) {
-				log.error("volume without corresponding start end times:" + uuid);
-				continue;
-			}
-			long duration = DurationCalculator.boundDuration(report.getBeginMs(), report.getEndMs(),
-					startEndTimes.getStartTime(), startEndTimes.getEndTime())/1000;
-			volume.getUsage().setGBSecs(duration*volume.getUsage().getSizeGB());
-		}
-		
-
 		/* Scan instance entities so we can get the instance id from the uuid
 		 */
 		final Map<String,InstanceArtEntity> instanceEntities = new HashMap<String,InstanceArtEntity>();
-		foreachInstanceCreateEvent( report.getEndMs(), new Predicate<ReportingInstanceCreateEvent>() {
+		foreachInstanceCreateEvent( scans, report.getEndMs(), new Predicate<ReportingInstanceCreateEvent>() {
 			@Override
 			public boolean apply( final ReportingInstanceCreateEvent createEvent ) {
 				InstanceArtEntity instance = new InstanceArtEntity(createEvent.getInstanceType(), createEvent.getInstanceId());
@@ -185,7 +170,7 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 		/* Find attachment end times
 		 */
 		final AttachDurationCalculator<String,String> durationCalc = new AttachDurationCalculator<String,String>(report.getBeginMs(), report.getEndMs());
-		foreachReportingVolumeDetachEvent( report.getEndMs(), new Predicate<ReportingVolumeDetachEvent>() {
+		foreachReportingVolumeDetachEvent( scans, report.getEndMs(), new Predicate<ReportingVolumeDetachEvent>() {
 			@Override
 			public boolean apply( final ReportingVolumeDetachEvent detachEvent ) {
 				durationCalc.detach( detachEvent.getInstanceUuid(), detachEvent.getVolumeUuid(),
@@ -196,7 +181,7 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 
 		/* Find attachment end times and set durations
 		 */
-		foreachReportingVolumeAttachEvent( report.getEndMs(), new Predicate<ReportingVolumeAttachEvent>() {
+		foreachReportingVolumeAttachEvent( scans, report.getEndMs(), new Predicate<ReportingVolumeAttachEvent>() {
 			@Override
 			public boolean apply( final ReportingVolumeAttachEvent attachEvent ) {
 				long durationMs = durationCalc.attach(attachEvent.getInstanceUuid(),
@@ -225,57 +210,62 @@ public class VolumeArtGenerator extends AbstractArtGenerator
 			}
 		} );
 		
-		/* Perform totals and summations for user, account, and zone
-		 */
-		for (String zoneName : report.getZones().keySet()) {
-			AvailabilityZoneArtEntity zone = report.getZones().get(zoneName);
-			for (String accountName : zone.getAccounts().keySet()) {
-				AccountArtEntity account = zone.getAccounts().get(accountName);
-				for (String userName : account.getUsers().keySet()) {
-					UserArtEntity user = account.getUsers().get(userName);
-					for (String volumeUuid : user.getVolumes().keySet()) {
-						VolumeArtEntity volume = user.getVolumes().get(volumeUuid);
-						updateUsageTotals(user.getUsageTotals().getVolumeTotals(), volume.getUsage());
-						updateUsageTotals(account.getUsageTotals().getVolumeTotals(), volume.getUsage());
-						updateUsageTotals(zone.getUsageTotals().getVolumeTotals(), volume.getUsage());
+		return new Runnable() {
+			@Override
+			public void run() {
+				/* Set the duration of each volume
+				 */
+				for (String uuid: volumeEntities.keySet()) {
+					VolumeArtEntity volume = volumeEntities.get(uuid);
+					StartEndTimes startEndTimes = volStartEndTimes.get(uuid);
+					if (uuid == null) {
+						log.error("volume without corresponding start end times:" + uuid);
+						continue;
 					}
+					long duration = DurationCalculator.boundDuration(report.getBeginMs(), report.getEndMs(),
+							startEndTimes.getStartTime(), startEndTimes.getEndTime())/1000;
+					volume.getUsage().setGBSecs(duration*volume.getUsage().getSizeGB());
 				}
-			}
-		}
 
-		return report;
+				/* Perform totals and summations for user, account, and zone
+				 */
+				for (String zoneName : report.getZones().keySet()) {
+					AvailabilityZoneArtEntity zone = report.getZones().get(zoneName);
+					for (String accountName : zone.getAccounts().keySet()) {
+						AccountArtEntity account = zone.getAccounts().get(accountName);
+						for (String userName : account.getUsers().keySet()) {
+							UserArtEntity user = account.getUsers().get(userName);
+							for (String volumeUuid : user.getVolumes().keySet()) {
+								VolumeArtEntity volume = user.getVolumes().get(volumeUuid);
+								updateUsageTotals(user.getUsageTotals().getVolumeTotals(), volume.getUsage());
+								updateUsageTotals(account.getUsageTotals().getVolumeTotals(), volume.getUsage());
+								updateUsageTotals(zone.getUsageTotals().getVolumeTotals(), volume.getUsage());
+							}
+						}
+					}
+				}
+			}
+		};
 	}
 
-	protected void foreachReportingVolumeCreateEvent( final long endExclusive, final Predicate<ReportingVolumeCreateEvent> callback ) {
-		foreach( ReportingVolumeCreateEvent.class,
-				before( endExclusive ),
-				true,
-				validateCreate( callback ) );
+	protected void foreachReportingVolumeCreateEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingVolumeCreateEvent> callback ) {
+		scans.add( ReportingVolumeCreateEvent.class, Long.MIN_VALUE, endExclusive, validateCreate( callback ) );
 	}
 
-	protected void foreachReportingVolumeDeleteEvent( final long endExclusive, final Predicate<ReportingVolumeDeleteEvent> callback ) {
-		foreach( ReportingVolumeDeleteEvent.class,
-				before( endExclusive ),
-				true,
-				validateDelete( callback ) );
+	protected void foreachReportingVolumeDeleteEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingVolumeDeleteEvent> callback ) {
+		scans.add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, endExclusive, validateDelete( callback ) );
 	}
 
-	protected void foreachReportingVolumeAttachEvent( final long endExclusive, final Predicate<ReportingVolumeAttachEvent> callback ) {
-		foreach( ReportingVolumeAttachEvent.class,
-				before( endExclusive ),
-				true,
-				validateAttach( callback ) );
+	protected void foreachReportingVolumeAttachEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingVolumeAttachEvent> callback ) {
+		scans.add( ReportingVolumeAttachEvent.class, Long.MIN_VALUE, endExclusive, validateAttach( callback ) );
 	}
 
-	protected void foreachReportingVolumeDetachEvent( final long endExclusive, final Predicate<ReportingVolumeDetachEvent> callback ) {
-		foreach( ReportingVolumeDetachEvent.class,
-				before( endExclusive ),
-				true,
-				validateDetach( callback ) );
+	protected void foreachReportingVolumeDetachEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingVolumeDetachEvent> callback ) {
+		scans.add( ReportingVolumeDetachEvent.class, Long.MIN_VALUE, endExclusive, validateDetach( callback ) );
 	}
 
-	protected void foreachInstanceCreateEvent( final long endExclusive, final Predicate<? super ReportingInstanceCreateEvent> callback ) {
-		foreach( ReportingInstanceCreateEvent.class, before( endExclusive ), true, callback );
+	protected void foreachInstanceCreateEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<? super ReportingInstanceCreateEvent> callback ) {
+		scans.add( ReportingInstanceCreateEvent.class, Long.MIN_VALUE, endExclusive, callback );
 	}
 
 	private Predicate<ReportingVolumeCreateEvent> validateCreate(
@@ -91,13 +91,14 @@ public class VolumeSnapshotArtGenerator
 		
 	}
 
-	public ReportArtEntity generateReportArt(final ReportArtEntity report)
+	@Override
+	protected Runnable registerScans(final ReportArtEntity report, final ReportEventScanner.Scans scans)
 	{
 		log.debug("GENERATING REPORT ART");
 
 		/* Find delete times */
 		final Map<String, Long> snapshotEndTimes = new HashMap<String, Long>();
-		foreachReportingSnapshotDeleteEvent( report.getEndMs(), new Predicate<ReportingVolumeSnapshotDeleteEvent>() {
+		foreachReportingSnapshotDeleteEvent( scans, report.getEndMs(), new Predicate<ReportingVolumeSnapshotDeleteEvent>() {
 			@Override
 			public boolean apply( final ReportingVolumeSnapshotDeleteEvent deleteEvent ) {
 				snapshotEndTimes.put(deleteEvent.getUuid(), deleteEvent.getTimestampMs());
@@ -108,7 +109,7 @@ public class VolumeSnapshotArtGenerator
 		/* Find volume create events */
 		final Map<String, ReportingVolumeCreateEvent> volumeCreateEvents =
 			new HashMap<String, ReportingVolumeCreateEvent>();
-		foreachReportingVolumeCreateEvent( report.getEndMs(), new Predicate<ReportingVolumeCreateEvent>() {
+		foreachReportingVolumeCreateEvent( scans, report.getEndMs(), new Predicate<ReportingVolumeCreateEvent>() {
 			@Override
 			public boolean apply( final ReportingVolumeCreateEvent createEvent ) {
 				volumeCreateEvents.put(createEvent.getUuid(), createEvent);
@@ -117,7 +118,7 @@ public class VolumeSnapshotArtGenerator
 		});
 		
 		/* Scan through snapshot usage events, and create tree */
-		foreachReportingSnapshotCreateEvent( report.getEndMs(), new Predicate<ReportingVolumeSnapshotCreateEvent>() {
+		foreachReportingSnapshotCreateEvent( scans, report.getEndMs(), new Predicate<ReportingVolumeSnapshotCreateEvent>() {
 			@Override
 			public boolean apply( final ReportingVolumeSnapshotCreateEvent createEvent ) {
 				long endTime = snapshotEndTimes.containsKey(createEvent.getUuid()) 
@@ -139,29 +140,32 @@ public class VolumeSnapshotArtGenerator
 		});
 		
 		
-		/* Perform totals and summations for user, account, and zone
-		 */
-		for (String zoneName : report.getZones().keySet()) {
-			AvailabilityZoneArtEntity zone = report.getZones().get(zoneName);
-			for (String accountName : zone.getAccounts().keySet()) {
-				AccountArtEntity account = zone.getAccounts().get(accountName);
-				for (String userName : account.getUsers().keySet()) {
-					UserArtEntity user = account.getUsers().get(userName);
-					for (String volumeUuid : user.getVolumes().keySet()) {
-						VolumeArtEntity volume = user.getVolumes().get(volumeUuid);
-						for (String snapId: volume.getSnapshotUsage().keySet()) {
-							VolumeSnapshotUsageArtEntity snap = volume.getSnapshotUsage().get(snapId);
-							updateUsageTotals(volume.getSnapshotTotals(), snap);							
-							updateUsageTotals(user.getUsageTotals().getSnapshotTotals(), snap);
-							updateUsageTotals(account.getUsageTotals().getSnapshotTotals(), snap);
-							updateUsageTotals(zone.getUsageTotals().getSnapshotTotals(), snap);	
+		return new Runnable() {
+			@Override
+			public void run() {
+				/* Perform totals and summations for user, account, and zone
+				 */
+				for (String zoneName : report.getZones().keySet()) {
+					AvailabilityZoneArtEntity zone = report.getZones().get(zoneName);
+					for (String accountName : zone.getAccounts().keySet()) {
+						AccountArtEntity account = zone.getAccounts().get(accountName);
+						for (String userName : account.getUsers().keySet()) {
+							UserArtEntity user = account.getUsers().get(userName);
+							for (String volumeUuid : user.getVolumes().keySet()) {
+								VolumeArtEntity volume = user.getVolumes().get(volumeUuid);
+								for (String snapId: volume.getSnapshotUsage().keySet()) {
+									VolumeSnapshotUsageArtEntity snap = volume.getSnapshotUsage().get(snapId);
+									updateUsageTotals(volume.getSnapshotTotals(), snap);							
+									updateUsageTotals(user.getUsageTotals().getSnapshotTotals(), snap);
+									updateUsageTotals(account.getUsageTotals().getSnapshotTotals(), snap);
+									updateUsageTotals(zone.getUsageTotals().getSnapshotTotals(), snap);	
+								}
+							}
 						}
 					}
 				}
 			}
-		}
-
-		return report;
+		};
 	}
 
     private static VolumeArtEntity addParentNodes(ReportArtEntity report, ReportingVolumeCreateEvent createEvent)
@@ -219,25 +223,16 @@ public class VolumeSnapshotArtGenerator
 	}
 	
 	
-	protected void foreachReportingVolumeCreateEvent( final long endExclusive, final Predicate<ReportingVolumeCreateEvent> callback ) {
-		foreach( ReportingVolumeCreateEvent.class,
-				before( endExclusive ),
-				true,
-				callback );
+	protected void foreachReportingVolumeCreateEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingVolumeCreateEvent> callback ) {
+		scans.add( ReportingVolumeCreateEvent.class, Long.MIN_VALUE, endExclusive, callback );
 	}
 
-	protected void foreachReportingSnapshotCreateEvent( final long endExclusive, final Predicate<ReportingVolumeSnapshotCreateEvent> callback ) {
-		foreach( ReportingVolumeSnapshotCreateEvent.class,
-				before( endExclusive ),
-				true,
-				callback );
+	protected void foreachReportingSnapshotCreateEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingVolumeSnapshotCreateEvent> callback ) {
+		scans.add( ReportingVolumeSnapshotCreateEvent.class, Long.MIN_VALUE, endExclusive, callback );
 	}
 
-	protected void foreachReportingSnapshotDeleteEvent( final long endExclusive, final Predicate<ReportingVolumeSnapshotDeleteEvent> callback ) {
-		foreach( ReportingVolumeSnapshotDeleteEvent.class,
-				before( endExclusive ),
-				true,
-				callback );
+	protected void foreachReportingSnapshotDeleteEvent( final ReportEventScanner.Scans scans, final long endExclusive, final Predicate<ReportingVolumeSnapshotDeleteEvent> callback ) {
+		scans.add( ReportingVolumeSnapshotDeleteEvent.class, Long.MIN_VALUE, endExclusive, callback );
 	}
 
 }
@@ -92,14 +92,14 @@ import java.util.*;
  */
 public class AttachDurationCalculator<A, B>
 {
-	// resourceId -> attachedResourceId -> SortedSet -> timestampMs
-	private final Map<A,Map<B,TreeSet<Long>>> attachments;
+	// resourceId -> attachedResourceId -> timestampMs
+	private final Map<A,TimestampIndex<B>> attachments;
 	private final long reportBeginMs;
 	private final long reportEndMs;
 	
 	public AttachDurationCalculator(long reportBeginMs, long reportEndMs)
 	{
-		this.attachments = new HashMap<A,Map<B,TreeSet<Long>>>();
+		this.attachments = new HashMap<A,TimestampIndex<B>>();
 		this.reportBeginMs = reportBeginMs;
 		this.reportEndMs = reportEndMs;
 	}
@@ -108,13 +108,9 @@ public class AttachDurationCalculator<A, B>
 	{
 		if (timestampMs >= reportEndMs) return;  //Attachment ends outside report boundaries
 		if (! attachments.containsKey(resourceKey)) {
-			attachments.put(resourceKey, new HashMap<B,TreeSet<Long>>());
+			attachments.put(resourceKey, new TimestampIndex<B>());
 		}
-		Map<B,TreeSet<Long>> innerMap = attachments.get(resourceKey);
-		if (!innerMap.containsKey(attachedKey)) {
-			innerMap.put(attachedKey, new TreeSet<Long>());
-		}
-		innerMap.get(attachedKey).add(timestampMs);
+		attachments.get(resourceKey).add(attachedKey, timestampMs);
 	}
 	
 	/**
@@ -124,14 +120,10 @@ public class AttachDurationCalculator<A, B>
 	{
 		if (timestampMs >= reportEndMs) return 0l; //Attachment falls entirely outside report boundaries
 		if (attachments.containsKey(resourceKey)) {
-			Map<B,TreeSet<Long>> innerMap = attachments.get(resourceKey);
-			if (innerMap.containsKey(attachedResourceKey)) {
-				TreeSet<Long> timestamps = innerMap.get(attachedResourceKey);
-				Long detachTimestamp = timestamps.ceiling(timestampMs);
-				if (detachTimestamp != null) {
-					return DurationCalculator.boundDuration(reportBeginMs, reportEndMs,
-							timestampMs, detachTimestamp);
-				}
+			Long detachTimestamp = attachments.get(resourceKey).ceiling(attachedResourceKey, timestampMs);
+			if (detachTimestamp != null) {
+				return DurationCalculator.boundDuration(reportBeginMs, reportEndMs,
+						timestampMs, detachTimestamp);
 			}
 		}
 		return DurationCalculator.boundDuration(reportBeginMs, reportEndMs,
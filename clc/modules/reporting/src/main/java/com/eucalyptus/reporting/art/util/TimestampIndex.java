@@ -0,0 +1,122 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.reporting.art.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>TimestampIndex holds the timestamps for each of a set of keys (for
+ * example the deletion times for each resource) using primitive arrays.
+ *
+ * <p>Timestamps are usually added in ascending order, as when scanning an
+ * event table in timestamp order, in which case adding is constant time
+ * and no sorting is required. Timestamps added out of order are sorted
+ * once, on the next lookup for the key.
+ */
+public class TimestampIndex<K>
+{
+	private final Map<K,Timestamps> timestampsByKey = new HashMap<K,Timestamps>();
+	private long count;
+
+	public void add( final K key, final long timestampMs )
+	{
+		Timestamps timestamps = timestampsByKey.get( key );
+		if ( timestamps == null ) {
+			timestamps = new Timestamps();
+			timestampsByKey.put( key, timestamps );
+		}
+		timestamps.add( timestampMs );
+		count++;
+	}
+
+	/**
+	 * @return The least timestamp for the key that is greater than the given time, or null if none
+	 */
+	public Long higher( final K key, final long timestampMs )
+	{
+		final Timestamps timestamps = timestampsByKey.get( key );
+		return timestamps == null ? null : timestamps.find( timestampMs, false );
+	}
+
+	/**
+	 * @return The least timestamp for the key that is greater than or equal to the given time, or null if none
+	 */
+	public Long ceiling( final K key, final long timestampMs )
+	{
+		final Timestamps timestamps = timestampsByKey.get( key );
+		return timestamps == null ? null : timestamps.find( timestampMs, true );
+	}
+
+	/**
+	 * @return The number of keys
+	 */
+	public int size()
+	{
+		return timestampsByKey.size();
+	}
+
+	/**
+	 * @return The number of timestamps added
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	private static final class Timestamps
+	{
+		private long[] values = new long[2];
+		private int size;
+		private boolean sorted = true;
+
+		private void add( final long timestampMs )
+		{
+			if ( size == values.length ) {
+				values = Arrays.copyOf( values, size * 2 );
+			}
+			if ( size > 0 && timestampMs < values[size-1] ) {
+				sorted = false;
+			}
+			values[size++] = timestampMs;
+		}
+
+		private Long find( final long timestampMs, final boolean inclusive )
+		{
+			if ( !sorted ) {
+				Arrays.sort( values, 0, size );
+				sorted = true;
+			}
+			// binary search for the first value after (or at) the given time
+			int low = 0;
+			int high = size;
+			while ( low < high ) {
+				final int mid = ( low + high ) >>> 1;
+				if ( values[mid] < timestampMs || ( !inclusive && values[mid] == timestampMs ) ) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low < size ? values[low] : null;
+		}
+	}
+}
@@ -19,6 +19,7 @@
  ************************************************************************/
 package com.eucalyptus.reporting.event_store;
 
+import java.util.List;
 import javax.persistence.EntityTransaction;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.util.Exceptions;
@@ -39,4 +40,24 @@ class EventStoreSupport {
     }
   }
 
+  /**
+   * Persist all the given events in one transaction.
+   *
+   * <p>Inserts are written in JDBC batches when the transaction is
+   * committed.</p>
+   */
+  protected void persistAll( final List<?> events ) {
+    if ( events.isEmpty() ) return;
+    final EntityTransaction db = Entities.get(events.get(0));
+    try {
+      for ( final Object event : events ) {
+        Entities.persist( event );
+      }
+      db.commit();
+    } catch ( final Exception e ) {
+      db.rollback();
+      throw Exceptions.toUndeclared(e);
+    }
+  }
+
 }
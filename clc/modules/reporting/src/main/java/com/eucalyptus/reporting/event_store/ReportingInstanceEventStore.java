@@ -67,7 +67,27 @@ public class ReportingInstanceEventStore extends EventStoreSupport {
                                 @Nonnull final Long sequenceNum,
                                 @Nonnull final String dimension,
                                 @Nonnull final Double value ) {
+    persist( createUsageEvent( uuid, timestamp, metric, sequenceNum, dimension, value ) );
+  }
+
+  /**
+   * Insert the given usage events in a single transaction.
+   *
+   * @param events The events to insert
+   * @see #createUsageEvent
+   */
+  public void insertUsageEvents( @Nonnull final List<ReportingInstanceUsageEvent> events ) {
+    Preconditions.checkNotNull( events, "Events is required" );
 
+    persistAll( events );
+  }
+
+  public ReportingInstanceUsageEvent createUsageEvent( @Nonnull final String uuid,
+                                                       @Nonnull final Long timestamp,
+                                                       @Nonnull final String metric,
+                                                       @Nonnull final Long sequenceNum,
+                                                       @Nonnull final String dimension,
+                                                       @Nonnull final Double value ) {
     Preconditions.checkNotNull( uuid, "Uuid is required" );
     Preconditions.checkNotNull( timestamp, "Timestamp is required" );
     Preconditions.checkNotNull( metric, "Metric is required" );
@@ -75,10 +95,8 @@ public class ReportingInstanceEventStore extends EventStoreSupport {
     Preconditions.checkNotNull( dimension, "Dimension is required" );
     Preconditions.checkNotNull( value, "value is required" );
 
-    persist( new ReportingInstanceUsageEvent( uuid, metric, sequenceNum,
-    		dimension, value, timestamp ) );
+    return new ReportingInstanceUsageEvent( uuid, metric, sequenceNum,
+        dimension, value, timestamp );
   }
 
-  
-
 }
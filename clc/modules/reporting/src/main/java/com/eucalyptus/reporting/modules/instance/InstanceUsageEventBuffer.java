@@ -0,0 +1,187 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package com.eucalyptus.reporting.modules.instance;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eucalyptus.reporting.event.InstanceUsageEvent;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+/**
+ * Bounded buffer for instance usage events pending write.
+ *
+ * Events are de-duplicated by uuid, metric, dimension and sequence number
+ * against pending events, events being written and recently written
+ * events, so sensor data that is reported more than once is only written
+ * once. Drained events are only remembered as written once the write
+ * succeeds, a failed write leaves them free to be reported again.
+ */
+class InstanceUsageEventBuffer {
+
+  private final Object lock = new Object();
+  private final Map<UsageKey, InstanceUsageEvent> pending = new LinkedHashMap<UsageKey, InstanceUsageEvent>();
+  private final Set<UsageKey> writing = new HashSet<UsageKey>();
+  private final Map<UsageKey, Boolean> recent = new LinkedHashMap<UsageKey, Boolean>();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+
+  /**
+   * Add an event to the buffer.
+   *
+   * @param event The event to add
+   * @param capacity The maximum number of pending events
+   * @return false if the event was dropped because the buffer is full
+   */
+  boolean add( final InstanceUsageEvent event, final int capacity ) {
+    final UsageKey key = new UsageKey( event );
+    synchronized ( lock ) {
+      if ( pending.containsKey( key ) || writing.contains( key ) || recent.containsKey( key ) ) {
+        duplicates.incrementAndGet();
+      } else if ( pending.size() >= capacity ) {
+        dropped.incrementAndGet();
+        return false;
+      } else {
+        pending.put( key, event );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remove up to the given number of events, oldest first.
+   *
+   * Removed events are held as being written until they are marked as
+   * written or failed.
+   *
+   * @see #markWritten
+   * @see #markFailed
+   */
+  List<InstanceUsageEvent> drain( final int maxEvents ) {
+    final List<InstanceUsageEvent> drained = Lists.newArrayListWithCapacity( Math.min( maxEvents, 1024 ) );
+    synchronized ( lock ) {
+      final Iterator<Map.Entry<UsageKey, InstanceUsageEvent>> iterator = pending.entrySet().iterator();
+      while ( iterator.hasNext() && drained.size() < maxEvents ) {
+        final Map.Entry<UsageKey, InstanceUsageEvent> entry = iterator.next();
+        iterator.remove();
+        writing.add( entry.getKey() );
+        drained.add( entry.getValue() );
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Remember drained events as written.
+   *
+   * @param events The events that were written
+   * @param window The number of written events to remember for de-duplication
+   */
+  void markWritten( final List<InstanceUsageEvent> events, final int window ) {
+    synchronized ( lock ) {
+      for ( final InstanceUsageEvent event : events ) {
+        final UsageKey key = new UsageKey( event );
+        writing.remove( key );
+        recent.put( key, Boolean.TRUE );
+      }
+      final Iterator<UsageKey> iterator = recent.keySet().iterator();
+      while ( recent.size() > window && iterator.hasNext() ) {
+        iterator.next();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Release drained events that could not be written.
+   */
+  void markFailed( final List<InstanceUsageEvent> events ) {
+    synchronized ( lock ) {
+      for ( final InstanceUsageEvent event : events ) {
+        writing.remove( new UsageKey( event ) );
+      }
+    }
+  }
+
+  /**
+   * Count an event found to be a duplicate when written.
+   */
+  void markDuplicate( final InstanceUsageEvent event, final int window ) {
+    duplicates.incrementAndGet();
+    markWritten( Lists.newArrayList( event ), window );
+  }
+
+  int size() {
+    synchronized ( lock ) {
+      return pending.size();
+    }
+  }
+
+  int getRecentSize() {
+    synchronized ( lock ) {
+      return recent.size();
+    }
+  }
+
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  long getDuplicateCount() {
+    return duplicates.get();
+  }
+
+  private static final class UsageKey {
+    private final String uuid;
+    private final String metric;
+    private final String dimension;
+    private final Long sequenceNum;
+
+    private UsageKey( final InstanceUsageEvent event ) {
+      this.uuid = event.getUuid();
+      this.metric = event.getMetric();
+      this.dimension = event.getDimension();
+      this.sequenceNum = event.getSequenceNum();
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || getClass() != o.getClass() ) return false;
+      final UsageKey that = (UsageKey) o;
+      return uuid.equals( that.uuid ) &&
+          metric.equals( that.metric ) &&
+          dimension.equals( that.dimension ) &&
+          sequenceNum.equals( that.sequenceNum );
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode( uuid, metric, dimension, sequenceNum );
+    }
+  }
+}
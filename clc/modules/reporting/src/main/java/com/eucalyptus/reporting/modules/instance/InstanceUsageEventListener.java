@@ -20,18 +20,15 @@
 
 package com.eucalyptus.reporting.modules.instance;
 
-
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 
-import com.eucalyptus.reporting.service.ReportingService;
 import org.apache.log4j.Logger;
 import org.hibernate.exception.ConstraintViolationException;
 
@@ -41,92 +38,268 @@ import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.Listeners;
 import com.eucalyptus.reporting.event.InstanceUsageEvent;
 import com.eucalyptus.reporting.event_store.ReportingInstanceEventStore;
+import com.eucalyptus.reporting.event_store.ReportingInstanceUsageEvent;
+import com.eucalyptus.reporting.service.ReportingService;
+import com.eucalyptus.util.Exceptions;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.collect.Lists;
 
+/**
+ * Write-behind listener for instance usage events.
+ *
+ * Events are buffered (up to a maximum, after which they are dropped) and
+ * written periodically, in batches with one transaction per batch.
+ */
 @ConfigurableClass(root = "reporting", description = "Parameters controlling reporting")
-public class InstanceUsageEventListener implements
-	EventListener<InstanceUsageEvent> {
-    private static final Logger log = Logger
-	    .getLogger(InstanceUsageEventListener.class);
+public class InstanceUsageEventListener implements EventListener<InstanceUsageEvent> {
+  private static final Logger log = Logger.getLogger( InstanceUsageEventListener.class );
+
+  @ConfigurableField(initial = "15", description = "How often the reporting system requests information from the cluster controller")
+  public static long DEFAULT_WRITE_INTERVAL_MINS = 15;
+
+  @ConfigurableField(initial = "100000", description = "Maximum number of instance usage events pending write")
+  public static int USAGE_EVENT_BUFFER_SIZE = 100000;
 
-    @ConfigurableField(initial = "15", description = "How often the reporting system requests information from the cluster controller")
-    public static long DEFAULT_WRITE_INTERVAL_MINS = 15;
+  @ConfigurableField(initial = "500", description = "Number of instance usage events written per transaction")
+  public static int USAGE_EVENT_BATCH_SIZE = 500;
 
-    private static final ScheduledExecutorService eventFlushTimer = Executors
-	    .newSingleThreadScheduledExecutor();
+  @ConfigurableField(initial = "100000", description = "Number of written instance usage events remembered to discard duplicates")
+  public static int USAGE_EVENT_DEDUP_WINDOW = 100000;
 
-    private static AtomicBoolean busy = new AtomicBoolean(false);
+  private static final ScheduledExecutorService eventFlushTimer = Executors.newSingleThreadScheduledExecutor();
+  private static final InstanceUsageEventBuffer buffer = new InstanceUsageEventBuffer( );
+  private static final AtomicBoolean flushScheduled = new AtomicBoolean( false );
+  private static final AtomicBoolean flushRequested = new AtomicBoolean( false );
+  private static final AtomicLong written = new AtomicLong();
+  private static final AtomicLong failed = new AtomicLong();
+  private static volatile long lastFlushMillis;
+  private static volatile long maxFlushMillis;
 
-    private static LinkedBlockingQueue<InstanceUsageEvent> eventQueue = new LinkedBlockingQueue<InstanceUsageEvent>();
+  static {
+    Mbeans.register( new InstanceUsageEventStatistics( ) );
+  }
 
-    public static void register() {
-	Listeners.register(InstanceUsageEvent.class,
-		new InstanceUsageEventListener());
+  public static void register() {
+    Listeners.register( InstanceUsageEvent.class, new InstanceUsageEventListener() );
+  }
+
+  @Override
+  public void fireEvent( @Nonnull final InstanceUsageEvent event ) {
+    if (!ReportingService.DATA_COLLECTION_ENABLED) {
+      ReportingService.faultDisableReportingServiceIfNecessary();
+      log.trace("Reporting service data collection disabled....InstanceUsageEvent discarded");
+      return;
     }
 
-    @Override
-    public void fireEvent(@Nonnull final InstanceUsageEvent event) {
-      if (!ReportingService.DATA_COLLECTION_ENABLED) {
-        ReportingService.faultDisableReportingServiceIfNecessary();
-        log.trace("Reporting service data collection disabled....InstanceUsageEvent discarded");
-        return;
+    if ( log.isDebugEnabled() ) {
+      log.debug( "Received instance usage event:" + event );
+    }
+
+    final InstanceUsageEventBuffer eventBuffer = getInstanceUsageEventBuffer();
+    final int capacity = USAGE_EVENT_BUFFER_SIZE;
+    if ( !eventBuffer.add( event, capacity ) ) {
+      log.debug( "Instance usage event buffer full, dropped event " + event );
+    }
+
+    if ( eventBuffer.size() >= capacity / 2 ) {
+      // flush early rather than waiting for the interval to expire
+      if ( flushRequested.compareAndSet( false, true ) ) {
+        eventFlushTimer.execute( flushTask( flushRequested ) );
       }
+    } else if ( flushScheduled.compareAndSet( false, true ) ) {
+      eventFlushTimer.schedule( flushTask( flushScheduled ), DEFAULT_WRITE_INTERVAL_MINS, TimeUnit.MINUTES );
+    }
+  }
+
+  /**
+   * @return The number of events pending write
+   */
+  public static int getQueueDepth() {
+    return buffer.size();
+  }
+
+  /**
+   * @return The number of events dropped because the buffer was full
+   */
+  public static long getDroppedCount() {
+    return buffer.getDroppedCount();
+  }
+
+  /**
+   * @return The number of duplicate events discarded
+   */
+  public static long getDuplicateCount() {
+    return buffer.getDuplicateCount();
+  }
+
+  public static long getWrittenCount() {
+    return written.get();
+  }
+
+  public static long getFailedCount() {
+    return failed.get();
+  }
 
-	if (log.isDebugEnabled()) {
-	    log.debug("Received instance usage event:" + event);
-	}
+  public static long getLastFlushMillis() {
+    return lastFlushMillis;
+  }
 
-	try {
-	    eventQueue.offer(event, DEFAULT_WRITE_INTERVAL_MINS + 1,
-		    TimeUnit.MINUTES);
-	} catch (InterruptedException e) {
-	    log.debug("Unable to queue usage event " + event, e);
-	}
+  public static long getMaxFlushMillis() {
+    return maxFlushMillis;
+  }
 
-	if (!busy.get()) {
-	    flushEventQueue();
-	}
+  /**
+   * JMX view of pending, dropped and written instance usage events.
+   */
+  public interface InstanceUsageEventStatisticsMXBean {
+    int getQueueDepth();
+    long getDroppedCount();
+    long getDuplicateCount();
+    long getWrittenCount();
+    long getFailedCount();
+    long getLastFlushMillis();
+    long getMaxFlushMillis();
+  }
+
+  private static class InstanceUsageEventStatistics implements InstanceUsageEventStatisticsMXBean {
+    @Override
+    public int getQueueDepth() {
+      return InstanceUsageEventListener.getQueueDepth();
     }
 
-    private void flushEventQueue() {
+    @Override
+    public long getDroppedCount() {
+      return InstanceUsageEventListener.getDroppedCount();
+    }
 
-	busy.set(true);
+    @Override
+    public long getDuplicateCount() {
+      return InstanceUsageEventListener.getDuplicateCount();
+    }
+
+    @Override
+    public long getWrittenCount() {
+      return InstanceUsageEventListener.getWrittenCount();
+    }
 
-	Runnable safeRunner = new Runnable() {
-	    @Override
-	    public void run() {
-		
-		Set<InstanceUsageEvent> eventBatch = new HashSet<InstanceUsageEvent>();
-		eventQueue.drainTo(eventBatch);
-		
-		for (final InstanceUsageEvent event : eventBatch) {
-		    insertEvent(event);
-		}
-		
-		eventBatch.clear();
-		busy.set(false);
-	    }
-	};
+    @Override
+    public long getFailedCount() {
+      return InstanceUsageEventListener.getFailedCount();
+    }
+
+    @Override
+    public long getLastFlushMillis() {
+      return InstanceUsageEventListener.getLastFlushMillis();
+    }
+
+    @Override
+    public long getMaxFlushMillis() {
+      return InstanceUsageEventListener.getMaxFlushMillis();
+    }
+  }
 
-	eventFlushTimer.schedule(safeRunner, DEFAULT_WRITE_INTERVAL_MINS,
-		TimeUnit.MINUTES);
+  /**
+   * @param flag The flag to clear when the task runs, an early flush leaves
+   *             the interval flush scheduled
+   */
+  private Runnable flushTask( final AtomicBoolean flag ) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        flag.set( false );
+        try {
+          flush();
+        } catch ( final Throwable e ) {
+          log.error( "Error writing instance usage events", e );
+        }
+      }
+    };
+  }
 
+  /**
+   * Write all pending events in batches.
+   */
+  void flush() {
+    final long start = System.currentTimeMillis();
+    final InstanceUsageEventBuffer eventBuffer = getInstanceUsageEventBuffer();
+    final int batchSize = getBatchSize();
+    long count = 0;
+    List<InstanceUsageEvent> batch;
+    while ( !( batch = eventBuffer.drain( batchSize ) ).isEmpty() ) {
+      try {
+        insertEvents( batch );
+      } catch ( final RuntimeException e ) {
+        eventBuffer.markFailed( batch );
+        throw e;
+      }
+      count += batch.size();
     }
+    final long elapsed = System.currentTimeMillis() - start;
+    lastFlushMillis = elapsed;
+    maxFlushMillis = Math.max( maxFlushMillis, elapsed );
+    if ( log.isDebugEnabled() ) {
+      log.debug( "Wrote " + count + " instance usage events in " + elapsed + "ms, pending "
+          + eventBuffer.size() + ", dropped " + eventBuffer.getDroppedCount()
+          + ", duplicates " + eventBuffer.getDuplicateCount() );
+    }
+  }
 
-    private void insertEvent(InstanceUsageEvent event) {
-	try {
-	    final ReportingInstanceEventStore eventStore = getReportingInstanceEventStore();
-	    eventStore.insertUsageEvent(event.getUuid(),
-		    event.getValueTimestamp(), event.getMetric(),
-		    event.getSequenceNum(), event.getDimension(),
-		    event.getValue());
-	} catch (ConstraintViolationException ex) {
-	    log.debug(ex, ex); // info already exists for instance
-	} catch (Exception ex) {
-	    log.error(ex, ex);
-	}
+  private void insertEvents( final List<InstanceUsageEvent> events ) {
+    final ReportingInstanceEventStore eventStore = getReportingInstanceEventStore();
+    final List<ReportingInstanceUsageEvent> usageEvents = Lists.newArrayListWithCapacity( events.size() );
+    for ( final InstanceUsageEvent event : events ) {
+      usageEvents.add( eventStore.createUsageEvent( event.getUuid(),
+          event.getValueTimestamp(), event.getMetric(),
+          event.getSequenceNum(), event.getDimension(),
+          event.getValue() ) );
+    }
+    final InstanceUsageEventBuffer eventBuffer = getInstanceUsageEventBuffer();
+    try {
+      eventStore.insertUsageEvents( usageEvents );
+      written.addAndGet( usageEvents.size() );
+      eventBuffer.markWritten( events, getDedupWindow() );
+    } catch ( final Exception ex ) {
+      // fall back to individual inserts so one bad event does not lose the batch
+      log.debug( "Batch insert of instance usage events failed, retrying individually", ex );
+      for ( int i = 0; i < usageEvents.size(); i++ ) {
+        insertEvent( eventStore, eventBuffer, events.get( i ), usageEvents.get( i ) );
+      }
     }
+  }
 
-    protected ReportingInstanceEventStore getReportingInstanceEventStore() {
-	return ReportingInstanceEventStore.getInstance();
+  private void insertEvent( final ReportingInstanceEventStore eventStore,
+                            final InstanceUsageEventBuffer eventBuffer,
+                            final InstanceUsageEvent event,
+                            final ReportingInstanceUsageEvent usageEvent ) {
+    try {
+      eventStore.insertUsageEvents( Lists.newArrayList( usageEvent ) );
+      written.incrementAndGet();
+      eventBuffer.markWritten( Lists.newArrayList( event ), getDedupWindow() );
+    } catch ( final Exception ex ) {
+      if ( Exceptions.isCausedBy( ex, ConstraintViolationException.class ) ) {
+        log.debug( "Instance usage event already written " + event );
+        eventBuffer.markDuplicate( event, getDedupWindow() );
+      } else {
+        failed.incrementAndGet();
+        eventBuffer.markFailed( Lists.newArrayList( event ) );
+        log.error( ex, ex );
+      }
     }
+  }
+
+  int getBatchSize() {
+    return Math.max( 1, USAGE_EVENT_BATCH_SIZE );
+  }
+
+  int getDedupWindow() {
+    return Math.max( 0, USAGE_EVENT_DEDUP_WINDOW );
+  }
+
+  InstanceUsageEventBuffer getInstanceUsageEventBuffer() {
+    return buffer;
+  }
+
+  protected ReportingInstanceEventStore getReportingInstanceEventStore() {
+    return ReportingInstanceEventStore.getInstance();
+  }
 }
@@ -784,7 +784,7 @@ class InstanceArtGeneratorTest {
     new InstanceArtGenerator() {
 
       @Override
-      protected void foreachInstanceUsageEvent( final long startInclusive,
+      protected void foreachInstanceUsageEvent( final ReportEventScanner.Scans scans, final long startInclusive,
                                                 final long endExclusive,
                                                 final Predicate<? super ReportingInstanceUsageEvent> callback ) {
         instanceUsageList.findAll{ event ->
@@ -793,7 +793,7 @@ class InstanceArtGeneratorTest {
       }
 
       @Override
-      protected void foreachInstanceCreateEvent( final long endExclusive,
+      protected void foreachInstanceCreateEvent( final ReportEventScanner.Scans scans, final long endExclusive,
                                                  final Predicate<? super ReportingInstanceCreateEvent> callback ) {
         instanceCreateList.findAll{ event ->
           event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
@@ -0,0 +1,140 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.reporting.art.generator
+
+import static org.junit.Assert.*
+import org.junit.Test
+import com.google.common.base.Predicate
+import com.eucalyptus.reporting.event_store.ReportingEventSupport
+import com.eucalyptus.reporting.event_store.ReportingVolumeDeleteEvent
+import com.eucalyptus.reporting.event_store.ReportingVolumeDetachEvent
+
+/**
+ *
+ */
+class ReportEventScannerTest {
+
+  @Test
+  void testSharedTableReadOnce() {
+    List<Class<?>> reads = []
+    ReportEventScanner scanner = testScanner( reads )
+    List<Long> first = []
+    List<Long> second = []
+    scanner.newScans().add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( first ) )
+    scanner.newScans().add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( second ) )
+    scanner.run()
+
+    assertEquals( "Tables read", [ ReportingVolumeDeleteEvent.class ], reads )
+    assertEquals( "First scan events", [ 1000L, 2000L, 3000L ], first )
+    assertEquals( "Second scan events", [ 1000L, 2000L, 3000L ], second )
+  }
+
+  @Test
+  void testScanOrder() {
+    List<Class<?>> reads = []
+    ReportEventScanner scanner = testScanner( reads )
+    List<Long> events = []
+    scanner.newScans().add( ReportingVolumeDetachEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( events ) )
+    ReportEventScanner.Scans scans = scanner.newScans()
+    scans.add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( events ) )
+    scans.add( ReportingVolumeDetachEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( events ) )
+    scanner.run()
+
+    assertEquals( "Tables read", [ ReportingVolumeDeleteEvent.class, ReportingVolumeDetachEvent.class ], reads )
+    assertEquals( "Events", [ 1000L, 2000L, 3000L, 1500L, 1500L ], events )
+  }
+
+  @Test(expected=IllegalStateException.class)
+  void testConflictingScanOrder() {
+    ReportEventScanner scanner = testScanner( [] )
+    ReportEventScanner.Scans scans1 = scanner.newScans()
+    scans1.add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( [] ) )
+    scans1.add( ReportingVolumeDetachEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( [] ) )
+    ReportEventScanner.Scans scans2 = scanner.newScans()
+    scans2.add( ReportingVolumeDetachEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( [] ) )
+    scans2.add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( [] ) )
+    scanner.run()
+  }
+
+  @Test
+  void testScanRange() {
+    ReportEventScanner scanner = testScanner( [] )
+    List<Long> events = []
+    scanner.newScans().add( ReportingVolumeDeleteEvent.class, 2000L, 3000L, collect( events ) )
+    scanner.run()
+
+    assertEquals( "Events in range", [ 2000L ], events )
+  }
+
+  @Test
+  void testScanComplete() {
+    ReportEventScanner scanner = testScanner( [] )
+    List<Long> events = []
+    List<Long> limitedEvents = []
+    scanner.newScans().add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, collect( events ) )
+    scanner.newScans().add( ReportingVolumeDeleteEvent.class, Long.MIN_VALUE, Long.MAX_VALUE, new Predicate<ReportingVolumeDeleteEvent>() {
+      @Override
+      boolean apply( final ReportingVolumeDeleteEvent event ) {
+        limitedEvents.add( event.getTimestampMs() )
+        false
+      }
+    } )
+    scanner.run()
+
+    assertEquals( "Events for complete scan", [ 1000L ], limitedEvents )
+    assertEquals( "Events for active scan", [ 1000L, 2000L, 3000L ], events )
+  }
+
+  private Predicate<ReportingEventSupport> collect( List<Long> timestamps ) {
+    new Predicate<ReportingEventSupport>() {
+      @Override
+      boolean apply( final ReportingEventSupport event ) {
+        timestamps.add( event.getTimestampMs() )
+        true
+      }
+    }
+  }
+
+  @SuppressWarnings("GroovyAccessibility")
+  private ReportEventScanner testScanner( List<Class<?>> reads ) {
+    Map<Class<?>,List<Object>> events = [
+        (ReportingVolumeDeleteEvent.class): [
+            new ReportingVolumeDeleteEvent( "vol-1", 1000L ),
+            new ReportingVolumeDeleteEvent( "vol-2", 2000L ),
+            new ReportingVolumeDeleteEvent( "vol-3", 3000L ),
+        ],
+        (ReportingVolumeDetachEvent.class): [
+            new ReportingVolumeDetachEvent( "vol-1", "i-1", 1500L ),
+        ],
+    ]
+    new ReportEventScanner() {
+      @Override
+      protected void foreach( final Class<?> eventClass,
+                              final long beginInclusive,
+                              final long endExclusive,
+                              final Predicate<Object> callback ) {
+        reads.add( eventClass )
+        events.get( eventClass ).findAll{ event ->
+          beginInclusive <= event.getTimestampMs() && event.getTimestampMs() < endExclusive
+        }.every{ event -> callback.apply( event ) }
+      }
+    }
+  }
+}
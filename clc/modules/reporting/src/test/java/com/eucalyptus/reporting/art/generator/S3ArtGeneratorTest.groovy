@@ -395,14 +395,14 @@ class S3ArtGeneratorTest {
     new S3ArtGenerator() {
 
       @Override
-      protected void foreachReportingS3ObjectCreateEvent( final long endExclusive,
+      protected void foreachReportingS3ObjectCreateEvent( final ReportEventScanner.Scans scans, final long endExclusive,
                                                           final Predicate<ReportingS3ObjectCreateEvent> callback ) {
         data.objectCreateList.findAll{ event -> event.getTimestampMs() < endExclusive }
             .every{ event -> callback.apply( event ) }
       }
 
       @Override
-      protected void foreachReportingS3ObjectDeleteEvent( final long endExclusive,
+      protected void foreachReportingS3ObjectDeleteEvent( final ReportEventScanner.Scans scans, final long endExclusive,
                                                           final Predicate<ReportingS3ObjectDeleteEvent> callback ) {
         data.objectDeleteList.findAll{ event -> event.getTimestampMs() < endExclusive }
             .every{ event -> callback.apply( event ) }
@@ -348,35 +348,35 @@ class VolumeArtGeneratorTest {
 
     new VolumeArtGenerator() {
       @Override
-      protected void foreachReportingVolumeCreateEvent( long endExclusive,
+      protected void foreachReportingVolumeCreateEvent( ReportEventScanner.Scans scans, long endExclusive,
                                                         Predicate<ReportingVolumeCreateEvent> callback ) {
         createList.findAll{ event ->
           event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
       }
 
       @Override
-      protected void foreachReportingVolumeDeleteEvent( long endExclusive,
+      protected void foreachReportingVolumeDeleteEvent( ReportEventScanner.Scans scans, long endExclusive,
                                                         Predicate<ReportingVolumeDeleteEvent> callback ) {
         deleteList.findAll{ event ->
           event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
       }
 
       @Override
-      protected void foreachReportingVolumeAttachEvent( long endExclusive,
+      protected void foreachReportingVolumeAttachEvent( ReportEventScanner.Scans scans, long endExclusive,
                                                         Predicate<ReportingVolumeAttachEvent> callback ) {
         attachList.findAll{ event ->
           event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
       }
 
       @Override
-      protected void foreachReportingVolumeDetachEvent( long endExclusive,
+      protected void foreachReportingVolumeDetachEvent( ReportEventScanner.Scans scans, long endExclusive,
                                                         Predicate<ReportingVolumeDetachEvent> callback ) {
         detachList.findAll{ event ->
           event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
       }
 
       @Override
-      protected void foreachInstanceCreateEvent( long endExclusive,
+      protected void foreachInstanceCreateEvent( ReportEventScanner.Scans scans, long endExclusive,
                                                  Predicate<? super ReportingInstanceCreateEvent> callback ) {
         instanceCreateList.findAll{ event ->
           event.getTimestampMs() < endExclusive }.every { event -> callback.apply( event ) }
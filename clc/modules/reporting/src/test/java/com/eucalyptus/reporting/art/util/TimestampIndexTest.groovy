@@ -0,0 +1,59 @@
+/*************************************************************************
+ * Copyright 2009-2013 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.reporting.art.util
+
+import static org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Unit tests for timestamp index
+ */
+class TimestampIndexTest {
+
+  @Test
+  void testOrderedLookup() {
+    TimestampIndex<String> index = new TimestampIndex<String>()
+    ( 1..10 ).each{ Integer i -> index.add( "a", i * 10L ) }
+    index.add( "b", 5L )
+
+    assertEquals( "Keys", 2, index.size() )
+    assertEquals( "Count", 11L, index.getCount() )
+    assertEquals( "Higher 10", 20L, index.higher( "a", 10L ) )
+    assertEquals( "Higher 15", 20L, index.higher( "a", 15L ) )
+    assertEquals( "Ceiling 10", 10L, index.ceiling( "a", 10L ) )
+    assertEquals( "Ceiling 0", 10L, index.ceiling( "a", 0L ) )
+    assertNull( "Higher 100", index.higher( "a", 100L ) )
+    assertEquals( "Ceiling 100", 100L, index.ceiling( "a", 100L ) )
+    assertEquals( "Other key", 5L, index.higher( "b", 0L ) )
+    assertNull( "Missing key", index.higher( "c", 0L ) )
+  }
+
+  @Test
+  void testUnorderedLookup() {
+    TimestampIndex<String> index = new TimestampIndex<String>()
+    [ 50L, 10L, 40L, 20L, 30L, 30L ].each{ Long time -> index.add( "a", time ) }
+
+    assertEquals( "Higher 10", 20L, index.higher( "a", 10L ) )
+    assertEquals( "Higher 30", 40L, index.higher( "a", 30L ) )
+    assertEquals( "Ceiling 25", 30L, index.ceiling( "a", 25L ) )
+    index.add( "a", 5L )
+    assertEquals( "Ceiling 0", 5L, index.ceiling( "a", 0L ) )
+  }
+}
@@ -0,0 +1,140 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.reporting.modules.instance
+
+import com.eucalyptus.reporting.event.InstanceUsageEvent
+import com.eucalyptus.reporting.event_store.ReportingInstanceEventStore
+import com.eucalyptus.reporting.event_store.ReportingInstanceUsageEvent
+
+import static org.junit.Assert.*
+import org.hibernate.exception.ConstraintViolationException
+import org.junit.Test
+import java.sql.SQLException
+
+/**
+ * Unit test for InstanceUsageEventListener
+ */
+class InstanceUsageEventListenerTest {
+
+  @Test
+  void testInstantiable() {
+    new InstanceUsageEventListener()
+  }
+
+  @Test
+  void testBatchedWrite() {
+    List<List<Object>> persisted = []
+    InstanceUsageEventListener listener = listener( persisted, new InstanceUsageEventBuffer( ) )
+
+    ( 1..5 ).each { Integer i -> listener.fireEvent( event( "uuid-1", i ) ) }
+    listener.fireEvent( event( "uuid-1", 1 ) ) // duplicate pending
+    listener.flush()
+    listener.fireEvent( event( "uuid-1", 2 ) ) // duplicate written
+    listener.flush()
+
+    assertEquals( "Batch count", 3, persisted.size() )
+    assertEquals( "Batch sizes", [ 2, 2, 1 ], persisted.collect{ List<Object> batch -> batch.size() } )
+    ReportingInstanceUsageEvent first = (ReportingInstanceUsageEvent) persisted[0][0]
+    assertEquals( "Event uuid", "uuid-1", first.getUuid() )
+    assertEquals( "Event sequence", 1L, first.getSequenceNum() )
+    assertEquals( "Event timestamp", 1000L, first.getTimestampMs() )
+  }
+
+  @Test
+  void testBufferCapacity() {
+    InstanceUsageEventBuffer buffer = new InstanceUsageEventBuffer( )
+    assertTrue( "Added 1", buffer.add( event( "uuid-1", 1 ), 2 ) )
+    assertTrue( "Added 2", buffer.add( event( "uuid-1", 2 ), 2 ) )
+    assertFalse( "Added 3", buffer.add( event( "uuid-1", 3 ), 2 ) )
+    assertTrue( "Added duplicate", buffer.add( event( "uuid-1", 2 ), 2 ) )
+    assertEquals( "Dropped count", 1, buffer.getDroppedCount() )
+    assertEquals( "Duplicate count", 1, buffer.getDuplicateCount() )
+    assertEquals( "Drained", 2, buffer.drain( 10 ).size() )
+    assertEquals( "Size", 0, buffer.size() )
+  }
+
+  @Test
+  void testFailedWriteNotRemembered() {
+    List<List<Object>> persisted = []
+    InstanceUsageEventBuffer buffer = new InstanceUsageEventBuffer( )
+    long failedBefore = InstanceUsageEventListener.getFailedCount( )
+    InstanceUsageEventListener failing = listener( persisted, buffer, new IllegalStateException( "write failed" ) )
+    failing.fireEvent( event( "uuid-1", 1 ) )
+    failing.flush( )
+    assertEquals( "Failed count", failedBefore + 1, InstanceUsageEventListener.getFailedCount( ) )
+    assertEquals( "Persisted", 0, persisted.size() )
+
+    InstanceUsageEventListener listener = listener( persisted, buffer )
+    listener.fireEvent( event( "uuid-1", 1 ) ) // reported again after failure
+    listener.flush( )
+    assertEquals( "Persisted", 1, persisted.size() )
+    assertEquals( "Duplicate count", 0, buffer.getDuplicateCount() )
+  }
+
+  @Test
+  void testDuplicateOnWrite() {
+    List<List<Object>> persisted = []
+    InstanceUsageEventBuffer buffer = new InstanceUsageEventBuffer( )
+    long failedBefore = InstanceUsageEventListener.getFailedCount( )
+    InstanceUsageEventListener listener = listener( persisted, buffer,
+        new ConstraintViolationException( "duplicate", new SQLException( "duplicate" ), "usage_event_key" ) )
+    listener.fireEvent( event( "uuid-1", 1 ) )
+    listener.flush( )
+    assertEquals( "Failed count", failedBefore, InstanceUsageEventListener.getFailedCount( ) )
+    assertEquals( "Duplicate count", 1, buffer.getDuplicateCount() )
+    assertTrue( "Added duplicate", buffer.add( event( "uuid-1", 1 ), 10 ) )
+    assertEquals( "Size", 0, buffer.size() )
+  }
+
+  @Test
+  void testDedupWindow() {
+    InstanceUsageEventBuffer buffer = new InstanceUsageEventBuffer( )
+    ( 1..3 ).each { Integer i -> buffer.add( event( "uuid-1", i ), 10 ) }
+    assertEquals( "Drained", 3, buffer.drain( 10 ).size( ) )
+    buffer.add( event( "uuid-1", 1 ), 10 )
+    assertEquals( "Duplicate of event being written", 1, buffer.getDuplicateCount() )
+    buffer.markWritten( ( 1..3 ).collect{ Integer i -> event( "uuid-1", i ) }, 2 )
+    assertEquals( "Recent size", 2, buffer.getRecentSize() )
+    assertTrue( "Added", buffer.add( event( "uuid-1", 1 ), 10 ) )
+    assertEquals( "Size", 1, buffer.size() )
+    buffer.add( event( "uuid-1", 3 ), 10 )
+    assertEquals( "Duplicate of recent event", 2, buffer.getDuplicateCount() )
+  }
+
+  private InstanceUsageEventListener listener( List<List<Object>> persisted,
+                                               InstanceUsageEventBuffer eventBuffer,
+                                               RuntimeException failure = null ) {
+    ReportingInstanceEventStore eventStore = new ReportingInstanceEventStore( ) {
+      @Override protected void persistAll( final List<?> events ) {
+        if ( failure ) throw failure
+        persisted.add( new ArrayList<Object>( events ) )
+      }
+    }
+    new InstanceUsageEventListener( ) {
+      @Override int getBatchSize() { 2 }
+      @Override InstanceUsageEventBuffer getInstanceUsageEventBuffer() { eventBuffer }
+      @Override protected ReportingInstanceEventStore getReportingInstanceEventStore() { eventStore }
+    }
+  }
+
+  private InstanceUsageEvent event( String uuid, long sequenceNum ) {
+    new InstanceUsageEvent( uuid, "i-12345678", "CPUUtilization", sequenceNum, "default", 1.5d, sequenceNum * 1000L )
+  }
+}
@@ -66,16 +66,37 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 
 import org.apache.log4j.Logger;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.handler.stream.ChunkedFile;
 
 import edu.ucsb.eucalyptus.constants.IsData;
 
 public class ChunkedDataFile extends ChunkedFile implements IsData {
 	private static Logger LOG = Logger.getLogger(ChunkedDataFile.class);
+	private final RandomAccessFile file;
 
 	public ChunkedDataFile(RandomAccessFile file, long offset, long length,
 			int chunkSize) throws IOException {
 		super(file, offset, length, chunkSize);
-	}		
-}
+		this.file = file;
+	}
+
+	/**
+	 * Get a file region for the remaining data, for writing without copying
+	 * via the heap.
+	 *
+	 * The region uses the channel of this file, releasing the region closes
+	 * the file.
+	 */
+	public FileRegion toFileRegion() {
+		return new DefaultFileRegion(file.getChannel(), getCurrentOffset(), getEndOffset() - getCurrentOffset());
+	}
 
+	/**
+	 * @return The number of bytes this file will provide in total
+	 */
+	public long getLength() {
+		return getEndOffset() - getStartOffset();
+	}
+}
@@ -77,4 +77,8 @@ public abstract class FileIO {
     public abstract ByteBuffer getBuffer();
 
     public abstract void finish();
+
+    public FileChannel getChannel() {
+        return channel;
+    }
 }
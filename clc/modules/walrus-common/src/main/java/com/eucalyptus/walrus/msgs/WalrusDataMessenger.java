@@ -63,73 +63,56 @@
 package com.eucalyptus.walrus.msgs;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
-import org.apache.log4j.Logger;
 
-// A concurrent hash map that holds a map of queues, which can be used for passing data
-// Currently, the queues are a WalrusDataQueue and producers/consumers do not timeout.
+import com.eucalyptus.system.Threads;
+import com.eucalyptus.walrus.WalrusBackend;
+
+// A concurrent hash map that holds the WalrusDataStream for each upload, keyed by object and upload.
+// Content is written to the target by the stream writer threads, reads from the connection are
+// suspended while too much content is buffered. Monitors are used to wait for an upload to a key.
 
 public class WalrusDataMessenger {
-	private static Logger LOG = Logger.getLogger( WalrusDataMessenger.class );
-	private static final int DATA_QUEUE_SIZE = 3;
+	private static final long STREAM_BUFFER_SIZE = 1024 * 1024;
 
-	private ConcurrentHashMap<String, ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>>> queueMap;
+	private ConcurrentHashMap<String, ConcurrentHashMap<String,WalrusDataStream>> streamMap;
 	private ConcurrentHashMap<String, WalrusMonitor> monitorMap;
 
 	public WalrusDataMessenger() {
-		queueMap = new ConcurrentHashMap<String, ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>>>();
+		streamMap = new ConcurrentHashMap<String, ConcurrentHashMap<String,WalrusDataStream>>();
 		monitorMap = new ConcurrentHashMap<String, WalrusMonitor>();
 	}
 
-	public synchronized WalrusDataQueue<WalrusDataMessage> getQueue(String key1, String key2) {
-		ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>> queues = queueMap.putIfAbsent(key1, new ConcurrentHashMap<String, WalrusDataQueue<WalrusDataMessage>>());
-		if (queues == null) {
-			queues = queueMap.get(key1);
+	public synchronized WalrusDataStream getStream(String key1, String key2) {
+		ConcurrentHashMap<String,WalrusDataStream> streams = streamMap.putIfAbsent(key1, new ConcurrentHashMap<String, WalrusDataStream>());
+		if (streams == null) {
+			streams = streamMap.get(key1);
 		}
-		WalrusDataQueue<WalrusDataMessage> queue = queues.putIfAbsent(key2, new WalrusDataQueue<WalrusDataMessage>(DATA_QUEUE_SIZE));
-		if (queue == null) {
-			queue = queues.get(key2);
+		WalrusDataStream stream = streams.putIfAbsent(key2, new WalrusDataStream(STREAM_BUFFER_SIZE, Threads.lookup(WalrusBackend.class, WalrusDataStream.class)));
+		if (stream == null) {
+			stream = streams.get(key2);
 		}
-		return queue;
+		return stream;
 	}
 
-	public synchronized WalrusDataQueue<WalrusDataMessage> interruptAllAndGetQueue(String key1, String key2) {
-		ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>> queues = queueMap.get(key1);
-		if(queues != null) {
-			for (WalrusDataQueue<WalrusDataMessage> queue: queues.values()) {
-				queue.setInterrupted(true);
+	public synchronized WalrusDataStream interruptAllAndGetStream(String key1, String key2) {
+		ConcurrentHashMap<String,WalrusDataStream> streams = streamMap.get(key1);
+		if(streams != null) {
+			for (WalrusDataStream stream: streams.values()) {
+				stream.interrupt();
 			}
 		}
-		return getQueue(key1, key2);
+		return getStream(key1, key2);
 	}
 
-	public void clearQueues(String key1) {
-		ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>> queues = queueMap.get(key1);
-		if(queues != null) {
-			for (WalrusDataQueue<WalrusDataMessage> queue: queues.values()) {
-				queue.setInterrupted(false);
+	public synchronized void removeStream(String key1, String key2) {
+		ConcurrentHashMap<String,WalrusDataStream> streams = streamMap.get(key1);
+		if(streams != null) {
+			WalrusDataStream stream = streams.remove(key2);
+			if (stream != null) {
+				stream.abort();
 			}
-		}
-	}
-
-	public void removeQueue(String key1, String key2) {
-		if(queueMap.containsKey(key1)) {
-			ConcurrentHashMap<String, WalrusDataQueue<WalrusDataMessage>> queues = queueMap.get(key1);
-			if(queues.containsKey(key2)) {
-                WalrusDataQueue<WalrusDataMessage> q = queues.get(key2);
-                if (q!= null) {
-                    try {
-                        q.offer(WalrusDataMessage.InterruptTransaction(), 10L, TimeUnit.SECONDS);
-                    } catch (InterruptedException e) {
-                        LOG.error(e);
-                    }
-                    queues.remove(key2);
-                }
-				synchronized(queues) {
-					if(queues.size() == 0) {
-						queueMap.remove(key1);
-					}	
-				}
+			if(streams.isEmpty()) {
+				streamMap.remove(key1);
 			}
 		}
 	}
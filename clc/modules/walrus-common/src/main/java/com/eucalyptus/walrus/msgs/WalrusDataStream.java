@@ -0,0 +1,302 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.walrus.msgs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+
+/**
+ * Request content for a single upload.
+ *
+ * Content is appended by the binding on the I/O thread as it is received.
+ * Once the operation has attached the target channel, content is written
+ * to the channel and digested by a task on the executor, one buffer at a
+ * time and in order, so the I/O thread never blocks on the target. Reads
+ * on the connection are suspended while more than the maximum buffered
+ * bytes are held, either because the target is not yet attached or
+ * because writes are falling behind, and resumed once half has been
+ * written. On a write error or abort the buffered content is discarded
+ * and reads are resumed, so the connection is not left suspended.
+ */
+public class WalrusDataStream {
+    private final long maxBufferedBytes;
+    private final Executor executor;
+    private final Deque<ChannelBuffer> pending = new ArrayDeque<ChannelBuffer>();
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+    private Channel channel;
+    private long pendingBytes;
+    private boolean suspended;
+    private boolean writing;
+    private WritableByteChannel target;
+    private MessageDigest digest;
+    private long size;
+    private long lastActivity = System.nanoTime();
+    private Long endTime;
+    private boolean interrupted;
+    private boolean aborted;
+    private IOException error;
+
+    /**
+     * @param maxBufferedBytes The content held before reads are suspended
+     * @param executor The executor for writes to the target
+     */
+    public WalrusDataStream(long maxBufferedBytes, Executor executor) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.executor = executor;
+    }
+
+    /**
+     * Set the connection the content is read from, used to suspend reads.
+     *
+     * Reads are suspended immediately if content appended before the
+     * connection was set already exceeds the maximum.
+     */
+    public synchronized void setChannel(Channel channel) {
+        this.channel = channel;
+        if (suspended) {
+            setReadable(false);
+        }
+    }
+
+    /**
+     * Append content to the stream.
+     *
+     * The buffer is held until written, so it must not be modified or
+     * reused after appending. Content that is also retained elsewhere
+     * should be copied.
+     *
+     * @param buffer The content
+     * @param last True if this is the final content for the upload
+     */
+    public void append(ChannelBuffer buffer, boolean last) {
+        boolean write = false;
+        synchronized (this) {
+            if (endTime != null || aborted || error != null) {
+                return;
+            }
+            lastActivity = System.nanoTime();
+            if (!interrupted && buffer.readable()) {
+                pending.add(buffer);
+                pendingBytes += buffer.readableBytes();
+                if (!suspended && pendingBytes > maxBufferedBytes) {
+                    suspended = true;
+                    setReadable(false);
+                }
+                write = startWriting();
+            }
+            if (last) {
+                endTime = System.currentTimeMillis();
+            }
+            notifyAll();
+        }
+        if (write) {
+            executor.execute(writer);
+        }
+    }
+
+    /**
+     * Attach the target for the content, any buffered content is written.
+     */
+    public void attach(WritableByteChannel target, MessageDigest digest) {
+        boolean write;
+        synchronized (this) {
+            this.target = target;
+            this.digest = digest;
+            write = startWriting();
+        }
+        if (write) {
+            executor.execute(writer);
+        }
+    }
+
+    /**
+     * Wait for all content to be received and written or for the upload to
+     * be aborted.
+     *
+     * @param idleTimeout The maximum time to wait without receiving or writing content
+     * @return false if the wait timed out
+     */
+    public synchronized boolean await(long idleTimeout, TimeUnit unit) throws InterruptedException {
+        final long idleNanos = unit.toNanos(idleTimeout);
+        while (!isComplete()) {
+            final long remaining = lastActivity + idleNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Abort the upload, no further content is written to the target.
+     */
+    public void abort() {
+        synchronized (this) {
+            if (endTime == null) {
+                aborted = true;
+            }
+            target = null;
+            discardPending();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Interrupt the upload (superseded by another upload for the same key),
+     * content received after interruption is discarded.
+     */
+    public synchronized void interrupt() {
+        if (endTime == null) {
+            interrupted = true;
+        }
+    }
+
+    public synchronized boolean isInterrupted() {
+        return interrupted;
+    }
+
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return The error writing to the target, if any
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return The number of bytes written to the target
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The digest of the content written to the target
+     */
+    public synchronized byte[] digest() {
+        return digest == null ? null : digest.digest();
+    }
+
+    /**
+     * @return The time the final content was received
+     */
+    public synchronized Long getEndTime() {
+        return endTime;
+    }
+
+    private boolean isComplete() {
+        return aborted || error != null || (endTime != null && pending.isEmpty() && !writing);
+    }
+
+    private boolean startWriting() {
+        if (writing || target == null || pending.isEmpty()) {
+            return false;
+        }
+        writing = true;
+        return true;
+    }
+
+    private void writePending() {
+        while (true) {
+            final ChannelBuffer buffer;
+            final WritableByteChannel target;
+            final MessageDigest digest;
+            final boolean discard;
+            synchronized (this) {
+                buffer = pending.peek();
+                if (buffer == null || this.target == null || error != null) {
+                    writing = false;
+                    notifyAll();
+                    return;
+                }
+                target = this.target;
+                digest = this.digest;
+                discard = interrupted;
+            }
+            IOException writeError = null;
+            if (!discard) {
+                try {
+                    for (ByteBuffer byteBuffer : buffer.toByteBuffers()) {
+                        digest.update(byteBuffer.duplicate());
+                        while (byteBuffer.hasRemaining()) {
+                            target.write(byteBuffer);
+                        }
+                    }
+                } catch (IOException ex) {
+                    writeError = ex;
+                }
+            }
+            synchronized (this) {
+                if (pending.peek() == buffer) {
+                    pending.poll();
+                    pendingBytes -= buffer.readableBytes();
+                }
+                if (writeError != null) {
+                    error = writeError;
+                    discardPending();
+                } else if (!discard) {
+                    size += buffer.readableBytes();
+                }
+                lastActivity = System.nanoTime();
+                if (suspended && pendingBytes <= maxBufferedBytes / 2) {
+                    resume();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void discardPending() {
+        pending.clear();
+        pendingBytes = 0;
+        if (suspended) {
+            resume();
+        }
+    }
+
+    private void resume() {
+        suspended = false;
+        setReadable(true);
+    }
+
+    private void setReadable(boolean readable) {
+        if (channel != null && channel.isOpen()) {
+            channel.setReadable(readable);
+        }
+    }
+}
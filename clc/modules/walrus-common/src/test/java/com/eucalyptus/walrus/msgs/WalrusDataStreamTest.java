@@ -0,0 +1,235 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.walrus.msgs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class WalrusDataStreamTest {
+
+  @Test
+  public void testWritesOnExecutor() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final WalrusDataStream stream = new WalrusDataStream(1024, executor);
+    stream.attach(Channels.newChannel(out), MessageDigest.getInstance("MD5"));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("hello ")), false);
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("world")), true);
+    assertEquals("Content written on append", 0, out.size());
+    assertFalse("Complete before content written", stream.await(10, TimeUnit.MILLISECONDS));
+
+    executor.runAll();
+    assertEquals("Content", "hello world", new String(out.toByteArray(), "UTF-8"));
+    assertEquals("Size", 11, stream.getSize());
+    assertTrue("Complete", stream.await(10, TimeUnit.MILLISECONDS));
+    assertArrayEquals("Digest", MessageDigest.getInstance("MD5").digest(bytes("hello world")), stream.digest());
+  }
+
+  @Test
+  public void testContentBeforeAttach() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final WalrusDataStream stream = new WalrusDataStream(1024, executor);
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("hello ")), false);
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("world")), true);
+    assertEquals("Writes scheduled before attach", 0, executor.tasks.size());
+
+    stream.attach(Channels.newChannel(out), MessageDigest.getInstance("MD5"));
+    assertEquals("Writes scheduled on attach", 1, executor.tasks.size());
+    executor.runAll();
+    assertEquals("Content", "hello world", new String(out.toByteArray(), "UTF-8"));
+    assertTrue("Complete", stream.await(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSuspendBeforeChannelSet() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final List<Boolean> readable = Lists.newArrayList();
+    final WalrusDataStream stream = new WalrusDataStream(4, executor);
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("12345678")), false);
+    stream.setChannel(channel(readable));
+    assertEquals("Suspended when channel set", Arrays.asList(false), readable);
+
+    stream.attach(Channels.newChannel(new ByteArrayOutputStream()), MessageDigest.getInstance("MD5"));
+    executor.runAll();
+    assertEquals("Resumed once written", Arrays.asList(false, true), readable);
+  }
+
+  @Test
+  public void testSuspendWhileWritesBehind() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final List<Boolean> readable = Lists.newArrayList();
+    final WalrusDataStream stream = new WalrusDataStream(8, executor);
+    stream.setChannel(channel(readable));
+    stream.attach(Channels.newChannel(new ByteArrayOutputStream()), MessageDigest.getInstance("MD5"));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("12345")), false);
+    assertTrue("Suspended below maximum", readable.isEmpty());
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("67890")), false);
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("abcde")), false);
+    assertEquals("Suspended above maximum", Arrays.asList(false), readable);
+
+    executor.runAll();
+    assertEquals("Resumed once written", Arrays.asList(false, true), readable);
+    assertEquals("Size", 15, stream.getSize());
+  }
+
+  @Test
+  public void testWriteError() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final WalrusDataStream stream = new WalrusDataStream(1024, executor);
+    stream.attach(new WritableByteChannel() {
+      @Override public int write(ByteBuffer src) throws IOException { throw new IOException("disk full"); }
+      @Override public boolean isOpen() { return true; }
+      @Override public void close() { }
+    }, MessageDigest.getInstance("MD5"));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("hello")), false);
+    executor.runAll();
+    assertNotNull("Error", stream.getError());
+    assertTrue("Complete on error", stream.await(10, TimeUnit.MILLISECONDS));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("world")), true);
+    assertEquals("Writes scheduled after error", 0, executor.tasks.size());
+  }
+
+  @Test
+  public void testWriteErrorResumesReads() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final List<Boolean> readable = Lists.newArrayList();
+    final WalrusDataStream stream = new WalrusDataStream(4, executor);
+    stream.setChannel(channel(readable));
+    stream.attach(new WritableByteChannel() {
+      @Override public int write(ByteBuffer src) throws IOException { throw new IOException("disk full"); }
+      @Override public boolean isOpen() { return true; }
+      @Override public void close() { }
+    }, MessageDigest.getInstance("MD5"));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("12345")), false);
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("67890")), false);
+    assertEquals("Suspended above maximum", Arrays.asList(false), readable);
+
+    executor.runAll();
+    assertNotNull("Error", stream.getError());
+    assertEquals("Resumed on error", Arrays.asList(false, true), readable);
+    assertTrue("Complete on error", stream.await(10, TimeUnit.MILLISECONDS));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("abcde")), false);
+    assertEquals("Suspended after error", Arrays.asList(false, true), readable);
+  }
+
+  @Test
+  public void testInterrupted() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final WalrusDataStream stream = new WalrusDataStream(1024, executor);
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("hello")), false);
+    stream.interrupt();
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("world")), true);
+    stream.attach(Channels.newChannel(out), MessageDigest.getInstance("MD5"));
+    executor.runAll();
+    assertTrue("Interrupted", stream.isInterrupted());
+    assertEquals("Content discarded", 0, out.size());
+    assertTrue("Complete", stream.await(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testAbort() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final WalrusDataStream stream = new WalrusDataStream(1024, executor);
+    stream.attach(Channels.newChannel(out), MessageDigest.getInstance("MD5"));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("hello")), false);
+    stream.abort();
+    executor.runAll();
+    assertTrue("Aborted", stream.isAborted());
+    assertEquals("Content discarded", 0, out.size());
+    assertTrue("Complete", stream.await(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testAbortResumesReads() throws Exception {
+    final QueueExecutor executor = new QueueExecutor();
+    final List<Boolean> readable = Lists.newArrayList();
+    final WalrusDataStream stream = new WalrusDataStream(4, executor);
+    stream.setChannel(channel(readable));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("12345678")), false);
+    assertEquals("Suspended before attach", Arrays.asList(false), readable);
+
+    stream.abort();
+    assertEquals("Resumed on abort", Arrays.asList(false, true), readable);
+    assertTrue("Complete", stream.await(10, TimeUnit.MILLISECONDS));
+    stream.append(ChannelBuffers.wrappedBuffer(bytes("12345678")), true);
+    assertEquals("Suspended after abort", Arrays.asList(false, true), readable);
+  }
+
+  private static byte[] bytes(final String text) throws Exception {
+    return text.getBytes("UTF-8");
+  }
+
+  private static Channel channel(final List<Boolean> readable) {
+    return (Channel) Proxy.newProxyInstance(
+        WalrusDataStreamTest.class.getClassLoader(),
+        new Class<?>[]{ Channel.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            if ("isOpen".equals(method.getName())) {
+              return true;
+            } else if ("setReadable".equals(method.getName())) {
+              readable.add((Boolean) args[0]);
+            }
+            return null;
+          }
+        });
+  }
+
+  private static final class QueueExecutor implements Executor {
+    private final Deque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+    @Override
+    public void execute(final Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+}
@@ -228,9 +228,8 @@ import com.eucalyptus.walrus.msgs.SetRESTObjectAccessControlPolicyResponseType;
 import com.eucalyptus.walrus.msgs.SetRESTObjectAccessControlPolicyType;
 import com.eucalyptus.walrus.msgs.UploadPartResponseType;
 import com.eucalyptus.walrus.msgs.UploadPartType;
-import com.eucalyptus.walrus.msgs.WalrusDataMessage;
 import com.eucalyptus.walrus.msgs.WalrusDataMessenger;
-import com.eucalyptus.walrus.msgs.WalrusDataQueue;
+import com.eucalyptus.walrus.msgs.WalrusDataStream;
 import com.eucalyptus.walrus.msgs.WalrusMonitor;
 import com.eucalyptus.walrus.pipeline.WalrusRESTBinding;
 import com.eucalyptus.walrus.util.WalrusProperties;
@@ -786,7 +785,7 @@ public class WalrusFSManager extends WalrusManager {
                         // Found existing object, but don't have write
                         // access
                         db.rollback();
-                        messenger.removeQueue(key, randomKey);
+                        messenger.removeStream(key, randomKey);
                         throw new AccessDeniedException("Key", objectKey, logData);
                     }
                     objectName = foundObject.getObjectName();
@@ -814,229 +813,173 @@ public class WalrusFSManager extends WalrusManager {
             String bucketOwnerId = bucket.getOwnerId();
             db.commit();
             // writes are unconditional
-            WalrusDataQueue<WalrusDataMessage> putQueue = messenger.getQueue(key, randomKey);
-
+            WalrusDataStream putStream = messenger.getStream(key, randomKey);
+            String tempObjectName = UUID.randomUUID().toString();
+            FileIO fileIO;
             try {
-                WalrusDataMessage dataMessage;
-                String tempObjectName = objectName;
-                MessageDigest digest = null;
-                long size = 0;
-                FileIO fileIO = null;
-                while ((dataMessage = putQueue.poll(60L, TimeUnit.SECONDS)) != null) {
-                    if (putQueue.getInterrupted()) {
-                        if (WalrusDataMessage.isEOF(dataMessage)) {
-                            WalrusMonitor monitor = messenger.getMonitor(key);
-                            if (monitor.getLastModified() == null) {
-                                LOG.trace("Monitor wait: " + key + " random: " + randomKey);
-                                synchronized (monitor) {
-                                    monitor.wait();
-                                }
-                            }
-                            LOG.trace("Monitor resume: " + key + " random: " + randomKey);
-                            lastModified = monitor.getLastModified();
-                            md5 = monitor.getMd5();
-                            // ok we are done here
-                            if (fileIO != null) {
-                                fileIO.finish();
-                            }
-                            ObjectDeleter objectDeleter = new ObjectDeleter(bucketName,
-                                    tempObjectName,
-                                    null,
-                                    null,
-                                    null,
-                                    -1L,
-                                    ctx.getUser().getName(),
-                                    ctx.getUser().getUserId(),
-                                    ctx.getAccount().getName(),
-                                    ctx.getAccount().getAccountNumber());
-                            Threads.lookup(WalrusBackend.class, WalrusFSManager.ObjectDeleter.class).limitTo(10).submit(objectDeleter);
-                            LOG.warn("Transfer interrupted: "+ key);
-                            messenger.removeQueue(key, randomKey);
-                            break;
-                        }
-                        continue;
+                fileIO = storageManager.prepareForWrite(bucketName, tempObjectName);
+            } catch (Exception ex) {
+                messenger.removeStream(key, randomKey);
+                throw new AccessDeniedException(ex);
+            }
+            try {
+                // content is written to the temp object as it is received
+                putStream.attach(fileIO.getChannel(), Digest.MD5.get());
+                boolean received = putStream.await(60L, TimeUnit.SECONDS);
+                messenger.removeStream(key, randomKey);
+                fileIO.finish();
+                if (!received) {
+                    cleanupTempObject(ctx, bucketName, tempObjectName);
+                    throw new InternalErrorException("Put timed out: " + key + "." + randomKey);
+                } else if (putStream.isAborted() || putStream.getError() != null) {
+                    if (putStream.getError() != null) {
+                        LOG.error(putStream.getError(), putStream.getError());
                     }
-                    if (WalrusDataMessage.isStart(dataMessage)) {
-                        tempObjectName = UUID.randomUUID().toString();
-                        digest = Digest.MD5.get();
-                        try {
-                            fileIO = storageManager.prepareForWrite(bucketName, tempObjectName);
-                        } catch (Exception ex) {
-                            messenger.removeQueue(key, randomKey);
-                            throw new AccessDeniedException(ex);
-                        }
-                    } else if (WalrusDataMessage.isEOF(dataMessage)) {
-                        if (digest != null) {
-                            md5 = Hashes.bytesToHex(digest.digest());
-                        } else {
-                            WalrusMonitor monitor = messenger.getMonitor(key);
-                            md5 = monitor.getMd5();
-                            lastModified = monitor.getLastModified();
-                            if (md5 == null) {
-                                LOG.error("ETag did not match for: " + randomKey + " Computed MD5 is null");
-                                throw new ContentMismatchException(bucketName + "/" + objectKey);
-                            }
-                            break;
-                        }
-                        String contentMD5 = request.getContentMD5();
-                        if (contentMD5 != null) {
-                            String contentMD5AsHex = Hashes.bytesToHex(Base64.decode(contentMD5));
-                            if (!contentMD5AsHex.equals(md5)) {
-                                if (fileIO != null) {
-                                    fileIO.finish();
-                                }
-                                cleanupTempObject(ctx, bucketName, tempObjectName);
-                                messenger.removeQueue(key, randomKey);
-                                LOG.error("ETag did not match for: " + randomKey + " Expected: " + contentMD5AsHex + " Computed: " + md5);
-                                throw new ContentMismatchException(bucketName + "/" + objectKey);
-                            }
+                    cleanupTempObject(ctx, bucketName, tempObjectName);
+                    throw new InternalErrorException("Transfer interrupted: " + key + "." + randomKey);
+                } else if (putStream.isInterrupted()) {
+                    WalrusMonitor monitor = messenger.getMonitor(key);
+                    if (monitor.getLastModified() == null) {
+                        LOG.trace("Monitor wait: " + key + " random: " + randomKey);
+                        synchronized (monitor) {
+                            monitor.wait();
                         }
-
-                        // Fix for EUCA-2275:
-                        // Moved up policy and bucket size checks on the
-                        // temporary object. The temp object is committed
-                        // (renamed) only after it clears the checks.
-                        // If any of the checks fail, temp object is cleaned
-                        // up and the process errors out. If the PUT request
-                        // is overwriting an existing object, the object is
-                        // left untouched.
-                        // So the fix ensures proper clean up of temp files
-                        // (no orphaned files) and does not overwrite
-                        // existing data when policy or bucket size checks
-                        // fail
-
-                        if (!ctx.hasAdministrativePrivileges()
-                                && !Permissions.canAllocate(PolicySpec.VENDOR_S3, PolicySpec.S3_RESOURCE_OBJECT, bucketName, PolicySpec.S3_PUTOBJECT,
-                                ctx.getUser(), oldBucketSize + size)) {
-                            // dbObject.rollback();
+                    }
+                    LOG.trace("Monitor resume: " + key + " random: " + randomKey);
+                    lastModified = monitor.getLastModified();
+                    md5 = monitor.getMd5();
+                    // ok we are done here
+                    cleanupTempObject(ctx, bucketName, tempObjectName);
+                    LOG.warn("Transfer interrupted: " + key);
+                } else {
+                    md5 = Hashes.bytesToHex(putStream.digest());
+                    long size = putStream.getSize();
+                    String contentMD5 = request.getContentMD5();
+                    if (contentMD5 != null) {
+                        String contentMD5AsHex = Hashes.bytesToHex(Base64.decode(contentMD5));
+                        if (!contentMD5AsHex.equals(md5)) {
                             cleanupTempObject(ctx, bucketName, tempObjectName);
-                            messenger.removeQueue(key, randomKey);
-                            LOG.error("Quota exceeded for WalrusBackend putObject");
-                            throw new EntityTooLargeException("Key", objectKey);
+                            LOG.error("ETag did not match for: " + randomKey + " Expected: " + contentMD5AsHex + " Computed: " + md5);
+                            throw new ContentMismatchException(bucketName + "/" + objectKey);
                         }
-                        boolean success = true;
+                    }
 
-                        // commit object
-                        try {
-                            if (fileIO != null) {
-                                fileIO.finish();
-                            }
-                            storageManager.renameObject(bucketName, tempObjectName, objectName);
-                        } catch (IOException ex) {
-                            LOG.error(ex);
-                            messenger.removeQueue(key, randomKey);
-                            throw new AccessDeniedException(objectKey);
-                        }
-                        lastModified = new Date();
-                        ObjectInfo searchObject = new ObjectInfo(bucketName, objectKey);
-                        searchObject.setVersionId(versionId);
-                        EntityWrapper<ObjectInfo> dbObject = EntityWrapper.get(ObjectInfo.class);
-                        ObjectInfo foundObject;
-                        try {
-                            foundObject = dbObject.getUniqueEscape(searchObject);
-                            // If its a delete marker, fall through the administrative privileges and ACP check
-                            if (foundObject.getDeleted() || ctx.hasAdministrativePrivileges() || foundObject.canWriteACP(account.getAccountNumber())) {
-                                List<GrantInfo> grantInfos = new ArrayList<GrantInfo>();
-                                foundObject.addGrants(account.getAccountNumber(), bucketOwnerId, grantInfos, accessControlList);
-                                foundObject.setGrants(grantInfos);
-                            }
-                        } catch (EucalyptusCloudException ex) {
-                            if (objectInfo != null) {
-                                foundObject = objectInfo;
-                            } else {
-                                dbObject.rollback();
-                                throw new InternalErrorException("Unable to update object: " + bucketName + "/" + objectKey);
-                            }
-                        }
-                        foundObject.setVersionId(versionId);
-                        foundObject.replaceMetaData(request.getMetaData());
-                        foundObject.setEtag(md5);
-                        foundObject.setSize(size);
-                        foundObject.setLastModified(lastModified);
-                        foundObject.setStorageClass("STANDARD");
-                        foundObject.setContentType(request.getContentType());
-                        foundObject.setContentDisposition(request.getContentDisposition());
-                        foundObject.setLast(true);
-                        foundObject.setDeleted(false);
-                        reply.setSize(size);
-                        if (logData != null) {
-                            logData.setObjectSize(size);
-                            updateLogData(bucket, logData);
+                    // Fix for EUCA-2275:
+                    // Moved up policy and bucket size checks on the
+                    // temporary object. The temp object is committed
+                    // (renamed) only after it clears the checks.
+                    // If any of the checks fail, temp object is cleaned
+                    // up and the process errors out. If the PUT request
+                    // is overwriting an existing object, the object is
+                    // left untouched.
+                    // So the fix ensures proper clean up of temp files
+                    // (no orphaned files) and does not overwrite
+                    // existing data when policy or bucket size checks
+                    // fail
+
+                    if (!ctx.hasAdministrativePrivileges()
+                            && !Permissions.canAllocate(PolicySpec.VENDOR_S3, PolicySpec.S3_RESOURCE_OBJECT, bucketName, PolicySpec.S3_PUTOBJECT,
+                            ctx.getUser(), oldBucketSize + size)) {
+                        // dbObject.rollback();
+                        cleanupTempObject(ctx, bucketName, tempObjectName);
+                        LOG.error("Quota exceeded for WalrusBackend putObject");
+                        throw new EntityTooLargeException("Key", objectKey);
+                    }
+                    boolean success = true;
+
+                    // commit object
+                    try {
+                        storageManager.renameObject(bucketName, tempObjectName, objectName);
+                    } catch (IOException ex) {
+                        LOG.error(ex);
+                        throw new AccessDeniedException(objectKey);
+                    }
+                    lastModified = new Date();
+                    ObjectInfo searchObject = new ObjectInfo(bucketName, objectKey);
+                    searchObject.setVersionId(versionId);
+                    EntityWrapper<ObjectInfo> dbObject = EntityWrapper.get(ObjectInfo.class);
+                    ObjectInfo foundObject;
+                    try {
+                        foundObject = dbObject.getUniqueEscape(searchObject);
+                        // If its a delete marker, fall through the administrative privileges and ACP check
+                        if (foundObject.getDeleted() || ctx.hasAdministrativePrivileges() || foundObject.canWriteACP(account.getAccountNumber())) {
+                            List<GrantInfo> grantInfos = new ArrayList<GrantInfo>();
+                            foundObject.addGrants(account.getAccountNumber(), bucketOwnerId, grantInfos, accessControlList);
+                            foundObject.setGrants(grantInfos);
                         }
+                    } catch (EucalyptusCloudException ex) {
                         if (objectInfo != null) {
-                            dbObject.add(foundObject);
-                        }
-                        success = false;
-                        try {
-                            dbObject.commit();
-                            success = true;
-                        } catch (RollbackException ex) {
+                            foundObject = objectInfo;
+                        } else {
                             dbObject.rollback();
-                            LOG.error(ex, ex);
-                        }
-
-                        dbObject = EntityWrapper.get(ObjectInfo.class);
-                        List<ObjectInfo> objectInfos = dbObject.queryEscape(new ObjectInfo(bucketName, objectKey));
-                        for (ObjectInfo objInfo : objectInfos) {
-                            if (!success) {
-                                if (objInfo.getLast()) {
-                                    lastModified = objInfo.getLastModified();
-                                    md5 = objInfo.getEtag();
-                                }
-                                success = true;
-                            }
-                            if (!versionId.equals(objInfo.getVersionId())) {
-                                objInfo.setLast(false);
-                            }
+                            throw new InternalErrorException("Unable to update object: " + bucketName + "/" + objectKey);
                         }
+                    }
+                    foundObject.setVersionId(versionId);
+                    foundObject.replaceMetaData(request.getMetaData());
+                    foundObject.setEtag(md5);
+                    foundObject.setSize(size);
+                    foundObject.setLastModified(lastModified);
+                    foundObject.setStorageClass("STANDARD");
+                    foundObject.setContentType(request.getContentType());
+                    foundObject.setContentDisposition(request.getContentDisposition());
+                    foundObject.setLast(true);
+                    foundObject.setDeleted(false);
+                    reply.setSize(size);
+                    if (logData != null) {
+                        logData.setObjectSize(size);
+                        updateLogData(bucket, logData);
+                    }
+                    if (objectInfo != null) {
+                        dbObject.add(foundObject);
+                    }
+                    success = false;
+                    try {
                         dbObject.commit();
+                        success = true;
+                    } catch (RollbackException ex) {
+                        dbObject.rollback();
+                        LOG.error(ex, ex);
+                    }
 
-                        if (logData != null) {
-                            logData.setTurnAroundTime(Long.parseLong(new String(dataMessage.getPayload())));
+                    dbObject = EntityWrapper.get(ObjectInfo.class);
+                    List<ObjectInfo> objectInfos = dbObject.queryEscape(new ObjectInfo(bucketName, objectKey));
+                    for (ObjectInfo objInfo : objectInfos) {
+                        if (!success) {
+                            if (objInfo.getLast()) {
+                                lastModified = objInfo.getLastModified();
+                                md5 = objInfo.getEtag();
+                            }
+                            success = true;
                         }
-                        // restart all interrupted puts
-                        WalrusMonitor monitor = messenger.getMonitor(key);
-                        synchronized (monitor) {
-                            monitor.setLastModified(lastModified);
-                            monitor.setMd5(md5);
-                            monitor.notifyAll();
+                        if (!versionId.equals(objInfo.getVersionId())) {
+                            objInfo.setLast(false);
                         }
-                        // messenger.removeMonitor(key);
-                        messenger.clearQueues(key);
-                        messenger.removeQueue(key, randomKey);
-                        LOG.trace("Transfer complete: " + key);
+                    }
+                    dbObject.commit();
 
-                        break;
-                    } else {
-                        assert (WalrusDataMessage.isData(dataMessage));
-                        byte[] data = dataMessage.getPayload();
-                        // start writing object (but do not commit yet)
-                        try {
-                            if (fileIO != null)
-                                fileIO.write(data);
-                        } catch (IOException ex) {
-                            LOG.error(ex);
-                        }
-                        // calculate md5 on the fly
-                        size += data.length;
-                        if (digest != null) {
-                            digest.update(data);
-                        }
+                    if (logData != null) {
+                        logData.setTurnAroundTime(putStream.getEndTime());
                     }
-                }
-                if (dataMessage == null) {
-                    db.rollback();
-                    messenger.removeQueue(key, randomKey);
-                    throw new InternalErrorException("Put timed out: " + key + "." + randomKey);
+                    // restart all interrupted puts
+                    WalrusMonitor monitor = messenger.getMonitor(key);
+                    synchronized (monitor) {
+                        monitor.setLastModified(lastModified);
+                        monitor.setMd5(md5);
+                        monitor.notifyAll();
+                    }
+                    LOG.trace("Transfer complete: " + key);
                 }
             } catch (InterruptedException ex) {
                 LOG.error(ex, ex);
-                messenger.removeQueue(key, randomKey);
+                messenger.removeStream(key, randomKey);
+                fileIO.finish();
+                cleanupTempObject(ctx, bucketName, tempObjectName);
                 throw new InternalErrorException("Transfer interrupted: " + key + "." + randomKey);
             }
         } else {
             db.rollback();
-            messenger.removeQueue(key, randomKey);
+            messenger.removeStream(key, randomKey);
             throw new NoSuchBucketException(bucketName);
         }
 
@@ -3423,158 +3366,112 @@ public class WalrusFSManager extends WalrusManager {
             }
 
             // writes are unconditional
-            WalrusDataQueue<WalrusDataMessage> putQueue = messenger.getQueue(key, randomKey);
-
+            WalrusDataStream putStream = messenger.getStream(key, randomKey);
+            String tempObjectName = UUID.randomUUID().toString();
+            FileIO fileIO;
             try {
-                WalrusDataMessage dataMessage;
-                String tempObjectName = objectName;
-                MessageDigest digest = null;
-                long size = 0;
-                FileIO fileIO = null;
-                while ((dataMessage = putQueue.take()) != null) {
-                    if (putQueue.getInterrupted()) {
-                        if (WalrusDataMessage.isEOF(dataMessage)) {
-                            WalrusMonitor monitor = messenger.getMonitor(key);
-                            if (monitor.getLastModified() == null) {
-                                LOG.trace("Monitor wait: " + key
-                                        + " random: " + randomKey);
-                                synchronized (monitor) {
-                                    monitor.wait();
-                                }
-                            }
-                            LOG.trace("Monitor resume: " + key + " random: " + randomKey);
-                            lastModified = monitor.getLastModified();
-                            md5 = monitor.getMd5();
-                            // ok we are done here
-                            if (fileIO != null) {
-                                fileIO.finish();
-                            }
-                            ObjectDeleter objectDeleter = new ObjectDeleter(bucketName, tempObjectName, null, null, null,-1L,
-                                    ctx.getUser().getName(),
-                                    ctx.getUser().getUserId(),
-                                    ctx.getAccount().getName(),
-                                    ctx.getAccount().getAccountNumber());
-                            Threads.lookup(WalrusBackend.class, WalrusFSManager.ObjectDeleter.class).limitTo(10).submit(objectDeleter);
-                            LOG.warn("Transfer interrupted: " + key);
-                            messenger.removeQueue(key, randomKey);
-                            break;
-                        }
-                        continue;
+                fileIO = storageManager.prepareForWrite(bucketName, tempObjectName);
+            } catch (Exception ex) {
+                messenger.removeStream(key, randomKey);
+                throw new InternalErrorException(ex);
+            }
+            try {
+                // content is written to the temp object as it is received
+                putStream.attach(fileIO.getChannel(), Digest.MD5.get());
+                boolean received = putStream.await(60L, TimeUnit.SECONDS);
+                messenger.removeStream(key, randomKey);
+                fileIO.finish();
+                if (!received) {
+                    cleanupTempObject(ctx, bucketName, tempObjectName);
+                    throw new InternalErrorException("Put timed out: " + key + "." + randomKey);
+                } else if (putStream.isAborted() || putStream.getError() != null) {
+                    if (putStream.getError() != null) {
+                        LOG.error(putStream.getError(), putStream.getError());
                     }
-                    if (WalrusDataMessage.isStart(dataMessage)) {
-                        tempObjectName = UUID.randomUUID().toString();
-                        digest = Digest.MD5.get();
-                        try {
-                            fileIO = storageManager.prepareForWrite(bucketName, tempObjectName);
-                        } catch (Exception ex) {
-                            messenger.removeQueue(key, randomKey);
-                            throw new InternalErrorException(ex);
-                        }
-                    } else if (WalrusDataMessage.isEOF(dataMessage)) {
-                        if (digest != null) {
-                            md5 = Hashes.bytesToHex(digest.digest());
-                        } else {
-                            WalrusMonitor monitor = messenger.getMonitor(key);
-                            md5 = monitor.getMd5();
-                            lastModified = monitor.getLastModified();
-                            if (md5 == null) {
-                                LOG.error("ETag did not match for: " + randomKey + " Computed MD5 is null");
-                                throw new ContentMismatchException(bucketName + "/" + objectKey);
-                            }
-                            break;
-                        }
-                        String contentMD5 = request.getContentMD5();
-                        if (contentMD5 != null) {
-                            String contentMD5AsHex = Hashes.bytesToHex(Base64.decode(contentMD5));
-                            if (!contentMD5AsHex.equals(md5)) {
-                                if (fileIO != null) {
-                                    fileIO.finish();
-                                }
-                                cleanupTempObject(ctx, bucketName, tempObjectName);
-                                messenger.removeQueue(key, randomKey);
-                                LOG.error("ETag did not match for: " + randomKey + " Expected: " + contentMD5AsHex + " Computed: " + md5);
-                                throw new ContentMismatchException(bucketName + "/" + objectKey);
-                            }
-                        }
-
-                        // commit object
-                        try {
-                            if (fileIO != null) {
-                                fileIO.finish();
-                            }
-                            storageManager.renameObject(bucketName, tempObjectName, objectName);
-                        } catch (IOException ex) {
-                            LOG.error(ex);
-                            messenger.removeQueue(key, randomKey);
-                            throw new InternalErrorException(objectKey);
-                        }
-                        lastModified = new Date();
-                        PartInfo searchPart = new PartInfo(bucketName, objectKey);
-                        //objectName is guaranteed to be unique
-                        searchPart.setObjectName(objectName);
-                        searchPart.setPartNumber(partNumber);
-                        searchPart.setUploadId(uploadId);
-                        EntityWrapper<PartInfo> dbPart = EntityWrapper.get(PartInfo.class);
-                        PartInfo foundPart = null;
-                        try {
-                            foundPart = dbPart.getUniqueEscape(searchPart);
-                        } catch (EucalyptusCloudException ex) {
-                            dbPart.rollback();
-                            throw new InternalErrorException("Unable to update part: " + bucketName + "/" + objectKey + " uploadId: " + uploadId + " partNumber: " + partNumber);
+                    cleanupTempObject(ctx, bucketName, tempObjectName);
+                    throw new InternalErrorException("Transfer interrupted: " + key + "." + randomKey);
+                } else if (putStream.isInterrupted()) {
+                    WalrusMonitor monitor = messenger.getMonitor(key);
+                    if (monitor.getLastModified() == null) {
+                        LOG.trace("Monitor wait: " + key
+                                + " random: " + randomKey);
+                        synchronized (monitor) {
+                            monitor.wait();
                         }
-                        foundPart.setEtag(md5);
-                        foundPart.setSize(size);
-                        foundPart.setLastModified(lastModified);
-                        foundPart.setCleanup(false);
-                        foundPart.setStorageClass("STANDARD");
-                        reply.setSize(size);
-                        try {
-                            dbPart.commit();
-                        } catch (RollbackException ex) {
-                            dbPart.rollback();
-                            LOG.error(ex, ex);
+                    }
+                    LOG.trace("Monitor resume: " + key + " random: " + randomKey);
+                    lastModified = monitor.getLastModified();
+                    md5 = monitor.getMd5();
+                    // ok we are done here
+                    cleanupTempObject(ctx, bucketName, tempObjectName);
+                    LOG.warn("Transfer interrupted: " + key);
+                } else {
+                    md5 = Hashes.bytesToHex(putStream.digest());
+                    long size = putStream.getSize();
+                    String contentMD5 = request.getContentMD5();
+                    if (contentMD5 != null) {
+                        String contentMD5AsHex = Hashes.bytesToHex(Base64.decode(contentMD5));
+                        if (!contentMD5AsHex.equals(md5)) {
+                            cleanupTempObject(ctx, bucketName, tempObjectName);
+                            LOG.error("ETag did not match for: " + randomKey + " Expected: " + contentMD5AsHex + " Computed: " + md5);
+                            throw new ContentMismatchException(bucketName + "/" + objectKey);
                         }
+                    }
 
-                        // restart all interrupted puts
-                        WalrusMonitor monitor = messenger.getMonitor(key);
-                        synchronized (monitor) {
-                            monitor.setLastModified(lastModified);
-                            monitor.setMd5(md5);
-                            monitor.notifyAll();
-                        }
-                        // messenger.removeMonitor(key);
-                        messenger.clearQueues(key);
-                        messenger.removeQueue(key, randomKey);
-                        LOG.trace("Transfer complete: " + key + " uploadId: " + uploadId + " partNumber: " + partNumber);
+                    // commit object
+                    try {
+                        storageManager.renameObject(bucketName, tempObjectName, objectName);
+                    } catch (IOException ex) {
+                        LOG.error(ex);
+                        throw new InternalErrorException(objectKey);
+                    }
+                    lastModified = new Date();
+                    PartInfo searchPart = new PartInfo(bucketName, objectKey);
+                    //objectName is guaranteed to be unique
+                    searchPart.setObjectName(objectName);
+                    searchPart.setPartNumber(partNumber);
+                    searchPart.setUploadId(uploadId);
+                    EntityWrapper<PartInfo> dbPart = EntityWrapper.get(PartInfo.class);
+                    PartInfo foundPart = null;
+                    try {
+                        foundPart = dbPart.getUniqueEscape(searchPart);
+                    } catch (EucalyptusCloudException ex) {
+                        dbPart.rollback();
+                        throw new InternalErrorException("Unable to update part: " + bucketName + "/" + objectKey + " uploadId: " + uploadId + " partNumber: " + partNumber);
+                    }
+                    foundPart.setEtag(md5);
+                    foundPart.setSize(size);
+                    foundPart.setLastModified(lastModified);
+                    foundPart.setCleanup(false);
+                    foundPart.setStorageClass("STANDARD");
+                    reply.setSize(size);
+                    try {
+                        dbPart.commit();
+                    } catch (RollbackException ex) {
+                        dbPart.rollback();
+                        LOG.error(ex, ex);
+                    }
 
-                        break;
-                    } else {
-                        assert (WalrusDataMessage.isData(dataMessage));
-                        byte[] data = dataMessage.getPayload();
-                        // start writing object (but do not commit yet)
-                        try {
-                            if (fileIO != null)
-                                fileIO.write(data);
-                        } catch (IOException ex) {
-                            LOG.error(ex);
-                        }
-                        // calculate md5 on the fly
-                        size += data.length;
-                        if (digest != null) {
-                            digest.update(data);
-                        }
+                    // restart all interrupted puts
+                    WalrusMonitor monitor = messenger.getMonitor(key);
+                    synchronized (monitor) {
+                        monitor.setLastModified(lastModified);
+                        monitor.setMd5(md5);
+                        monitor.notifyAll();
                     }
+                    LOG.trace("Transfer complete: " + key + " uploadId: " + uploadId + " partNumber: " + partNumber);
                 }
-            } catch (Exception ex) {
+            } catch (InterruptedException ex) {
                 LOG.error(ex, ex);
-                db.rollback();
-                messenger.removeQueue(key, randomKey);
+                messenger.removeStream(key, randomKey);
+                fileIO.finish();
+                cleanupTempObject(ctx, bucketName, tempObjectName);
                 throw new InternalErrorException("Transfer interrupted: " + key + "." + randomKey);
             }
 
         } else {
             db.rollback();
-            messenger.removeQueue(key, randomKey);
+            messenger.removeStream(key, randomKey);
             throw new NoSuchBucketException(bucketName);
         }
 
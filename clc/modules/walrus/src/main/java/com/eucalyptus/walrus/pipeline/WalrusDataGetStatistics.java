@@ -0,0 +1,100 @@
+/*************************************************************************
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+package com.eucalyptus.walrus.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.util.Mbeans;
+
+/**
+ * Counters for object data served, by transfer mode.
+ */
+public class WalrusDataGetStatistics {
+    public enum Mode {
+        /**
+         * Data transferred from the file to the socket without copying via the heap.
+         */
+        ZeroCopy,
+
+        /**
+         * Data read into heap buffers and written in chunks (compressed or SSL)
+         */
+        Chunked,
+    }
+
+    private static final AtomicLong[] bytes = { new AtomicLong( ), new AtomicLong( ) };
+    private static final AtomicLong[] streams = { new AtomicLong( ), new AtomicLong( ) };
+
+    static {
+        Mbeans.register( new DataGetStatistics( ) );
+    }
+
+    /**
+     * JMX view of object data served.
+     */
+    public interface DataGetStatisticsMXBean {
+        long getZeroCopyBytes( );
+        long getZeroCopyStreams( );
+        long getChunkedBytes( );
+        long getChunkedStreams( );
+    }
+
+    /**
+     * Record a completed transfer.
+     *
+     * @param mode The transfer mode
+     * @param byteCount The bytes transferred, if known
+     */
+    static void served( final Mode mode, final long byteCount ) {
+        streams[ mode.ordinal( ) ].incrementAndGet( );
+        if ( byteCount > 0 ) {
+            bytes[ mode.ordinal( ) ].addAndGet( byteCount );
+        }
+    }
+
+    public static long getBytes( final Mode mode ) {
+        return bytes[ mode.ordinal( ) ].get( );
+    }
+
+    public static long getStreams( final Mode mode ) {
+        return streams[ mode.ordinal( ) ].get( );
+    }
+
+    private static class DataGetStatistics implements DataGetStatisticsMXBean {
+        @Override
+        public long getZeroCopyBytes( ) {
+            return getBytes( Mode.ZeroCopy );
+        }
+
+        @Override
+        public long getZeroCopyStreams( ) {
+            return getStreams( Mode.ZeroCopy );
+        }
+
+        @Override
+        public long getChunkedBytes( ) {
+            return getBytes( Mode.Chunked );
+        }
+
+        @Override
+        public long getChunkedStreams( ) {
+            return getStreams( Mode.Chunked );
+        }
+    }
+}
@@ -62,7 +62,10 @@
 
 package com.eucalyptus.walrus.pipeline;
 
+import com.eucalyptus.configurable.ConfigurableClass;
+import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.context.Contexts;
+import com.eucalyptus.storage.common.ChunkedDataFile;
 import com.eucalyptus.storage.common.DateFormatter;
 import com.eucalyptus.storage.msgs.s3.MetaDataEntry;
 import com.eucalyptus.walrus.msgs.WalrusDataGetResponseType;
@@ -77,6 +80,7 @@ import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
@@ -99,15 +103,20 @@ import edu.ucsb.eucalyptus.msgs.BaseMessage;
 import edu.ucsb.eucalyptus.msgs.EucalyptusErrorMessageType;
 import edu.ucsb.eucalyptus.msgs.ExceptionResponseType;
 import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedInput;
 
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.Callable;
 
+@ConfigurableClass( root = "walrusbackend", description = "WalrusBackend object data transfer configuration." )
 public class WalrusOutboundHandler extends MessageStackHandler {
     private static Logger LOG = Logger.getLogger( WalrusOutboundHandler.class );
 
+    @ConfigurableField( description = "Transfer uncompressed object data directly from file when the connection is not SSL", displayName = "Zero copy GET" )
+    public static volatile Boolean ZERO_COPY_GET = Boolean.TRUE;
+
     @Override
     public void handleDownstream(final ChannelHandlerContext ctx, final ChannelEvent channelEvent) throws Exception {
         try {
@@ -253,9 +262,29 @@ public class WalrusOutboundHandler extends MessageStackHandler {
             Channels.write(ctx, writeFuture, httpResponse);
             List<ChunkedInput> dataStreams = response.getDataInputStream();
             if (dataStreams != null) {
+                final boolean zeroCopy = isZeroCopyEnabled(ctx);
                 for (final ChunkedInput dataStream : dataStreams) {
-                    channel.write(dataStream).addListener(new ChannelFutureListener( ) {
+                    final Object data;
+                    final WalrusDataGetStatistics.Mode mode;
+                    final long length;
+                    if (zeroCopy && dataStream instanceof ChunkedDataFile) {
+                        // transfer directly from the file, multipart parts are written in order
+                        data = ((ChunkedDataFile) dataStream).toFileRegion();
+                        mode = WalrusDataGetStatistics.Mode.ZeroCopy;
+                        length = ((FileRegion) data).getCount();
+                    } else {
+                        data = dataStream;
+                        mode = WalrusDataGetStatistics.Mode.Chunked;
+                        length = dataStream instanceof ChunkedDataFile ? ((ChunkedDataFile) dataStream).getLength() : -1;
+                    }
+                    channel.write(data).addListener(new ChannelFutureListener( ) {
                         @Override public void operationComplete( ChannelFuture future ) throws Exception {
+                            if (future.isSuccess()) {
+                                WalrusDataGetStatistics.served(mode, length);
+                            }
+                            if (data instanceof FileRegion) {
+                                ((FileRegion) data).releaseExternalResources();
+                            }
                             dataStream.close();
                         }
                     });
@@ -266,6 +295,13 @@ public class WalrusOutboundHandler extends MessageStackHandler {
         }
     }
 
+    /**
+     * Zero copy transfer is not possible when data is encrypted.
+     */
+    private boolean isZeroCopyEnabled(final ChannelHandlerContext ctx) {
+        return Boolean.TRUE.equals(ZERO_COPY_GET) && ctx.getPipeline().get(SslHandler.class) == null;
+    }
+
     //TODO: zhill - this should all be done in bindings, just need 2-way bindings
     protected DefaultHttpResponse createHttpResponse(WalrusDataGetResponseType reply) {
         DefaultHttpResponse httpResponse = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
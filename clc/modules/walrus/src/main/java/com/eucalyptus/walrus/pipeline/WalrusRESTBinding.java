@@ -76,7 +76,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 import com.eucalyptus.auth.policy.key.Iso8601DateParser;
 import com.eucalyptus.component.ComponentIds;
@@ -132,9 +131,8 @@ import com.eucalyptus.storage.msgs.s3.MetaDataEntry;
 import com.eucalyptus.storage.msgs.s3.TargetGrants;
 import com.eucalyptus.walrus.exceptions.NotImplementedException;
 import com.eucalyptus.walrus.msgs.WalrusDataGetRequestType;
-import com.eucalyptus.walrus.msgs.WalrusDataMessage;
 import com.eucalyptus.walrus.msgs.WalrusDataMessenger;
-import com.eucalyptus.walrus.msgs.WalrusDataQueue;
+import com.eucalyptus.walrus.msgs.WalrusDataStream;
 import com.eucalyptus.walrus.msgs.WalrusDataRequestType;
 import com.eucalyptus.walrus.msgs.WalrusRequestType;
 import com.eucalyptus.walrus.util.WalrusProperties;
@@ -159,10 +157,9 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 	private static final Map<String, String> operationMap = populateOperationMap();
 	private static final Map<String, String> unsupportedOperationMap = populateUnsupportedOperationMap();
 	private static WalrusDataMessenger putMessenger;
-	public static final int DATA_MESSAGE_SIZE = 102400;
 	private String key;
 	private String randomKey;
-	private WalrusDataQueue<WalrusDataMessage> putQueue;
+	private WalrusDataStream putStream;
     private final String walrusServicePath;
 
 	public WalrusRESTBinding( ) {
@@ -188,8 +185,8 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 		} else if (channelEvent.toString().contains("DISCONNECTED") || 
 				channelEvent.toString().contains("CLOSED")) {
 			if(key != null && randomKey != null) {
-				putMessenger.removeQueue(key, randomKey);
-				putQueue = null;
+				putMessenger.removeStream(key, randomKey);
+				putStream = null;
 			}
 		}
 		channelHandlerContext.sendUpstream( channelEvent );
@@ -203,6 +200,9 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 			//Auth is already done before binding, so binding here is just a validation. Then send 100-continue
 			BaseMessage msg = (BaseMessage) this.bind( httpRequest );
 			httpRequest.setMessage( msg );
+			if(putStream != null) {
+				putStream.setChannel(ctx.getChannel());
+			}
 			if(msg instanceof WalrusDataGetRequestType) {
 				WalrusDataGetRequestType getObject = (WalrusDataGetRequestType) msg;
 				getObject.setChannel(ctx.getChannel());
@@ -223,7 +223,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 				}
 			}
 		} else if(event.getMessage() instanceof HttpChunk) {
-			if(putQueue != null) {
+			if(putStream != null) {
 				HttpChunk httpChunk = (HttpChunk) event.getMessage();
 				handleHttpChunk(httpChunk);
 			}
@@ -239,13 +239,13 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 
 			if(!(msg instanceof EucalyptusErrorMessageType)&&!(msg instanceof ExceptionResponseType)) {
 				binding = BindingManager.getBinding( super.getNamespace( ) );
-				if(putQueue != null) {
-					putQueue = null;
+				if(putStream != null) {
+					putStream = null;
 				}
 			} else {
 				binding = BindingManager.getDefaultBinding( );
-				if(putQueue != null) {
-					putQueue = null;
+				if(putStream != null) {
+					putStream = null;
 				}
 			}
 			if(msg != null) {
@@ -523,8 +523,8 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 					if(contentLengthString != null)
 						operationParams.put("ContentLength", (new Long(contentLength).toString()));
 					operationParams.put(WalrusProperties.Headers.RandomKey.toString(), randomKey);
-					putQueue = getWriteMessenger().interruptAllAndGetQueue(key, randomKey);
-					handleFirstChunk(httpRequest, (ChannelBuffer)formFields.get(WalrusProperties.IGNORE_PREFIX + "FirstDataChunk"), contentLength);
+					putStream = getWriteMessenger().interruptAllAndGetStream(key, randomKey);
+					handleFirstChunk(httpRequest, (ChannelBuffer)formFields.get(WalrusProperties.IGNORE_PREFIX + "FirstDataChunk"));
 				} else if(WalrusProperties.HTTPVerb.PUT.toString().equals(verb)) {  
 					if(params.containsKey(WalrusProperties.BucketParameter.logging.toString())) {
 						//read logging params
@@ -626,8 +626,8 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 						if(contentLengthString != null)
 							operationParams.put("ContentLength", (new Long(contentLength).toString()));
 						operationParams.put(WalrusProperties.Headers.RandomKey.toString(), randomKey);
-						putQueue = getWriteMessenger().interruptAllAndGetQueue(key, randomKey);
-						handleFirstChunk(httpRequest, contentLength);
+						putStream = getWriteMessenger().interruptAllAndGetStream(key, randomKey);
+						handleFirstChunk(httpRequest, httpRequest.getContent());
 					}
 				} else if(verb.equals(WalrusProperties.HTTPVerb.GET.toString())) {
                     if(params.containsKey("torrent")) {
@@ -1281,85 +1281,27 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 	}
 
 	private void handleHttpChunk(HttpChunk httpChunk) throws Exception {
-		ChannelBuffer buffer = httpChunk.getContent();
 		try {
-			buffer.markReaderIndex( );
-			byte[] read = new byte[buffer.readableBytes( )];
-			buffer.readBytes( read );
-			while((putQueue != null) && (!putQueue.offer(WalrusDataMessage.DataMessage(read), 500, TimeUnit.MILLISECONDS)));
-			if(httpChunk.isLast()) {
-				while((putQueue != null) && (!putQueue.offer(WalrusDataMessage.EOF(), 1000, TimeUnit.MILLISECONDS)));
-			}
+			putStream.append(httpChunk.getContent(), httpChunk.isLast());
 		} catch (Exception ex) {
             throw new Exception("Error handling HTTP chunk", ex);
 		}
 	}
 
-	private void handleFirstChunk(MappingHttpRequest httpRequest, long dataLength) throws Exception {
-		ChannelBuffer buffer = httpRequest.getContent();
+	private void handleFirstChunk(MappingHttpRequest httpRequest, ChannelBuffer firstChunk) throws Exception {
 		try {
-			putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-			buffer.markReaderIndex( );
-			byte[] read = new byte[buffer.readableBytes( )];
-			buffer.readBytes( read );
-			putQueue.put(WalrusDataMessage.DataMessage(read));
-			if(!httpRequest.isChunked())
-				putQueue.put(WalrusDataMessage.EOF());
+			// the request keeps the first chunk, so the stream gets its own copy
+			putStream.append(firstChunk.copy(), !httpRequest.isChunked());
 		} catch (Exception ex) {
             throw new Exception("Error handling first chunk of PUT in walrus", ex);
 		}
-
 	}
 
-	private void handleFirstChunk(MappingHttpRequest httpRequest, ChannelBuffer firstChunk, long dataLength) throws Exception {
-		try {
-			putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-			byte[] read = new byte[firstChunk.readableBytes( )];
-			firstChunk.readBytes( read );
-			putQueue.put(WalrusDataMessage.DataMessage(read));
-			if(!httpRequest.isChunked())
-				putQueue.put(WalrusDataMessage.EOF());
-		} catch (Exception ex) {
-            throw new Exception("Error handling first data chunk", ex);
-		}
-
-	}
-
-
 	public static synchronized WalrusDataMessenger getWriteMessenger() {
 		if (putMessenger == null) {
 			putMessenger = new WalrusDataMessenger();
 		}
 		return putMessenger;
-	}	
-
-	class Writer extends Thread {
-
-		private ChannelBuffer firstBuffer;
-		private long dataLength;
-		public Writer(ChannelBuffer firstBuffer, long dataLength) {
-			this.firstBuffer = firstBuffer;
-			this.dataLength = dataLength;
-		}
-
-		public void run() {
-			byte[] bytes = new byte[DATA_MESSAGE_SIZE];
-
-			try {
-                Logs.extreme().trace("Starting upload");
-                putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-
-				firstBuffer.markReaderIndex( );
-				byte[] read = new byte[firstBuffer.readableBytes( )];
-				firstBuffer.readBytes( read );
-				putQueue.put(WalrusDataMessage.DataMessage(read));
-				//putQueue.put(WalrusDataMessage.EOF());
-
-			} catch (Exception ex) {
-				LOG.error("Error putting data into internal transfer queue in Walrus", ex);
-			}
-		}
-
 	}
 
 }
@@ -102,6 +102,8 @@ public class FileSystemStorageManager implements StorageManager {
     public static final String EUCA_ROOT_WRAPPER = BaseDirectory.LIBEXEC.toString() + "/euca_rootwrap";
     public static final int MAX_LOOP_DEVICES = 256;
     private static Logger LOG = Logger.getLogger(FileSystemStorageManager.class);
+    // chunk size when data is not transferred directly from file (compressed or SSL)
+    private static final int CHUNK_SIZE = 64 * 1024;
 
     public FileSystemStorageManager() {
     }
@@ -512,7 +514,7 @@ public class FileSystemStorageManager implements StorageManager {
             if(isCompressed) {
                 file = new CompressedChunkedFile(raf, size);
             } else {
-                file = new ChunkedDataFile(raf, 0, size, 8192);
+                file = new ChunkedDataFile(raf, 0, size, CHUNK_SIZE);
             }
             List<ChunkedInput> dataStreams = new ArrayList<ChunkedInput>();
             dataStreams.add(file);
@@ -529,9 +531,9 @@ public class FileSystemStorageManager implements StorageManager {
             final ChunkedInput file;
             isCompressed = isCompressed == null ? false : isCompressed;
             if(isCompressed) {
-                file = new CompressedChunkedFile(raf, byteRangeStart, byteRangeEnd, (int)Math.min((byteRangeEnd - byteRangeStart), 8192));
+                file = new CompressedChunkedFile(raf, byteRangeStart, byteRangeEnd, (int)Math.min((byteRangeEnd - byteRangeStart), CHUNK_SIZE));
             } else {
-                file = new ChunkedDataFile(raf, byteRangeStart, (int)(byteRangeEnd - byteRangeStart), (int)Math.min((byteRangeEnd - byteRangeStart), 8192));
+                file = new ChunkedDataFile(raf, byteRangeStart, (int)(byteRangeEnd - byteRangeStart), (int)Math.min((byteRangeEnd - byteRangeStart), CHUNK_SIZE));
             }
             List<ChunkedInput> dataStreams = new ArrayList<>();
             dataStreams.add(file);
@@ -552,7 +554,7 @@ public class FileSystemStorageManager implements StorageManager {
                 if(isCompressed) {
                     file = new CompressedChunkedFile(raf, part.getSize());
                 } else {
-                    file = new ChunkedDataFile(raf, 0, part.getSize(), 8192);
+                    file = new ChunkedDataFile(raf, 0, part.getSize(), CHUNK_SIZE);
                 }
                 dataStreams.add(file);
             }
@@ -603,9 +605,9 @@ public class FileSystemStorageManager implements StorageManager {
 				}
 
 				if (isCompressed) {
-					file = new CompressedChunkedFile(raf, startMarker, tempLength, (int) Math.min(tempLength, 8192));
+					file = new CompressedChunkedFile(raf, startMarker, tempLength, (int) Math.min(tempLength, CHUNK_SIZE));
 				} else {
-					file = new ChunkedDataFile(raf, startMarker, tempLength, (int) Math.min(tempLength, 8192));
+					file = new ChunkedDataFile(raf, startMarker, tempLength, (int) Math.min(tempLength, CHUNK_SIZE));
 				}
 
 				dataStreams.add(file);
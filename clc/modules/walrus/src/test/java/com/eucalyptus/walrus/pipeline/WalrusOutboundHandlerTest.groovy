@@ -0,0 +1,159 @@
+/*
+ * Copyright 2009-2014 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ */
+package com.eucalyptus.walrus.pipeline
+
+import static org.junit.Assert.*
+
+import com.eucalyptus.storage.common.ChunkedDataFile
+import com.eucalyptus.walrus.msgs.WalrusDataGetResponseType
+import org.jboss.netty.channel.Channel
+import org.jboss.netty.channel.ChannelHandlerContext
+import org.jboss.netty.channel.ChannelPipeline
+import org.jboss.netty.channel.Channels
+import org.jboss.netty.channel.DefaultChannelFuture
+import org.jboss.netty.channel.FileRegion
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse
+import org.jboss.netty.handler.codec.http.HttpResponseStatus
+import org.jboss.netty.handler.codec.http.HttpVersion
+import org.jboss.netty.handler.ssl.SslHandler
+import org.jboss.netty.handler.stream.ChunkedInput
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import javax.net.ssl.SSLContext
+
+/**
+ * Tests for the choice of zero copy or chunked transfer of object data.
+ */
+class WalrusOutboundHandlerTest {
+
+    private Boolean zeroCopyGet
+    private File file
+    private final List<Object> writes = []
+    private final List<DefaultChannelFuture> writeFutures = []
+
+    @Before
+    void setUp() {
+        zeroCopyGet = WalrusOutboundHandler.ZERO_COPY_GET
+        file = File.createTempFile("walrus-outbound", ".data")
+        file.bytes = new byte[100]
+    }
+
+    @After
+    void tearDown() {
+        WalrusOutboundHandler.ZERO_COPY_GET = zeroCopyGet
+        file.delete()
+    }
+
+    @Test
+    void testZeroCopy() {
+        WalrusOutboundHandler.ZERO_COPY_GET = true
+        RandomAccessFile raf = new RandomAccessFile(file, "r")
+        long streams = WalrusDataGetStatistics.getStreams(WalrusDataGetStatistics.Mode.ZeroCopy)
+        long bytes = WalrusDataGetStatistics.getBytes(WalrusDataGetStatistics.Mode.ZeroCopy)
+
+        write(Channels.pipeline(), new ChunkedDataFile(raf, 10, 50, 8192))
+
+        assertEquals("Writes", 1, writes.size())
+        assertTrue("File region written", writes[0] instanceof FileRegion)
+        FileRegion region = (FileRegion) writes[0]
+        assertEquals("Region position", 10L, region.getPosition())
+        assertEquals("Region count", 50L, region.getCount())
+
+        writeFutures[0].setSuccess()
+
+        assertFalse("File open after transfer", raf.getChannel().isOpen())
+        assertEquals("Zero copy streams", streams + 1, WalrusDataGetStatistics.getStreams(WalrusDataGetStatistics.Mode.ZeroCopy))
+        assertEquals("Zero copy bytes", bytes + 50, WalrusDataGetStatistics.getBytes(WalrusDataGetStatistics.Mode.ZeroCopy))
+    }
+
+    @Test
+    void testZeroCopyDisabled() {
+        WalrusOutboundHandler.ZERO_COPY_GET = false
+        RandomAccessFile raf = new RandomAccessFile(file, "r")
+        ChunkedDataFile data = new ChunkedDataFile(raf, 0, 100, 8192)
+        long streams = WalrusDataGetStatistics.getStreams(WalrusDataGetStatistics.Mode.Chunked)
+
+        write(Channels.pipeline(), data)
+
+        assertSame("Chunked file written", data, writes[0])
+
+        writeFutures[0].setSuccess()
+
+        assertFalse("File open after transfer", raf.getChannel().isOpen())
+        assertEquals("Chunked streams", streams + 1, WalrusDataGetStatistics.getStreams(WalrusDataGetStatistics.Mode.Chunked))
+    }
+
+    @Test
+    void testSslChunked() {
+        WalrusOutboundHandler.ZERO_COPY_GET = true
+        ChannelPipeline pipeline = Channels.pipeline()
+        pipeline.addLast("ssl", new SslHandler(SSLContext.getDefault().createSSLEngine()))
+        ChunkedDataFile data = new ChunkedDataFile(new RandomAccessFile(file, "r"), 0, 100, 8192)
+
+        write(pipeline, data)
+
+        assertSame("Chunked file written", data, writes[0])
+        writeFutures[0].setSuccess()
+    }
+
+    @Test
+    void testOtherInputChunked() {
+        WalrusOutboundHandler.ZERO_COPY_GET = true
+        boolean closed = false
+        ChunkedInput data = [close: { closed = true }] as ChunkedInput
+
+        write(Channels.pipeline(), data)
+
+        assertSame("Input written", data, writes[0])
+
+        writeFutures[0].setSuccess()
+
+        assertTrue("Input closed", closed)
+    }
+
+    private void write(ChannelPipeline pipeline, ChunkedInput data) {
+        Channel channel
+        channel = [
+            isWritable: { true },
+            write: { Object message ->
+                DefaultChannelFuture future = new DefaultChannelFuture(channel, false)
+                writes.add(message)
+                writeFutures.add(future)
+                future
+            },
+        ] as Channel
+        ChannelHandlerContext ctx = [
+            getChannel: { channel },
+            getPipeline: { pipeline },
+            sendDownstream: { event -> },
+        ] as ChannelHandlerContext
+        WalrusDataGetResponseType response = new WalrusDataGetResponseType()
+        response.setDataInputStream([data])
+        WalrusOutboundHandler handler = new WalrusOutboundHandler() {
+            @Override
+            protected DefaultHttpResponse createHttpResponse(WalrusDataGetResponseType reply) {
+                new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK)
+            }
+        }
+        handler.writeObjectStorageDataGetResponse(response, ctx)
+    }
+}